@@ -5,10 +5,13 @@ import com.google.common.collect.ImmutableList;
 import org.halfway.grapple.gui.BacktraceWindow;
 import org.halfway.grapple.gui.GrappleGuiApi;
 import org.halfway.grapple.gui.GrappleGuiApiImpl;
+import org.halfway.grapple.gui.HeadlessGuiApi;
 import org.halfway.grapple.gui.ProgressWindow;
 import org.halfway.grapple.impl.ConfigurationFactory;
 import org.halfway.grapple.impl.RuntimeContext;
+import org.halfway.grapple.impl.UpdatePlan;
 import org.halfway.grapple.model.GrappleFatalException;
+import org.halfway.grapple.model.IORuntimeException;
 import org.halfway.grapple.model.configuration.Configuration;
 import org.halfway.grapple.model.manifest.ManifestVerificationException;
 import org.halfway.grapple.stage.*;
@@ -17,6 +20,8 @@ import org.halfway.grapple.util.ScrollbackHandler;
 import org.halfway.grapple.util.UrlDownloader;
 
 import javax.swing.*;
+import java.io.PrintStream;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,6 +36,7 @@ public class Grapple {
     private final Configuration configuration;
     private final ScrollbackHandler scrollbackHandler;
     private final ImmutableList<LauncherStage> stages;
+    private final ImmutableList<LauncherStage> afterLaunchStages;
 
     private GrappleGuiApi guiApi = null;
     private RuntimeContext context = null;
@@ -42,18 +48,51 @@ public class Grapple {
         this.scrollbackHandler = scrollbackHandler;
         this.configuration = configuration;
         logger.info("Using " + configuration);
-        this.stages = ImmutableList.of(
-                new PrepareApplicationDirectoriesStage(configuration),
-                new FetchManifestStage(configuration, new UrlDownloader()),
-                new OfflineVerifyStage(configuration),
-                new UpdateStage(configuration, new UrlDownloader()),
-                new WriteManifestStage(),
-                new FinalStage(configuration));
+        if (configuration.isReadOnly()) {
+            // nothing is written to the content roots, so there is no update, trash or group to install
+            this.stages = ImmutableList.of(
+                    new PrepareApplicationDirectoriesStage(configuration),
+                    new FetchManifestStage(configuration, new UrlDownloader()),
+                    new OfflineVerifyStage(configuration),
+                    new FinalStage(configuration));
+            this.afterLaunchStages = ImmutableList.of();
+        } else if (configuration.isProgressiveLaunch()) {
+            // the manifests are only written and the versions switched once the background update has completed
+            this.stages = ImmutableList.of(
+                    new PrepareApplicationDirectoriesStage(configuration),
+                    new FetchManifestStage(configuration, new UrlDownloader()),
+                    new OfflineVerifyStage(configuration),
+                    new UpdateStage(configuration, new UrlDownloader()),
+                    new ListenForGroupRequestsStage(configuration, new UrlDownloader()),
+                    new FinalStage(configuration));
+            this.afterLaunchStages = ImmutableList.of(
+                    new BackgroundUpdateStage(),
+                    new WriteManifestStage(),
+                    new SwitchVersionStage(configuration),
+                    new CompleteUpdateStage(),
+                    new EmptyTrashStage(configuration, true),
+                    new ServeGroupRequestsStage());
+        } else {
+            this.stages = ImmutableList.of(
+                    new PrepareApplicationDirectoriesStage(configuration),
+                    new FetchManifestStage(configuration, new UrlDownloader()),
+                    new OfflineVerifyStage(configuration),
+                    new UpdateStage(configuration, new UrlDownloader()),
+                    new WriteManifestStage(),
+                    new SwitchVersionStage(configuration),
+                    new CompleteUpdateStage(),
+                    new ListenForGroupRequestsStage(configuration, new UrlDownloader()),
+                    new FinalStage(configuration));
+            this.afterLaunchStages = ImmutableList.of(
+                    new EmptyTrashStage(configuration, true),
+                    new ServeGroupRequestsStage());
+        }
     }
 
     /**
      * Entry point to Grapple. Configuration is currently managed via system properties
-     * {@link org.halfway.grapple.impl.ConfigurationFactory#fromSystemProperties()}
+     * {@link org.halfway.grapple.impl.ConfigurationFactory#fromSystemProperties()}, which also selects the headless
+     * {@link org.halfway.grapple.GrappleDaemon} or a dry run
      *
      * @param args Arguments passed to the JVM upon launch
      */
@@ -61,9 +100,53 @@ public class Grapple {
         ScrollbackHandler scrollbackHandler = new ScrollbackHandler(ConfigurationFactory.getBacktraceScrollback());
         Logging.initialize(scrollbackHandler);
         Configuration configuration = ConfigurationFactory.fromSystemProperties();
+        if (configuration.isDaemon()) {
+            System.exit(new GrappleDaemon(configuration).run() ? 0 : 1);
+        }
+        if (configuration.isDryRun()) {
+            System.exit(planUpdate(configuration, System.out) ? 0 : 1);
+        }
         new Grapple(scrollbackHandler, configuration).begin();
     }
 
+    /**
+     * Plan the update headless without running it, and print the plan of each content root. The plan is the output of
+     * the dry run, as properties under a comment naming the content root, while the log goes to the log handlers as
+     * for any other launch
+     *
+     * @param out Where the plan is printed
+     * @return true if the update was planned
+     */
+    private static boolean planUpdate(final Configuration configuration, final PrintStream out) {
+        logger.info("Using " + configuration);
+        final RuntimeContext context = new RuntimeContext(new HeadlessGuiApi());
+        final ImmutableList<LauncherStage> stages = ImmutableList.of(
+                new PrepareApplicationDirectoriesStage(configuration),
+                new FetchManifestStage(configuration, new UrlDownloader()),
+                new UpdateStage(configuration, new UrlDownloader()));
+        try {
+            for (final LauncherStage stage : stages) {
+                stage.burn(context);
+            }
+        } catch (final ManifestVerificationException e) {
+            logger.log(Level.SEVERE, "Manifest failed to verify", e);
+            return false;
+        } catch (final GrappleFatalException e) {
+            logger.log(Level.SEVERE, "Fatal exception occurred", e);
+            return false;
+        } catch (final IORuntimeException e) {
+            logger.log(Level.SEVERE, "I/O error occurred", e);
+            return false;
+        }
+        for (final UpdatePlan plan : context.getUpdatePlanMap().values()) {
+            out.println("# " + plan.getContentRoot());
+            for (final Map.Entry<String, String> entry : plan.report().entrySet()) {
+                out.println(entry.getKey() + "=" + entry.getValue());
+            }
+        }
+        return true;
+    }
+
     private void setUpNativeLookAndFeel() {
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -91,22 +174,49 @@ public class Grapple {
         guiApi.showProgressWindow();
     }
 
-    private void stagedLaunch() {
+    /**
+     * @return true if the application was launched
+     */
+    private boolean stagedLaunch() {
         try {
             for (final LauncherStage stage : stages) {
                 stage.burn(context);
             }
             guiApi.waitForProgressWindowClose();
+            return true;
         } catch (final ManifestVerificationException e) {
             logger.log(Level.SEVERE, "Manifest failed to verify", e);
+            CompleteUpdateStage.fail(context);
             guiApi.displayBacktrace(e.getMessage(), scrollbackHandler.getScrollback());
         } catch (final GrappleFatalException e) {
             logger.log(Level.SEVERE, "Fatal exception occurred", e);
+            CompleteUpdateStage.fail(context);
             guiApi.displayBacktrace(e.getMessage(), scrollbackHandler.getScrollback());
         } catch (final Throwable t) {
             logger.log(Level.SEVERE, "BUG: unknown error occurred", t);
+            CompleteUpdateStage.fail(context);
             guiApi.displayBacktrace("Unknown error", scrollbackHandler.getScrollback());
         }
+        return false;
+    }
+
+    /**
+     * Finish the work left after the launch: the background update of a progressive launch and the group requests of the
+     * application. The application is already running, so a failure is only logged and the next launch resumes the
+     * update
+     */
+    private void finishAfterLaunch() {
+        try {
+            for (final LauncherStage stage : afterLaunchStages) {
+                stage.burn(context);
+            }
+        } catch (final GrappleFatalException e) {
+            logger.log(Level.SEVERE, "Fatal exception occurred after the launch", e);
+            CompleteUpdateStage.fail(context);
+        } catch (final Throwable t) {
+            logger.log(Level.SEVERE, "BUG: unknown error occurred after the launch", t);
+            CompleteUpdateStage.fail(context);
+        }
     }
 
     /**
@@ -117,7 +227,9 @@ public class Grapple {
         setUpGuiApi();
         setUpRuntimeContext();
         makeProgress();
-        stagedLaunch();
+        if (stagedLaunch()) {
+            finishAfterLaunch();
+        }
     }
 
 }
@@ -0,0 +1,88 @@
+package org.halfway.grapple;
+
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import org.halfway.grapple.gui.HeadlessGuiApi;
+import org.halfway.grapple.impl.RuntimeContext;
+import org.halfway.grapple.model.GrappleFatalException;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.model.configuration.Configuration;
+import org.halfway.grapple.model.manifest.ManifestVerificationException;
+import org.halfway.grapple.stage.*;
+import org.halfway.grapple.util.UrlDownloader;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless mode of Grapple that installs new versions ahead of the launches, so that a launch only has to switch to the
+ * version that is already verified and can start at once.
+ * <p/>
+ * Each update runs the same stages as a launch up to verifying and writing the manifests, at low priority, and then
+ * stages the versions in their {@link org.halfway.grapple.impl.VersionedContentRoot}s instead of launching them. The
+ * daemon either updates once, to be run by a scheduler, or keeps updating at the configured interval.
+ */
+public class GrappleDaemon {
+    private final static Logger logger = Logger.getLogger(GrappleDaemon.class.getSimpleName());
+
+    private final Configuration configuration;
+    private final ImmutableList<LauncherStage> stages;
+
+    public GrappleDaemon(final Configuration configuration) {
+        Verify.verifyNotNull(configuration, "configuration must not be null");
+        Verify.verify(configuration.isDaemon(), "configuration must be that of a daemon");
+
+        this.configuration = configuration;
+        logger.info("Using " + configuration);
+        this.stages = ImmutableList.of(
+                new PrepareApplicationDirectoriesStage(configuration),
+                new FetchManifestStage(configuration, new UrlDownloader()),
+                new UpdateStage(configuration, new UrlDownloader()),
+                new WriteManifestStage(),
+                new SwitchVersionStage(configuration),
+                new CompleteUpdateStage(),
+                new EmptyTrashStage(configuration, false));
+    }
+
+    /**
+     * Update once, or at the configured interval until interrupted
+     *
+     * @return True if the last update succeeded
+     */
+    public boolean run() {
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        boolean updated = update();
+        while (configuration.getDaemonInterval().isPresent()) {
+            try {
+                TimeUnit.SECONDS.sleep(configuration.getDaemonInterval().get());
+            } catch (final InterruptedException e) {
+                logger.info("Daemon interrupted, stopping");
+                Thread.currentThread().interrupt();
+                break;
+            }
+            updated = update();
+        }
+        return updated;
+    }
+
+    private boolean update() {
+        final RuntimeContext context = new RuntimeContext(new HeadlessGuiApi());
+        try {
+            for (final LauncherStage stage : stages) {
+                stage.burn(context);
+            }
+            return true;
+        } catch (final ManifestVerificationException e) {
+            logger.log(Level.SEVERE, "Manifest failed to verify", e);
+        } catch (final GrappleFatalException e) {
+            logger.log(Level.SEVERE, "Fatal exception occurred", e);
+        } catch (final IORuntimeException e) {
+            logger.log(Level.SEVERE, "I/O error occurred", e);
+        } catch (final RuntimeException e) {
+            logger.log(Level.SEVERE, "BUG: unknown error occurred", e);
+        }
+        CompleteUpdateStage.fail(context);
+        return false;
+    }
+}
@@ -1,40 +1,83 @@
 package org.halfway.grapple;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.base.StandardSystemProperty;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.halfway.grapple.impl.*;
 import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.model.configuration.Platform;
+import org.halfway.grapple.model.configuration.StorageProfile;
+import org.halfway.grapple.model.manifest.AssetGroup;
 import org.halfway.grapple.model.manifest.GrappleManifest;
 import org.halfway.grapple.model.manifest.ManifestOrApplicationType;
+import org.halfway.grapple.model.manifest.ManifestVerificationException;
+import org.halfway.grapple.stage.UpdateStage;
+import org.halfway.grapple.util.DirectoryScanner;
 import org.halfway.grapple.util.ExecutorServiceBuilder;
 import org.halfway.grapple.util.FileIO;
 import org.halfway.grapple.util.Logging;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
- * Utility to create and verify grapple properties manifest files.
+ * Utility to create and verify grapple properties manifest files, to publish the deltas between them, to estimate
+ * the cost of updating from one to another or of updating a content root to one, to seal installed content roots for
+ * read-only launches and to serve content roots.
  *
  * @see org.halfway.grapple.ManifestTool#main(String[]) for usage
  */
 public class ManifestTool {
     private static final Logger logger = Logger.getLogger(ManifestTool.class.getSimpleName());
+    /**
+     * Option of the create action to replace an existing manifest, reusing the hashes of unchanged files
+     */
+    private static final String INCREMENTAL_OPTION = "--incremental";
+    /**
+     * Option of the create action followed by the properties file of the asset groups of the manifest
+     */
+    private static final String GROUPS_OPTION = "--groups=";
+    /**
+     * Option of the plan action followed by the number of bytes the update may download
+     */
+    private static final String BUDGET_OPTION = "--budget=";
+    private static final int SERVE_WORKERS_PER_PROCESSOR = 8;
     /**
      * Unset if an exception is required instead of a call to {@link java.lang.System#exit(int)} upon failure
      */
@@ -62,6 +105,21 @@ public class ManifestTool {
             case verify:
                 runVerifyAction(args.subList(1, args.size()));
                 break;
+            case delta:
+                runDeltaAction(args.subList(1, args.size()));
+                break;
+            case diff:
+                runDiffAction(args.subList(1, args.size()));
+                break;
+            case plan:
+                runPlanAction(args.subList(1, args.size()));
+                break;
+            case seal:
+                runSealAction(args.subList(1, args.size()));
+                break;
+            case serve:
+                runServeAction(args.subList(1, args.size()));
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown action type " + actionType);
         }
@@ -69,13 +127,24 @@ public class ManifestTool {
 
     /**
      * Usage:
-     * manifest create jvm /path/to/content bin/java.exe
-     * manifest create std /path/to/content
-     * manifest verify /path/to/content
+     * manifest create jvm /path/to/content bin/java.exe [--incremental] [--groups=/path/to/groups.properties]
+     * manifest create std /path/to/content [--incremental] [--groups=/path/to/groups.properties]
+     * manifest verify /path/to/content [auto|ssd|hdd|network]
+     * manifest delta /path/to/content /path/to/previous/content...
+     * manifest diff /path/or/url/to/previous /path/or/url/to/current
+     * manifest plan /path/or/url/to/manifest /path/to/installed/content [--budget=BYTES]
+     * manifest seal /path/to/installed/content /path/to/private.key
+     * manifest serve port /path/to/content...
      * manifest -h
      * <p/>
      * Options:
-     * -h      Show this screen
+     * -h              Show this screen
+     * --incremental   Replace the existing manifest, only hashing the files changed since it was created
+     * --groups=FILE   Declare the asset groups of the manifest from the
+     *                 group.NAME.(prefix|os|arch|java.path|critical|optional) properties in FILE, so that clients
+     *                 only install the groups of their platform, optional groups once requested, and can launch once
+     *                 the critical groups are ready
+     * --budget=BYTES  Fail the plan action if the update would download more than BYTES
      */
     public static void main(final String[] args) {
         Logging.initialize();
@@ -100,7 +169,11 @@ public class ManifestTool {
         }
     }
 
-    private void runCreateAction(final ImmutableList<String> args) {
+    private void runCreateAction(final ImmutableList<String> allArgs) {
+        final boolean incremental = allArgs.contains(INCREMENTAL_OPTION);
+        final ImmutableList<AssetGroup> assetGroups = readAssetGroups(Iterables.filter(allArgs, isGroupsOption()));
+        final ImmutableList<String> args = ImmutableList.copyOf(Iterables.filter(allArgs,
+                Predicates.not(Predicates.or(Predicates.equalTo(INCREMENTAL_OPTION), isGroupsOption()))));
         if (args.size() < 2) {
             helpAndExit(Optional.of("Error: please pass all arguments to create action"));
         }
@@ -117,7 +190,9 @@ public class ManifestTool {
 
         final ExecutorServiceBuilder executorServiceBuilder = new ExecutorServiceBuilder();
         final File contentPath = new File(pathToContent);
-        final File propertiesManifestFile = ensurePropertiesManifestExists(contentPath, false);
+        final File propertiesManifestFile = incremental ? new File(contentPath, GrapplePropertiesManifest.PROPERTIES_FILE) :
+                ensurePropertiesManifestExists(contentPath, false);
+        final AssetMetadataCache cache = readMetadataCache(contentPath, propertiesManifestFile, incremental);
 
         switch (applicationType) {
             case jvm:
@@ -125,26 +200,66 @@ public class ManifestTool {
                     helpAndExit(Optional.of("Error: please specify the path to java"));
                 }
                 final String javaPath = args.get(2);
-                createManifestForJvm(propertiesManifestFile, contentPath, javaPath, executorServiceBuilder);
+                createManifestForJvm(propertiesManifestFile, contentPath, javaPath, assetGroups, executorServiceBuilder, cache);
                 break;
             case std:
-                createManifestForStandalone(propertiesManifestFile, contentPath, executorServiceBuilder);
+                createManifestForStandalone(propertiesManifestFile, contentPath, assetGroups, executorServiceBuilder, cache);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown application type " + applicationType);
         }
     }
 
+    private static Predicate<String> isGroupsOption() {
+        return new Predicate<String>() {
+            @Override
+            public boolean apply(final String arg) {
+                return arg.startsWith(GROUPS_OPTION);
+            }
+        };
+    }
+
+    /**
+     * Read the asset groups from the properties files passed with {@link #GROUPS_OPTION}, ignoring any properties that
+     * do not describe a group
+     */
+    private ImmutableList<AssetGroup> readAssetGroups(final Iterable<String> groupsOptions) {
+        final Map<String, String> groupProperties = Maps.newHashMap();
+        for (final String option : groupsOptions) {
+            final File groupsFile = new File(option.substring(GROUPS_OPTION.length()));
+            if (!groupsFile.isFile()) {
+                exitWithError("Error: the groups file '" + groupsFile + "' does not exist");
+            }
+            for (final Map.Entry<String, String> entry : Maps.fromProperties(FileIO.readProperties(groupsFile)).entrySet()) {
+                if (entry.getKey().startsWith(GrapplePropertiesManifest.Format.GROUP_KEY_PREFIX)) {
+                    groupProperties.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        try {
+            return ManifestFromPropertiesMapBuilder.assetGroupsFromPropertiesMap(groupProperties);
+        } catch (final ManifestVerificationException e) {
+            exitWithError("Error: invalid asset groups", e);
+            throw new AssertionError("bug");
+        }
+    }
+
     private void runVerifyAction(final ImmutableList<String> args) {
-        if (args.size() != 1) {
+        if (args.size() != 1 && args.size() != 2) {
             helpAndExit(Optional.of("Error: please pass path to verify action"));
         }
+        final StorageProfile storageProfile;
+        try {
+            storageProfile = args.size() == 2 ? StorageProfile.valueOf(args.get(1)) : StorageProfile.auto;
+        } catch (final IllegalArgumentException ae) {
+            helpAndExit(Optional.of("Error: storage profile '" + args.get(1) + "' is invalid"));
+            throw new AssertionError("bug");
+        }
 
         final File contentRoot = new File(args.get(0));
         if (!contentRoot.isDirectory()) {
             exitWithError("Error: '" + contentRoot + "' is not a directory");
         }
-        final ExecutorServiceBuilder executorServiceBuilder = new ExecutorServiceBuilder();
         final File propertiesManifest = ensurePropertiesManifestExists(contentRoot, true);
         final GrappleManifest grappleManifest = GrapplePropertiesManifest
                 .fromPropertiesMap()
@@ -152,36 +267,311 @@ public class ManifestTool {
                 .build();
         final ManifestHasher manifestHasher = ManifestHasher.fromAlgorithm(grappleManifest.getHashAlgorithm());
         final ManifestAssetVerifier manifestAssetVerifier = new ManifestAssetVerifier(grappleManifest, contentRoot, manifestHasher);
-        final ImmutableList<AssetVerificationResult> results = verifyAssets(manifestAssetVerifier, executorServiceBuilder);
-        boolean fail = false;
-        for (final AssetVerificationResult result : results) {
-            if (result.getOutcome() != AssetVerificationResult.Outcome.OK) {
-                fail = true;
-                System.err.println(result.getAsset().getPath() + " failed to verify with outcome: " + result.getOutcome());
-            }
+        final VerificationSummary summary = verifyAssets(manifestAssetVerifier,
+                StorageDevice.of(ImmutableList.of(contentRoot), storageProfile).get(contentRoot));
+        for (final AssetVerificationResult result : summary.getFailures()) {
+            System.err.println(result.getAsset().getPath() + " failed to verify with outcome: " + result.getOutcome());
         }
-        if (fail) {
+        System.out.println(summary);
+        if (summary.getFailed() > 0) {
             exitWithError("Error: one or more files failed to verify");
         }
     }
 
+    /**
+     * Write a delta from the manifest of each previous content root to the manifest of the content root, so that
+     * clients on any of the previous versions only download the changed entries
+     */
+    private void runDeltaAction(final ImmutableList<String> args) {
+        if (args.size() < 2) {
+            helpAndExit(Optional.of("Error: please pass the path to the content and to at least one previous content to delta action"));
+        }
+        final File contentRoot = new File(args.get(0));
+        final ImmutableMap<String, String> currentProperties = Maps.fromProperties(
+                FileIO.readProperties(ensurePropertiesManifestExists(contentRoot, true)));
+        final File deltaDirectory = new File(contentRoot, ManifestDelta.DELTA_DIRECTORY);
+        if (!deltaDirectory.isDirectory() && !deltaDirectory.mkdirs()) {
+            exitWithError("Error: unable to create directory " + deltaDirectory);
+        }
+        for (final String previousPath : args.subList(1, args.size())) {
+            final ImmutableMap<String, String> previousProperties = Maps.fromProperties(
+                    FileIO.readProperties(ensurePropertiesManifestExists(new File(previousPath), true)));
+            final ImmutableSortedMap<String, String> delta = ManifestDelta.between(previousProperties, currentProperties);
+            final File deltaFile = new File(deltaDirectory,
+                    ManifestDelta.deltaFileName(previousProperties.get(GrapplePropertiesManifest.Key.HASH_KEY)));
+            final Properties properties = new Properties();
+            properties.putAll(delta);
+            FileIO.writeProperties(deltaFile, properties, generateManifestComments());
+            System.out.println(deltaFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * An incremental create reuses the hashes of the manifest being replaced for the files whose size and modification
+     * time are the same as when that manifest was created
+     */
+    private AssetMetadataCache readMetadataCache(final File contentRoot, final File propertiesManifestFile,
+                                                 final boolean incremental) {
+        if (!incremental || !propertiesManifestFile.isFile()) {
+            return AssetMetadataCache.empty();
+        }
+        final GrappleManifest previousManifest = GrapplePropertiesManifest
+                .fromPropertiesMap()
+                .properties(FileIO.readProperties(propertiesManifestFile))
+                .build();
+        return AssetMetadataCache.read(contentRoot, previousManifest.getAssets());
+    }
+
+    /**
+     * Print the difference between two manifests and the estimated cost of updating from one to the other as
+     * properties on standard output
+     *
+     * @see org.halfway.grapple.impl.ManifestDiff for the keys printed
+     */
+    private void runDiffAction(final ImmutableList<String> args) {
+        if (args.size() != 2) {
+            helpAndExit(Optional.of("Error: please pass the previous and the current manifest to diff action"));
+        }
+        final ManifestDiff diff = ManifestDiff.between(readManifest(args.get(0)), readManifest(args.get(1)));
+        final ImmutableSortedMap<String, String> report = diff.report(localContentRoot(args.get(0)),
+                localContentRoot(args.get(1)));
+        for (final Map.Entry<String, String> entry : report.entrySet()) {
+            System.out.println(escapeProperty(entry.getKey(), true) + "=" + escapeProperty(entry.getValue(), false));
+        }
+    }
+
+    /**
+     * Print the plan of updating an installed content root to a manifest, for the groups of the current platform and
+     * the optional groups installed in the content root. Like a launch with the default full verification policy, every
+     * asset whose file has the right size is hashed
+     *
+     * @see org.halfway.grapple.impl.UpdatePlan for the report
+     */
+    private void runPlanAction(final ImmutableList<String> allArgs) {
+        final ImmutableList<String> budgetOptions = ImmutableList.copyOf(Iterables.filter(allArgs, isBudgetOption()));
+        final ImmutableList<String> args = ImmutableList.copyOf(Iterables.filter(allArgs,
+                Predicates.not(isBudgetOption())));
+        if (args.size() != 2 || budgetOptions.size() > 1) {
+            helpAndExit(Optional.of("Error: please pass the manifest and the installed content root to plan action"));
+        }
+        final Optional<Long> budget = budgetOptions.isEmpty() ? Optional.<Long>absent() :
+                Optional.fromNullable(Longs.tryParse(budgetOptions.get(0).substring(BUDGET_OPTION.length())));
+        if (!budgetOptions.isEmpty() && (!budget.isPresent() || budget.get() < 0)) {
+            helpAndExit(Optional.of("Error: budget '" + budgetOptions.get(0) + "' is invalid"));
+        }
+        final File contentRoot = new File(args.get(1));
+        if (!contentRoot.isDirectory()) {
+            exitWithError("Error: '" + contentRoot + "' is not a directory");
+        }
+        final GrappleManifest manifest = AssetGroupSelection.select(readManifest(args.get(0)), Platform.current(),
+                InstalledGroups.in(contentRoot).read());
+        final int workers = ExecutorServiceBuilder.workerCount(Optional.<Integer>absent(),
+                UpdateStage.UPDATE_WORKERS_PER_PROCESSOR);
+        final ListeningExecutorService service = new ExecutorServiceBuilder().newListeningExecutorService();
+        final UpdatePlan plan;
+        try {
+            plan = new UpdatePlanner(new DirectoryScanner(service)).plan(manifest.getAssets(), contentRoot,
+                    Predicates.<GrappleAsset>alwaysTrue(), Predicates.<GrappleAsset>alwaysFalse(),
+                    UpdateThroughput.in(contentRoot), workers);
+        } finally {
+            waitOneSecondForStop(service);
+        }
+        for (final Map.Entry<String, String> entry : plan.report().entrySet()) {
+            System.out.println(escapeProperty(entry.getKey(), true) + "=" + escapeProperty(entry.getValue(), false));
+        }
+        if (budget.isPresent() && plan.bytes(UpdatePlan.Action.download) > budget.get()) {
+            exitWithError("Error: the update would download " + plan.bytes(UpdatePlan.Action.download) +
+                    " bytes, more than the budget of " + budget.get() + " bytes\n");
+        }
+    }
+
+    private static Predicate<String> isBudgetOption() {
+        return new Predicate<String>() {
+            @Override
+            public boolean apply(final String arg) {
+                return arg.startsWith(BUDGET_OPTION);
+            }
+        };
+    }
+
+    /**
+     * Hash all the assets installed in a content root for the platform of this machine and, if they all verify, write a
+     * {@link org.halfway.grapple.impl.SealStamp} signed with the PKCS#8 RSA private key so that clients can launch
+     * from it read-only without hashing it
+     */
+    private void runSealAction(final ImmutableList<String> args) {
+        if (args.size() != 2) {
+            helpAndExit(Optional.of("Error: please pass the installed content root and the private key to seal action"));
+        }
+        final File contentRoot = new File(args.get(0));
+        if (!contentRoot.isDirectory()) {
+            exitWithError("Error: '" + contentRoot + "' is not a directory");
+        }
+        final PrivateKey key;
+        try {
+            key = SealStamp.readPrivateKey(new File(args.get(1)));
+        } catch (final IORuntimeException e) {
+            exitWithError("Error: unable to read the private key", e);
+            throw new AssertionError("bug");
+        }
+        final File installedRoot = VersionedContentRoot.in(contentRoot).currentDirectory().or(contentRoot);
+        final GrappleManifest installedManifest = readManifest(installedRoot.getPath());
+        final GrappleManifest manifest = AssetGroupSelection.select(installedManifest, Platform.current(),
+                InstalledGroups.in(contentRoot).read());
+        final ManifestAssetVerifier verifier = new ManifestAssetVerifier(manifest, installedRoot,
+                ManifestHasher.fromAlgorithm(manifest.getHashAlgorithm()));
+        final VerificationSummary summary = verifyAssets(verifier,
+                StorageDevice.of(ImmutableList.of(installedRoot), StorageProfile.auto).get(installedRoot));
+        for (final AssetVerificationResult result : summary.getFailures()) {
+            System.err.println(result.getAsset().getPath() + " failed to verify with outcome: " + result.getOutcome());
+        }
+        System.out.println(summary);
+        if (summary.getFailed() > 0) {
+            exitWithError("Error: one or more files failed to verify, not sealing " + installedRoot);
+        }
+        final String manifestHash = GrapplePropertiesManifest.toPropertiesMap().from(installedManifest).build()
+                .get(GrapplePropertiesManifest.Key.HASH_KEY);
+        final SealStamp stamp = SealStamp.of(manifestHash, manifest, installedRoot);
+        stamp.writeTo(installedRoot, key);
+        System.out.println(new File(installedRoot, SealStamp.NAME).getAbsolutePath());
+    }
+
+    /**
+     * Serve content roots over HTTP until the process is stopped. A single content root is served at {@code /} and
+     * several content roots each under the name of their directory
+     *
+     * @see org.halfway.grapple.impl.AssetServer
+     */
+    private void runServeAction(final ImmutableList<String> args) {
+        if (args.size() < 2) {
+            helpAndExit(Optional.of("Error: please pass the port and at least one content root to serve action"));
+        }
+        final Integer port = Ints.tryParse(args.get(0));
+        if (port == null || port < 0 || port > 0xffff) {
+            helpAndExit(Optional.of("Error: port '" + args.get(0) + "' is invalid"));
+            throw new AssertionError("bug");
+        }
+        final ImmutableMap.Builder<String, File> mounts = ImmutableMap.builder();
+        for (final String path : args.subList(1, args.size())) {
+            final File contentRoot = new File(path);
+            if (!contentRoot.isDirectory()) {
+                exitWithError("Error: '" + contentRoot + "' is not a directory");
+            }
+            mounts.put(args.size() == 2 ? "/" : "/" + contentRoot.getAbsoluteFile().getName() + "/", contentRoot);
+        }
+        final int workers = ExecutorServiceBuilder.workerCount(Optional.<Integer>absent(), SERVE_WORKERS_PER_PROCESSOR);
+        final AssetServer server = new AssetServer(new InetSocketAddress(port), mounts.build(),
+                new ExecutorServiceBuilder()
+                        .withPoolSize(Optional.of(workers))
+                        .withThreadFactoryBuilder(Optional.of(new ThreadFactoryBuilder().setNameFormat("serve-%1$s")))
+                        .newListeningExecutorService());
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop(1);
+                // logging may already be shut down by its own hook
+                System.out.println(server.summary());
+            }
+        });
+        server.start();
+        for (final Map.Entry<String, File> mount : mounts.build().entrySet()) {
+            System.out.println("http://localhost:" + server.getPort() + mount.getKey() + " -> " + mount.getValue().getAbsolutePath());
+        }
+    }
+
+    /**
+     * Read a manifest from a content root or manifest file, given either as a path or as an http(s) url. A content
+     * root is read from its properties manifest
+     */
+    private GrappleManifest readManifest(final String location) {
+        final boolean remote = location.startsWith("http://") || location.startsWith("https://");
+        final String name = location.substring(location.lastIndexOf('/') + 1);
+        final boolean isManifest = name.equals(GrapplePropertiesManifest.PROPERTIES_FILE) ||
+                name.equals(GrappleBinaryManifest.MANIFEST_FILE) || (!remote && new File(location).isFile());
+        final String manifestLocation = isManifest ? location :
+                (location.endsWith("/") ? location : location + "/") + GrapplePropertiesManifest.PROPERTIES_FILE;
+        final byte[] bytes;
+        try {
+            bytes = remote ? Resources.toByteArray(new URL(manifestLocation)) :
+                    Files.toByteArray(new File(manifestLocation));
+        } catch (final IOException e) {
+            exitWithError("Error: unable to read manifest " + manifestLocation, e);
+            throw new AssertionError("bug");
+        }
+        if (manifestLocation.endsWith(GrappleBinaryManifest.MANIFEST_FILE)) {
+            return GrappleBinaryManifest.fromBuffer(ByteBuffer.wrap(bytes));
+        }
+        final Properties properties = new Properties();
+        try {
+            properties.load(new ByteArrayInputStream(bytes));
+        } catch (final IOException e) {
+            exitWithError("Error: unable to parse manifest " + manifestLocation, e);
+        }
+        return GrapplePropertiesManifest.fromPropertiesMap().properties(properties).build();
+    }
+
+    private Optional<File> localContentRoot(final String location) {
+        final File file = new File(location);
+        if (file.isDirectory()) {
+            return Optional.of(file);
+        } else if (file.isFile()) {
+            return Optional.fromNullable(file.getAbsoluteFile().getParentFile());
+        }
+        return Optional.absent();
+    }
+
+    private static String escapeProperty(final String value, final boolean isKey) {
+        final StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '=':
+                case ':':
+                case ' ':
+                case '#':
+                case '!':
+                    if (isKey || i == 0) {
+                        escaped.append('\\');
+                    }
+                    escaped.append(c);
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
     private void createManifestForJvm(final File manifestFile, final File contentRoot, final String javaPath,
-                                      final ExecutorServiceBuilder executorServiceBuilder) {
+                                      final ImmutableList<AssetGroup> assetGroups,
+                                      final ExecutorServiceBuilder executorServiceBuilder, final AssetMetadataCache cache) {
         final File java = new File(contentRoot, javaPath);
         if (!java.isFile()) {
             exitWithError("Error: java is not a file: " + java);
         }
         final ImmutableMap<String, String> manifestPropertiesMap = newManifestBuilderFromRoot(ManifestOrApplicationType.jvm,
-                contentRoot, executorServiceBuilder)
+                contentRoot, executorServiceBuilder, cache)
                 .withJavaPath(javaPath)
+                .withAssetGroups(assetGroups)
                 .build();
         writeManifestProperties(manifestFile, manifestPropertiesMap);
     }
 
     private void createManifestForStandalone(final File manifestFile, final File contentRoot,
-                                             final ExecutorServiceBuilder executorServiceBuilder) {
+                                             final ImmutableList<AssetGroup> assetGroups,
+                                             final ExecutorServiceBuilder executorServiceBuilder, final AssetMetadataCache cache) {
         final ImmutableMap<String, String> manifestProperties = newManifestBuilderFromRoot(ManifestOrApplicationType.std,
-                contentRoot, executorServiceBuilder)
+                contentRoot, executorServiceBuilder, cache)
+                .withAssetGroups(assetGroups)
                 .build();
         writeManifestProperties(manifestFile, manifestProperties);
     }
@@ -195,62 +585,105 @@ public class ManifestTool {
     private File ensurePropertiesManifestExists(final File contentRoot, final boolean shouldExist) {
         final File manifestFile = new File(contentRoot, GrapplePropertiesManifest.PROPERTIES_FILE);
         if (!shouldExist && manifestFile.exists()) {
-            exitWithError("Error: The manifest file '" + manifestFile + "' already exists. Delete it and try again.");
+            exitWithError("Error: The manifest file '" + manifestFile + "' already exists. Delete it or pass " +
+                    INCREMENTAL_OPTION + " and try again.");
         } else if (shouldExist && !manifestFile.exists()) {
             exitWithError("Error: The manifest file '" + manifestFile + "' does not exist");
         }
         return manifestFile;
     }
 
-    private Callable<GrappleAsset> newFileHashComputation(final ManifestHasher manifestHasher, final File contentRoot,
+    private Callable<GrappleAsset> newFileHashComputation(final ManifestHasher manifestHasher, final String path,
                                                           final File file) {
         return new Callable<GrappleAsset>() {
             @Override
             public GrappleAsset call() throws Exception {
-                return new GrappleAsset(FileIO.relativize(contentRoot, file), file.length(), manifestHasher.hashFile(file));
+                return new GrappleAsset(path, file.length(), manifestHasher.hashFile(file));
             }
         };
     }
 
     private ImmutableList<GrappleAsset> computeFileHashes(final File contentRoot, final PropertiesMapFromManifestBuilder builder,
-                                                          final ExecutorServiceBuilder executorServiceBuilder) {
+                                                          final ExecutorServiceBuilder executorServiceBuilder,
+                                                          final AssetMetadataCache cache) {
         final ListeningExecutorService service = executorServiceBuilder.newListeningExecutorService();
         try {
-            final Iterable<File> allFiles = FileIO.findInDirectory(contentRoot);
-            final Iterable<Callable<GrappleAsset>> hashComputations = Iterables.transform(allFiles,
-                    new Function<File, Callable<GrappleAsset>>() {
-                        @Override
-                        public Callable<GrappleAsset> apply(final File file) {
-                            return newFileHashComputation(builder.getManifestHasher(), contentRoot, file);
-                        }
-                    });
-
-            final ListenableFuture<List<GrappleAsset>> futureFileList = Futures.allAsList(
-                    ImmutableList.copyOf(ExecutorServiceBuilder.submitTasks(service, hashComputations.iterator())));
+            final long scanStarted = System.currentTimeMillis();
+            // the manifest files left over from a previous run are replaced rather than becoming assets
+            final Predicate<File> isGenerated = isGeneratedManifestFile(contentRoot);
+            final Map<String, String> metadata = new ConcurrentHashMap<String, String>();
+            final List<ListenableFuture<GrappleAsset>> futures = Collections.synchronizedList(
+                    Lists.<ListenableFuture<GrappleAsset>>newArrayList());
+            final AtomicInteger reused = new AtomicInteger();
+            // files are hashed on the same service while the rest of the tree is still being scanned
+            new DirectoryScanner(service).scan(contentRoot, new Function<DirectoryScanner.ScannedFile, Object>() {
+                @Override
+                public Object apply(final DirectoryScanner.ScannedFile file) {
+                    if (isGenerated.apply(file.getFile())) {
+                        return null;
+                    }
+                    // read before hashing so that a file modified while it is hashed is hashed again next time
+                    final String fileMetadata = AssetMetadataCache.metadataOf(file.getSize(), file.getLastModified());
+                    metadata.put(file.getPath(), fileMetadata);
+                    final Optional<GrappleAsset> previous = cache.reuse(file.getPath(), fileMetadata);
+                    if (previous.isPresent()) {
+                        futures.add(Futures.immediateFuture(previous.get()));
+                        reused.incrementAndGet();
+                    } else {
+                        futures.add(service.submit(newFileHashComputation(builder.getManifestHasher(), file.getPath(),
+                                file.getFile())));
+                    }
+                    return null;
+                }
+            });
 
             final List<GrappleAsset> fileList;
             try {
-                fileList = futureFileList.get();
+                fileList = Futures.allAsList(futures).get();
             } catch (final InterruptedException e) {
                 Thread.currentThread().interrupt();
                 throw new AssertionError("bug");
             } catch (final ExecutionException e) {
                 throw new RuntimeException("Unknown error while trying to hash files in " + contentRoot, e);
             }
+            AssetMetadataCache.write(contentRoot, metadata, scanStarted);
+            System.out.println("Reused the hashes of " + reused.get() + " files and hashed " +
+                    (futures.size() - reused.get()) + " files");
             return ImmutableList.copyOf(fileList);
         } finally {
             waitOneSecondForStop(service);
         }
     }
 
-    private ImmutableList<AssetVerificationResult> verifyAssets(final ManifestAssetVerifier verifier,
-                                                                final ExecutorServiceBuilder executorServiceBuilder) {
-        final ListeningExecutorService service = executorServiceBuilder.newListeningExecutorService();
+    private Predicate<File> isGeneratedManifestFile(final File contentRoot) {
+        final File propertiesManifestFile = new File(contentRoot, GrapplePropertiesManifest.PROPERTIES_FILE);
+        final File binaryManifestFile = new File(contentRoot, GrappleBinaryManifest.MANIFEST_FILE);
+        final File cacheFile = new File(contentRoot, AssetMetadataCache.NAME);
+        final File sealFile = new File(contentRoot, SealStamp.NAME);
+        final File treeRootFile = new File(contentRoot, ManifestTree.ROOT_FILE);
+        final File treeDirectory = new File(contentRoot, ManifestTree.TREE_DIRECTORY);
+        final File hashFile = new File(contentRoot, ManifestDelta.HASH_FILE);
+        final File deltaDirectory = new File(contentRoot, ManifestDelta.DELTA_DIRECTORY);
+        return new Predicate<File>() {
+            @Override
+            public boolean apply(final File file) {
+                return file.equals(propertiesManifestFile) || file.equals(binaryManifestFile) ||
+                        file.equals(treeRootFile) || file.equals(hashFile) || file.equals(cacheFile) ||
+                        file.equals(sealFile) ||
+                        treeDirectory.equals(file.getParentFile()) || deltaDirectory.equals(file.getParentFile());
+            }
+        };
+    }
+
+    private VerificationSummary verifyAssets(final ManifestAssetVerifier verifier, final StorageDevice device) {
+        final int workers = device.readWorkers(ExecutorServiceBuilder.workerCount(Optional.<Integer>absent(), 1));
+        final ListeningExecutorService service = new ExecutorServiceBuilder()
+                .withPoolSize(Optional.of(workers))
+                .newListeningExecutorService();
         try {
-            final ListenableFuture<List<AssetVerificationResult>> future = Futures.allAsList(verifier.verifyAll(service));
+            final BatchedAssetScheduler scheduler = new BatchedAssetScheduler(service, workers);
             try {
-                final List<AssetVerificationResult> results = future.get();
-                return ImmutableList.copyOf(results);
+                return verifier.verifyAll(scheduler).get();
             } catch (final InterruptedException e) {
                 Thread.currentThread().interrupt();
                 throw new AssertionError("bug");
@@ -263,12 +696,13 @@ public class ManifestTool {
     }
 
     private PropertiesMapFromManifestBuilder newManifestBuilderFromRoot(
-            final ManifestOrApplicationType applicationType, final File contentRoot, final ExecutorServiceBuilder executorServiceBuilder) {
+            final ManifestOrApplicationType applicationType, final File contentRoot,
+            final ExecutorServiceBuilder executorServiceBuilder, final AssetMetadataCache cache) {
         PropertiesMapFromManifestBuilder propertiesMapFromManifestBuilder = GrapplePropertiesManifest.
                 toPropertiesMap().
                 type(applicationType);
         return propertiesMapFromManifestBuilder.
-                putApplicationFiles(computeFileHashes(contentRoot, propertiesMapFromManifestBuilder, executorServiceBuilder));
+                putApplicationFiles(computeFileHashes(contentRoot, propertiesMapFromManifestBuilder, executorServiceBuilder, cache));
     }
 
     private String generateManifestComments() {
@@ -287,18 +721,48 @@ public class ManifestTool {
         properties.putAll(manifestProperties);
         FileIO.writeProperties(manifestFile, properties, generateManifestComments());
         System.out.println(manifestFile.getAbsolutePath());
+
+        final File binaryManifestFile = new File(manifestFile.getParentFile(), GrappleBinaryManifest.MANIFEST_FILE);
+        final GrappleManifest manifest = GrapplePropertiesManifest.fromPropertiesMap().map(manifestProperties).build();
+        FileIO.writeBytes(binaryManifestFile, GrappleBinaryManifest.toBytes(manifest, manifestProperties));
+        System.out.println(binaryManifestFile.getAbsolutePath());
+
+        final File contentRoot = manifestFile.getParentFile();
+        final ManifestTree tree = ManifestTree.fromAssets(manifest.getAssets(),
+                ManifestHasher.fromAlgorithm(manifest.getHashAlgorithm()));
+        tree.writeNodes(new File(contentRoot, ManifestTree.TREE_DIRECTORY));
+        final File treeRootFile = new File(contentRoot, ManifestTree.ROOT_FILE);
+        final Properties treeRootProperties = new Properties();
+        treeRootProperties.putAll(tree.rootProperties(manifestProperties));
+        FileIO.writeProperties(treeRootFile, treeRootProperties, generateManifestComments());
+        System.out.println(treeRootFile.getAbsolutePath());
+
+        final File hashFile = new File(contentRoot, ManifestDelta.HASH_FILE);
+        FileIO.writeBytes(hashFile, (manifestProperties.get(GrapplePropertiesManifest.Key.HASH_KEY) + "\n").getBytes(Charsets.US_ASCII));
+        System.out.println(hashFile.getAbsolutePath());
     }
 
 
     private void helpAndExit(Optional<String> message) {
         final String usage = "Usage:\n" +
-                "   manifest create jvm /path/to/content bin/java.exe\n" +
-                "   manifest create std /path/to/content\n" +
-                "   manifest verify /path/to/content\n" +
+                "   manifest create jvm /path/to/content bin/java.exe [--incremental] [--groups=/path/to/groups.properties]\n" +
+                "   manifest create std /path/to/content [--incremental] [--groups=/path/to/groups.properties]\n" +
+                "   manifest verify /path/to/content [auto|ssd|hdd|network]\n" +
+                "   manifest delta /path/to/content /path/to/previous/content...\n" +
+                "   manifest diff /path/or/url/to/previous /path/or/url/to/current\n" +
+                "   manifest plan /path/or/url/to/manifest /path/to/installed/content [--budget=BYTES]\n" +
+                "   manifest seal /path/to/installed/content /path/to/private.key\n" +
+                "   manifest serve port /path/to/content...\n" +
                 "   manifest -h\n" +
                 "\n" +
                 " Options:\n" +
-                "   -h          Show this screen";
+                "   -h              Show this screen\n" +
+                "   --incremental   Replace the existing manifest, only hashing the files changed since it was created\n" +
+                "   --groups=FILE   Declare the asset groups of the manifest from the\n" +
+                "                   group.NAME.(prefix|os|arch|java.path|critical|optional) properties in FILE, so that\n" +
+                "                   clients only install the groups of their platform, optional groups once requested,\n" +
+                "                   and can launch once the critical groups are ready\n" +
+                "   --budget=BYTES  Fail the plan action if the update would download more than BYTES";
         if (message.isPresent()) {
             System.err.println(message.get());
         }
@@ -308,6 +772,11 @@ public class ManifestTool {
     private static enum ActionType {
         create,
         verify,
+        delta,
+        diff,
+        plan,
+        seal,
+        serve,
     }
 
 }
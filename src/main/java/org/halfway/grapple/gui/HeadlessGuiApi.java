@@ -0,0 +1,36 @@
+package org.halfway.grapple.gui;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import java.util.logging.Logger;
+
+/**
+ * GUI API that displays nothing and only logs the progress, for running without a display such as in the
+ * {@link org.halfway.grapple.GrappleDaemon daemon}.
+ */
+public class HeadlessGuiApi implements GrappleGuiApi {
+    private static final Logger logger = Logger.getLogger(HeadlessGuiApi.class.getName());
+
+    @Override
+    public void showProgressWindow() {
+        // no-op
+    }
+
+    @Override
+    public void displayBacktrace(final String message, final ImmutableList<String> scrollback) {
+        logger.severe(message);
+    }
+
+    @Override
+    public void waitForProgressWindowClose() {
+        // no-op
+    }
+
+    @Override
+    public void notifyProgress(final int percentage, final Optional<String> message) {
+        if (message.isPresent()) {
+            logger.info(percentage + "% " + message.get());
+        }
+    }
+}
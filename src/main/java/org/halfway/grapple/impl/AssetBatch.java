@@ -0,0 +1,100 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.halfway.grapple.model.GrappleAsset;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A group of assets that is processed as a single task. Batches keep assets of the same directory together for
+ * locality and are cut by a byte budget so that many small files share the scheduling cost of one task while large
+ * files end up in batches of their own.
+ */
+public class AssetBatch {
+    private static final Comparator<GrappleAsset> DIRECTORY_ORDER = new Comparator<GrappleAsset>() {
+        @Override
+        public int compare(final GrappleAsset a, final GrappleAsset b) {
+            final int byDirectory = parentOf(a.getPath()).compareTo(parentOf(b.getPath()));
+            return byDirectory != 0 ? byDirectory : a.getPath().compareTo(b.getPath());
+        }
+    };
+
+    private final ImmutableList<GrappleAsset> assets;
+    private final long bytes;
+
+    private AssetBatch(final ImmutableList<GrappleAsset> assets, final long bytes) {
+        this.assets = assets;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Split the assets into batches grouped by directory.
+     *
+     * @param assets      The assets to split
+     * @param targetBytes The number of bytes after which a batch is cut
+     * @param maxAssets   The maximum number of assets in a batch, which bounds the work of a batch of empty files
+     * @return The batches in directory order
+     */
+    public static ImmutableList<AssetBatch> partition(final Iterable<GrappleAsset> assets, final long targetBytes,
+                                                      final int maxAssets) {
+        Verify.verify(targetBytes > 0, "target bytes must be positive");
+        Verify.verify(maxAssets > 0, "max assets must be positive");
+
+        final List<GrappleAsset> sorted = Lists.newArrayList(assets);
+        Collections.sort(sorted, DIRECTORY_ORDER);
+
+        final ImmutableList.Builder<AssetBatch> batches = ImmutableList.builder();
+        ImmutableList.Builder<GrappleAsset> current = ImmutableList.builder();
+        int currentAssets = 0;
+        long currentBytes = 0;
+        String currentDirectory = null;
+        for (final GrappleAsset asset : sorted) {
+            final String directory = parentOf(asset.getPath());
+            final boolean full = currentBytes >= targetBytes || currentAssets >= maxAssets;
+            // only start a new batch on a change of directory if the current one is reasonably full
+            final boolean changedDirectory = currentDirectory != null && !currentDirectory.equals(directory) &&
+                    currentBytes >= targetBytes / 2;
+            if (currentAssets > 0 && (full || changedDirectory)) {
+                batches.add(new AssetBatch(current.build(), currentBytes));
+                current = ImmutableList.builder();
+                currentAssets = 0;
+                currentBytes = 0;
+            }
+            current.add(asset);
+            currentAssets += 1;
+            currentBytes += asset.getSize();
+            currentDirectory = directory;
+        }
+        if (currentAssets > 0) {
+            batches.add(new AssetBatch(current.build(), currentBytes));
+        }
+        return batches.build();
+    }
+
+    /**
+     * Pick a byte budget per batch so that there are several batches for each worker to balance the load, bounded
+     * so that batches are neither tiny nor so large that a single worker ends up with the tail of the work.
+     */
+    public static long targetBytes(final long totalBytes, final int workers, final long minBytes, final long maxBytes) {
+        Verify.verify(workers > 0, "workers must be positive");
+        final long perWorker = totalBytes / (workers * 8L);
+        return Math.min(maxBytes, Math.max(minBytes, perWorker));
+    }
+
+    private static String parentOf(final String path) {
+        final int separator = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        return separator < 0 ? "" : path.substring(0, separator);
+    }
+
+    public ImmutableList<GrappleAsset> getAssets() {
+        return assets;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,162 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.GrappleFatalException;
+import org.halfway.grapple.model.configuration.Platform;
+import org.halfway.grapple.model.manifest.AssetGroup;
+import org.halfway.grapple.model.manifest.AssetTable;
+import org.halfway.grapple.model.manifest.GrappleManifest;
+import org.halfway.grapple.model.manifest.JvmManifest;
+import org.halfway.grapple.model.manifest.StandaloneManifest;
+
+import java.util.logging.Logger;
+
+/**
+ * Selects the assets of a manifest that are installed on a {@link org.halfway.grapple.model.configuration.Platform},
+ * which are those outside of every {@link org.halfway.grapple.model.manifest.AssetGroup} and those of the groups that
+ * match the platform, leaving out the optional groups that were not requested.
+ * <p/>
+ * The selected manifest only keeps the selected groups and is only used to update, verify and launch the
+ * application: the manifest written to the content root stays the one published by the server, so that its hash,
+ * deltas and tree can still be compared with those of the next update.
+ */
+public class AssetGroupSelection {
+    private static final Logger logger = Logger.getLogger(AssetGroupSelection.class.getName());
+
+    private AssetGroupSelection() {
+        // no-op
+    }
+
+    /**
+     * Select the assets of the manifest for the platform and the requested optional groups
+     *
+     * @param optionalGroups The names of the optional groups that were requested, as recorded in
+     *                       {@link org.halfway.grapple.impl.InstalledGroups}
+     * @return The manifest itself if it has no groups, otherwise a manifest of the same type with only the selected
+     * assets and groups. For {@link org.halfway.grapple.model.manifest.JvmManifest}s the path to 'java' is that of the first
+     * selected group that has one, or else that of the manifest
+     * @throws org.halfway.grapple.model.GrappleFatalException if the selected assets of a jvm manifest have no 'java'
+     */
+    public static GrappleManifest select(final GrappleManifest manifest, final Platform platform,
+                                         final ImmutableSet<String> optionalGroups) {
+        Verify.verifyNotNull(platform, "platform must not be null");
+        Verify.verifyNotNull(optionalGroups, "optional groups must not be null");
+        final ImmutableList<AssetGroup> groups = manifest.getAssetGroups();
+        if (groups.isEmpty()) {
+            return manifest;
+        }
+        final AssetTable assets = manifest.getAssets();
+        final AssetTable.Builder selected = AssetTable.builder();
+        long selectedSize = 0;
+        long totalSize = 0;
+        for (int i = 0; i < assets.size(); i++) {
+            final String path = assets.getPath(i);
+            final Optional<AssetGroup> group = groupOf(groups, path);
+            totalSize += assets.getSize(i);
+            if (!group.isPresent() || isSelected(group.get(), platform, optionalGroups)) {
+                selected.add(assets.get(i));
+                selectedSize += assets.getSize(i);
+            }
+        }
+        final AssetTable selectedAssets = selected.build();
+        final ImmutableList<AssetGroup> selectedGroups = selectedGroups(groups, platform, optionalGroups);
+        logger.info("Selected asset groups " + namesOf(selectedGroups) + " for platform " + platform +
+                ": " + selectedAssets.size() + " of " + assets.size() + " assets, " + selectedSize + " of " +
+                totalSize + " bytes");
+
+        switch (manifest.getManifestType()) {
+            case jvm:
+                return selectJvmManifest((JvmManifest) manifest, selectedAssets, selectedGroups, platform);
+            case std:
+                return new StandaloneManifest(selectedAssets, selectedGroups, manifest.getHashAlgorithm());
+            default:
+                throw new UnsupportedOperationException("Unknown application type " + manifest.getManifestType());
+        }
+    }
+
+    /**
+     * @return true if the assets of the group are installed on the platform
+     */
+    public static boolean isSelected(final AssetGroup group, final Platform platform,
+                                     final ImmutableSet<String> optionalGroups) {
+        return group.matches(platform) && (!group.isOptional() || optionalGroups.contains(group.getName()));
+    }
+
+    /**
+     * @return The group with the longest prefix that the path is under, if any
+     */
+    public static Optional<AssetGroup> groupOf(final Iterable<AssetGroup> groups, final String path) {
+        AssetGroup longest = null;
+        for (final AssetGroup group : groups) {
+            if (group.contains(path) && (longest == null || group.getPrefix().length() > longest.getPrefix().length())) {
+                longest = group;
+            }
+        }
+        return Optional.fromNullable(longest);
+    }
+
+    /**
+     * @return A predicate for the assets in the launch-critical groups of the manifest, or absent if it has none, in
+     * which case every asset is critical
+     */
+    public static Optional<Predicate<GrappleAsset>> criticalAssets(final GrappleManifest manifest) {
+        final ImmutableList<AssetGroup> groups = manifest.getAssetGroups();
+        boolean anyCritical = false;
+        for (final AssetGroup group : groups) {
+            anyCritical |= group.isCritical();
+        }
+        if (!anyCritical) {
+            return Optional.absent();
+        }
+        return Optional.<Predicate<GrappleAsset>>of(new Predicate<GrappleAsset>() {
+            @Override
+            public boolean apply(final GrappleAsset asset) {
+                final Optional<AssetGroup> group = groupOf(groups, asset.getPath());
+                return group.isPresent() && group.get().isCritical();
+            }
+        });
+    }
+
+    private static JvmManifest selectJvmManifest(final JvmManifest manifest, final AssetTable selectedAssets,
+                                                 final ImmutableList<AssetGroup> selectedGroups,
+                                                 final Platform platform) {
+        String javaPath = manifest.getJavaPath();
+        for (final AssetGroup group : selectedGroups) {
+            if (group.getJavaPath().isPresent()) {
+                javaPath = group.getJavaPath().get();
+                break;
+            }
+        }
+        try {
+            return new JvmManifest(selectedAssets, selectedGroups, manifest.getHashAlgorithm(),
+                    Optional.of(javaPath));
+        } catch (final IllegalArgumentException e) {
+            throw new GrappleFatalException("The jvm manifest has no 'java' at '" + javaPath + "' for platform " +
+                    platform);
+        }
+    }
+
+    private static ImmutableList<AssetGroup> selectedGroups(final Iterable<AssetGroup> groups, final Platform platform,
+                                                            final ImmutableSet<String> optionalGroups) {
+        final ImmutableList.Builder<AssetGroup> selected = ImmutableList.builder();
+        for (final AssetGroup group : groups) {
+            if (isSelected(group, platform, optionalGroups)) {
+                selected.add(group);
+            }
+        }
+        return selected.build();
+    }
+
+    private static ImmutableList<String> namesOf(final Iterable<AssetGroup> groups) {
+        final ImmutableList.Builder<String> names = ImmutableList.builder();
+        for (final AssetGroup group : groups) {
+            names.add(group.getName());
+        }
+        return names.build();
+    }
+}
@@ -0,0 +1,127 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.manifest.AssetTable;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The size and modification time of each file of a content root when the {@link org.halfway.grapple.ManifestTool}
+ * last hashed it, so that an incremental create can take the hash of every file that has not been touched since from
+ * the previous manifest instead of hashing it again.
+ * <p/>
+ * The cache is a properties file of {@code file.<path>=size:mtime} entries plus the time the scan started. A file
+ * modified within {@link #MTIME_GRANULARITY_MS} of that time may have changed again after its modification time was
+ * read without the modification time changing, so its entry is never trusted.
+ */
+public class AssetMetadataCache {
+    /**
+     * Name of the cache on the file system
+     */
+    public static final String NAME = "grapple.cache.properties";
+    /**
+     * The coarsest modification time resolution of the file systems in use (FAT)
+     */
+    static final long MTIME_GRANULARITY_MS = 2000;
+    private static final String SCAN_STARTED_KEY = "scan.started";
+
+    private final AssetTable previousAssets;
+    private final ImmutableMap<String, String> metadata;
+    private final long scanStarted;
+
+    private AssetMetadataCache(final AssetTable previousAssets,
+                               final ImmutableMap<String, String> metadata, final long scanStarted) {
+        this.previousAssets = previousAssets;
+        this.metadata = metadata;
+        this.scanStarted = scanStarted;
+    }
+
+    /**
+     * @return A cache that never reuses a hash
+     */
+    public static AssetMetadataCache empty() {
+        return new AssetMetadataCache(AssetTable.of(), ImmutableMap.<String, String>of(), 0);
+    }
+
+    /**
+     * Read the cache of a content root
+     *
+     * @param contentRoot    The content root
+     * @param previousAssets The assets of the manifest that was created together with the cache
+     * @return The cache, which is empty if there is no cache file
+     */
+    public static AssetMetadataCache read(final File contentRoot, final AssetTable previousAssets) {
+        Verify.verifyNotNull(contentRoot, "content root must not be null");
+        final File file = new File(contentRoot, NAME);
+        if (!file.isFile()) {
+            return empty();
+        }
+        final Map<String, String> properties = Maps.fromProperties(FileIO.readProperties(file));
+        final Long scanStarted = properties.containsKey(SCAN_STARTED_KEY) ? Longs.tryParse(properties.get(SCAN_STARTED_KEY)) : null;
+        if (scanStarted == null) {
+            return empty();
+        }
+        final ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+        for (final Map.Entry<String, String> entry : properties.entrySet()) {
+            if (entry.getKey().startsWith(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX)) {
+                metadata.put(entry.getKey().substring(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX.length()), entry.getValue());
+            }
+        }
+        return new AssetMetadataCache(previousAssets, metadata.build(), scanStarted);
+    }
+
+    /**
+     * @param size         The size of a file
+     * @param lastModified The modification time of the file
+     * @return The size and modification time of the file as stored in the cache
+     */
+    public static String metadataOf(final long size, final long lastModified) {
+        return GrapplePropertiesManifest.Format.HASH_JOINER.join(size, lastModified);
+    }
+
+    /**
+     * @param path     The path of the file relative to the content root
+     * @param metadata The current {@link #metadataOf(long, long) metadata} of the file
+     * @return The asset of the previous manifest if the file has not changed since it was hashed
+     */
+    public Optional<GrappleAsset> reuse(final String path, final String metadata) {
+        final int previous = previousAssets.indexOfPath(path);
+        if (previous < 0 || !metadata.equals(this.metadata.get(path))) {
+            return Optional.absent();
+        }
+        final List<String> sizeModified = GrapplePropertiesManifest.Format.HASH_SPLITTER.splitToList(metadata);
+        final Long size = Longs.tryParse(sizeModified.get(0));
+        final Long modified = sizeModified.size() == 2 ? Longs.tryParse(sizeModified.get(1)) : null;
+        if (size == null || modified == null || size != previousAssets.getSize(previous) ||
+                modified >= scanStarted - MTIME_GRANULARITY_MS) {
+            return Optional.absent();
+        }
+        return Optional.of(previousAssets.get(previous));
+    }
+
+    /**
+     * Write out the cache of a content root, replacing any previous cache
+     *
+     * @param contentRoot The content root
+     * @param metadata    The map of path to the {@link #metadataOf(long, long) metadata} of each file, read before
+     *                    the file was hashed
+     * @param scanStarted The time in milliseconds at which the metadata started being read
+     */
+    public static void write(final File contentRoot, final Map<String, String> metadata, final long scanStarted) {
+        final Properties properties = new Properties();
+        properties.setProperty(SCAN_STARTED_KEY, Long.toString(scanStarted));
+        for (final Map.Entry<String, String> entry : metadata.entrySet()) {
+            properties.setProperty(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX + entry.getKey(), entry.getValue());
+        }
+        FileIO.writeProperties(new File(contentRoot, NAME), properties, "written by " + AssetMetadataCache.class.getSimpleName());
+    }
+}
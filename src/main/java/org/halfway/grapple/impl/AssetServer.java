@@ -0,0 +1,326 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Verify;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Range;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.primitives.Longs;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.halfway.grapple.model.IORuntimeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small HTTP server for content roots, built on the HTTP server of the JDK. It serves as a mirror for small sites
+ * and as the reference server when measuring the {@link org.halfway.grapple.util.UrlDownloader} and the update.
+ * <p/>
+ * Files, including the manifests, are served with GET and HEAD. Every response has a strong ETag made of the size and
+ * modification time of the file, so that {@code If-None-Match} is answered with 304. A single byte range is answered
+ * with 206 and an unsatisfiable one with 416; requests for several ranges or whose {@code If-Range} does not match get
+ * the whole file. When the client accepts gzip and a {@code <file>.gz} at least as new as the file exists, that is sent
+ * instead. Connections are kept alive as every response has a length, and requests are handled concurrently on the
+ * executor service.
+ * <p/>
+ * Each request is logged at {@link java.util.logging.Level#FINE} and a summary of all requests so far at
+ * {@link java.util.logging.Level#INFO} every {@link #SUMMARY_INTERVAL} requests and when the server is stopped.
+ */
+public class AssetServer {
+    private static final Logger logger = Logger.getLogger(AssetServer.class.getName());
+    private static final int SUMMARY_INTERVAL = 1000;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String GZIP = "gzip";
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String BYTES_UNIT = "bytes";
+    private static final Splitter PATH_SPLITTER = Splitter.on('/').omitEmptyStrings();
+
+    private final HttpServer server;
+    private final ExecutorService service;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong nanosTaken = new AtomicLong();
+    private final Multiset<Integer> statuses = ConcurrentHashMultiset.create();
+
+    /**
+     * Bind the server. It does not accept requests until it is started.
+     *
+     * @param address The address to listen on
+     * @param mounts  The map of context path, such as {@code /} or {@code /app/}, to the content root served under it
+     * @param service The executor service to handle requests on. It is shut down when the server is stopped
+     * @throws org.halfway.grapple.model.IORuntimeException if the address could not be bound
+     */
+    public AssetServer(final InetSocketAddress address, final ImmutableMap<String, File> mounts,
+                       final ExecutorService service) {
+        Verify.verifyNotNull(mounts, "mounts must not be null");
+        Verify.verifyNotNull(service, "executor service must not be null");
+        this.service = service;
+        try {
+            this.server = HttpServer.create(address, 0);
+        } catch (final IOException e) {
+            throw new IORuntimeException("Unable to listen on " + address, e);
+        }
+        for (final Map.Entry<String, File> mount : mounts.entrySet()) {
+            Verify.verify(mount.getValue().isDirectory(), "'%s' is not a directory", mount.getValue());
+            final String contextPath = mount.getKey();
+            final File contentRoot = mount.getValue();
+            server.createContext(contextPath, new HttpHandler() {
+                @Override
+                public void handle(final HttpExchange exchange) throws IOException {
+                    handleExchange(exchange, contextPath, contentRoot);
+                }
+            });
+        }
+        server.setExecutor(service);
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Serving on port " + getPort());
+    }
+
+    /**
+     * Stop accepting requests, wait for the requests in progress and log the summary
+     *
+     * @param delaySeconds The most seconds to wait for the requests in progress
+     */
+    public void stop(final int delaySeconds) {
+        server.stop(delaySeconds);
+        service.shutdown();
+        try {
+            service.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info(summary());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The number of requests, the bytes sent, the mean time per request and the count of each status
+     */
+    public String summary() {
+        final long count = requests.get();
+        final long meanMillis = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(nanosTaken.get() / count);
+        return count + " requests, " + bytesSent.get() + " bytes sent, " + meanMillis + " ms per request, statuses " +
+                statuses;
+    }
+
+    private void handleExchange(final HttpExchange exchange, final String contextPath, final File contentRoot) {
+        final Stopwatch watch = Stopwatch.createStarted();
+        final CountingOutputStream body = new CountingOutputStream(exchange.getResponseBody());
+        int status = HttpURLConnection.HTTP_INTERNAL_ERROR;
+        try {
+            final String method = exchange.getRequestMethod();
+            final Optional<File> file = resolve(contentRoot, exchange.getRequestURI().getPath().substring(contextPath.length()));
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                status = HttpURLConnection.HTTP_BAD_METHOD;
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(status, -1);
+            } else if (!file.isPresent()) {
+                status = HttpURLConnection.HTTP_NOT_FOUND;
+                exchange.sendResponseHeaders(status, -1);
+            } else {
+                status = sendFile(exchange, body, file.get(), "HEAD".equals(method));
+            }
+        } catch (final IOException e) {
+            logger.log(Level.FINE, "Unable to answer " + exchange.getRequestURI(), e);
+        } catch (final RuntimeException e) {
+            logger.log(Level.WARNING, "Error while answering " + exchange.getRequestURI(), e);
+        } finally {
+            exchange.close();
+            record(exchange, status, body.getCount(), watch);
+        }
+    }
+
+    /**
+     * @return The status sent
+     */
+    private int sendFile(final HttpExchange exchange, final OutputStream body, final File requested,
+                         final boolean head) throws IOException {
+        final Headers request = exchange.getRequestHeaders();
+        final Headers response = exchange.getResponseHeaders();
+        final File gzipped = new File(requested.getPath() + GZIP_SUFFIX);
+        final boolean sendGzipped = request.getFirst("Range") == null && acceptsGzip(request.getFirst("Accept-Encoding")) &&
+                gzipped.isFile() && gzipped.lastModified() >= requested.lastModified();
+        final File file = sendGzipped ? gzipped : requested;
+        final long length = file.length();
+        final String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(file.lastModified()) +
+                (sendGzipped ? "-" + GZIP : "") + "\"";
+
+        response.set("Content-Type", contentType(requested));
+        response.set("Accept-Ranges", BYTES_UNIT);
+        response.set("ETag", etag);
+        response.set("Last-Modified", httpDate(file.lastModified()));
+        response.set("Vary", "Accept-Encoding");
+        if (sendGzipped) {
+            response.set("Content-Encoding", GZIP);
+        }
+
+        final String ifNoneMatch = request.getFirst("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.equals("*") || ifNoneMatch.contains(etag))) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            return HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        final String ifRange = request.getFirst("If-Range");
+        final Optional<Range<Long>> range = ifRange == null || ifRange.equals(etag) ?
+                parseRange(request.getFirst("Range"), length) : Optional.<Range<Long>>absent();
+        final int status;
+        final long start;
+        final long count;
+        if (!range.isPresent()) {
+            status = HttpURLConnection.HTTP_OK;
+            start = 0;
+            count = length;
+        } else if (range.get().isEmpty()) {
+            response.set("Content-Range", BYTES_UNIT + " */" + length);
+            exchange.sendResponseHeaders(HTTP_RANGE_NOT_SATISFIABLE, -1);
+            return HTTP_RANGE_NOT_SATISFIABLE;
+        } else {
+            status = HttpURLConnection.HTTP_PARTIAL;
+            start = range.get().lowerEndpoint();
+            count = range.get().upperEndpoint() - start + 1;
+            response.set("Content-Range", BYTES_UNIT + " " + start + "-" + range.get().upperEndpoint() + "/" + length);
+        }
+
+        if (head) {
+            response.set("Content-Length", Long.toString(count));
+            exchange.sendResponseHeaders(status, -1);
+            return status;
+        }
+        // a length of zero means a chunked response to the JDK server, and no body is -1
+        exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+        if (count > 0) {
+            copy(file, start, count, body);
+        }
+        return status;
+    }
+
+    private static void copy(final File file, final long start, final long count, final OutputStream out) throws IOException {
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.seek(start);
+            final byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, count)];
+            long remaining = count;
+            while (remaining > 0) {
+                final int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("File " + file + " was truncated while being sent");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+            out.flush();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Find the file of a request path, which must be a file strictly inside the content root
+     */
+    private static Optional<File> resolve(final File contentRoot, final String path) throws IOException {
+        File file = contentRoot;
+        for (final String segment : PATH_SPLITTER.split(path)) {
+            if (segment.equals(".") || segment.equals("..") || segment.indexOf('\\') >= 0) {
+                return Optional.absent();
+            }
+            file = new File(file, segment);
+        }
+        if (!file.isFile() || !file.getCanonicalPath().startsWith(contentRoot.getCanonicalPath() + File.separator)) {
+            return Optional.absent();
+        }
+        return Optional.of(file);
+    }
+
+    /**
+     * Parse a {@code Range} header for a single byte range
+     *
+     * @return The closed range of bytes to send, an empty range if it cannot be satisfied or absent if the whole file
+     * is sent
+     */
+    static Optional<Range<Long>> parseRange(final String header, final long length) {
+        if (header == null || !header.startsWith(BYTES_UNIT + "=") || header.indexOf(',') >= 0) {
+            return Optional.absent();
+        }
+        final String spec = header.substring(BYTES_UNIT.length() + 1).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return Optional.absent();
+        }
+        final Long first = dash == 0 ? null : Longs.tryParse(spec.substring(0, dash).trim());
+        final Long last = dash == spec.length() - 1 ? null : Longs.tryParse(spec.substring(dash + 1).trim());
+        final Range<Long> unsatisfiable = Range.closedOpen(0L, 0L);
+        if (dash == 0) {
+            if (last == null) {
+                return Optional.absent();
+            }
+            if (last == 0 || length == 0) {
+                return Optional.of(unsatisfiable);
+            }
+            return Optional.of(Range.closed(Math.max(0, length - last), length - 1));
+        }
+        if (first == null || (dash < spec.length() - 1 && (last == null || last < first))) {
+            return Optional.absent();
+        }
+        if (first >= length) {
+            return Optional.of(unsatisfiable);
+        }
+        return Optional.of(Range.closed(first, last == null ? length - 1 : Math.min(last, length - 1)));
+    }
+
+    private static boolean acceptsGzip(final String acceptEncoding) {
+        return acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ENGLISH).contains(GZIP);
+    }
+
+    private static String contentType(final File file) {
+        return Optional.fromNullable(URLConnection.guessContentTypeFromName(file.getName())).or("application/octet-stream");
+    }
+
+    private static String httpDate(final long millis) {
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private void record(final HttpExchange exchange, final int status, final long sent, final Stopwatch watch) {
+        final long count = requests.incrementAndGet();
+        bytesSent.addAndGet(sent);
+        nanosTaken.addAndGet(watch.elapsed(TimeUnit.NANOSECONDS));
+        statuses.add(status);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " + status + " " + sent +
+                    " bytes in " + watch + " from " + exchange.getRemoteAddress());
+        }
+        if (count % SUMMARY_INTERVAL == 0) {
+            logger.info(summary());
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.halfway.grapple.impl;
+
+import org.halfway.grapple.model.GrappleAsset;
+
+/**
+ * A unit of work that verifies (and possibly repairs) a single asset of a manifest.
+ *
+ * @see org.halfway.grapple.impl.BatchedAssetScheduler
+ */
+public interface AssetTask {
+
+    /**
+     * Run the task for a single asset
+     *
+     * @param asset The asset to verify
+     * @return The result of the verification
+     * @throws Exception if the task failed for a reason other than the asset failing to verify
+     */
+    AssetVerificationResult run(GrappleAsset asset) throws Exception;
+}
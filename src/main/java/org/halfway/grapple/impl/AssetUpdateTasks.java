@@ -0,0 +1,267 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.io.ByteSink;
+import com.google.common.io.Files;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.model.manifest.GrappleManifest;
+import org.halfway.grapple.util.FileIO;
+import org.halfway.grapple.util.UrlDownloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The tasks that execute the {@link org.halfway.grapple.impl.UpdatePlan.Action actions} of the plan of a
+ * {@link org.halfway.grapple.impl.ContentRootUpdate} on its assets: checking, hashing, linking from the previous
+ * version and downloading.
+ * <p/>
+ * On a device that limits concurrent disk access, every access to the disk holds one of the disk permits of the
+ * device. Small assets are then downloaded into memory and only written while holding a permit, and larger ones hold a
+ * permit while they are downloaded.
+ *
+ * @see org.halfway.grapple.impl.DeviceSchedulers#diskPermitsForContentRoot(java.io.File)
+ */
+public class AssetUpdateTasks {
+    private static final Logger logger = Logger.getLogger(AssetUpdateTasks.class.getName());
+    /**
+     * Largest asset that is downloaded into memory before it is written, on devices that limit concurrent disk access,
+     * so that the download does not hold a disk permit while it waits on the network
+     */
+    private static final int BUFFERED_DOWNLOAD_BYTES = 1024 * 1024;
+
+    private final UrlDownloader urlDownloader;
+    private final ContentRootUpdate update;
+    private final ManifestHasher manifestHasher;
+    private final Optional<Semaphore> diskPermits;
+
+    /**
+     * @param diskPermits The disk permits of the device of the content root, if it limits concurrent disk access
+     */
+    public AssetUpdateTasks(final UrlDownloader urlDownloader, final ContentRootUpdate update,
+                            final Optional<Semaphore> diskPermits) {
+        this.urlDownloader = urlDownloader;
+        this.update = update;
+        this.manifestHasher = ManifestHasher.fromAlgorithm(update.getManifest().getHashAlgorithm());
+        this.diskPermits = diskPermits;
+    }
+
+    /**
+     * @return The task of each action on an asset. The assets that are hashed or downloaded are metered for the
+     * throughput of the content root, and a link falls back to a download when the content root links no version.
+     */
+    public ImmutableMap<UpdatePlan.Action, AssetTask> byAction() {
+        final AssetTask downloadTask = newDownloadTask();
+        final AssetTask verificationTask = newVerificationTask(update.getHashSelection(), downloadTask);
+        final Map<UpdatePlan.Action, AssetTask> tasks = new EnumMap<UpdatePlan.Action, AssetTask>(
+                UpdatePlan.Action.class);
+        tasks.put(UpdatePlan.Action.check, verificationTask);
+        tasks.put(UpdatePlan.Action.hash, metered(verificationTask, update.getMeter(), true));
+        tasks.put(UpdatePlan.Action.link, update.getLinkedVersion().isPresent() ?
+                newLinkTask(update.getLinkedVersion().get(), verificationTask, downloadTask) : downloadTask);
+        tasks.put(UpdatePlan.Action.download, metered(downloadTask, update.getMeter(), false));
+        return Maps.immutableEnumMap(tasks);
+    }
+
+    /**
+     * @return A task that measures the time the task takes for the assets it hashes or downloads successfully
+     */
+    private static AssetTask metered(final AssetTask task, final UpdateThroughput.Meter meter, final boolean hashing) {
+        return new AssetTask() {
+            @Override
+            public AssetVerificationResult run(final GrappleAsset asset) throws Exception {
+                final long start = System.nanoTime();
+                final AssetVerificationResult result = task.run(asset);
+                if (result.getOutcome() == AssetVerificationResult.Outcome.OK) {
+                    if (!hashing) {
+                        meter.addDownloaded(asset.getSize(), System.nanoTime() - start);
+                    } else if (result.isHashChecked()) {
+                        meter.addHashed(asset.getSize(), System.nanoTime() - start);
+                    }
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * @return A task for assets whose file has the right size, which hashes the file if selected and downloads the
+     * asset again if the hash differs
+     */
+    private AssetTask newVerificationTask(final Predicate<GrappleAsset> checkHash, final AssetTask downloadTask) {
+        final File contentRoot = update.getContentRoot();
+        final GrappleManifest manifest = update.getManifest();
+        return new AssetTask() {
+            @Override
+            public AssetVerificationResult run(final GrappleAsset asset) throws Exception {
+                if (!checkHash.apply(asset)) {
+                    return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.OK, false);
+                }
+                final HashCode hashCode = onDisk(new Callable<HashCode>() {
+                    @Override
+                    public HashCode call() {
+                        return manifestHasher.hashFile(new File(contentRoot, asset.getPath()));
+                    }
+                });
+                if (asset.getHash().equals(hashCode)) {
+                    return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.OK, true);
+                }
+                logger.fine("H> " + asset.getPath());
+                return downloadTask.run(asset);
+            }
+        };
+    }
+
+    /**
+     * @return A task for missing assets that are unchanged since the previous version, which links the file of the
+     * previous version and verifies it as any other file of the right size, or downloads the asset if that file is
+     * missing or has another size
+     */
+    private AssetTask newLinkTask(final File previousRoot, final AssetTask verificationTask,
+                                  final AssetTask downloadTask) {
+        final File contentRoot = update.getContentRoot();
+        return new AssetTask() {
+            @Override
+            public AssetVerificationResult run(final GrappleAsset asset) throws Exception {
+                final File previous = new File(previousRoot, asset.getPath());
+                if (!previous.isFile() || previous.length() != asset.getSize()) {
+                    return downloadTask.run(asset);
+                }
+                try {
+                    onDisk(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            FileIO.linkOrCopy(previous, new File(contentRoot, asset.getPath()));
+                            return null;
+                        }
+                    });
+                } catch (final IORuntimeException e) {
+                    logger.log(Level.WARNING, "Unable to link " + asset.getPath() + " from " + previousRoot, e);
+                    return downloadTask.run(asset);
+                }
+                logger.fine("L> " + asset.getPath());
+                return verificationTask.run(asset);
+            }
+        };
+    }
+
+    /**
+     * Run an access to the disk while holding one of the disk permits of its device, if it has any
+     */
+    private <T> T onDisk(final Callable<T> access) throws Exception {
+        if (!diskPermits.isPresent()) {
+            return access.call();
+        }
+        diskPermits.get().acquire();
+        try {
+            return access.call();
+        } finally {
+            diskPermits.get().release();
+        }
+    }
+
+    /**
+     * @return A task that replaces the file of an asset, if any, with the asset downloaded from the base URL
+     */
+    private AssetTask newDownloadTask() {
+        return new AssetTask() {
+            @Override
+            public AssetVerificationResult run(final GrappleAsset asset) throws Exception {
+                if (diskPermits.isPresent() && asset.getSize() <= BUFFERED_DOWNLOAD_BYTES) {
+                    return downloadBuffered(asset);
+                }
+                return onDisk(new Callable<AssetVerificationResult>() {
+                    @Override
+                    public AssetVerificationResult call() throws Exception {
+                        return download(asset);
+                    }
+                });
+            }
+        };
+    }
+
+    private AssetVerificationResult downloadBuffered(final GrappleAsset asset) throws Exception {
+        final GrappleManifest manifest = update.getManifest();
+        final File file = new File(update.getContentRoot(), asset.getPath());
+        final URL downloadUrl = urlDownloader.combinePath(update.getBaseUrl(), asset.getPath());
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) asset.getSize());
+        final int responseCode = urlDownloader.httpGet(downloadUrl, new ByteSink() {
+            @Override
+            public OutputStream openStream() {
+                return buffer;
+            }
+        });
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            logger.warning("Unable to download file " + downloadUrl + " : HTTP " + responseCode);
+            if (file.exists() && !file.delete()) {
+                logger.warning("unable to delete " + file);
+            }
+            return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.MissingFile, false);
+        }
+        final byte[] bytes = buffer.toByteArray();
+        onDisk(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                logger.fine((file.exists() ? "S> " : "X> ") + asset.getPath());
+                Files.write(bytes, file);
+                return null;
+            }
+        });
+        final AssetVerificationResult.Outcome outcome = asset.getHash().equals(
+                manifestHasher.newHasher().putBytes(bytes).hash()) ? AssetVerificationResult.Outcome.OK :
+                AssetVerificationResult.Outcome.HashDiffers;
+        return new AssetVerificationResult(manifest, asset, outcome, true);
+    }
+
+    private AssetVerificationResult download(final GrappleAsset asset) throws IOException {
+        final GrappleManifest manifest = update.getManifest();
+        final File file = new File(update.getContentRoot(), asset.getPath());
+        if (file.exists()) {
+            logger.fine("S> " + asset.getPath());
+            if (!file.delete()) {
+                logger.warning("unable to delete " + file);
+            }
+        } else {
+            logger.fine("X> " + asset.getPath());
+        }
+
+        if (!file.createNewFile()) {
+            logger.warning("created new file " + file);
+        }
+
+        final URL downloadUrl = urlDownloader.combinePath(update.getBaseUrl(), asset.getPath());
+        final Hasher hasher = manifestHasher.newHasher();
+        final ByteSink hashedSink = FileIO.asHashedFileSink(hasher, file);
+        final int responseCode = urlDownloader.httpGet(downloadUrl, hashedSink);
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            logger.warning("Unable to download file " + downloadUrl + " : HTTP " + responseCode);
+            if (!file.delete()) {
+                logger.warning("unable to delete " + file);
+            }
+            return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.MissingFile, false);
+        }
+
+        final HashCode newHashCode = hasher.hash();
+        if (asset.getHash().equals(newHashCode)) {
+            return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.OK, true);
+        } else {
+            return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.HashDiffers, true);
+        }
+    }
+}
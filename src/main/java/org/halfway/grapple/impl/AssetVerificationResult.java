@@ -13,8 +13,14 @@ public class AssetVerificationResult {
     private final GrappleManifest manifest;
     private final GrappleAsset asset;
     private final Outcome outcome;
+    private final boolean hashChecked;
 
-    public AssetVerificationResult(final GrappleManifest manifest, final GrappleAsset asset, final Outcome outcome) {
+    /**
+     * @param hashChecked Whether the contents of the asset were hashed to reach the outcome, as opposed to only checking
+     *                    its metadata
+     */
+    public AssetVerificationResult(final GrappleManifest manifest, final GrappleAsset asset, final Outcome outcome,
+                                   final boolean hashChecked) {
         Verify.verifyNotNull(manifest, "manifest must not be null");
         Verify.verifyNotNull(asset, "asset must not be null");
         Verify.verifyNotNull(outcome, "outcome must not be null");
@@ -22,6 +28,7 @@ public class AssetVerificationResult {
         this.manifest = manifest;
         this.asset = asset;
         this.outcome = outcome;
+        this.hashChecked = hashChecked;
     }
 
     public GrappleManifest getManifest() {
@@ -36,6 +43,10 @@ public class AssetVerificationResult {
         return outcome;
     }
 
+    public boolean isHashChecked() {
+        return hashChecked;
+    }
+
     /**
      * Enumeration of possible outcomes asset verification. Obviously, only
      * {@link org.halfway.grapple.impl.AssetVerificationResult.Outcome#OK} is a successful outcome.
@@ -0,0 +1,57 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Verify;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.manifest.GrappleManifest;
+
+import java.io.File;
+
+/**
+ * A task that can verify a single asset inside a manifest by checking the existence, size and hash of the asset
+ * file on the file system and returning a result accordingly.
+ * <p/>
+ * The hash check is decided per asset so that the same task can be used for a cheap metadata-only check.
+ */
+class AssetVerificationTask implements AssetTask {
+
+    private final GrappleManifest manifest;
+    private final File contentRoot;
+    private final ManifestHasher manifestHasher;
+    private final Predicate<GrappleAsset> checkHash;
+
+    public AssetVerificationTask(final GrappleManifest manifest, final File contentRoot,
+                                 final ManifestHasher manifestHasher, final Predicate<GrappleAsset> checkHash) {
+        Verify.verifyNotNull(manifest, "manifest must not be null");
+        Verify.verifyNotNull(contentRoot, "content root must not be null");
+        Verify.verifyNotNull(manifestHasher, "hasher must not be null");
+        Verify.verifyNotNull(checkHash, "hash check predicate must not be null");
+
+        this.manifest = manifest;
+        this.contentRoot = contentRoot;
+        this.manifestHasher = manifestHasher;
+        this.checkHash = checkHash;
+    }
+
+    @Override
+    public AssetVerificationResult run(final GrappleAsset asset) {
+        final File file = new File(contentRoot, asset.getPath());
+        if (!file.isFile()) {
+            return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.MissingFile, false);
+        }
+
+        if (file.length() != asset.getSize()) {
+            return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.SizeDiffers, false);
+        }
+
+        if (!checkHash.apply(asset)) {
+            return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.OK, false);
+        }
+
+        if (!manifestHasher.hashFile(file).equals(asset.getHash())) {
+            return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.HashDiffers, true);
+        }
+
+        return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.OK, true);
+    }
+}
@@ -0,0 +1,271 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Function;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.halfway.grapple.model.GrappleAsset;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs an {@link org.halfway.grapple.impl.AssetTask} over batches of assets using a fixed number of workers.
+ * <p/>
+ * Instead of one task and one future per asset, each worker repeatedly takes the next batch from a shared queue until
+ * the queue is empty. Idle workers therefore pick up the remaining work of busy ones and the results are folded into a
+ * single {@link org.halfway.grapple.impl.VerificationSummary} as they are produced.
+ */
+public class BatchedAssetScheduler {
+    private static final Logger logger = Logger.getLogger(BatchedAssetScheduler.class.getName());
+    /**
+     * Smallest byte budget of a batch
+     */
+    public static final long MIN_BATCH_BYTES = 256 * 1024;
+    /**
+     * Largest byte budget of a batch
+     */
+    public static final long MAX_BATCH_BYTES = 64 * 1024 * 1024;
+    /**
+     * Largest number of assets in a batch
+     */
+    public static final int MAX_BATCH_ASSETS = 512;
+
+    private final ListeningExecutorService service;
+    private final int workers;
+
+    /**
+     * @param service The executor service to run the workers on
+     * @param workers The number of workers to start per call to {@link #schedule}
+     */
+    public BatchedAssetScheduler(final ListeningExecutorService service, final int workers) {
+        Verify.verifyNotNull(service, "service must not be null");
+        Verify.verify(workers > 0, "workers must be positive");
+        this.service = service;
+        this.workers = workers;
+    }
+
+    /**
+     * Batch the assets and run the task over all of them.
+     *
+     * @param assets   The assets to run the task for
+     * @param task     The task to run for each asset
+     * @param summary  The summary that collects the results
+     * @param listener Called on a worker thread with every result as soon as it is available
+     * @return A future that completes with the summary once all the assets have been processed
+     */
+    public ListenableFuture<VerificationSummary> schedule(final Iterable<GrappleAsset> assets, final AssetTask task,
+                                                          final VerificationSummary summary,
+                                                          final Function<? super AssetVerificationResult, ?> listener) {
+        long totalBytes = 0;
+        for (final GrappleAsset asset : assets) {
+            totalBytes += asset.getSize();
+        }
+        final long targetBytes = AssetBatch.targetBytes(totalBytes, workers, MIN_BATCH_BYTES, MAX_BATCH_BYTES);
+        final ImmutableList<AssetBatch> batches = AssetBatch.partition(assets, targetBytes, MAX_BATCH_ASSETS);
+        logger.fine("Scheduling " + batches.size() + " batches of up to " + targetBytes + " bytes on " + workers + " workers");
+
+        final Queue<AssetBatch> queue = new ConcurrentLinkedQueue<AssetBatch>(batches);
+        final ImmutableList.Builder<ListenableFuture<Void>> workerFutures = ImmutableList.builder();
+        summary.start();
+        for (int i = 0; i < Math.min(workers, batches.size()); i++) {
+            workerFutures.add(service.submit(newWorker(queue, task, summary, listener)));
+        }
+        return Futures.transform(Futures.allAsList(workerFutures.build()), new Function<List<Void>, VerificationSummary>() {
+            @Override
+            public VerificationSummary apply(final List<Void> input) {
+                summary.stop();
+                return summary;
+            }
+        });
+    }
+
+    /**
+     * Start a stream of assets that are batched and run as they are added, for when the assets to process are only
+     * found one by one. Each asset carries its own task.
+     *
+     * @param totalBytes An estimate of the number of bytes of all the assets, used to pick the batch size
+     * @param summary    The summary that collects the results
+     * @param listener   Called on a worker thread with every result as soon as it is available
+     * @return The stream to add the assets to
+     */
+    public AssetStream newStream(final long totalBytes, final VerificationSummary summary,
+                                 final Function<? super AssetVerificationResult, ?> listener) {
+        final long targetBytes = AssetBatch.targetBytes(totalBytes, workers, MIN_BATCH_BYTES, MAX_BATCH_BYTES);
+        logger.fine("Streaming batches of up to " + targetBytes + " bytes to " + workers + " workers");
+        summary.start();
+        return new AssetStream(targetBytes, summary, listener);
+    }
+
+    private Callable<Void> newWorker(final Queue<AssetBatch> queue, final AssetTask task, final VerificationSummary summary,
+                                     final Function<? super AssetVerificationResult, ?> listener) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                AssetBatch batch;
+                while ((batch = queue.poll()) != null) {
+                    for (final GrappleAsset asset : batch.getAssets()) {
+                        runTask(asset, task, summary, listener);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private void runTask(final GrappleAsset asset, final AssetTask task, final VerificationSummary summary,
+                         final Function<? super AssetVerificationResult, ?> listener) {
+        final AssetVerificationResult result;
+        try {
+            result = task.run(asset);
+        } catch (final Exception e) {
+            logger.log(Level.SEVERE, "Unknown error while processing asset " + asset.getPath(), e);
+            summary.addError(asset);
+            return;
+        }
+        summary.add(result);
+        listener.apply(result);
+    }
+
+    /**
+     * Assets added one at a time by a single producer thread.
+     * <p/>
+     * The assets are cut into batches the same way as {@link AssetBatch#partition}, except that they are taken in the
+     * order they are added. A worker is started whenever a batch is queued and fewer than the maximum number of
+     * workers are running, and a worker stops once the queue is empty, so no thread waits on the producer. At most
+     * {@link #QUEUED_BATCHES_PER_WORKER} batches per worker are queued; beyond that {@link #add} blocks until a worker
+     * takes a batch, which bounds the memory used when the producer is faster than the workers.
+     */
+    public class AssetStream {
+        private static final int QUEUED_BATCHES_PER_WORKER = 4;
+
+        private final long targetBytes;
+        private final VerificationSummary summary;
+        private final Function<? super AssetVerificationResult, ?> listener;
+        private final Queue<ImmutableList<Map.Entry<GrappleAsset, AssetTask>>> queue =
+                new ConcurrentLinkedQueue<ImmutableList<Map.Entry<GrappleAsset, AssetTask>>>();
+        private final Semaphore queueCapacity = new Semaphore(workers * QUEUED_BATCHES_PER_WORKER);
+        private final AtomicInteger runningWorkers = new AtomicInteger();
+        private final List<ListenableFuture<Void>> workerFutures = Lists.newArrayList();
+        private ImmutableList.Builder<Map.Entry<GrappleAsset, AssetTask>> current = ImmutableList.builder();
+        private int currentAssets = 0;
+        private long currentBytes = 0;
+        private boolean finished = false;
+
+        private AssetStream(final long targetBytes, final VerificationSummary summary,
+                            final Function<? super AssetVerificationResult, ?> listener) {
+            this.targetBytes = targetBytes;
+            this.summary = summary;
+            this.listener = listener;
+        }
+
+        /**
+         * Add an asset, blocking while the queue is full
+         *
+         * @param asset The asset
+         * @param task  The task to run for the asset
+         */
+        public void add(final GrappleAsset asset, final AssetTask task) {
+            Verify.verify(!finished, "stream is already finished");
+            current.add(Maps.immutableEntry(asset, task));
+            currentAssets += 1;
+            currentBytes += asset.getSize();
+            if (currentBytes >= targetBytes || currentAssets >= MAX_BATCH_ASSETS) {
+                flush();
+            }
+        }
+
+        /**
+         * Queue the assets added so far and stop accepting new ones
+         *
+         * @return A future that completes with the summary once all the assets have been processed
+         */
+        public ListenableFuture<VerificationSummary> finish() {
+            Verify.verify(!finished, "stream is already finished");
+            flush();
+            finished = true;
+            return Futures.transform(Futures.allAsList(workerFutures), new Function<List<Void>, VerificationSummary>() {
+                @Override
+                public VerificationSummary apply(final List<Void> input) {
+                    summary.stop();
+                    return summary;
+                }
+            });
+        }
+
+        private void flush() {
+            if (currentAssets == 0) {
+                return;
+            }
+            try {
+                queueCapacity.acquire();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while queueing assets", e);
+            }
+            queue.add(current.build());
+            current = ImmutableList.builder();
+            currentAssets = 0;
+            currentBytes = 0;
+            startWorker();
+        }
+
+        private void startWorker() {
+            if (reserveWorker()) {
+                workerFutures.add(service.submit(newStreamWorker()));
+            }
+        }
+
+        private Callable<Void> newStreamWorker() {
+            return new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    boolean reserved = true;
+                    try {
+                        while (reserved) {
+                            final ImmutableList<Map.Entry<GrappleAsset, AssetTask>> batch = queue.poll();
+                            if (batch == null) {
+                                runningWorkers.decrementAndGet();
+                                // a batch queued after the poll may have seen this worker as still running
+                                reserved = !queue.isEmpty() && reserveWorker();
+                                continue;
+                            }
+                            queueCapacity.release();
+                            for (final Map.Entry<GrappleAsset, AssetTask> entry : batch) {
+                                runTask(entry.getKey(), entry.getValue(), summary, listener);
+                            }
+                        }
+                    } finally {
+                        if (reserved) {
+                            runningWorkers.decrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            };
+        }
+
+        private boolean reserveWorker() {
+            while (true) {
+                final int running = runningWorkers.get();
+                if (running >= workers) {
+                    return false;
+                }
+                if (runningWorkers.compareAndSet(running, running + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
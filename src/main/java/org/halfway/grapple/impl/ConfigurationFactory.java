@@ -1,20 +1,28 @@
 package org.halfway.grapple.impl;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
 import com.google.common.base.StandardSystemProperty;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.halfway.grapple.model.configuration.Configuration;
 import org.halfway.grapple.model.configuration.JvmApplicationTarget;
 import org.halfway.grapple.model.configuration.LaunchTarget;
+import org.halfway.grapple.model.configuration.LayerTarget;
+import org.halfway.grapple.model.configuration.Platform;
 import org.halfway.grapple.model.configuration.StandaloneApplicationTarget;
+import org.halfway.grapple.model.configuration.StorageProfile;
+import org.halfway.grapple.model.configuration.VerificationPolicy;
 import org.halfway.grapple.model.manifest.ManifestOrApplicationType;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Standard creator of Grapple configuration. The current implementation uses system properties exclusively for
@@ -25,7 +33,16 @@ public class ConfigurationFactory {
      * Default number of lines to include in the backtrace scrollback
      */
     public static final int DEFAULT_SCROLLBACK = 10000;
+    /**
+     * Default number of launches within which every asset is hashed with the sampled verification policy
+     */
+    public static final int DEFAULT_SAMPLED_LAUNCHES = 10;
+    /**
+     * Default number of seconds to wait for another launcher whose update does not advance
+     */
+    public static final int DEFAULT_LOCK_TIMEOUT = 300;
     private static final Splitter URL_SPLITTER = Splitter.on('|').trimResults().omitEmptyStrings();
+    private static final Splitter LAYER_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
 
     /**
      * FIXME does not handle arguments with spaces in them
@@ -69,6 +86,33 @@ public class ConfigurationFactory {
         return ImmutableList.copyOf(urlList);
     }
 
+    /**
+     * @return The canonical file of the path in the system property, so that content roots configured through different
+     * paths to the same directory compare equal
+     * @throws java.lang.IllegalArgumentException if the property is not set or the path cannot be resolved
+     */
+    private static File getContentRootSystemProperty(final String propertyKey) {
+        final File file = new File(getRequiredSystemProperty(propertyKey));
+        try {
+            return file.getCanonicalFile();
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("The system property '" + propertyKey + "' is not a valid path", e);
+        }
+    }
+
+    /**
+     * @return The layers named by {@link Key#APPLICATION_LAYERS}, from the bottom layer up
+     */
+    private static ImmutableList<LayerTarget> getLayersSystemProperty() {
+        final ImmutableList.Builder<LayerTarget> layers = ImmutableList.builder();
+        for (final String name : LAYER_SPLITTER.split(getOptionalSystemProperty(Key.APPLICATION_LAYERS).or(""))) {
+            final File contentRoot = getContentRootSystemProperty(Key.LAYER_KEY_PREFIX + name + Key.LAYER_ROOT_SUFFIX);
+            layers.add(new LayerTarget(name, contentRoot,
+                    getUrlListSystemProperty(Key.LAYER_KEY_PREFIX + name + Key.LAYER_URLS_SUFFIX)));
+        }
+        return layers.build();
+    }
+
     private static boolean isWindowsMode() {
         final String osName = StandardSystemProperty.OS_NAME.value();
         return osName == null || osName.toLowerCase().contains("windows");
@@ -86,15 +130,112 @@ public class ConfigurationFactory {
         final ManifestOrApplicationType applicationType = ManifestOrApplicationType.valueOf(getOptionalSystemProperty(Key.APPLICATION_TYPE).
                 or(ManifestOrApplicationType.jvm.name()));
         final String applicationName = getRequiredSystemProperty(Key.APPLICATION_NAME);
-        final File contentRoot = new File(getRequiredSystemProperty(Key.APPLICATION_CONTENT_ROOT));
+        final File contentRoot = getContentRootSystemProperty(Key.APPLICATION_CONTENT_ROOT);
         final ImmutableList<String> applicationArguments = splitArguments(getOptionalSystemProperty(Key.APPLICATION_ARGS));
         final ImmutableList<URL> applicationUrlList = getUrlListSystemProperty(Key.APPLICATION_BASE_URL_LIST);
-        final boolean offlineMode = Boolean.getBoolean(Key.OFFLINE_MODE);
+        final ImmutableList<LayerTarget> layers = getLayersSystemProperty();
+        final Optional<Integer> keptVersions = Optional.fromNullable(Integer.getInteger(Key.KEPT_VERSIONS));
+        final boolean rollback = Boolean.getBoolean(Key.ROLLBACK);
+        final boolean daemon = Boolean.getBoolean(Key.DAEMON);
+        final Optional<Integer> daemonInterval = Optional.fromNullable(Integer.getInteger(Key.DAEMON_INTERVAL));
+        final boolean progressiveLaunch = Boolean.getBoolean(Key.PROGRESSIVE_LAUNCH);
+        final Optional<Integer> groupRequestPort = Optional.fromNullable(Integer.getInteger(Key.GROUP_REQUEST_PORT));
+        final boolean dryRun = Boolean.getBoolean(Key.DRY_RUN);
+        final Optional<Long> updateBudget = Optional.fromNullable(Long.getLong(Key.UPDATE_BUDGET));
+        final boolean readOnly = Boolean.getBoolean(Key.READ_ONLY);
+        final Optional<File> sealKey = getOptionalSystemProperty(Key.SEAL_KEY).transform(new Function<String, File>() {
+            @Override
+            public File apply(final String path) {
+                return new File(path);
+            }
+        });
         final Optional<Integer> threadPoolSize = Optional.fromNullable(Integer.getInteger(Key.THREAD_POOL_SIZE));
         final boolean windowsMode = isWindowsMode();
+        final boolean deferredVerification = Boolean.getBoolean(Key.DEFERRED_VERIFICATION);
+        final VerificationPolicy verificationPolicy = VerificationPolicy.valueOf(getOptionalSystemProperty(Key.VERIFICATION_POLICY).
+                or(VerificationPolicy.full.name()));
+        final int sampledLaunches = Integer.getInteger(Key.SAMPLED_LAUNCHES, DEFAULT_SAMPLED_LAUNCHES);
+        final int lockTimeout = Integer.getInteger(Key.LOCK_TIMEOUT, DEFAULT_LOCK_TIMEOUT);
+        final StorageProfile storageProfile = StorageProfile.valueOf(getOptionalSystemProperty(Key.STORAGE_PROFILE).
+                or(StorageProfile.auto.name()));
+        final Platform currentPlatform = Platform.current();
+        final Platform platform = new Platform(getOptionalSystemProperty(Key.PLATFORM_OS).or(currentPlatform.getOs()),
+                getOptionalSystemProperty(Key.PLATFORM_ARCH).or(currentPlatform.getArch()));
         final LaunchTarget launchTarget = launchTargetFromSystemProperties(applicationType, contentRoot,
-                applicationArguments, applicationUrlList);
-        return new Configuration(applicationName, launchTarget, offlineMode, threadPoolSize, windowsMode);
+                applicationArguments, applicationUrlList, layers);
+        verifyDistinctContentRoots(launchTarget);
+        final boolean launchStaged = keptVersions.isPresent() && !daemon && !rollback && !dryRun && !readOnly &&
+                hasStagedVersion(launchTarget.getContentRoots());
+        // a rollback or a staged version launches a version that is already installed and verified, and a read-only
+        // install is never updated
+        final boolean offlineMode = Boolean.getBoolean(Key.OFFLINE_MODE) || rollback || launchStaged || readOnly;
+        return Configuration.builder(applicationName, launchTarget)
+                .offlineMode(offlineMode)
+                .threadPoolSize(threadPoolSize)
+                .onWindows(windowsMode)
+                .deferredVerification(deferredVerification)
+                .verificationPolicy(verificationPolicy)
+                .sampledLaunches(sampledLaunches)
+                .storageProfile(storageProfile)
+                .platform(platform)
+                .keptVersions(keptVersions)
+                .rollback(rollback)
+                .daemon(daemon)
+                .daemonInterval(daemonInterval)
+                .launchStaged(launchStaged)
+                .progressiveLaunch(progressiveLaunch)
+                .groupRequestPort(groupRequestPort)
+                .dryRun(dryRun)
+                .updateBudget(updateBudget)
+                .readOnly(readOnly)
+                .sealKey(sealKey)
+                .lockTimeout(lockTimeout)
+                .build();
+    }
+
+    /**
+     * Each content root is updated on its own and loses whatever its manifest does not list, so no content root may be
+     * the same as, or nested in, another
+     *
+     * @throws java.lang.IllegalArgumentException naming the content roots that overlap
+     */
+    private static void verifyDistinctContentRoots(final LaunchTarget launchTarget) {
+        final List<Map.Entry<String, File>> contentRoots = Lists.newArrayList();
+        contentRoots.add(Maps.immutableEntry("the application", launchTarget.getContentRoot()));
+        if (launchTarget instanceof JvmApplicationTarget) {
+            contentRoots.add(Maps.immutableEntry("the JVM", ((JvmApplicationTarget) launchTarget).getJvmContentRoot()));
+        }
+        for (final LayerTarget layer : launchTarget.getLayers()) {
+            contentRoots.add(Maps.immutableEntry("layer " + layer.getName(), layer.getContentRoot()));
+        }
+        for (int i = 0; i < contentRoots.size(); i++) {
+            for (int j = i + 1; j < contentRoots.size(); j++) {
+                verifyNotOverlapping(contentRoots.get(i), contentRoots.get(j));
+                verifyNotOverlapping(contentRoots.get(j), contentRoots.get(i));
+            }
+        }
+    }
+
+    private static void verifyNotOverlapping(final Map.Entry<String, File> contentRoot,
+                                             final Map.Entry<String, File> other) {
+        if (contentRoot.getValue().equals(other.getValue())) {
+            throw new IllegalArgumentException("The content root of " + other.getKey() + " is the same as the content " +
+                    "root of " + contentRoot.getKey() + ": " + contentRoot.getValue());
+        }
+        if (contentRoot.getValue().getPath().startsWith(other.getValue().getPath() + File.separator)) {
+            throw new IllegalArgumentException("The content root of " + contentRoot.getKey() + " (" +
+                    contentRoot.getValue() + ") is nested in the content root of " + other.getKey() + " (" +
+                    other.getValue() + ")");
+        }
+    }
+
+    private static boolean hasStagedVersion(final Iterable<File> contentRoots) {
+        for (final File contentRoot : contentRoots) {
+            if (VersionedContentRoot.in(contentRoot).readStaged().isPresent()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -110,18 +251,20 @@ public class ConfigurationFactory {
     private static LaunchTarget launchTargetFromSystemProperties(final ManifestOrApplicationType applicationType,
                                                                  final File applicationHome,
                                                                  final ImmutableList<String> applicationArguments,
-                                                                 final ImmutableList<URL> applicationUrlList) {
+                                                                 final ImmutableList<URL> applicationUrlList,
+                                                                 final ImmutableList<LayerTarget> layers) {
         switch (applicationType) {
             case jvm:
-                final File jvmHome = new File(getRequiredSystemProperty(Key.JVM_ROOT));
+                final File jvmHome = getContentRootSystemProperty(Key.JVM_ROOT);
                 final String mainClass = getRequiredSystemProperty(Key.JVM_APPLICATION_MAIN_CLASS);
                 final ImmutableList<String> jvmArguments = splitArguments(getOptionalSystemProperty(Key.JVM_ARGUMENTS));
                 final ImmutableList<URL> jvmUrlList = getUrlListSystemProperty(Key.JVM_BASE_URL_LIST);
                 return new JvmApplicationTarget(applicationHome, applicationUrlList, mainClass, applicationArguments,
-                        jvmHome, jvmUrlList, jvmArguments);
+                        jvmHome, jvmUrlList, jvmArguments, layers);
             case std:
                 final String command = getRequiredSystemProperty(Key.STANDALONE_APPLICATION_COMMAND);
-                return new StandaloneApplicationTarget(applicationHome, applicationUrlList, command, applicationArguments);
+                return new StandaloneApplicationTarget(applicationHome, applicationUrlList, command, applicationArguments,
+                        layers);
             default:
                 throw new UnsupportedOperationException("Unknown application type " + applicationType);
         }
@@ -159,6 +302,25 @@ public class ConfigurationFactory {
          */
         public static final String APPLICATION_BASE_URL_LIST = "grapple.application.urls";
 
+        /**
+         * (Optional) list of the names of the base layers the application is composed on, from the bottom layer up.
+         * Each layer is configured with the {@link #LAYER_KEY_PREFIX grapple.layer.NAME.root} and
+         * {@code grapple.layer.NAME.urls} properties, and applications that share a layer should configure the same
+         * content root and base URLs for it so that it is only installed once on the machine.
+         * <p/>
+         * The names are split based on the character ','
+         */
+        public static final String APPLICATION_LAYERS = "grapple.application.layers";
+
+        /**
+         * Prefix of the properties of a layer named in {@link #APPLICATION_LAYERS}, followed by the name of the layer
+         * and {@link #LAYER_ROOT_SUFFIX} for its content root or {@link #LAYER_URLS_SUFFIX} for the list of base URLs
+         * of its standalone manifest, which is split as {@link #APPLICATION_BASE_URL_LIST}
+         */
+        public static final String LAYER_KEY_PREFIX = "grapple.layer.";
+        public static final String LAYER_ROOT_SUFFIX = ".root";
+        public static final String LAYER_URLS_SUFFIX = ".urls";
+
         /**
          * (Optional) number of lines to include in the scrollback should the launching process fail.
          * <p/>
@@ -178,6 +340,129 @@ public class ConfigurationFactory {
          */
         public static final String THREAD_POOL_SIZE = "grapple.option.thread-pool.size";
 
+        /**
+         * (Optional) boolean property that when set will only check the existence and size of the assets before
+         * launching in offline mode. The assets are then hashed in the background while the application runs and any
+         * mismatch is recorded so that the next launch either repairs (online) or refuses to start (offline).
+         */
+        public static final String DEFERRED_VERIFICATION = "grapple.option.verify.deferred";
+
+        /**
+         * (Optional) how thoroughly assets already on disk are verified. Valid values are the names of
+         * {@link org.halfway.grapple.model.configuration.VerificationPolicy} and the default is
+         * {@link org.halfway.grapple.model.configuration.VerificationPolicy#full}
+         */
+        public static final String VERIFICATION_POLICY = "grapple.option.verify.policy";
+
+        /**
+         * (Optional) integer property for the number of launches within which every asset is hashed when using the
+         * {@link org.halfway.grapple.model.configuration.VerificationPolicy#sampled} policy.
+         * <p/>
+         * Will default to {@link org.halfway.grapple.impl.ConfigurationFactory#DEFAULT_SAMPLED_LAUNCHES}
+         */
+        public static final String SAMPLED_LAUNCHES = "grapple.option.verify.sampled-launches";
+
+        /**
+         * (Optional) the kind of storage the content roots are on, which bounds the number of assets that are read or
+         * written concurrently on each device. Valid values are the names of
+         * {@link org.halfway.grapple.model.configuration.StorageProfile} and the default is
+         * {@link org.halfway.grapple.model.configuration.StorageProfile#auto}
+         */
+        public static final String STORAGE_PROFILE = "grapple.option.storage.profile";
+
+        /**
+         * (Optional) the operating system whose {@link org.halfway.grapple.model.manifest.AssetGroup asset groups} are
+         * installed, instead of that of the running JVM
+         */
+        public static final String PLATFORM_OS = "grapple.option.platform.os";
+
+        /**
+         * (Optional) the processor architecture whose {@link org.halfway.grapple.model.manifest.AssetGroup asset
+         * groups} are installed, instead of that of the running JVM
+         */
+        public static final String PLATFORM_ARCH = "grapple.option.platform.arch";
+
+        /**
+         * (Optional) integer property that when set installs each version side by side in the content roots and
+         * switches to it once it is verified, keeping this many previous versions for rollback. When not set the
+         * content roots are updated in place
+         *
+         * @see org.halfway.grapple.impl.VersionedContentRoot
+         */
+        public static final String KEPT_VERSIONS = "grapple.option.versions.keep";
+
+        /**
+         * (Optional) boolean property that when set makes the previous version of versioned content roots current
+         * again and launches it in offline mode
+         */
+        public static final String ROLLBACK = "grapple.option.versions.rollback";
+
+        /**
+         * (Optional) boolean property that when set runs Grapple headless as a daemon that installs and verifies new
+         * versions of versioned content roots at low priority and stages them, instead of launching the application.
+         * The next launch then switches to the staged versions and starts them offline
+         */
+        public static final String DAEMON = "grapple.option.daemon";
+
+        /**
+         * (Optional) integer property for the number of seconds the daemon waits between updates. When not set the
+         * daemon updates once and exits, which suits running it from a scheduler such as a systemd timer
+         */
+        public static final String DAEMON_INTERVAL = "grapple.option.daemon.interval";
+
+        /**
+         * (Optional) boolean property that when set launches the application as soon as the assets of the
+         * launch-critical {@link org.halfway.grapple.model.manifest.AssetGroup asset groups} are up to date, and then
+         * updates the rest of the assets at low priority while it runs. Manifests without critical groups are updated
+         * in full before the launch
+         */
+        public static final String PROGRESSIVE_LAUNCH = "grapple.option.launch.progressive";
+
+        /**
+         * (Optional) integer property that when set serves requests from the launched application to install optional
+         * {@link org.halfway.grapple.model.manifest.AssetGroup asset groups} on this loopback port, or on any free port
+         * when 0. When not set only the optional groups that were requested before are installed
+         *
+         * @see org.halfway.grapple.impl.GroupRequestServer
+         */
+        public static final String GROUP_REQUEST_PORT = "grapple.option.groups.port";
+
+        /**
+         * (Optional) boolean property that when set only plans the update of the content roots and prints the
+         * {@link org.halfway.grapple.impl.UpdatePlan plan} with its estimated cost, without changing the content roots
+         * or launching the application
+         */
+        public static final String DRY_RUN = "grapple.option.update.dryrun";
+
+        /**
+         * (Optional) long property for the number of bytes an update may download. An update that would download more,
+         * such as over a metered link, fails before it changes the content roots and is retried by the next launch or
+         * daemon update
+         */
+        public static final String UPDATE_BUDGET = "grapple.option.update.budget";
+
+        /**
+         * (Optional) boolean property that when set launches the content roots offline without writing anything to
+         * them, such as from an install on a read-only share. Content roots sealed with {@code manifest seal} are
+         * trusted from their seal stamp and the metadata of their assets, and the others are hashed in full
+         */
+        public static final String READ_ONLY = "grapple.option.readonly";
+
+        /**
+         * (Optional) path property to the X.509 RSA public key in DER format that seal stamps are checked with.
+         * Required when read-only
+         */
+        public static final String SEAL_KEY = "grapple.option.readonly.key";
+
+        /**
+         * (Optional) integer property for the number of seconds a launcher waits for another one that holds the update
+         * lock of the content roots while the update status of the other launcher does not advance. The wait then fails
+         * rather than hanging on a launcher that is stuck.
+         * <p/>
+         * Will default to {@link org.halfway.grapple.impl.ConfigurationFactory#DEFAULT_LOCK_TIMEOUT}
+         */
+        public static final String LOCK_TIMEOUT = "grapple.option.lock.timeout";
+
         /**
          * The content root of the JVM itself. This is a separate content root from the main application
          * </p>
@@ -0,0 +1,183 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.manifest.GrappleManifest;
+
+import java.io.File;
+import java.net.URL;
+
+/**
+ * The update of one content root: its manifest, the assets it selects, its plan if planned in advance, what it
+ * measures and records as it goes, and the trash its extra files are moved into.
+ * <p/>
+ * The updates are built once, before anything is changed, and the plan and the deferred actions are filled in as the
+ * update proceeds.
+ */
+public class ContentRootUpdate {
+    private final File contentRoot;
+    private final File configuredRoot;
+    private final GrappleManifest manifest;
+    private final URL baseUrl;
+    private final Predicate<GrappleAsset> hashSelection;
+    private final Optional<File> linkedVersion;
+    private final Predicate<GrappleAsset> linkSelection;
+    private final Optional<Predicate<GrappleAsset>> criticalSelection;
+    private final UpdateThroughput throughput;
+    private final UpdateThroughput.Meter meter = new UpdateThroughput.Meter();
+    private final Optional<UpdateJournal> journal;
+    private final VerificationSummary summary;
+    private final TrashDirectory trash;
+    private Optional<UpdatePlan> plan = Optional.absent();
+    private ImmutableList<AssetAction> deferredActions = ImmutableList.of();
+
+    /**
+     * @param configuredRoot    The configured content root that the content root belongs to, which differs for a
+     *                          versioned content root being updated in the directory of a new version
+     * @param linkedVersion     The directory of the previous version that assets are linked from, if any
+     * @param criticalSelection The launch-critical assets when launching progressively, without which every asset is
+     *                          critical
+     * @param trash             The trash of the configured content root, so that the directories of old versions can
+     *                          be moved into it
+     */
+    public ContentRootUpdate(final File contentRoot, final File configuredRoot, final GrappleManifest manifest,
+                             final URL baseUrl, final Predicate<GrappleAsset> hashSelection,
+                             final Optional<File> linkedVersion, final Predicate<GrappleAsset> linkSelection,
+                             final Optional<Predicate<GrappleAsset>> criticalSelection,
+                             final UpdateThroughput throughput, final Optional<UpdateJournal> journal,
+                             final TrashDirectory trash) {
+        this.contentRoot = contentRoot;
+        this.configuredRoot = configuredRoot;
+        this.manifest = manifest;
+        this.baseUrl = baseUrl;
+        this.hashSelection = hashSelection;
+        this.linkedVersion = linkedVersion;
+        this.linkSelection = linkSelection;
+        this.criticalSelection = criticalSelection;
+        this.throughput = throughput;
+        this.journal = journal;
+        this.summary = new VerificationSummary(contentRoot);
+        this.trash = trash;
+    }
+
+    public boolean isCritical(final GrappleAsset asset) {
+        return !criticalSelection.isPresent() || criticalSelection.get().apply(asset);
+    }
+
+    /**
+     * @return The size of the launch-critical assets of the manifest
+     */
+    public long criticalSize() {
+        long size = 0;
+        for (final GrappleAsset asset : manifest.getAssets()) {
+            if (isCritical(asset)) {
+                size += asset.getSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The size of the assets whose actions were deferred
+     */
+    public long deferredSize() {
+        long size = 0;
+        for (final AssetAction action : deferredActions) {
+            size += action.getAsset().getSize();
+        }
+        return size;
+    }
+
+    public File getContentRoot() {
+        return contentRoot;
+    }
+
+    public File getConfiguredRoot() {
+        return configuredRoot;
+    }
+
+    public GrappleManifest getManifest() {
+        return manifest;
+    }
+
+    public URL getBaseUrl() {
+        return baseUrl;
+    }
+
+    public Predicate<GrappleAsset> getHashSelection() {
+        return hashSelection;
+    }
+
+    public Optional<File> getLinkedVersion() {
+        return linkedVersion;
+    }
+
+    public Predicate<GrappleAsset> getLinkSelection() {
+        return linkSelection;
+    }
+
+    public UpdateThroughput getThroughput() {
+        return throughput;
+    }
+
+    public UpdateThroughput.Meter getMeter() {
+        return meter;
+    }
+
+    public Optional<UpdateJournal> getJournal() {
+        return journal;
+    }
+
+    public VerificationSummary getSummary() {
+        return summary;
+    }
+
+    public TrashDirectory getTrash() {
+        return trash;
+    }
+
+    /**
+     * @return The plan of the content root, if it was planned in full before the update
+     */
+    public Optional<UpdatePlan> getPlan() {
+        return plan;
+    }
+
+    public void setPlan(final UpdatePlan plan) {
+        this.plan = Optional.of(plan);
+    }
+
+    /**
+     * @return The actions on the assets that are not launch-critical, which are run after a progressive launch
+     */
+    public ImmutableList<AssetAction> getDeferredActions() {
+        return deferredActions;
+    }
+
+    public void setDeferredActions(final ImmutableList<AssetAction> deferredActions) {
+        this.deferredActions = deferredActions;
+    }
+
+    /**
+     * An asset and the task that updates it, deferred until after a progressive launch
+     */
+    public static class AssetAction {
+        private final GrappleAsset asset;
+        private final AssetTask task;
+
+        public AssetAction(final GrappleAsset asset, final AssetTask task) {
+            this.asset = asset;
+            this.task = task;
+        }
+
+        public GrappleAsset getAsset() {
+            return asset;
+        }
+
+        public AssetTask getTask() {
+            return task;
+        }
+    }
+}
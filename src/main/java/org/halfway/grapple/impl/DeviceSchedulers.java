@@ -0,0 +1,128 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.halfway.grapple.util.ExecutorServiceBuilder;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * One {@link org.halfway.grapple.impl.BatchedAssetScheduler} per storage device, each with its own executor service
+ * and therefore its own queue. Content roots on different devices are processed independently while content roots on
+ * the same device share the device's workers, so that a slow device neither holds up a fast one nor gets more
+ * concurrent access than its {@link org.halfway.grapple.model.configuration.StorageProfile} allows.
+ * <p/>
+ * Assets that are read are bounded by the workers of the device. Assets that are written are mostly downloaded, which
+ * waits on the network rather than the disk, so the workers are not bounded by the device; instead the disk is accessed
+ * while holding one of the {@link #diskPermitsForContentRoot(java.io.File) disk permits} of the device, of which there are
+ * as many as it allows concurrent writes.
+ */
+public class DeviceSchedulers {
+    private static final Logger logger = Logger.getLogger(DeviceSchedulers.class.getName());
+
+    private final ImmutableMap<File, StorageDevice> devices;
+    private final ImmutableMap<StorageDevice, ListeningExecutorService> services;
+    private final ImmutableMap<StorageDevice, BatchedAssetScheduler> schedulers;
+    private final ImmutableMap<StorageDevice, Optional<Semaphore>> diskPermits;
+
+    /**
+     * Start the executor services of all devices.
+     *
+     * @param devices          The map of content root to device
+     * @param requestedWorkers The number of workers to use on devices that do not limit concurrency
+     * @param writing          Whether assets are written rather than only read, in which case the workers are not
+     *                         bounded by the device but the disk permits are
+     * @param threadPriority   The priority of the worker threads
+     * @param threadNamePrefix The prefix of the names of the worker threads
+     */
+    public DeviceSchedulers(final ImmutableMap<File, StorageDevice> devices, final int requestedWorkers,
+                            final boolean writing, final int threadPriority, final String threadNamePrefix) {
+        Verify.verifyNotNull(devices, "devices must not be null");
+        Verify.verifyNotNull(threadNamePrefix, "thread name prefix must not be null");
+        this.devices = devices;
+
+        final Map<StorageDevice, ListeningExecutorService> serviceMap = Maps.newLinkedHashMap();
+        final Map<StorageDevice, BatchedAssetScheduler> schedulerMap = Maps.newLinkedHashMap();
+        final Map<StorageDevice, Optional<Semaphore>> permitMap = Maps.newLinkedHashMap();
+        for (final StorageDevice device : devices.values()) {
+            if (serviceMap.containsKey(device)) {
+                continue;
+            }
+            final int workers = writing ? requestedWorkers : device.readWorkers(requestedWorkers);
+            final int diskWorkers = writing ? device.writeWorkers(requestedWorkers) : workers;
+            permitMap.put(device, diskWorkers < workers ? Optional.of(new Semaphore(diskWorkers, true)) :
+                    Optional.<Semaphore>absent());
+            final String nameFormat = threadNamePrefix + "-" + serviceMap.size() + "-%1$s";
+            final ListeningExecutorService service = new ExecutorServiceBuilder()
+                    .withThreadFactoryBuilder(Optional.of(new ThreadFactoryBuilder()
+                            .setNameFormat(nameFormat)
+                            .setPriority(threadPriority)))
+                    .withPoolSize(Optional.of(workers))
+                    .newListeningExecutorService();
+            logger.fine("Using " + workers + " workers and " + diskWorkers + " concurrent disk accesses on " + device);
+            serviceMap.put(device, service);
+            schedulerMap.put(device, new BatchedAssetScheduler(service, workers));
+        }
+        this.services = ImmutableMap.copyOf(serviceMap);
+        this.schedulers = ImmutableMap.copyOf(schedulerMap);
+        this.diskPermits = ImmutableMap.copyOf(permitMap);
+    }
+
+    /**
+     * @return The scheduler of the device that the content root is on
+     */
+    public BatchedAssetScheduler forContentRoot(final File contentRoot) {
+        final StorageDevice device = devices.get(contentRoot);
+        Verify.verifyNotNull(device, "unknown content root %s", contentRoot);
+        return schedulers.get(device);
+    }
+
+    /**
+     * @return The executor service of the device that the content root is on, for work other than verifying assets
+     */
+    public ListeningExecutorService serviceForContentRoot(final File contentRoot) {
+        final StorageDevice device = devices.get(contentRoot);
+        Verify.verifyNotNull(device, "unknown content root %s", contentRoot);
+        return services.get(device);
+    }
+
+    /**
+     * @return The permits to hold while accessing the disk of the device that the content root is on, or absent if the
+     * device allows as many concurrent accesses as there are workers
+     */
+    public Optional<Semaphore> diskPermitsForContentRoot(final File contentRoot) {
+        final StorageDevice device = devices.get(contentRoot);
+        Verify.verifyNotNull(device, "unknown content root %s", contentRoot);
+        return diskPermits.get(device);
+    }
+
+    /**
+     * Stop accepting new work. Already scheduled work still completes.
+     */
+    public void shutdown() {
+        for (final ListeningExecutorService service : services.values()) {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * @return true if the executor services of all devices terminated within the timeout
+     * @see com.google.common.util.concurrent.MoreExecutors#shutdownAndAwaitTermination
+     */
+    public boolean shutdownAndAwaitTermination(final long timeout, final TimeUnit unit) {
+        boolean terminated = true;
+        for (final ListeningExecutorService service : services.values()) {
+            terminated &= MoreExecutors.shutdownAndAwaitTermination(service, timeout, unit);
+        }
+        return terminated;
+    }
+}
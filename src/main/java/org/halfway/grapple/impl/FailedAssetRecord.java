@@ -0,0 +1,74 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * A record of the assets in a content root that failed a verification which was not able to stop the launch, such as
+ * background verification while the application is already running.
+ * <p/>
+ * The record is a properties file of asset path to {@link org.halfway.grapple.impl.AssetVerificationResult.Outcome}
+ * that is kept in the content root until an update repairs the assets.
+ */
+public class FailedAssetRecord {
+    /**
+     * Name of the record on the file system
+     */
+    public static final String NAME = "grapple.failed.properties";
+
+    private final File file;
+
+    private FailedAssetRecord(final File contentRoot) {
+        this.file = new File(contentRoot, NAME);
+    }
+
+    public static FailedAssetRecord in(final File contentRoot) {
+        Verify.verifyNotNull(contentRoot, "content root must not be null");
+        return new FailedAssetRecord(contentRoot);
+    }
+
+    public boolean exists() {
+        return file.isFile();
+    }
+
+    /**
+     * @return The map of asset path to the outcome of the failed verification
+     */
+    public ImmutableMap<String, String> read() {
+        if (!exists()) {
+            return ImmutableMap.of();
+        }
+        return Maps.fromProperties(FileIO.readProperties(file));
+    }
+
+    /**
+     * Write out the failed results, replacing any previous record
+     *
+     * @param failures The results that failed to verify
+     */
+    public void write(final Iterable<AssetVerificationResult> failures) {
+        final Properties properties = new Properties();
+        for (final AssetVerificationResult failure : failures) {
+            properties.setProperty(failure.getAsset().getPath(), failure.getOutcome().name());
+        }
+        FileIO.writeProperties(file, properties, "written by " + FailedAssetRecord.class.getSimpleName());
+    }
+
+    /**
+     * Remove the record, if any
+     *
+     * @return true if there is no record left on the file system
+     */
+    public boolean clear() {
+        return !file.exists() || file.delete();
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
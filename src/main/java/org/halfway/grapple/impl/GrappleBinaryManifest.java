@@ -0,0 +1,275 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.primitives.Longs;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.model.manifest.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Static entry point to the binary manifest format, a compact equivalent of the {@link java.util.Properties} manifest
+ * of {@link org.halfway.grapple.impl.GrapplePropertiesManifest} that is read straight from a (mapped) buffer instead of
+ * being parsed entry by entry.
+ * <p/>
+ * All numbers are big-endian. The layout is:
+ * <ol>
+ * <li>the magic bytes {@code GRPM} and the binary format version</li>
+ * <li>the number of headers followed by the length-prefixed UTF-8 key and value of each header. The headers are the
+ * properties of the properties manifest that are not assets, including its hash</li>
+ * <li>the number of assets and the length of each asset hash</li>
+ * <li>the length-prefixed UTF-8 path of each asset, sorted</li>
+ * <li>the size of each asset as a fixed-width long</li>
+ * <li>the raw bytes of the hash of each asset</li>
+ * <li>the checksum of everything before it using the hash algorithm of the manifest</li>
+ * </ol>
+ */
+public class GrappleBinaryManifest {
+    public static final String MANIFEST_FILE = "grapple.manifest";
+
+    private static final Comparator<GrappleAsset> PATH_ORDER = new Comparator<GrappleAsset>() {
+        @Override
+        public int compare(final GrappleAsset a, final GrappleAsset b) {
+            return a.getPath().compareTo(b.getPath());
+        }
+    };
+    private static final int MAX_STRING_LENGTH = 0xffff;
+    private static final int CHECKSUM_CHUNK = 64 * 1024;
+
+    private GrappleBinaryManifest() {
+        // no-op
+    }
+
+    /**
+     * Write a manifest in the binary format.
+     *
+     * @param manifest           The manifest whose assets to write
+     * @param manifestProperties The properties of the same manifest, as built by
+     *                           {@link org.halfway.grapple.impl.PropertiesMapFromManifestBuilder}. The properties that
+     *                           are not assets become the headers
+     * @return The binary manifest
+     */
+    public static byte[] toBytes(final GrappleManifest manifest, final Map<String, String> manifestProperties) {
+        final SortedMap<String, String> headers = Maps.newTreeMap();
+        for (final Map.Entry<String, String> entry : manifestProperties.entrySet()) {
+            if (!entry.getKey().startsWith(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX)) {
+                headers.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!headers.containsKey(GrapplePropertiesManifest.Key.HASH_KEY)) {
+            throw new IllegalArgumentException("Manifest properties must contain the key " + GrapplePropertiesManifest.Key.HASH_KEY);
+        }
+        final List<GrappleAsset> assets = Lists.newArrayList(manifest.getAssets());
+        Collections.sort(assets, PATH_ORDER);
+        final ManifestHasher manifestHasher = ManifestHasher.fromAlgorithm(manifest.getHashAlgorithm());
+        final int hashLength = manifestHasher.hashLength();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(Format.MAGIC);
+            out.writeInt(Format.VERSION);
+            out.writeInt(headers.size());
+            for (final Map.Entry<String, String> header : headers.entrySet()) {
+                writeString(out, header.getKey());
+                writeString(out, header.getValue());
+            }
+            out.writeInt(assets.size());
+            out.writeInt(hashLength);
+            for (final GrappleAsset asset : assets) {
+                writeString(out, asset.getPath());
+            }
+            for (final GrappleAsset asset : assets) {
+                out.writeLong(asset.getSize());
+            }
+            for (final GrappleAsset asset : assets) {
+                final byte[] hash = asset.getHash().asBytes();
+                if (hash.length != hashLength) {
+                    throw new IllegalArgumentException("Hash of " + asset.getPath() + " has the wrong length");
+                }
+                out.write(hash);
+            }
+            out.flush();
+            final byte[] body = bytes.toByteArray();
+            out.write(manifestHasher.newHasher().putBytes(body).hash().asBytes());
+            out.close();
+        } catch (final IOException e) {
+            throw new IORuntimeException("Unable to write binary manifest", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a manifest in the binary format.
+     *
+     * @param buffer The buffer holding the whole of the manifest. Its position is advanced
+     * @return The manifest
+     * @throws org.halfway.grapple.model.manifest.ManifestVerificationException if the manifest is corrupt or is in an
+     *                                                                          unsupported version
+     */
+    public static GrappleManifest fromBuffer(final ByteBuffer buffer) {
+        try {
+            return read(buffer);
+        } catch (final BufferUnderflowException e) {
+            throw new ManifestVerificationException("Binary manifest is truncated");
+        }
+    }
+
+    /**
+     * Read the headers of a manifest in the binary format, such as its hash, without reading its assets or checking its
+     * checksum.
+     *
+     * @param buffer The buffer holding the manifest. Its position is not moved
+     * @return The headers
+     * @throws org.halfway.grapple.model.manifest.ManifestVerificationException if the manifest is truncated or is in an
+     *                                                                          unsupported version
+     */
+    public static ImmutableSortedMap<String, String> headersOf(final ByteBuffer buffer) {
+        try {
+            return readHeaders(buffer.duplicate());
+        } catch (final BufferUnderflowException e) {
+            throw new ManifestVerificationException("Binary manifest is truncated");
+        }
+    }
+
+    private static ImmutableSortedMap<String, String> readHeaders(final ByteBuffer buffer) {
+        final byte[] magic = new byte[Format.MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, Format.MAGIC)) {
+            throw new ManifestVerificationException("Not a binary manifest");
+        }
+        final int version = buffer.getInt();
+        if (version != Format.VERSION) {
+            throw new ManifestVerificationException("Binary manifest version '" + version + "' is not supported");
+        }
+        final int headerCount = buffer.getInt();
+        final ImmutableSortedMap.Builder<String, String> headers = ImmutableSortedMap.naturalOrder();
+        for (int i = 0; i < headerCount; i++) {
+            headers.put(readString(buffer), readString(buffer));
+        }
+        return headers.build();
+    }
+
+    private static GrappleManifest read(final ByteBuffer buffer) {
+        final int start = buffer.position();
+        final ImmutableSortedMap<String, String> headers = readHeaders(buffer);
+        if (!(GrapplePropertiesManifest.Format.VERSION + "").equals(headers.get(GrapplePropertiesManifest.Key.VERSION))) {
+            throw new ManifestVerificationException("Version '" + headers.get(GrapplePropertiesManifest.Key.VERSION) + "' is not supported");
+        }
+        final ManifestHashAlgorithm hashAlgorithm = headerEnum(ManifestHashAlgorithm.class, headers,
+                GrapplePropertiesManifest.Key.HASH_ALGORITHM);
+        final ManifestOrApplicationType applicationType = headerEnum(ManifestOrApplicationType.class, headers,
+                GrapplePropertiesManifest.Key.APPLICATION_TYPE);
+        final ManifestHasher manifestHasher = ManifestHasher.fromAlgorithm(hashAlgorithm);
+        verifyChecksum(buffer, start, manifestHasher);
+
+        final int assetCount = buffer.getInt();
+        final int hashLength = buffer.getInt();
+        if (assetCount < 0 || hashLength != manifestHasher.hashLength() ||
+                (long) assetCount * (Longs.BYTES + hashLength) > buffer.remaining()) {
+            throw new ManifestVerificationException("Binary manifest has an invalid asset count or hash length");
+        }
+        final String[] paths = new String[assetCount];
+        for (int i = 0; i < assetCount; i++) {
+            paths[i] = readString(buffer);
+        }
+        final long[] sizes = new long[assetCount];
+        buffer.asLongBuffer().get(sizes);
+        buffer.position(buffer.position() + assetCount * Longs.BYTES);
+
+        final AssetTable.Builder assets = AssetTable.builder();
+        final byte[] hash = new byte[hashLength];
+        for (int i = 0; i < assetCount; i++) {
+            buffer.get(hash);
+            assets.add(paths[i], sizes[i], hash);
+        }
+
+        return ManifestFromPropertiesMapBuilder.newManifest(applicationType, headers, assets.build(), hashAlgorithm);
+    }
+
+    /**
+     * Check the trailing checksum against the rest of the buffer without moving its position
+     */
+    private static void verifyChecksum(final ByteBuffer buffer, final int start, final ManifestHasher manifestHasher) {
+        final int checksumLength = manifestHasher.hashLength();
+        final int end = buffer.limit() - checksumLength;
+        if (end < buffer.position()) {
+            throw new ManifestVerificationException("Binary manifest is truncated");
+        }
+        final ByteBuffer body = buffer.duplicate();
+        body.position(start);
+        body.limit(end);
+        final Hasher bodyHasher = manifestHasher.newHasher();
+        final byte[] chunk = new byte[Math.min(CHECKSUM_CHUNK, end - start)];
+        while (body.hasRemaining()) {
+            final int length = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, length);
+            bodyHasher.putBytes(chunk, 0, length);
+        }
+        final byte[] expected = new byte[checksumLength];
+        final ByteBuffer trailer = buffer.duplicate();
+        trailer.position(end);
+        trailer.get(expected);
+        if (!bodyHasher.hash().equals(HashCode.fromBytes(expected))) {
+            throw new ManifestVerificationException("Binary manifest had invalid checksum");
+        }
+    }
+
+    private static <E extends Enum<E>> E headerEnum(final Class<E> type, final Map<String, String> headers,
+                                                    final String key) {
+        final String value = headers.get(key);
+        try {
+            return Enum.valueOf(type, value);
+        } catch (final IllegalArgumentException e) {
+            throw new ManifestVerificationException("Header " + key + " = '" + value + "' is not supported");
+        } catch (final NullPointerException e) {
+            throw new ManifestVerificationException("Header key '" + key + "' missing from binary manifest");
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(Charsets.UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("String is too long for the binary manifest: " + value);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getShort() & MAX_STRING_LENGTH;
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Binary manifest format constants
+     */
+    public static class Format {
+        /**
+         * Version of the binary format supported. This is independent of the version of the manifest in the headers
+         */
+        public static final int VERSION = 1;
+        /**
+         * Bytes at the start of every binary manifest
+         */
+        static final byte[] MAGIC = {'G', 'R', 'P', 'M'};
+    }
+}
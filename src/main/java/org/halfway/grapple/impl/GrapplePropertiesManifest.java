@@ -53,6 +53,17 @@ public class GrapplePropertiesManifest {
          * Prefix of property keys that specify size+hash for the manifest assets
          */
         public static final String FILE_KEY_PREFIX = "file.";
+        /**
+         * Prefix of property keys that describe an {@link org.halfway.grapple.model.manifest.AssetGroup}, followed by
+         * the name of the group, a '.' and one of the group keys of {@link Key}
+         */
+        public static final String GROUP_KEY_PREFIX = "group.";
+        /**
+         * Separator of the values of the operating system and architecture lists of a group
+         */
+        public static final char LIST_SEPARATION_CHAR = ',';
+        public static final Joiner LIST_JOINER = Joiner.on(LIST_SEPARATION_CHAR);
+        public static final Splitter LIST_SPLITTER = Splitter.on(LIST_SEPARATION_CHAR).trimResults().omitEmptyStrings();
     }
 
     /**
@@ -90,6 +101,34 @@ public class GrapplePropertiesManifest {
          * The path to the `java` executable used when launching a jvm application
          */
         public static final String JAVA_PATH = "java.path";
+
+        /**
+         * (mandatory for each group) The path prefix of the assets of a group
+         */
+        public static final String GROUP_PREFIX = "prefix";
+        /**
+         * (optional) The operating systems a group is installed on
+         */
+        public static final String GROUP_OS = "os";
+        /**
+         * (optional) The processor architectures a group is installed on
+         */
+        public static final String GROUP_ARCH = "arch";
+        /**
+         * (optional; {@link org.halfway.grapple.model.manifest.ManifestOrApplicationType#jvm} type only) The path to
+         * the `java` executable when a group is installed
+         */
+        public static final String GROUP_JAVA_PATH = JAVA_PATH;
+        /**
+         * (optional) Whether a group must be up to date before a progressive launch starts the application, either
+         * {@code true} or {@code false} (the default)
+         */
+        public static final String GROUP_CRITICAL = "critical";
+        /**
+         * (optional) Whether a group is only installed once the application has requested it, either {@code true} or
+         * {@code false} (the default)
+         */
+        public static final String GROUP_OPTIONAL = "optional";
     }
 
 }
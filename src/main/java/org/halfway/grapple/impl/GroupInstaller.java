@@ -0,0 +1,179 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.GrappleFatalException;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.model.configuration.Platform;
+import org.halfway.grapple.model.manifest.AssetGroup;
+import org.halfway.grapple.model.manifest.GrappleManifest;
+import org.halfway.grapple.util.DirectoryUpdateLock;
+import org.halfway.grapple.util.FileIO;
+import org.halfway.grapple.util.UrlDownloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.logging.Logger;
+
+/**
+ * Installs an optional {@link org.halfway.grapple.model.manifest.AssetGroup} on demand while the application runs:
+ * the assets of the group are downloaded into the directory the application was launched from, verified, and the
+ * group recorded in {@link org.halfway.grapple.impl.InstalledGroups} so that later launches keep it up to date.
+ * <p/>
+ * Each content root is locked while its group is installed, so requests are refused while another instance updates it.
+ */
+public class GroupInstaller {
+    private static final Logger logger = Logger.getLogger(GroupInstaller.class.getName());
+
+    private final Platform platform;
+    private final UrlDownloader urlDownloader;
+    private final ImmutableList<Root> roots;
+
+    public GroupInstaller(final Platform platform, final UrlDownloader urlDownloader, final ImmutableList<Root> roots) {
+        Verify.verifyNotNull(platform, "platform must not be null");
+        Verify.verifyNotNull(urlDownloader, "url downloader must not be null");
+        Verify.verifyNotNull(roots, "roots must not be null");
+
+        this.platform = platform;
+        this.urlDownloader = urlDownloader;
+        this.roots = roots;
+    }
+
+    /**
+     * @return true if any of the manifests has an optional group for the platform
+     */
+    public boolean hasOptionalGroups() {
+        for (final Root root : roots) {
+            for (final AssetGroup group : root.manifest.getAssetGroups()) {
+                if (group.isOptional() && group.matches(platform)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Install the group of that name in every content root whose manifest declares it. Groups that are not optional
+     * are always installed already
+     *
+     * @throws org.halfway.grapple.model.GrappleFatalException if there is no such group for the platform, a content root
+     *                                                         is being updated or an asset failed to install
+     * @throws org.halfway.grapple.model.IORuntimeException    if a file could not be written
+     */
+    public synchronized void install(final String name) {
+        boolean found = false;
+        for (final Root root : roots) {
+            final Optional<AssetGroup> group = groupNamed(root.manifest, name);
+            if (!group.isPresent()) {
+                continue;
+            }
+            if (!group.get().matches(platform)) {
+                throw new GrappleFatalException("The group " + name + " is not installed on platform " + platform);
+            }
+            found = true;
+            if (group.get().isOptional()) {
+                installIn(root, group.get());
+            }
+        }
+        if (!found) {
+            throw new GrappleFatalException("There is no group " + name);
+        }
+    }
+
+    private static Optional<AssetGroup> groupNamed(final GrappleManifest manifest, final String name) {
+        for (final AssetGroup group : manifest.getAssetGroups()) {
+            if (group.getName().equals(name)) {
+                return Optional.of(group);
+            }
+        }
+        return Optional.absent();
+    }
+
+    private void installIn(final Root root, final AssetGroup group) {
+        final DirectoryUpdateLock lock = FileIO.directoryUpdateLock(root.contentRoot, false);
+        if (!lock.lock()) {
+            lock.close();
+            throw new GrappleFatalException("The content root " + root.contentRoot + " is being updated");
+        }
+        try {
+            final ManifestHasher manifestHasher = ManifestHasher.fromAlgorithm(root.manifest.getHashAlgorithm());
+            final ImmutableList<AssetGroup> groups = root.manifest.getAssetGroups();
+            int downloaded = 0;
+            long size = 0;
+            for (final GrappleAsset asset : root.manifest.getAssets()) {
+                if (!group.equals(AssetGroupSelection.groupOf(groups, asset.getPath()).orNull())) {
+                    continue;
+                }
+                final File file = new File(root.installRoot, asset.getPath());
+                if (file.isFile() && file.length() == asset.getSize() &&
+                        asset.getHash().equals(manifestHasher.hashFile(file))) {
+                    continue;
+                }
+                download(root, manifestHasher, asset, file);
+                downloaded++;
+                size += asset.getSize();
+            }
+            InstalledGroups.in(root.contentRoot).add(group.getName());
+            logger.info("Installed group " + group.getName() + " in " + root.installRoot + ", downloading " +
+                    downloaded + " assets of " + size + " bytes");
+        } finally {
+            DirectoryUpdateLock.unlockAllAndClose(ImmutableList.of(lock));
+        }
+    }
+
+    private void download(final Root root, final ManifestHasher manifestHasher, final GrappleAsset asset,
+                          final File file) {
+        final File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IORuntimeException("Failed to create directory", directory);
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IORuntimeException("Unable to delete file", file);
+        }
+        try {
+            if (!file.createNewFile()) {
+                logger.warning("created new file " + file);
+            }
+        } catch (final IOException e) {
+            throw new IORuntimeException("Unable to create file " + file, e);
+        }
+        final URL downloadUrl = urlDownloader.combinePath(root.baseUrl, asset.getPath());
+        final Hasher hasher = manifestHasher.newHasher();
+        final int responseCode = urlDownloader.httpGet(downloadUrl, FileIO.asHashedFileSink(hasher, file));
+        if (responseCode != HttpURLConnection.HTTP_OK || !asset.getHash().equals(hasher.hash())) {
+            if (!file.delete()) {
+                logger.warning("unable to delete " + file);
+            }
+            throw new GrappleFatalException("Unable to install " + asset.getPath() + " from " + downloadUrl +
+                    (responseCode != HttpURLConnection.HTTP_OK ? ": HTTP " + responseCode : ": hash differs"));
+        }
+    }
+
+    /**
+     * A content root, the directory the application was launched from and the manifest as it was fetched
+     */
+    public static class Root {
+        private final File contentRoot;
+        private final File installRoot;
+        private final GrappleManifest manifest;
+        private final URL baseUrl;
+
+        public Root(final File contentRoot, final File installRoot, final GrappleManifest manifest, final URL baseUrl) {
+            Verify.verifyNotNull(contentRoot, "content root must not be null");
+            Verify.verifyNotNull(installRoot, "install root must not be null");
+            Verify.verifyNotNull(manifest, "manifest must not be null");
+            Verify.verifyNotNull(baseUrl, "base url must not be null");
+
+            this.contentRoot = contentRoot;
+            this.installRoot = installRoot;
+            this.manifest = manifest;
+            this.baseUrl = baseUrl;
+        }
+    }
+}
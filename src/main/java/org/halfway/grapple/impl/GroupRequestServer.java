@@ -0,0 +1,202 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Verify;
+import com.google.common.io.BaseEncoding;
+import org.halfway.grapple.model.GrappleFatalException;
+import org.halfway.grapple.model.IORuntimeException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A server on the loopback interface that the launched application calls to install optional
+ * {@link org.halfway.grapple.model.manifest.AssetGroup asset groups} on demand. Its port is passed to the application
+ * in the {@link #PORT_ENVIRONMENT_VARIABLE} environment variable, next to a random token generated for each launch in
+ * the {@link #TOKEN_ENVIRONMENT_VARIABLE} environment variable, so that other processes on the machine that find the
+ * port cannot make requests.
+ * <p/>
+ * The protocol is a single line of UTF-8 text per connection: the application sends {@code install <group> <token>}
+ * and the server answers {@code ok} once the group is installed and verified, or {@code error <message>}. Requests are
+ * served one at a time until the application exits; a request that fails is answered with an error and does not stop
+ * the server.
+ */
+public class GroupRequestServer {
+    private static final Logger logger = Logger.getLogger(GroupRequestServer.class.getName());
+    /**
+     * Name of the environment variable that holds the port of the server
+     */
+    public static final String PORT_ENVIRONMENT_VARIABLE = "GRAPPLE_GROUPS_PORT";
+    /**
+     * Name of the environment variable that holds the token that requests must present
+     */
+    public static final String TOKEN_ENVIRONMENT_VARIABLE = "GRAPPLE_GROUPS_TOKEN";
+    /**
+     * Request to install the group whose name follows
+     */
+    public static final String INSTALL_REQUEST = "install";
+    public static final String OK_RESPONSE = "ok";
+    public static final String ERROR_RESPONSE = "error";
+    private static final int BACKLOG = 16;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int TOKEN_BYTES = 16;
+    private static final Splitter REQUEST_SPLITTER = Splitter.on(' ').trimResults().omitEmptyStrings();
+
+    private final ServerSocket serverSocket;
+    private final GroupInstaller installer;
+    private final String token;
+
+    private GroupRequestServer(final ServerSocket serverSocket, final GroupInstaller installer, final String token) {
+        this.serverSocket = serverSocket;
+        this.installer = installer;
+        this.token = token;
+    }
+
+    /**
+     * Listen for requests on the loopback interface, without serving them yet
+     *
+     * @param port The port to listen on, or 0 for any free port
+     * @throws org.halfway.grapple.model.IORuntimeException if the port could not be bound
+     */
+    public static GroupRequestServer open(final int port, final GroupInstaller installer) {
+        Verify.verifyNotNull(installer, "installer must not be null");
+        try {
+            return new GroupRequestServer(new ServerSocket(port, BACKLOG, InetAddress.getByName(null)), installer,
+                    newToken());
+        } catch (final IOException e) {
+            throw new IORuntimeException("Unable to listen for group requests on port " + port, e);
+        }
+    }
+
+    private static String newToken() {
+        final byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        return BaseEncoding.base16().lowerCase().encode(bytes);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return The token that requests must present, which is only handed to the launched application
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Serve requests until the application exits
+     */
+    public void serveUntilExit(final Process application) {
+        final Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    application.waitFor();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    close();
+                }
+            }
+        }, "group-requests-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        serve();
+    }
+
+    /**
+     * Serve requests until the server is closed
+     */
+    public void serve() {
+        logger.info("Serving group requests on port " + getPort());
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (final SocketException e) {
+                if (serverSocket.isClosed()) {
+                    break;
+                }
+                throw new IORuntimeException("Unable to accept group requests", e);
+            } catch (final IOException e) {
+                throw new IORuntimeException("Unable to accept group requests", e);
+            }
+            handle(socket);
+        }
+        logger.info("Stopped serving group requests");
+    }
+
+    private void handle(final Socket socket) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    Charsets.UTF_8));
+            final String response = respond(reader.readLine());
+            final Writer writer = new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8);
+            writer.write(response + "\n");
+            writer.flush();
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "Unable to answer group request", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (final IOException e) {
+                logger.log(Level.FINE, "Unable to close group request socket", e);
+            }
+        }
+    }
+
+    private String respond(final String request) {
+        if (request == null) {
+            return ERROR_RESPONSE + " empty request";
+        }
+        final List<String> words = REQUEST_SPLITTER.splitToList(request);
+        if (words.size() != 3 || !INSTALL_REQUEST.equals(words.get(0))) {
+            return ERROR_RESPONSE + " unknown request";
+        }
+        if (!MessageDigest.isEqual(token.getBytes(Charsets.UTF_8), words.get(2).getBytes(Charsets.UTF_8))) {
+            logger.warning("Rejected a group request without the token of this launch");
+            return ERROR_RESPONSE + " invalid token";
+        }
+        logger.info("Group " + words.get(1) + " requested by the application");
+        try {
+            installer.install(words.get(1));
+            return OK_RESPONSE;
+        } catch (final GrappleFatalException e) {
+            logger.warning("Unable to install group " + words.get(1) + ": " + e.getMessage());
+            return ERROR_RESPONSE + " " + e.getMessage();
+        } catch (final IORuntimeException e) {
+            logger.log(Level.WARNING, "Unable to install group " + words.get(1), e);
+            return ERROR_RESPONSE + " " + e.getMessage();
+        } catch (final RuntimeException e) {
+            logger.log(Level.SEVERE, "BUG: Failed to install group " + words.get(1), e);
+            return ERROR_RESPONSE + " " + e;
+        }
+    }
+
+    /**
+     * Stop listening, which ends {@link #serve()} once the current request has been answered
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "Unable to close the group request server", e);
+        }
+    }
+}
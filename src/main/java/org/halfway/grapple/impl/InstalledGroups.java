@@ -0,0 +1,70 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.SortedSet;
+
+/**
+ * A record of the optional {@link org.halfway.grapple.model.manifest.AssetGroup asset groups} that the application
+ * requested in a content root, which are then installed and updated with the rest of the assets by every launch.
+ * <p/>
+ * The record is kept in the content root itself rather than in the directory of a version, so that the groups stay
+ * installed across versions.
+ */
+public class InstalledGroups {
+    /**
+     * Name of the record on the file system
+     */
+    public static final String NAME = "grapple.groups";
+    private static final String INSTALLED_KEY = "installed";
+    private static final char SEPARATOR = ',';
+    private static final Joiner JOINER = Joiner.on(SEPARATOR);
+    private static final Splitter SPLITTER = Splitter.on(SEPARATOR).trimResults().omitEmptyStrings();
+
+    private final File file;
+
+    private InstalledGroups(final File contentRoot) {
+        this.file = new File(contentRoot, NAME);
+    }
+
+    public static InstalledGroups in(final File contentRoot) {
+        Verify.verifyNotNull(contentRoot, "content root must not be null");
+        return new InstalledGroups(contentRoot);
+    }
+
+    /**
+     * @return The names of the optional groups that were requested
+     */
+    public ImmutableSet<String> read() {
+        if (!file.isFile()) {
+            return ImmutableSet.of();
+        }
+        return ImmutableSet.copyOf(SPLITTER.split(FileIO.readProperties(file).getProperty(INSTALLED_KEY, "")));
+    }
+
+    /**
+     * Record an optional group as requested
+     *
+     * @throws org.halfway.grapple.model.IORuntimeException if the record could not be written
+     */
+    public void add(final String group) {
+        final SortedSet<String> groups = Sets.newTreeSet(read());
+        if (!groups.add(group)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        properties.setProperty(INSTALLED_KEY, JOINER.join(groups));
+        FileIO.writeProperties(file, properties, "written by " + InstalledGroups.class.getSimpleName());
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
@@ -2,7 +2,6 @@ package org.halfway.grapple.impl;
 
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import org.halfway.grapple.model.GrappleAsset;
 import org.halfway.grapple.model.configuration.JvmApplicationTarget;
 import org.halfway.grapple.model.manifest.GrappleManifest;
@@ -12,22 +11,28 @@ import org.halfway.grapple.model.manifest.StandaloneManifest;
 import java.io.File;
 
 /**
- * A JVM application target containing the jvm and the application manifests
+ * A JVM application target containing the jvm and the application manifests, along with the manifests of its layers
  */
 public class JvmApplicationWithManifests implements TargetWithManifests<JvmApplicationTarget> {
 
     private final JvmApplicationTarget target;
     private final StandaloneManifest standaloneManifest;
     private final JvmManifest jvmManifest;
+    private final ImmutableList<StandaloneManifest> layerManifests;
+
     public JvmApplicationWithManifests(final JvmApplicationTarget target, final StandaloneManifest standaloneManifest,
-                                       final JvmManifest jvmManifest) {
+                                       final JvmManifest jvmManifest,
+                                       final ImmutableList<StandaloneManifest> layerManifests) {
         Verify.verifyNotNull(target, "target must not be null");
         Verify.verifyNotNull(standaloneManifest, "standalone manifest must not be null");
         Verify.verifyNotNull(jvmManifest, "jvm manifest must not be null");
+        Verify.verifyNotNull(layerManifests, "layer manifests must not be null");
+        Verify.verify(layerManifests.size() == target.getLayers().size(), "each layer must have a manifest");
 
         this.target = target;
         this.standaloneManifest = standaloneManifest;
         this.jvmManifest = jvmManifest;
+        this.layerManifests = layerManifests;
     }
 
     public StandaloneManifest getStandaloneManifest() {
@@ -37,8 +42,10 @@ public class JvmApplicationWithManifests implements TargetWithManifests<JvmAppli
     @Override
     public long getTotalFileSize() {
         long size = 0;
-        for (GrappleAsset file : Iterables.concat(standaloneManifest.getAssets(), jvmManifest.getAssets())) {
-            size += file.getSize();
+        for (GrappleManifest manifest : getManifests()) {
+            for (GrappleAsset file : manifest.getAssets()) {
+                size += file.getSize();
+            }
         }
         return size;
     }
@@ -50,7 +57,13 @@ public class JvmApplicationWithManifests implements TargetWithManifests<JvmAppli
 
     @Override
     public ImmutableList<GrappleManifest> getManifests() {
-        return ImmutableList.of(standaloneManifest, jvmManifest);
+        return ImmutableList.<GrappleManifest>builder().add(standaloneManifest, jvmManifest).addAll(layerManifests)
+                .build();
+    }
+
+    @Override
+    public ImmutableList<StandaloneManifest> getLayerManifests() {
+        return layerManifests;
     }
 
     public JvmManifest getJvmManifest() {
@@ -63,6 +76,10 @@ public class JvmApplicationWithManifests implements TargetWithManifests<JvmAppli
             return target.getContentRoot();
         } else if (jvmManifest.equals(manifest)) {
             return target.getJvmContentRoot();
+        }
+        final int layer = layerManifests.indexOf(manifest);
+        if (layer >= 0) {
+            return target.getLayers().get(layer).getContentRoot();
         } else {
             throw new IllegalArgumentException("Unknown manifest " + manifest);
         }
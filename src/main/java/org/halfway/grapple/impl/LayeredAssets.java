@@ -0,0 +1,47 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.manifest.GrappleManifest;
+import org.halfway.grapple.model.manifest.StandaloneManifest;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Composes the assets of an application with those of its
+ * {@link org.halfway.grapple.model.configuration.LayerTarget layers}, in the order in which they override each other:
+ * an asset of the application overrides an asset at the same path in any layer, and an asset of a layer overrides one
+ * at the same path in the layers below it.
+ */
+public class LayeredAssets {
+
+    private LayeredAssets() {
+        // no-op
+    }
+
+    /**
+     * @param manifest The manifest of the application that is composed on the layers of the target
+     * @return The path of each asset to the content root it is taken from: the assets of the application, followed by
+     * those of the layers from the top layer down that are not overridden, each in manifest order
+     */
+    public static ImmutableMap<String, File> compose(final TargetWithManifests<?> targetWithManifests,
+                                                     final GrappleManifest manifest) {
+        final Map<String, File> assets = Maps.newLinkedHashMap();
+        putNotOverridden(assets, manifest, targetWithManifests.getContentRoot(manifest));
+        for (final StandaloneManifest layerManifest : targetWithManifests.getLayerManifests().reverse()) {
+            putNotOverridden(assets, layerManifest, targetWithManifests.getContentRoot(layerManifest));
+        }
+        return ImmutableMap.copyOf(assets);
+    }
+
+    private static void putNotOverridden(final Map<String, File> assets, final GrappleManifest manifest,
+                                         final File contentRoot) {
+        for (final GrappleAsset asset : manifest.getAssets()) {
+            if (!assets.containsKey(asset.getPath())) {
+                assets.put(asset.getPath(), contentRoot);
+            }
+        }
+    }
+}
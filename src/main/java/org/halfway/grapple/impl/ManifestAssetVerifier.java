@@ -1,10 +1,11 @@
 package org.halfway.grapple.impl;
 
+import com.google.common.base.Functions;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.base.Verify;
-import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import org.halfway.grapple.model.GrappleAsset;
 import org.halfway.grapple.model.manifest.GrappleManifest;
 
@@ -31,20 +32,31 @@ public class ManifestAssetVerifier {
 
     /**
      * Verify all the files using the {@link org.halfway.grapple.impl.ManifestHasher} set up during construction. Use the
-     * {@link java.util.concurrent.ExecutorService} to allow for parallel verification.
+     * {@link org.halfway.grapple.impl.BatchedAssetScheduler} to allow for parallel verification.
      */
-    public ImmutableList<ListenableFuture<AssetVerificationResult>> verifyAll(final ListeningExecutorService service) {
-        final ImmutableList.Builder<ListenableFuture<AssetVerificationResult>> builder = ImmutableList.builder();
-        for (final GrappleAsset asset : manifest.getAssets()) {
-            final ListenableFuture<AssetVerificationResult> future = service.submit(
-                    new AssetVerificationCallable(manifest, asset, combineContentRootWith(asset), manifestHasher));
-            builder.add(future);
-        }
-        return builder.build();
+    public ListenableFuture<VerificationSummary> verifyAll(final BatchedAssetScheduler scheduler) {
+        return verifyAll(scheduler, Predicates.<GrappleAsset>alwaysTrue());
     }
 
-    private File combineContentRootWith(GrappleAsset asset) {
-        return new File(this.contentRoot, asset.getPath());
+    /**
+     * Check only the existence and size of all the files, without hashing their contents.
+     *
+     * @see #verifyAll(org.halfway.grapple.impl.BatchedAssetScheduler)
+     */
+    public ListenableFuture<VerificationSummary> verifyMetadata(final BatchedAssetScheduler scheduler) {
+        return verifyAll(scheduler, Predicates.<GrappleAsset>alwaysFalse());
+    }
+
+    /**
+     * Check the existence and size of all the files, hashing the contents of only those selected by the predicate.
+     *
+     * @see org.halfway.grapple.impl.VerificationSampler
+     */
+    public ListenableFuture<VerificationSummary> verifyAll(final BatchedAssetScheduler scheduler,
+                                                           final Predicate<GrappleAsset> checkHash) {
+        return scheduler.schedule(manifest.getAssets(),
+                new AssetVerificationTask(manifest, contentRoot, manifestHasher, checkHash),
+                new VerificationSummary(contentRoot), Functions.constant(null));
     }
 
     @Override
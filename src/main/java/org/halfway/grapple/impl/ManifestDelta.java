@@ -0,0 +1,141 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import org.halfway.grapple.model.manifest.ManifestVerificationException;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Static entry point to manifest deltas. A delta turns the properties of one manifest into the properties of a later
+ * one and is published under the hash of the earlier manifest, so that a client that already has a manifest only
+ * downloads the entries that changed.
+ * <p/>
+ * A delta is itself a properties map holding:
+ * <ul>
+ * <li>{@code delta.from} - the hash of the manifest the delta applies to</li>
+ * <li>all the properties of the later manifest that are not assets, including its hash</li>
+ * <li>{@code file.<path>=size:hash} for every asset that was added or changed</li>
+ * <li>{@code removed.<path>=} for every asset that was removed</li>
+ * </ul>
+ * The result of applying a delta is built like any other properties manifest and therefore checked against the hash of
+ * the later manifest.
+ */
+public class ManifestDelta {
+    /**
+     * File in the content root that holds the hash of the current manifest
+     */
+    public static final String HASH_FILE = "grapple.hash";
+    /**
+     * Directory in the content root that holds the deltas to the current manifest
+     */
+    public static final String DELTA_DIRECTORY = "grapple.delta";
+    /**
+     * Key of the hash of the manifest that a delta applies to
+     */
+    public static final String FROM_KEY = "delta.from";
+    /**
+     * Prefix of keys that specify the assets removed by a delta
+     */
+    public static final String REMOVED_KEY_PREFIX = "removed.";
+    private static final String DELTA_FILE_SUFFIX = ".properties";
+
+    private ManifestDelta() {
+        // no-op
+    }
+
+    /**
+     * @param fromHash The hash of the manifest that the delta applies to
+     * @return The name of the delta file inside {@link #DELTA_DIRECTORY}
+     */
+    public static String deltaFileName(final String fromHash) {
+        return fromHash + DELTA_FILE_SUFFIX;
+    }
+
+    /**
+     * Compute the delta between the properties of two manifests
+     *
+     * @param previousProperties The properties of the earlier manifest
+     * @param currentProperties  The properties of the later manifest
+     * @return The properties of the delta
+     */
+    public static ImmutableSortedMap<String, String> between(final Map<String, String> previousProperties,
+                                                             final Map<String, String> currentProperties) {
+        final SortedMap<String, String> delta = Maps.newTreeMap();
+        delta.put(FROM_KEY, hashOf(previousProperties));
+        for (final Map.Entry<String, String> entry : currentProperties.entrySet()) {
+            final String key = entry.getKey();
+            if (!isAsset(key) || !entry.getValue().equals(previousProperties.get(key))) {
+                delta.put(key, entry.getValue());
+            }
+        }
+        for (final String key : previousProperties.keySet()) {
+            if (isAsset(key) && !currentProperties.containsKey(key)) {
+                delta.put(REMOVED_KEY_PREFIX + key.substring(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX.length()), "");
+            }
+        }
+        return ImmutableSortedMap.copyOfSorted(delta);
+    }
+
+    /**
+     * Apply a delta to the properties of a manifest
+     *
+     * @param previousProperties The properties of the manifest that the delta applies to
+     * @param delta              The properties of the delta
+     * @return The properties of the later manifest. These are not verified until the manifest is built from them
+     * @throws org.halfway.grapple.model.manifest.ManifestVerificationException if the delta does not apply to the
+     *                                                                          manifest
+     */
+    public static ImmutableMap<String, String> apply(final Map<String, String> previousProperties,
+                                                     final Map<String, String> delta) {
+        final String previousHash = hashOf(previousProperties);
+        if (!previousHash.equals(delta.get(FROM_KEY))) {
+            throw new ManifestVerificationException("Manifest delta from '" + delta.get(FROM_KEY) +
+                    "' does not apply to manifest " + previousHash);
+        }
+        final Map<String, String> properties = Maps.newHashMap();
+        for (final Map.Entry<String, String> entry : previousProperties.entrySet()) {
+            if (isAsset(entry.getKey())) {
+                properties.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (final Map.Entry<String, String> entry : delta.entrySet()) {
+            final String key = entry.getKey();
+            if (key.startsWith(REMOVED_KEY_PREFIX)) {
+                properties.remove(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX + key.substring(REMOVED_KEY_PREFIX.length()));
+            } else if (!FROM_KEY.equals(key)) {
+                properties.put(key, entry.getValue());
+            }
+        }
+        return ImmutableMap.copyOf(properties);
+    }
+
+    /**
+     * @param delta The properties of a delta
+     * @return The paths of the assets that the delta adds or changes
+     */
+    public static ImmutableSet<String> changedPaths(final Map<String, String> delta) {
+        final ImmutableSet.Builder<String> paths = ImmutableSet.builder();
+        for (final String key : delta.keySet()) {
+            if (isAsset(key)) {
+                paths.add(key.substring(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX.length()));
+            }
+        }
+        return paths.build();
+    }
+
+    private static boolean isAsset(final String key) {
+        return key.startsWith(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX);
+    }
+
+    private static String hashOf(final Map<String, String> properties) {
+        final String hash = properties.get(GrapplePropertiesManifest.Key.HASH_KEY);
+        if (hash == null) {
+            throw new ManifestVerificationException("Hash key '" + GrapplePropertiesManifest.Key.HASH_KEY + "' missing");
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,298 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.Files;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.model.manifest.GrappleManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The difference between two manifests and an estimate of what updating a client from the previous to the current
+ * manifest costs.
+ * <p/>
+ * An added asset whose size and hash are those of a removed asset is reported as renamed rather than as added and
+ * removed. The report is a sorted map of:
+ * <ul>
+ * <li>{@code assets.<added|removed|changed|renamed|unchanged>} - the number of assets of each kind</li>
+ * <li>{@code added.<path>=size}, {@code removed.<path>=size}, {@code changed.<path>=previous size:size} and
+ * {@code renamed.<path>=previous path} for each asset that is not unchanged</li>
+ * <li>{@code transfer.<strategy>.bytes} and {@code transfer.<strategy>.requests} for each strategy:
+ * <ul>
+ * <li>{@code full} - every added, changed and renamed asset is downloaded as is, which is what Grapple does</li>
+ * <li>{@code compressed} - the same assets are downloaded gzip compressed one by one</li>
+ * <li>{@code delta} - added assets are downloaded as is, only the blocks of changed assets that are not in their
+ * previous version are downloaded and renamed assets are copied locally</li>
+ * <li>{@code pack} - the same assets as {@code full} are downloaded as a single gzip compressed archive</li>
+ * </ul>
+ * </li>
+ * <li>{@code hash.update.bytes} - the bytes a client hashes when it only hashes what it downloads or what changed and
+ * {@code hash.full.bytes} - the bytes it hashes under the full verification policy</li>
+ * </ul>
+ * The {@code compressed} and {@code pack} estimates need the content of the current manifest and the {@code delta}
+ * estimate also needs the content of the previous manifest, so they are missing from the report when the content is
+ * not available locally. The delta estimate matches fixed size blocks only and so is an upper bound.
+ */
+public class ManifestDiff {
+    /**
+     * Size of the blocks that the delta estimate matches
+     */
+    static final int DELTA_BLOCK_SIZE = 4096;
+    private static final HashFunction BLOCK_HASH = Hashing.murmur3_128();
+
+    private final ImmutableSortedMap<String, GrappleAsset> added;
+    private final ImmutableSortedMap<String, GrappleAsset> removed;
+    private final ImmutableSortedMap<String, Map.Entry<GrappleAsset, GrappleAsset>> changed;
+    private final ImmutableSortedMap<String, GrappleAsset> renamed;
+    private final int unchanged;
+    private final long totalBytes;
+
+    private ManifestDiff(final ImmutableSortedMap<String, GrappleAsset> added,
+                         final ImmutableSortedMap<String, GrappleAsset> removed,
+                         final ImmutableSortedMap<String, Map.Entry<GrappleAsset, GrappleAsset>> changed,
+                         final ImmutableSortedMap<String, GrappleAsset> renamed,
+                         final int unchanged, final long totalBytes) {
+        this.added = added;
+        this.removed = removed;
+        this.changed = changed;
+        this.renamed = renamed;
+        this.unchanged = unchanged;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Compare two manifests
+     *
+     * @param previous The manifest a client has
+     * @param current  The manifest a client updates to
+     * @return The difference
+     */
+    public static ManifestDiff between(final GrappleManifest previous, final GrappleManifest current) {
+        final Map<String, GrappleAsset> previousAssets = Maps.newHashMap();
+        for (final GrappleAsset asset : previous.getAssets()) {
+            previousAssets.put(asset.getPath(), asset);
+        }
+        final SortedMap<String, GrappleAsset> added = Maps.newTreeMap();
+        final SortedMap<String, Map.Entry<GrappleAsset, GrappleAsset>> changed = Maps.newTreeMap();
+        int unchanged = 0;
+        long totalBytes = 0;
+        for (final GrappleAsset asset : current.getAssets()) {
+            totalBytes += asset.getSize();
+            final GrappleAsset previousAsset = previousAssets.remove(asset.getPath());
+            if (previousAsset == null) {
+                added.put(asset.getPath(), asset);
+            } else if (previousAsset.getSize() != asset.getSize() || !previousAsset.getHash().equals(asset.getHash())) {
+                changed.put(asset.getPath(), Maps.immutableEntry(previousAsset, asset));
+            } else {
+                unchanged += 1;
+            }
+        }
+        final SortedMap<String, GrappleAsset> removed = new TreeMap<String, GrappleAsset>(previousAssets);
+
+        final ListMultimap<HashCode, GrappleAsset> removedByHash = ArrayListMultimap.create();
+        for (final GrappleAsset asset : removed.values()) {
+            removedByHash.put(asset.getHash(), asset);
+        }
+        final SortedMap<String, GrappleAsset> renamed = Maps.newTreeMap();
+        for (final GrappleAsset asset : added.values()) {
+            final List<GrappleAsset> candidates = removedByHash.get(asset.getHash());
+            for (final GrappleAsset candidate : candidates) {
+                if (candidate.getSize() == asset.getSize()) {
+                    candidates.remove(candidate);
+                    renamed.put(asset.getPath(), candidate);
+                    break;
+                }
+            }
+        }
+        for (final Map.Entry<String, GrappleAsset> entry : renamed.entrySet()) {
+            added.remove(entry.getKey());
+            removed.remove(entry.getValue().getPath());
+        }
+        return new ManifestDiff(ImmutableSortedMap.copyOfSorted(added), ImmutableSortedMap.copyOfSorted(removed),
+                ImmutableSortedMap.copyOfSorted(changed), ImmutableSortedMap.copyOfSorted(renamed), unchanged, totalBytes);
+    }
+
+    /**
+     * Build the report of the difference and the transfer cost estimates
+     *
+     * @param previousContentRoot The content root of the previous manifest, if available locally
+     * @param currentContentRoot  The content root of the current manifest, if available locally
+     * @return The report
+     * @throws org.halfway.grapple.model.IORuntimeException if the content could not be read
+     */
+    public ImmutableSortedMap<String, String> report(final Optional<File> previousContentRoot,
+                                                     final Optional<File> currentContentRoot) {
+        final SortedMap<String, String> report = Maps.newTreeMap();
+        report.put("assets.added", Integer.toString(added.size()));
+        report.put("assets.removed", Integer.toString(removed.size()));
+        report.put("assets.changed", Integer.toString(changed.size()));
+        report.put("assets.renamed", Integer.toString(renamed.size()));
+        report.put("assets.unchanged", Integer.toString(unchanged));
+        for (final GrappleAsset asset : added.values()) {
+            report.put("added." + asset.getPath(), Long.toString(asset.getSize()));
+        }
+        for (final GrappleAsset asset : removed.values()) {
+            report.put("removed." + asset.getPath(), Long.toString(asset.getSize()));
+        }
+        for (final Map.Entry<GrappleAsset, GrappleAsset> entry : changed.values()) {
+            report.put("changed." + entry.getValue().getPath(), GrapplePropertiesManifest.Format.HASH_JOINER.join(
+                    entry.getKey().getSize(), entry.getValue().getSize()));
+        }
+        for (final Map.Entry<String, GrappleAsset> entry : renamed.entrySet()) {
+            report.put("renamed." + entry.getKey(), entry.getValue().getPath());
+        }
+
+        long transferredBytes = 0;
+        for (final GrappleAsset asset : transferred()) {
+            transferredBytes += asset.getSize();
+        }
+        final int transferredCount = added.size() + changed.size() + renamed.size();
+        putTransfer(report, "full", transferredBytes, transferredCount);
+        report.put("hash.update.bytes", Long.toString(transferredBytes));
+        report.put("hash.full.bytes", Long.toString(totalBytes));
+
+        if (currentContentRoot.isPresent()) {
+            final File root = currentContentRoot.get();
+            long compressedBytes = 0;
+            for (final GrappleAsset asset : transferred()) {
+                compressedBytes += compressedSize(root, asset);
+            }
+            putTransfer(report, "compressed", compressedBytes, transferredCount);
+            putTransfer(report, "pack", packedSize(root), transferredCount == 0 ? 0 : 1);
+            if (previousContentRoot.isPresent()) {
+                long deltaBytes = 0;
+                for (final GrappleAsset asset : added.values()) {
+                    deltaBytes += asset.getSize();
+                }
+                for (final Map.Entry<GrappleAsset, GrappleAsset> entry : changed.values()) {
+                    deltaBytes += unmatchedBlockBytes(new File(previousContentRoot.get(), entry.getKey().getPath()),
+                            new File(root, entry.getValue().getPath()));
+                }
+                putTransfer(report, "delta", deltaBytes, added.size() + changed.size());
+            }
+        }
+        return ImmutableSortedMap.copyOfSorted(report);
+    }
+
+    private Iterable<GrappleAsset> transferred() {
+        final List<GrappleAsset> assets = Lists.newArrayList(added.values());
+        for (final Map.Entry<GrappleAsset, GrappleAsset> entry : changed.values()) {
+            assets.add(entry.getValue());
+        }
+        for (final Map.Entry<String, GrappleAsset> entry : renamed.entrySet()) {
+            assets.add(new GrappleAsset(entry.getKey(), entry.getValue().getSize(), entry.getValue().getHash()));
+        }
+        return assets;
+    }
+
+    private static void putTransfer(final Map<String, String> report, final String strategy, final long bytes,
+                                    final int requests) {
+        report.put("transfer." + strategy + ".bytes", Long.toString(bytes));
+        report.put("transfer." + strategy + ".requests", Integer.toString(requests));
+    }
+
+    private static long compressedSize(final File contentRoot, final GrappleAsset asset) {
+        final CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        try {
+            final OutputStream gzip = new GZIPOutputStream(counter);
+            Files.asByteSource(new File(contentRoot, asset.getPath())).copyTo(gzip);
+            gzip.close();
+        } catch (final IOException e) {
+            throw new IORuntimeException("Unable to compress " + asset.getPath(), e);
+        }
+        return counter.getCount();
+    }
+
+    private long packedSize(final File contentRoot) {
+        final CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        try {
+            final OutputStream gzip = new GZIPOutputStream(counter);
+            for (final GrappleAsset asset : transferred()) {
+                Files.asByteSource(new File(contentRoot, asset.getPath())).copyTo(gzip);
+            }
+            gzip.close();
+        } catch (final IOException e) {
+            throw new IORuntimeException("Unable to compress the assets of " + contentRoot, e);
+        }
+        return counter.getCount();
+    }
+
+    /**
+     * @return The bytes of the blocks of the current file that are not blocks of the previous file
+     */
+    private static long unmatchedBlockBytes(final File previousFile, final File currentFile) {
+        final Set<HashCode> previousBlocks = Sets.newHashSet();
+        final byte[] block = new byte[DELTA_BLOCK_SIZE];
+        try {
+            if (previousFile.isFile()) {
+                final InputStream in = Files.asByteSource(previousFile).openBufferedStream();
+                try {
+                    int read;
+                    while ((read = ByteStreams.read(in, block, 0, block.length)) > 0) {
+                        previousBlocks.add(BLOCK_HASH.hashBytes(block, 0, read));
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            long unmatched = 0;
+            final InputStream in = Files.asByteSource(currentFile).openBufferedStream();
+            try {
+                int read;
+                while ((read = ByteStreams.read(in, block, 0, block.length)) > 0) {
+                    if (!previousBlocks.contains(BLOCK_HASH.hashBytes(block, 0, read))) {
+                        unmatched += read;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            return unmatched;
+        } catch (final IOException e) {
+            throw new IORuntimeException("Unable to compare " + previousFile + " with " + currentFile, e);
+        }
+    }
+
+    public ImmutableSortedMap<String, GrappleAsset> getAdded() {
+        return added;
+    }
+
+    public ImmutableSortedMap<String, GrappleAsset> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return The map of path to the previous and current asset
+     */
+    public ImmutableSortedMap<String, Map.Entry<GrappleAsset, GrappleAsset>> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return The map of current path to the previous asset
+     */
+    public ImmutableSortedMap<String, GrappleAsset> getRenamed() {
+        return renamed;
+    }
+}
@@ -4,15 +4,16 @@ import com.google.common.base.Optional;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
-import com.google.common.hash.HashCode;
 import com.google.common.io.BaseEncoding;
-import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.configuration.Platform;
 import org.halfway.grapple.model.manifest.*;
 
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.SortedMap;
 
 /**
  * Builder of {@link org.halfway.grapple.model.manifest.GrappleManifest} from a {@link java.util.Properties} file
@@ -24,18 +25,89 @@ public class ManifestFromPropertiesMapBuilder {
         // no-op
     }
 
-    private static JvmManifest newJvmManifest(final ImmutableMap<String, String> manifestPropertiesMap,
-                                              final ImmutableList<GrappleAsset> assets,
+    /**
+     * Create the manifest of the application type from its assets and the manifest properties that are not assets
+     */
+    static GrappleManifest newManifest(final ManifestOrApplicationType applicationType,
+                                       final Map<String, String> manifestPropertiesMap,
+                                       final AssetTable assets,
+                                       final ManifestHashAlgorithm hashAlgorithm) {
+        final ImmutableList<AssetGroup> assetGroups = assetGroupsFromPropertiesMap(manifestPropertiesMap);
+        switch (applicationType) {
+            case jvm:
+                return newJvmManifest(manifestPropertiesMap, assets, assetGroups, hashAlgorithm);
+            case std:
+                return newStdManifest(manifestPropertiesMap, assets, assetGroups, hashAlgorithm);
+            default:
+                throw new ManifestVerificationException("Unknown application type '" + applicationType + "'");
+        }
+    }
+
+    private static JvmManifest newJvmManifest(final Map<String, String> manifestPropertiesMap,
+                                              final AssetTable assets,
+                                              final ImmutableList<AssetGroup> assetGroups,
                                               final ManifestHashAlgorithm hashAlgorithm) {
         final Optional<String> javaPath = manifestPropertiesMap.containsKey(GrapplePropertiesManifest.Key.JAVA_PATH) ?
                 Optional.of(manifestPropertiesMap.get(GrapplePropertiesManifest.Key.JAVA_PATH)) : Optional.<String>absent();
-        return new JvmManifest(assets, hashAlgorithm, javaPath);
+        return new JvmManifest(assets, assetGroups, hashAlgorithm, javaPath);
     }
 
-    private static StandaloneManifest newStdManifest(@SuppressWarnings("unused") final ImmutableMap<String, String> manifestPropertiesMap,
-                                                     final ImmutableList<GrappleAsset> assets,
+    private static StandaloneManifest newStdManifest(@SuppressWarnings("unused") final Map<String, String> manifestPropertiesMap,
+                                                     final AssetTable assets,
+                                                     final ImmutableList<AssetGroup> assetGroups,
                                                      final ManifestHashAlgorithm hashAlgorithm) {
-        return new StandaloneManifest(assets, hashAlgorithm);
+        return new StandaloneManifest(assets, assetGroups, hashAlgorithm);
+    }
+
+    /**
+     * Read the asset groups from the {@code group.<name>.<key>} properties
+     *
+     * @return The groups sorted by name
+     * @throws org.halfway.grapple.model.manifest.ManifestVerificationException if a group has no name or prefix
+     */
+    public static ImmutableList<AssetGroup> assetGroupsFromPropertiesMap(final Map<String, String> manifestPropertiesMap) {
+        final SortedMap<String, Map<String, String>> groupProperties = Maps.newTreeMap();
+        for (final Map.Entry<String, String> entry : manifestPropertiesMap.entrySet()) {
+            if (!entry.getKey().startsWith(GrapplePropertiesManifest.Format.GROUP_KEY_PREFIX)) {
+                continue;
+            }
+            final String nameAndKey = entry.getKey().substring(GrapplePropertiesManifest.Format.GROUP_KEY_PREFIX.length());
+            final int separator = nameAndKey.indexOf('.');
+            if (separator <= 0) {
+                throw new ManifestVerificationException("The group entry " + entry.getKey() + " has no group name");
+            }
+            final String name = nameAndKey.substring(0, separator);
+            if (!groupProperties.containsKey(name)) {
+                groupProperties.put(name, Maps.<String, String>newHashMap());
+            }
+            groupProperties.get(name).put(nameAndKey.substring(separator + 1), entry.getValue());
+        }
+        final ImmutableList.Builder<AssetGroup> groups = ImmutableList.builder();
+        for (final Map.Entry<String, Map<String, String>> entry : groupProperties.entrySet()) {
+            final Map<String, String> properties = entry.getValue();
+            final String prefix = properties.get(GrapplePropertiesManifest.Key.GROUP_PREFIX);
+            if (prefix == null || prefix.isEmpty()) {
+                throw new ManifestVerificationException("The group " + entry.getKey() + " has no prefix");
+            }
+            groups.add(new AssetGroup(entry.getKey(), prefix,
+                    platformNames(properties.get(GrapplePropertiesManifest.Key.GROUP_OS), true),
+                    platformNames(properties.get(GrapplePropertiesManifest.Key.GROUP_ARCH), false),
+                    Optional.fromNullable(properties.get(GrapplePropertiesManifest.Key.GROUP_JAVA_PATH)),
+                    Boolean.parseBoolean(properties.get(GrapplePropertiesManifest.Key.GROUP_CRITICAL)),
+                    Boolean.parseBoolean(properties.get(GrapplePropertiesManifest.Key.GROUP_OPTIONAL))));
+        }
+        return groups.build();
+    }
+
+    private static ImmutableSet<String> platformNames(final String list, final boolean os) {
+        if (list == null) {
+            return ImmutableSet.of();
+        }
+        final ImmutableSet.Builder<String> names = ImmutableSet.builder();
+        for (final String name : GrapplePropertiesManifest.Format.LIST_SPLITTER.split(list)) {
+            names.add(os ? Platform.normaliseOs(name) : Platform.normaliseArch(name));
+        }
+        return names.build();
     }
 
     public ManifestFromPropertiesMapBuilder map(final ImmutableMap<String, String> manifestPropertiesMap) {
@@ -53,15 +125,8 @@ public class ManifestFromPropertiesMapBuilder {
         verifyHeaders();
         final ManifestHashAlgorithm hashAlgorithm = verifyHeadersHash();
         final ManifestOrApplicationType applicationType = verifyApplicationType();
-        final ImmutableList<GrappleAsset> assets = assetsFromPropertiesMap();
-        switch (applicationType) {
-            case jvm:
-                return newJvmManifest(manifestPropertiesMap, assets, hashAlgorithm);
-            case std:
-                return newStdManifest(manifestPropertiesMap, assets, hashAlgorithm);
-            default:
-                throw new ManifestVerificationException("Unknown application type '" + applicationType + "'");
-        }
+        final AssetTable assets = assetsFromPropertiesMap();
+        return newManifest(applicationType, manifestPropertiesMap, assets, hashAlgorithm);
     }
 
     private void ensurePropertiesMap() {
@@ -102,9 +167,9 @@ public class ManifestFromPropertiesMapBuilder {
         return applicationType;
     }
 
-    private ImmutableList<GrappleAsset> assetsFromPropertiesMap() {
+    private AssetTable assetsFromPropertiesMap() {
         ensurePropertiesMap();
-        final ImmutableList.Builder<GrappleAsset> assets = ImmutableList.builder();
+        final AssetTable.Builder assets = AssetTable.builder();
         for (final Map.Entry<String, String> entry : manifestPropertiesMap.entrySet()) {
             if (entry.getKey().startsWith(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX)) {
                 final String path = entry.getKey().substring(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX.length());
@@ -115,9 +180,9 @@ public class ManifestFromPropertiesMapBuilder {
                 }
 
                 final int size = Integer.parseInt(splitSizeHash.get(0));
-                final HashCode hash = HashCode.fromBytes(BaseEncoding.base16().lowerCase().decode(splitSizeHash.get(1)));
+                final byte[] hash = BaseEncoding.base16().lowerCase().decode(splitSizeHash.get(1));
 
-                assets.add(new GrappleAsset(path, size, hash));
+                assets.add(path, size, hash);
             }
         }
         return assets.build();
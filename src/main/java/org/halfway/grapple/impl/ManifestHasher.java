@@ -2,9 +2,8 @@ package org.halfway.grapple.impl;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
@@ -17,7 +16,10 @@ import org.halfway.grapple.model.manifest.ManifestHashAlgorithm;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,7 +52,8 @@ public class ManifestHasher {
     /**
      * Verify the hash of the properties in the manifest to ensure the integrity of the manifest itself.
      * <p/>
-     * To keep the hash consistent the map is sorted by key before computing the hash.
+     * To keep the hash consistent the entries are hashed in the order of their keys. Only the keys are sorted, so the
+     * map is never copied.
      * <p/>
      * The only key that is excluded from the hashing is the hash key
      * {@link org.halfway.grapple.impl.GrapplePropertiesManifest.Key#HASH_KEY}.
@@ -58,7 +61,7 @@ public class ManifestHasher {
      * @param manifestPropertiesMap
      * @return
      */
-    public boolean verifyManifestProperties(final ImmutableMap<String, String> manifestPropertiesMap) {
+    public boolean verifyManifestProperties(final Map<String, String> manifestPropertiesMap) {
         if (!manifestPropertiesMap.containsKey(GrapplePropertiesManifest.Key.HASH_KEY)) {
             throw new IllegalArgumentException("Manifest property map must contain the key " + GrapplePropertiesManifest.Key.HASH_KEY);
         }
@@ -71,7 +74,7 @@ public class ManifestHasher {
      * @param manifestPropertiesMap
      * @return
      */
-    public Map.Entry<String, String> hashManifestProperties(final ImmutableMap<String, String> manifestPropertiesMap) {
+    public Map.Entry<String, String> hashManifestProperties(final Map<String, String> manifestPropertiesMap) {
         if (manifestPropertiesMap.containsKey(GrapplePropertiesManifest.Key.HASH_KEY)) {
             throw new IllegalArgumentException("Manifest property map must not already contain the key " +
                     GrapplePropertiesManifest.Key.HASH_KEY);
@@ -97,22 +100,48 @@ public class ManifestHasher {
         }
     }
 
-    private HashCode hashManifestPropertiesExcludingHashKey(final ImmutableMap<String, String> manifestPropertiesMap) {
+    private HashCode hashManifestPropertiesExcludingHashKey(final Map<String, String> manifestPropertiesMap) {
         final Hasher hasher = hashFunction.newHasher();
-        for (final Map.Entry<String, String> entry : ImmutableSortedMap.copyOf(manifestPropertiesMap).entrySet()) {
-            if (GrapplePropertiesManifest.Key.HASH_KEY.equals(entry.getKey())) {
-                continue;
+        if (isNaturallySorted(manifestPropertiesMap)) {
+            for (final Map.Entry<String, String> entry : manifestPropertiesMap.entrySet()) {
+                putEntryExcludingHashKey(hasher, entry.getKey(), entry.getValue());
+            }
+        } else {
+            final String[] keys = manifestPropertiesMap.keySet().toArray(new String[manifestPropertiesMap.size()]);
+            Arrays.sort(keys);
+            for (final String key : keys) {
+                putEntryExcludingHashKey(hasher, key, manifestPropertiesMap.get(key));
             }
-            hasher.putString(entry.getKey(), UTF8);
-            hasher.putString(entry.getValue(), UTF8);
         }
         return hasher.hash();
     }
 
+    private static boolean isNaturallySorted(final Map<String, String> map) {
+        if (!(map instanceof SortedMap)) {
+            return false;
+        }
+        final Comparator<? super String> comparator = ((SortedMap<String, String>) map).comparator();
+        return comparator == null || Ordering.natural().equals(comparator);
+    }
+
+    private static void putEntryExcludingHashKey(final Hasher hasher, final String key, final String value) {
+        if (!GrapplePropertiesManifest.Key.HASH_KEY.equals(key)) {
+            hasher.putString(key, UTF8);
+            hasher.putString(value, UTF8);
+        }
+    }
+
     public Hasher newHasher() {
         return hashFunction.newHasher();
     }
 
+    /**
+     * @return The number of bytes in a hash code of this hasher
+     */
+    public int hashLength() {
+        return hashFunction.bits() / Byte.SIZE;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper("ManifestHasher")
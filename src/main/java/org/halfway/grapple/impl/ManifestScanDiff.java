@@ -0,0 +1,122 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Function;
+import com.google.common.base.Verify;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.manifest.AssetTable;
+import org.halfway.grapple.util.DirectoryScanner;
+import org.halfway.grapple.util.PathOrder;
+
+import java.io.File;
+
+/**
+ * Compares the assets of a manifest with the files under its content root in a single pass, by merging the assets
+ * sorted in {@link org.halfway.grapple.util.PathOrder tree order} with a scan of the content root in the same order.
+ * <p/>
+ * Each file and asset is passed to the {@link Listener} as soon as the merge reaches it, so that the listener can act
+ * on the first differences while the rest of the content root is still being scanned. Apart from the order of the
+ * assets, nothing is held per asset or file.
+ */
+public class ManifestScanDiff {
+
+    /**
+     * Receives the result of the comparison of each file and asset, in tree order and from the thread that runs
+     * {@link #run(org.halfway.grapple.model.manifest.AssetTable, java.io.File, Listener)}
+     */
+    public interface Listener {
+        /**
+         * A file that is not in the manifest
+         */
+        void delete(DirectoryScanner.ScannedFile file);
+
+        /**
+         * An asset that has no file
+         */
+        void create(GrappleAsset asset);
+
+        /**
+         * An asset whose file has the size in the manifest, but may still differ in content
+         */
+        void verify(GrappleAsset asset, DirectoryScanner.ScannedFile file);
+
+        /**
+         * An asset whose file has a different size than in the manifest
+         */
+        void download(GrappleAsset asset, DirectoryScanner.ScannedFile file);
+    }
+
+    private final DirectoryScanner scanner;
+
+    /**
+     * @param scanner The scanner to scan content roots with
+     */
+    public ManifestScanDiff(final DirectoryScanner scanner) {
+        Verify.verifyNotNull(scanner, "scanner must not be null");
+        this.scanner = scanner;
+    }
+
+    /**
+     * Compare the assets with the files of the content root
+     *
+     * @param assets      The assets of the manifest
+     * @param contentRoot The content root of the manifest, which may not exist yet
+     * @param listener    The listener to pass the differences to
+     * @throws org.halfway.grapple.model.IORuntimeException if the content root could not be scanned
+     */
+    public void run(final AssetTable assets, final File contentRoot, final Listener listener) {
+        final int[] order = assets.treeOrder();
+        final Merge merge = new Merge(assets, order, listener);
+        // a content root that is not installed yet, as when a dry run plans the first install, has no files
+        if (contentRoot.isDirectory()) {
+            scanner.scanInOrder(contentRoot, merge);
+        }
+        merge.finish();
+    }
+
+    private static class Merge implements Function<DirectoryScanner.ScannedFile, Void> {
+        private final AssetTable assets;
+        private final int[] order;
+        private final Listener listener;
+        private int next = 0;
+        private String nextPath;
+
+        private Merge(final AssetTable assets, final int[] order, final Listener listener) {
+            this.assets = assets;
+            this.order = order;
+            this.listener = listener;
+            this.nextPath = order.length > 0 ? assets.getPath(order[0]) : null;
+        }
+
+        @Override
+        public Void apply(final DirectoryScanner.ScannedFile file) {
+            int compared = -1;
+            while (nextPath != null && (compared = PathOrder.compareTreeOrder(nextPath, file.getPath())) < 0) {
+                listener.create(advance());
+            }
+            if (nextPath == null || compared > 0) {
+                listener.delete(file);
+            } else {
+                final GrappleAsset asset = advance();
+                if (asset.getSize() == file.getSize()) {
+                    listener.verify(asset, file);
+                } else {
+                    listener.download(asset, file);
+                }
+            }
+            return null;
+        }
+
+        private void finish() {
+            while (nextPath != null) {
+                listener.create(advance());
+            }
+        }
+
+        private GrappleAsset advance() {
+            final int i = order[next++];
+            final GrappleAsset asset = new GrappleAsset(nextPath, assets.getSize(i), assets.getHash(i));
+            nextPath = next < order.length ? assets.getPath(order[next]) : null;
+            return asset;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.model.manifest.AssetTable;
+import org.halfway.grapple.model.manifest.GrappleManifest;
+import org.halfway.grapple.model.manifest.ManifestHashAlgorithm;
+import org.halfway.grapple.model.manifest.ManifestOrApplicationType;
+import org.halfway.grapple.model.manifest.ManifestVerificationException;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.logging.Logger;
+
+/**
+ * A manifest split by directory into {@link org.halfway.grapple.impl.ManifestTreeNode}s, each of which carries the hash
+ * of its whole subtree.
+ * <p/>
+ * The nodes are stored as properties files named after their hash in the {@link #TREE_DIRECTORY} of a content root,
+ * next to the {@link #ROOT_FILE} that holds the manifest headers and the hash of the root node. Comparing two trees
+ * only needs the nodes of the subtrees whose hash differs, so a client that kept the tree of its last manifest only
+ * has to fetch and compare the directories that changed.
+ */
+public class ManifestTree {
+    private static final Logger logger = Logger.getLogger(ManifestTree.class.getName());
+    /**
+     * Directory of the node files, relative to the content root
+     */
+    public static final String TREE_DIRECTORY = "grapple.tree";
+    /**
+     * File holding the manifest headers and the root of the tree, relative to the content root
+     */
+    public static final String ROOT_FILE = "grapple.tree.properties";
+    /**
+     * Key of the hash of the root node in the {@link #ROOT_FILE}
+     */
+    public static final String ROOT_KEY = "tree.root";
+    /**
+     * Key of the hash of the properties manifest that the tree was built from in the {@link #ROOT_FILE}
+     */
+    public static final String MANIFEST_HASH_KEY = "manifest.hash";
+    private static final String NODE_FILE_SUFFIX = ".properties";
+    private static final char SEPARATOR = '/';
+
+    private final ManifestTreeNode root;
+    private final ImmutableMap<HashCode, ManifestTreeNode> nodes;
+
+    private ManifestTree(final ManifestTreeNode root, final ImmutableMap<HashCode, ManifestTreeNode> nodes) {
+        this.root = root;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Build the tree of the assets
+     *
+     * @param assets The assets of the manifest
+     * @param hasher The hasher of the manifest
+     * @return The tree
+     */
+    public static ManifestTree fromAssets(final Iterable<GrappleAsset> assets, final ManifestHasher hasher) {
+        // directory path to the files and subdirectories directly in it, deepest directories last when sorted
+        final SortedMap<String, SortedMap<String, GrappleAsset>> files = Maps.newTreeMap();
+        final SortedMap<String, Set<String>> subdirectories = Maps.newTreeMap();
+        files.put("", Maps.<String, GrappleAsset>newTreeMap());
+        for (final GrappleAsset asset : assets) {
+            final String path = asset.getPath();
+            final int separator = path.lastIndexOf(SEPARATOR);
+            final String directory = separator < 0 ? "" : path.substring(0, separator);
+            final String name = path.substring(separator + 1);
+            addDirectory(files, subdirectories, directory);
+            files.get(directory).put(name, new GrappleAsset(name, asset.getSize(), asset.getHash()));
+        }
+
+        final Map<String, ManifestTreeNode> byDirectory = Maps.newHashMap();
+        final ImmutableMap.Builder<HashCode, ManifestTreeNode> nodes = ImmutableMap.builder();
+        final Set<HashCode> seen = Sets.newHashSet();
+        // children are built before their parents by going through the directories longest path first
+        for (final String directory : ImmutableList.copyOf(files.keySet()).reverse()) {
+            final ImmutableSortedMap.Builder<String, HashCode> children = ImmutableSortedMap.naturalOrder();
+            final Set<String> names = subdirectories.get(directory);
+            if (names != null) {
+                for (final String name : names) {
+                    children.put(name, byDirectory.get(child(directory, name)).getHash());
+                }
+            }
+            final ManifestTreeNode node = new ManifestTreeNode(children.build(),
+                    ImmutableSortedMap.copyOfSorted(files.get(directory)), hasher);
+            byDirectory.put(directory, node);
+            // identical directories share a node
+            if (seen.add(node.getHash())) {
+                nodes.put(node.getHash(), node);
+            }
+        }
+        return new ManifestTree(byDirectory.get(""), nodes.build());
+    }
+
+    private static void addDirectory(final SortedMap<String, SortedMap<String, GrappleAsset>> files,
+                                     final SortedMap<String, Set<String>> subdirectories, final String directory) {
+        String current = directory;
+        while (!files.containsKey(current)) {
+            files.put(current, Maps.<String, GrappleAsset>newTreeMap());
+            final int separator = current.lastIndexOf(SEPARATOR);
+            final String parent = separator < 0 ? "" : current.substring(0, separator);
+            if (!subdirectories.containsKey(parent)) {
+                subdirectories.put(parent, Sets.<String>newTreeSet());
+            }
+            subdirectories.get(parent).add(current.substring(separator + 1));
+            current = parent;
+        }
+    }
+
+    private static String child(final String directory, final String name) {
+        return directory.isEmpty() ? name : directory + SEPARATOR + name;
+    }
+
+    /**
+     * @return The name of the file that a node with the given hash is stored in
+     */
+    public static String nodeFileName(final HashCode hash) {
+        return hash + NODE_FILE_SUFFIX;
+    }
+
+    /**
+     * Build the properties of the {@link #ROOT_FILE}
+     *
+     * @param manifestProperties The properties manifest that the tree was built from
+     * @return The headers of the manifest, the hash of the manifest and of the root node, hashed like a manifest
+     */
+    public ImmutableMap<String, String> rootProperties(final Map<String, String> manifestProperties) {
+        final SortedMap<String, String> properties = Maps.newTreeMap();
+        for (final Map.Entry<String, String> entry : manifestProperties.entrySet()) {
+            if (entry.getKey().equals(GrapplePropertiesManifest.Key.HASH_KEY)) {
+                properties.put(MANIFEST_HASH_KEY, entry.getValue());
+            } else if (!entry.getKey().startsWith(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX)) {
+                properties.put(entry.getKey(), entry.getValue());
+            }
+        }
+        properties.put(ROOT_KEY, root.getHash().toString());
+        final ManifestHasher hasher = ManifestHasher.fromAlgorithm(
+                ManifestHashAlgorithm.valueOf(properties.get(GrapplePropertiesManifest.Key.HASH_ALGORITHM)));
+        final Map.Entry<String, String> hashEntry = hasher.hashManifestProperties(properties);
+        properties.put(hashEntry.getKey(), hashEntry.getValue());
+        return ImmutableSortedMap.copyOfSorted(properties);
+    }
+
+    /**
+     * Verify the properties of a {@link #ROOT_FILE}
+     *
+     * @return The hash of the root node
+     * @throws org.halfway.grapple.model.manifest.ManifestVerificationException if the properties are invalid
+     */
+    public static HashCode verifyRootProperties(final Map<String, String> rootProperties) {
+        if (!rootProperties.containsKey(ROOT_KEY) || !rootProperties.containsKey(GrapplePropertiesManifest.Key.HASH_KEY)) {
+            throw new ManifestVerificationException("Manifest tree root is missing its keys");
+        }
+        final ManifestHasher hasher = ManifestHasher.fromAlgorithm(hashAlgorithmOf(rootProperties));
+        if (!hasher.verifyManifestProperties(rootProperties)) {
+            throw new ManifestVerificationException("Manifest tree root had invalid hash");
+        }
+        try {
+            return HashCode.fromString(rootProperties.get(ROOT_KEY));
+        } catch (final IllegalArgumentException e) {
+            throw new ManifestVerificationException("Manifest tree root '" + rootProperties.get(ROOT_KEY) + "' is invalid");
+        }
+    }
+
+    /**
+     * Read the manifest described by a tree
+     *
+     * @param rootProperties The verified properties of the {@link #ROOT_FILE}
+     * @param source         Where to read the nodes from
+     * @return The manifest
+     */
+    public static GrappleManifest toManifest(final Map<String, String> rootProperties, final NodeSource source) {
+        final ManifestOrApplicationType applicationType;
+        try {
+            applicationType = ManifestOrApplicationType.valueOf(rootProperties.get(GrapplePropertiesManifest.Key.APPLICATION_TYPE));
+        } catch (final RuntimeException e) {
+            throw new ManifestVerificationException("Application type '" + rootProperties.get(GrapplePropertiesManifest.Key.APPLICATION_TYPE) + "' is not supported");
+        }
+        final ImmutableList<GrappleAsset> assets = assets(HashCode.fromString(rootProperties.get(ROOT_KEY)), source);
+        return ManifestFromPropertiesMapBuilder.newManifest(applicationType, rootProperties, AssetTable.copyOf(assets),
+                hashAlgorithmOf(rootProperties));
+    }
+
+    private static ManifestHashAlgorithm hashAlgorithmOf(final Map<String, String> rootProperties) {
+        try {
+            return ManifestHashAlgorithm.valueOf(rootProperties.get(GrapplePropertiesManifest.Key.HASH_ALGORITHM));
+        } catch (final RuntimeException e) {
+            throw new ManifestVerificationException("Hash algorithm " + rootProperties.get(GrapplePropertiesManifest.Key.HASH_ALGORITHM) + " is not supported");
+        }
+    }
+
+    /**
+     * @return All the assets under the root node, with their full paths
+     */
+    public static ImmutableList<GrappleAsset> assets(final HashCode root, final NodeSource source) {
+        final ImmutableList.Builder<GrappleAsset> assets = ImmutableList.builder();
+        final Deque<Map.Entry<String, HashCode>> pending = new ArrayDeque<Map.Entry<String, HashCode>>();
+        pending.push(Maps.immutableEntry("", root));
+        while (!pending.isEmpty()) {
+            final Map.Entry<String, HashCode> entry = pending.pop();
+            final ManifestTreeNode node = source.get(entry.getValue());
+            for (final GrappleAsset file : node.getFiles().values()) {
+                assets.add(new GrappleAsset(child(entry.getKey(), file.getPath()), file.getSize(), file.getHash()));
+            }
+            for (final Map.Entry<String, HashCode> directory : node.getDirectories().entrySet()) {
+                pending.push(Maps.immutableEntry(child(entry.getKey(), directory.getKey()), directory.getValue()));
+            }
+        }
+        return assets.build();
+    }
+
+    /**
+     * Find the assets of the current tree that are new or different from the previous tree. Only the subtrees whose
+     * hash differs are read from the sources.
+     *
+     * @param previousRoot The root of the previous tree
+     * @param previous     Where to read the nodes of the previous tree from. Nodes that are missing are treated as
+     *                     empty directories
+     * @param currentRoot  The root of the current tree
+     * @param current      Where to read the nodes of the current tree from
+     * @return The paths of the assets that changed
+     */
+    public static ImmutableSet<String> changedPaths(final HashCode previousRoot, final NodeSource previous,
+                                                    final HashCode currentRoot, final NodeSource current) {
+        final ImmutableSet.Builder<String> changed = ImmutableSet.builder();
+        final Deque<Comparison> pending = new ArrayDeque<Comparison>();
+        pending.push(new Comparison("", Optional.of(previousRoot), currentRoot));
+        int compared = 0;
+        while (!pending.isEmpty()) {
+            final Comparison comparison = pending.pop();
+            if (comparison.previous.isPresent() && comparison.previous.get().equals(comparison.current)) {
+                continue;
+            }
+            compared += 1;
+            final ManifestTreeNode currentNode = current.get(comparison.current);
+            final Optional<ManifestTreeNode> previousNode = comparison.previous.isPresent() ?
+                    previous.find(comparison.previous.get()) : Optional.<ManifestTreeNode>absent();
+            final Map<String, GrappleAsset> previousFiles = previousNode.isPresent() ?
+                    previousNode.get().getFiles() : ImmutableMap.<String, GrappleAsset>of();
+            final Map<String, HashCode> previousDirectories = previousNode.isPresent() ?
+                    previousNode.get().getDirectories() : ImmutableMap.<String, HashCode>of();
+            for (final Map.Entry<String, GrappleAsset> file : currentNode.getFiles().entrySet()) {
+                if (!file.getValue().equals(previousFiles.get(file.getKey()))) {
+                    changed.add(child(comparison.path, file.getKey()));
+                }
+            }
+            for (final Map.Entry<String, HashCode> directory : currentNode.getDirectories().entrySet()) {
+                pending.push(new Comparison(child(comparison.path, directory.getKey()),
+                        Optional.fromNullable(previousDirectories.get(directory.getKey())), directory.getValue()));
+            }
+        }
+        logger.fine("Compared " + compared + " changed directories of manifest tree " + currentRoot);
+        return changed.build();
+    }
+
+    /**
+     * Find the assets that are new or different without a tree, by comparing every asset
+     */
+    public static ImmutableSet<String> changedPaths(final Iterable<GrappleAsset> previous,
+                                                    final Iterable<GrappleAsset> current) {
+        final Set<GrappleAsset> previousAssets = Sets.newHashSet(previous);
+        final ImmutableSet.Builder<String> changed = ImmutableSet.builder();
+        for (final GrappleAsset asset : current) {
+            if (!previousAssets.contains(asset)) {
+                changed.add(asset.getPath());
+            }
+        }
+        return changed.build();
+    }
+
+    /**
+     * Write the nodes that do not exist yet into a tree directory and delete the nodes of other trees
+     *
+     * @param treeDirectory The directory to write the nodes to
+     * @return The number of nodes written
+     * @throws org.halfway.grapple.model.IORuntimeException if the nodes could not be written
+     */
+    public int writeNodes(final File treeDirectory) {
+        if (!treeDirectory.isDirectory() && !treeDirectory.mkdirs()) {
+            throw new IORuntimeException("Unable to create manifest tree directory " + treeDirectory);
+        }
+        int written = 0;
+        for (final ManifestTreeNode node : nodes.values()) {
+            final File file = new File(treeDirectory, nodeFileName(node.getHash()));
+            if (!file.isFile()) {
+                final Properties properties = new Properties();
+                properties.putAll(node.getProperties());
+                FileIO.writeProperties(file, properties, null);
+                written += 1;
+            }
+        }
+        final File[] existing = Verify.verifyNotNull(treeDirectory.listFiles(), "'%s' is not a directory", treeDirectory);
+        final Set<String> names = Sets.newHashSet();
+        for (final HashCode hash : nodes.keySet()) {
+            names.add(nodeFileName(hash));
+        }
+        for (final File file : existing) {
+            if (!names.contains(file.getName()) && !file.delete()) {
+                logger.warning("Unable to delete old manifest tree node " + file);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return The hash of the root node, which covers the whole tree
+     */
+    public HashCode getRootHash() {
+        return root.getHash();
+    }
+
+    /**
+     * @return A source of the nodes of this tree
+     */
+    public NodeSource asNodeSource() {
+        return new NodeSource() {
+            @Override
+            protected Optional<ManifestTreeNode> find(final HashCode hash) {
+                return Optional.fromNullable(nodes.get(hash));
+            }
+        };
+    }
+
+    /**
+     * A source of the nodes of manifest trees by their hash
+     */
+    public static abstract class NodeSource {
+        /**
+         * @return The node, if the source has it
+         * @throws org.halfway.grapple.model.manifest.ManifestVerificationException if the node is invalid
+         */
+        protected abstract Optional<ManifestTreeNode> find(HashCode hash);
+
+        /**
+         * @return The node
+         * @throws org.halfway.grapple.model.manifest.ManifestVerificationException if the node is missing or invalid
+         */
+        public ManifestTreeNode get(final HashCode hash) {
+            final Optional<ManifestTreeNode> node = find(hash);
+            if (!node.isPresent()) {
+                throw new ManifestVerificationException("Manifest tree node " + hash + " is missing");
+            }
+            return node.get();
+        }
+
+        /**
+         * @return A source that reads the nodes stored in a tree directory
+         */
+        public static NodeSource directory(final File treeDirectory, final ManifestHasher hasher) {
+            return new NodeSource() {
+                @Override
+                protected Optional<ManifestTreeNode> find(final HashCode hash) {
+                    final File file = new File(treeDirectory, nodeFileName(hash));
+                    if (!file.isFile()) {
+                        return Optional.absent();
+                    }
+                    return Optional.of(ManifestTreeNode.fromProperties(Maps.fromProperties(FileIO.readProperties(file)),
+                            hash, hasher));
+                }
+            };
+        }
+
+        /**
+         * @return A source that keeps the nodes read from this source in memory. Not thread-safe
+         */
+        public NodeSource memoized() {
+            final NodeSource source = this;
+            final Map<HashCode, ManifestTreeNode> cache = Maps.newHashMap();
+            return new NodeSource() {
+                @Override
+                protected Optional<ManifestTreeNode> find(final HashCode hash) {
+                    if (cache.containsKey(hash)) {
+                        return Optional.of(cache.get(hash));
+                    }
+                    final Optional<ManifestTreeNode> node = source.find(hash);
+                    if (node.isPresent()) {
+                        cache.put(hash, node.get());
+                    }
+                    return node;
+                }
+            };
+        }
+
+        /**
+         * @return A source that reads nodes from this source and falls back to the other source for the nodes that
+         * this source does not have
+         */
+        public NodeSource or(final NodeSource other) {
+            final NodeSource first = this;
+            return new NodeSource() {
+                @Override
+                protected Optional<ManifestTreeNode> find(final HashCode hash) {
+                    final Optional<ManifestTreeNode> node = first.find(hash);
+                    return node.isPresent() ? node : other.find(hash);
+                }
+            };
+        }
+    }
+
+    private static class Comparison {
+        private final String path;
+        private final Optional<HashCode> previous;
+        private final HashCode current;
+
+        private Comparison(final String path, final Optional<HashCode> previous, final HashCode current) {
+            this.path = path;
+            this.previous = previous;
+            this.current = current;
+        }
+    }
+}
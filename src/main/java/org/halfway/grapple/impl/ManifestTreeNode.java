@@ -0,0 +1,125 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.common.io.BaseEncoding;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.manifest.ManifestVerificationException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directory of a {@link org.halfway.grapple.impl.ManifestTree}: the assets directly inside it and the subtree hash
+ * of each of its subdirectories.
+ * <p/>
+ * A node is stored as a properties map of {@code dir.<name>=<subtree hash>} and {@code file.<name>=size:hash}
+ * entries and its own hash is the manifest hash of that map. The hash therefore covers the whole subtree and a node
+ * can be stored and fetched under its hash.
+ */
+public class ManifestTreeNode {
+    /**
+     * Prefix of property keys that specify the subtree hash of a subdirectory
+     */
+    public static final String DIRECTORY_KEY_PREFIX = "dir.";
+
+    private final ImmutableSortedMap<String, HashCode> directories;
+    private final ImmutableSortedMap<String, GrappleAsset> files;
+    private final ImmutableSortedMap<String, String> properties;
+    private final HashCode hash;
+
+    /**
+     * @param directories The map of subdirectory name to its subtree hash
+     * @param files       The map of file name to the asset, whose path is the file name
+     * @param hasher      The hasher of the manifest
+     */
+    ManifestTreeNode(final ImmutableSortedMap<String, HashCode> directories,
+                     final ImmutableSortedMap<String, GrappleAsset> files, final ManifestHasher hasher) {
+        this.directories = directories;
+        this.files = files;
+        this.properties = toProperties(directories, files);
+        this.hash = HashCode.fromString(hasher.hashManifestProperties(properties).getValue());
+    }
+
+    private static ImmutableSortedMap<String, String> toProperties(final ImmutableSortedMap<String, HashCode> directories,
+                                                                   final ImmutableSortedMap<String, GrappleAsset> files) {
+        final ImmutableSortedMap.Builder<String, String> map = ImmutableSortedMap.naturalOrder();
+        for (final Map.Entry<String, HashCode> entry : directories.entrySet()) {
+            map.put(DIRECTORY_KEY_PREFIX + entry.getKey(), entry.getValue().toString());
+        }
+        for (final GrappleAsset asset : files.values()) {
+            map.put(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX + asset.getPath(),
+                    GrapplePropertiesManifest.Format.HASH_JOINER.join(asset.getSize(), asset.getHash().toString()));
+        }
+        return map.build();
+    }
+
+    /**
+     * Read a node from its properties
+     *
+     * @param properties   The properties of the node
+     * @param expectedHash The hash that the node is stored under
+     * @param hasher       The hasher of the manifest
+     * @return The node
+     * @throws org.halfway.grapple.model.manifest.ManifestVerificationException if the properties are malformed or do
+     *                                                                          not hash to the expected hash
+     */
+    public static ManifestTreeNode fromProperties(final Map<String, String> properties, final HashCode expectedHash,
+                                                  final ManifestHasher hasher) {
+        final ImmutableSortedMap.Builder<String, HashCode> directories = ImmutableSortedMap.naturalOrder();
+        final ImmutableSortedMap.Builder<String, GrappleAsset> files = ImmutableSortedMap.naturalOrder();
+        for (final Map.Entry<String, String> entry : properties.entrySet()) {
+            final String key = entry.getKey();
+            try {
+                if (key.startsWith(DIRECTORY_KEY_PREFIX)) {
+                    directories.put(key.substring(DIRECTORY_KEY_PREFIX.length()), HashCode.fromString(entry.getValue()));
+                } else if (key.startsWith(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX)) {
+                    final String name = key.substring(GrapplePropertiesManifest.Format.FILE_KEY_PREFIX.length());
+                    final List<String> sizeHash = GrapplePropertiesManifest.Format.HASH_SPLITTER.splitToList(entry.getValue());
+                    if (sizeHash.size() != 2) {
+                        throw new ManifestVerificationException("The entry " + key + " = '" + entry.getValue() + "' is in an incorrect format");
+                    }
+                    files.put(name, new GrappleAsset(name, Long.parseLong(sizeHash.get(0)),
+                            HashCode.fromBytes(BaseEncoding.base16().lowerCase().decode(sizeHash.get(1)))));
+                } else {
+                    throw new ManifestVerificationException("Unknown key '" + key + "' in manifest tree node " + expectedHash);
+                }
+            } catch (final IllegalArgumentException e) {
+                throw new ManifestVerificationException("The entry " + key + " = '" + entry.getValue() + "' is in an incorrect format");
+            }
+        }
+        final ManifestTreeNode node = new ManifestTreeNode(directories.build(), files.build(), hasher);
+        if (!node.getHash().equals(expectedHash)) {
+            throw new ManifestVerificationException("Manifest tree node " + expectedHash + " had invalid hash");
+        }
+        return node;
+    }
+
+    /**
+     * @return The map of subdirectory name to its subtree hash
+     */
+    public ImmutableSortedMap<String, HashCode> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * @return The map of file name to asset. The path of each asset is its file name
+     */
+    public ImmutableSortedMap<String, GrappleAsset> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return The properties that the node is stored as
+     */
+    public ImmutableSortedMap<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return The hash of the node, which covers its whole subtree
+     */
+    public HashCode getHash() {
+        return hash;
+    }
+}
@@ -2,24 +2,31 @@ package org.halfway.grapple.impl;
 
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.manifest.AssetGroup;
 import org.halfway.grapple.model.manifest.GrappleManifest;
 import org.halfway.grapple.model.manifest.JvmManifest;
 import org.halfway.grapple.model.manifest.ManifestOrApplicationType;
 
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * A builder of a manifest properties map from either the components of a manifest or an existing
  * {@link org.halfway.grapple.model.manifest.GrappleManifest}
+ * <p/>
+ * The properties are kept sorted while they are put so that the manifest hash can be computed in a single pass and
+ * the final map can be built without sorting or copying the properties more than once.
  */
 public class PropertiesMapFromManifestBuilder {
-    private final ImmutableMap.Builder<String, String> mapBuilder;
+    private final SortedMap<String, String> sortedMap;
     private final ManifestHasher manifestHasher;
     private ManifestOrApplicationType applicationType = null;
 
     PropertiesMapFromManifestBuilder() {
-        this.mapBuilder = new ImmutableMap.Builder<String, String>();
+        this.sortedMap = new TreeMap<String, String>();
         this.manifestHasher = ManifestHasher.fromAlgorithm(GrapplePropertiesManifest.DEFAULT_HASH_ALGORITHM);
     }
 
@@ -36,7 +43,32 @@ public class PropertiesMapFromManifestBuilder {
         if (applicationType != ManifestOrApplicationType.jvm) {
             throw new IllegalArgumentException("Java path is not applicable for type " + applicationType);
         }
-        mapBuilder.put(GrapplePropertiesManifest.Key.JAVA_PATH, javaPath);
+        put(GrapplePropertiesManifest.Key.JAVA_PATH, javaPath);
+        return this;
+    }
+
+    public PropertiesMapFromManifestBuilder withAssetGroups(final Iterable<AssetGroup> assetGroups) {
+        for (final AssetGroup group : assetGroups) {
+            final String keyPrefix = GrapplePropertiesManifest.Format.GROUP_KEY_PREFIX + group.getName() + ".";
+            put(keyPrefix + GrapplePropertiesManifest.Key.GROUP_PREFIX, group.getPrefix());
+            if (!group.getOs().isEmpty()) {
+                put(keyPrefix + GrapplePropertiesManifest.Key.GROUP_OS,
+                        GrapplePropertiesManifest.Format.LIST_JOINER.join(group.getOs()));
+            }
+            if (!group.getArch().isEmpty()) {
+                put(keyPrefix + GrapplePropertiesManifest.Key.GROUP_ARCH,
+                        GrapplePropertiesManifest.Format.LIST_JOINER.join(group.getArch()));
+            }
+            if (group.getJavaPath().isPresent()) {
+                put(keyPrefix + GrapplePropertiesManifest.Key.GROUP_JAVA_PATH, group.getJavaPath().get());
+            }
+            if (group.isCritical()) {
+                put(keyPrefix + GrapplePropertiesManifest.Key.GROUP_CRITICAL, Boolean.TRUE.toString());
+            }
+            if (group.isOptional()) {
+                put(keyPrefix + GrapplePropertiesManifest.Key.GROUP_OPTIONAL, Boolean.TRUE.toString());
+            }
+        }
         return this;
     }
 
@@ -45,7 +77,7 @@ public class PropertiesMapFromManifestBuilder {
             String key = GrapplePropertiesManifest.Format.FILE_KEY_PREFIX + asset.getPath();
             String encodedHash = asset.getHash().toString();
             String value = GrapplePropertiesManifest.Format.HASH_JOINER.join(asset.getSize(), encodedHash);
-            mapBuilder.put(key, value);
+            put(key, value);
         }
         return this;
     }
@@ -62,14 +94,25 @@ public class PropertiesMapFromManifestBuilder {
             default:
                 throw new UnsupportedOperationException("Unknown application type " + manifest.getManifestType());
         }
+        withAssetGroups(manifest.getAssetGroups());
         putApplicationFiles(manifest.getAssets());
         return this;
     }
 
     public ImmutableMap<String, String> build() {
         putVersionProperties();
-        Map.Entry<String, String> hashEntry = manifestHasher.hashManifestProperties(mapBuilder.build());
-        return mapBuilder.put(hashEntry).build();
+        Map.Entry<String, String> hashEntry = manifestHasher.hashManifestProperties(sortedMap);
+        put(hashEntry.getKey(), hashEntry.getValue());
+        return ImmutableSortedMap.copyOfSorted(sortedMap);
+    }
+
+    private void put(final String key, final String value) {
+        Verify.verifyNotNull(key, "key must not be null");
+        Verify.verifyNotNull(value, "value must not be null");
+        if (sortedMap.containsKey(key)) {
+            throw new IllegalArgumentException("Multiple entries with same key: " + key);
+        }
+        sortedMap.put(key, value);
     }
 
     private void ensureApplicationType() {
@@ -78,9 +121,9 @@ public class PropertiesMapFromManifestBuilder {
 
     private void putVersionProperties() {
         ensureApplicationType();
-        mapBuilder.put(GrapplePropertiesManifest.Key.VERSION, GrapplePropertiesManifest.Format.VERSION + "");
-        mapBuilder.put(GrapplePropertiesManifest.Key.HASH_ALGORITHM, GrapplePropertiesManifest.DEFAULT_HASH_ALGORITHM.name());
-        mapBuilder.put(GrapplePropertiesManifest.Key.APPLICATION_TYPE, applicationType.name());
+        put(GrapplePropertiesManifest.Key.VERSION, GrapplePropertiesManifest.Format.VERSION + "");
+        put(GrapplePropertiesManifest.Key.HASH_ALGORITHM, GrapplePropertiesManifest.DEFAULT_HASH_ALGORITHM.name());
+        put(GrapplePropertiesManifest.Key.APPLICATION_TYPE, applicationType.name());
     }
 
     public ManifestHasher getManifestHasher() {
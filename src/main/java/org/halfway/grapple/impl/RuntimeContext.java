@@ -2,12 +2,16 @@ package org.halfway.grapple.impl;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.halfway.grapple.gui.GrappleGuiApi;
 import org.halfway.grapple.model.configuration.LaunchTarget;
+import org.halfway.grapple.model.manifest.GrappleManifest;
 import org.halfway.grapple.util.DirectoryUpdateLock;
 
 import java.io.File;
 import java.net.URL;
+import java.util.List;
 
 public class RuntimeContext {
 
@@ -16,6 +20,16 @@ public class RuntimeContext {
     private Optional<ImmutableMap<File, DirectoryUpdateLock>> dirLockMap = Optional.absent();
     private Optional<ImmutableMap<File, URL>> baseUrlMap = Optional.absent();
     private Optional<TargetWithManifests<LaunchTarget>> targetWithManifest = Optional.absent();
+    private Optional<ImmutableMap<File, ImmutableSet<String>>> changedAssetMap = Optional.absent();
+    private Optional<ImmutableMap<File, GrappleManifest>> fetchedManifestMap = Optional.absent();
+    private Optional<ImmutableMap<File, String>> fetchedManifestHashMap = Optional.absent();
+    private Optional<ImmutableMap<File, File>> previousVersionMap = Optional.absent();
+    private Optional<ImmutableMap<File, UpdatePlan>> updatePlanMap = Optional.absent();
+    private Optional<ListenableFuture<List<VerificationSummary>>> backgroundUpdate = Optional.absent();
+    private Optional<ImmutableMap<File, String>> updatedManifestHashMap = Optional.absent();
+    private boolean updateLeftToOtherLauncher = false;
+    private Optional<GroupRequestServer> groupRequestServer = Optional.absent();
+    private Optional<Process> applicationProcess = Optional.absent();
 
     public RuntimeContext(final GrappleGuiApi guiApi) {
         this.guiApi = guiApi;
@@ -33,6 +47,10 @@ public class RuntimeContext {
         this.dirLockMap = Optional.of(lockMap);
     }
 
+    public boolean hasDirLockMap() {
+        return dirLockMap.isPresent();
+    }
+
     public ImmutableMap<File, URL> getBaseUrlMap() {
         return baseUrlMap.get();
     }
@@ -49,4 +67,122 @@ public class RuntimeContext {
     public <Target extends LaunchTarget> void setTargetWithManifest(final TargetWithManifests<Target> targetWithManifests) {
         this.targetWithManifest = Optional.of((TargetWithManifests<LaunchTarget>) targetWithManifests);
     }
+
+    /**
+     * @return The map of content root to the paths of the assets that are new or changed since the manifest that was
+     * last written to it. Content roots without such a manifest are not in the map
+     */
+    public ImmutableMap<File, ImmutableSet<String>> getChangedAssetMap() {
+        return changedAssetMap.get();
+    }
+
+    public void setChangedAssetMap(final ImmutableMap<File, ImmutableSet<String>> changedAssetMap) {
+        this.changedAssetMap = Optional.of(changedAssetMap);
+    }
+
+    /**
+     * @return The map of content root to the manifest as it was fetched, before its
+     * {@link org.halfway.grapple.model.manifest.AssetGroup asset groups} were selected for the platform
+     */
+    public ImmutableMap<File, GrappleManifest> getFetchedManifestMap() {
+        return fetchedManifestMap.get();
+    }
+
+    public void setFetchedManifestMap(final ImmutableMap<File, GrappleManifest> fetchedManifestMap) {
+        this.fetchedManifestMap = Optional.of(fetchedManifestMap);
+    }
+
+    /**
+     * @return The map of content root to the hash that the manifest was published with, which is the hash of the
+     * manifest as it was fetched
+     */
+    public ImmutableMap<File, String> getFetchedManifestHashMap() {
+        return fetchedManifestHashMap.get();
+    }
+
+    public void setFetchedManifestHashMap(final ImmutableMap<File, String> fetchedManifestHashMap) {
+        this.fetchedManifestHashMap = Optional.of(fetchedManifestHashMap);
+    }
+
+    /**
+     * @return The map of the directory a version is being installed in to the directory of the version that was
+     * installed before it, for {@link VersionedContentRoot versioned content roots} that are staging a new version
+     */
+    public ImmutableMap<File, File> getPreviousVersionMap() {
+        return previousVersionMap.get();
+    }
+
+    public void setPreviousVersionMap(final ImmutableMap<File, File> previousVersionMap) {
+        this.previousVersionMap = Optional.of(previousVersionMap);
+    }
+
+    /**
+     * @return The map of content root to the plan of its update, when the update was only planned
+     */
+    public ImmutableMap<File, UpdatePlan> getUpdatePlanMap() {
+        return updatePlanMap.get();
+    }
+
+    public void setUpdatePlanMap(final ImmutableMap<File, UpdatePlan> updatePlanMap) {
+        this.updatePlanMap = Optional.of(updatePlanMap);
+    }
+
+    /**
+     * @return The update of the assets that are not launch-critical, if a progressive launch left it running in the
+     * background
+     */
+    public Optional<ListenableFuture<List<VerificationSummary>>> getBackgroundUpdate() {
+        return backgroundUpdate;
+    }
+
+    public void setBackgroundUpdate(final ListenableFuture<List<VerificationSummary>> backgroundUpdate) {
+        this.backgroundUpdate = Optional.of(backgroundUpdate);
+    }
+
+    /**
+     * @return The map of configured content root to the hash of the manifest that the update installed in it, if the
+     * update still has to be marked as complete once its manifests are written and its versions switched
+     */
+    public Optional<ImmutableMap<File, String>> getUpdatedManifestHashMap() {
+        return updatedManifestHashMap;
+    }
+
+    public void setUpdatedManifestHashMap(final ImmutableMap<File, String> updatedManifestHashMap) {
+        this.updatedManifestHashMap = Optional.of(updatedManifestHashMap);
+    }
+
+    /**
+     * @return true if this launcher launches the content roots without their update lock, as another launcher holds it
+     * and has already updated the launch-critical assets, and leaves writing the manifests and switching the versions
+     * to that launcher
+     */
+    public boolean isUpdateLeftToOtherLauncher() {
+        return updateLeftToOtherLauncher;
+    }
+
+    public void setUpdateLeftToOtherLauncher(final boolean updateLeftToOtherLauncher) {
+        this.updateLeftToOtherLauncher = updateLeftToOtherLauncher;
+    }
+
+    /**
+     * @return The server listening for the optional groups requested by the application, if any
+     */
+    public Optional<GroupRequestServer> getGroupRequestServer() {
+        return groupRequestServer;
+    }
+
+    public void setGroupRequestServer(final GroupRequestServer groupRequestServer) {
+        this.groupRequestServer = Optional.of(groupRequestServer);
+    }
+
+    /**
+     * @return The process of the launched application, if it was launched as a separate process
+     */
+    public Optional<Process> getApplicationProcess() {
+        return applicationProcess;
+    }
+
+    public void setApplicationProcess(final Process applicationProcess) {
+        this.applicationProcess = Optional.of(applicationProcess);
+    }
 }
@@ -0,0 +1,260 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.base.Verify;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.model.manifest.GrappleManifest;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A signed stamp that a content root was verified in full, written by sealing a shared install on a read-only share
+ * so that the clients launching from it can trust it without hashing it.
+ * <p/>
+ * The stamp is bound to the hash of the manifest installed in the content root and to a digest of the metadata (path,
+ * size and modification time) of the assets selected from it, and is signed with an RSA key. A client checks the
+ * signature with the public key and compares the digest with the metadata as it finds it, which only reads the
+ * directory entries of the assets: a stamp that does not match means the content root changed since it was sealed.
+ * <p/>
+ * The keys are read from files in DER format: the private key as PKCS#8 and the public key as X.509, such as written
+ * by {@code openssl pkcs8 -topk8 -nocrypt -outform DER} and {@code openssl rsa -pubout -outform DER}.
+ */
+public class SealStamp {
+    private static final Logger logger = Logger.getLogger(SealStamp.class.getName());
+    /**
+     * Name of the stamp on the file system
+     */
+    public static final String NAME = "grapple.seal.properties";
+    private static final String KEY_ALGORITHM = "RSA";
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final String MANIFEST_KEY = "manifest";
+    private static final String ASSETS_KEY = "assets";
+    private static final String METADATA_KEY = "metadata";
+    private static final String SEALED_KEY = "sealed";
+    private static final String SIGNATURE_KEY = "signature";
+
+    private final String manifestHash;
+    private final int assets;
+    private final String metadataHash;
+    private final long sealed;
+
+    /**
+     * @param manifestHash The hash of the manifest installed in the content root
+     * @param assets       The number of assets the metadata digest covers
+     * @param metadataHash The digest of the metadata of the assets
+     * @param sealed       The time of sealing in milliseconds
+     */
+    public SealStamp(final String manifestHash, final int assets, final String metadataHash, final long sealed) {
+        Verify.verifyNotNull(manifestHash, "manifest hash must not be null");
+        Verify.verify(assets >= 0, "assets must not be negative");
+        Verify.verifyNotNull(metadataHash, "metadata hash must not be null");
+        this.manifestHash = manifestHash;
+        this.assets = assets;
+        this.metadataHash = metadataHash;
+        this.sealed = sealed;
+    }
+
+    /**
+     * @param manifestHash The hash of the manifest as installed in the content root
+     * @param manifest     The manifest with the asset groups selected for the clients
+     * @return The stamp of the content root as it is now
+     */
+    public static SealStamp of(final String manifestHash, final GrappleManifest manifest, final File contentRoot) {
+        return new SealStamp(manifestHash, manifest.getAssets().size(), metadataHash(manifest, contentRoot),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * @return The digest of the path, size and modification time of the assets in path order, which is the same
+     * whichever format the manifest was read from. A missing asset has a size and modification time of 0
+     */
+    private static String metadataHash(final GrappleManifest manifest, final File contentRoot) {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        for (final String path : Ordering.natural().sortedCopy(Lists.transform(manifest.getAssets(), assetPath()))) {
+            final File file = new File(contentRoot, path);
+            hasher.putString(path, Charsets.UTF_8).putByte((byte) 0)
+                    .putLong(file.length()).putLong(file.lastModified());
+        }
+        return hasher.hash().toString();
+    }
+
+    private static Function<GrappleAsset, String> assetPath() {
+        return new Function<GrappleAsset, String>() {
+            @Override
+            public String apply(final GrappleAsset asset) {
+                return asset.getPath();
+            }
+        };
+    }
+
+    /**
+     * Read the stamp of the content root and check its signature
+     *
+     * @return The stamp, or absent if there is none or its signature does not check out
+     */
+    public static Optional<SealStamp> in(final File contentRoot, final PublicKey key) {
+        final File file = new File(contentRoot, NAME);
+        if (!file.isFile()) {
+            logger.info("There is no seal stamp in " + contentRoot);
+            return Optional.absent();
+        }
+        final Properties properties;
+        try {
+            properties = FileIO.readProperties(file);
+        } catch (final IORuntimeException e) {
+            logger.log(Level.WARNING, "Unable to read the seal stamp " + file, e);
+            return Optional.absent();
+        }
+        final String manifestHash = properties.getProperty(MANIFEST_KEY);
+        final Integer assets = Ints.tryParse(properties.getProperty(ASSETS_KEY, ""));
+        final String metadataHash = properties.getProperty(METADATA_KEY);
+        final Long sealed = Longs.tryParse(properties.getProperty(SEALED_KEY, ""));
+        final String signature = properties.getProperty(SIGNATURE_KEY);
+        if (manifestHash == null || assets == null || assets < 0 || metadataHash == null || sealed == null ||
+                signature == null) {
+            logger.warning("Ignoring the seal stamp " + file + " as it is incomplete");
+            return Optional.absent();
+        }
+        final SealStamp stamp = new SealStamp(manifestHash, assets, metadataHash, sealed);
+        try {
+            final Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+            verifier.initVerify(key);
+            verifier.update(stamp.signedBytes());
+            if (!verifier.verify(decode(signature))) {
+                logger.warning("Ignoring the seal stamp " + file + " as its signature does not match the key");
+                return Optional.absent();
+            }
+        } catch (final GeneralSecurityException e) {
+            logger.log(Level.WARNING, "Unable to check the signature of the seal stamp " + file, e);
+            return Optional.absent();
+        }
+        return Optional.of(stamp);
+    }
+
+    /**
+     * @return The decoded base64, or no bytes if it is not valid base64, which no signature checks out with
+     */
+    private static byte[] decode(final String base64) {
+        try {
+            return BaseEncoding.base64().decode(base64);
+        } catch (final IllegalArgumentException e) {
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Sign the stamp and write it to the content root
+     *
+     * @throws org.halfway.grapple.model.IORuntimeException if the stamp could not be signed or written
+     */
+    public void writeTo(final File contentRoot, final PrivateKey key) {
+        final byte[] signature;
+        try {
+            final Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM);
+            signer.initSign(key);
+            signer.update(signedBytes());
+            signature = signer.sign();
+        } catch (final GeneralSecurityException e) {
+            throw new IORuntimeException("Unable to sign the seal stamp of " + contentRoot, e);
+        }
+        final Properties properties = new Properties();
+        properties.setProperty(MANIFEST_KEY, manifestHash);
+        properties.setProperty(ASSETS_KEY, Integer.toString(assets));
+        properties.setProperty(METADATA_KEY, metadataHash);
+        properties.setProperty(SEALED_KEY, Long.toString(sealed));
+        properties.setProperty(SIGNATURE_KEY, BaseEncoding.base64().encode(signature));
+        FileIO.writeProperties(new File(contentRoot, NAME), properties,
+                "written by " + SealStamp.class.getSimpleName());
+    }
+
+    private byte[] signedBytes() {
+        return (MANIFEST_KEY + "=" + manifestHash + "\n" + ASSETS_KEY + "=" + assets + "\n" + METADATA_KEY + "=" +
+                metadataHash + "\n" + SEALED_KEY + "=" + sealed + "\n").getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * @param manifestHash The hash of the manifest installed in the content root
+     * @param manifest     The manifest with the asset groups selected for this client
+     * @return true if the stamp is of the manifest and the metadata of its assets has not changed since sealing
+     */
+    public boolean covers(final String manifestHash, final GrappleManifest manifest, final File contentRoot) {
+        if (!this.manifestHash.equals(manifestHash)) {
+            logger.warning("The seal stamp of " + contentRoot + " is of another manifest");
+            return false;
+        }
+        if (assets != manifest.getAssets().size() || !metadataHash.equals(metadataHash(manifest, contentRoot))) {
+            logger.warning("The assets of " + contentRoot + " changed since it was sealed, or were sealed for " +
+                    "other asset groups");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @throws org.halfway.grapple.model.IORuntimeException if the key could not be read
+     */
+    public static PublicKey readPublicKey(final File file) {
+        try {
+            return KeyFactory.getInstance(KEY_ALGORITHM).generatePublic(new X509EncodedKeySpec(Files.toByteArray(file)));
+        } catch (final IOException e) {
+            throw new IORuntimeException("Unable to read public key", e);
+        } catch (final GeneralSecurityException e) {
+            throw new IORuntimeException("Unable to read X.509 RSA public key from " + file, e);
+        }
+    }
+
+    /**
+     * @throws org.halfway.grapple.model.IORuntimeException if the key could not be read
+     */
+    public static PrivateKey readPrivateKey(final File file) {
+        try {
+            return KeyFactory.getInstance(KEY_ALGORITHM).generatePrivate(new PKCS8EncodedKeySpec(Files.toByteArray(file)));
+        } catch (final IOException e) {
+            throw new IORuntimeException("Unable to read private key", e);
+        } catch (final GeneralSecurityException e) {
+            throw new IORuntimeException("Unable to read PKCS#8 RSA private key from " + file, e);
+        }
+    }
+
+    public String getManifestHash() {
+        return manifestHash;
+    }
+
+    public long getSealed() {
+        return sealed;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper("SealStamp")
+                .add("manifestHash", manifestHash)
+                .add("assets", assets)
+                .add("metadataHash", metadataHash)
+                .add("sealed", sealed)
+                .toString();
+    }
+}
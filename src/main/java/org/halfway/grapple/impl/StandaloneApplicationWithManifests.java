@@ -10,23 +10,30 @@ import org.halfway.grapple.model.manifest.StandaloneManifest;
 import java.io.File;
 
 /**
- * A standalone application target with the application manifest
+ * A standalone application target with the application manifest, along with the manifests of its layers
  */
 public class StandaloneApplicationWithManifests implements TargetWithManifests<StandaloneApplicationTarget> {
 
     private final StandaloneApplicationTarget target;
     private final StandaloneManifest manifest;
+    private final ImmutableList<StandaloneManifest> layerManifests;
 
-    public StandaloneApplicationWithManifests(StandaloneApplicationTarget target, StandaloneManifest manifest) {
+    public StandaloneApplicationWithManifests(StandaloneApplicationTarget target, StandaloneManifest manifest,
+                                              ImmutableList<StandaloneManifest> layerManifests) {
+        Verify.verifyNotNull(layerManifests, "layer manifests must not be null");
+        Verify.verify(layerManifests.size() == target.getLayers().size(), "each layer must have a manifest");
         this.target = target;
         this.manifest = manifest;
+        this.layerManifests = layerManifests;
     }
 
     @Override
     public long getTotalFileSize() {
         long size = 0;
-        for (GrappleAsset file : manifest.getAssets()) {
-            size += file.getSize();
+        for (GrappleManifest manifest : getManifests()) {
+            for (GrappleAsset file : manifest.getAssets()) {
+                size += file.getSize();
+            }
         }
         return size;
     }
@@ -38,12 +45,21 @@ public class StandaloneApplicationWithManifests implements TargetWithManifests<S
 
     @Override
     public ImmutableList<GrappleManifest> getManifests() {
-        return ImmutableList.<GrappleManifest>of(manifest);
+        return ImmutableList.<GrappleManifest>builder().add(manifest).addAll(layerManifests).build();
+    }
+
+    @Override
+    public ImmutableList<StandaloneManifest> getLayerManifests() {
+        return layerManifests;
     }
 
     @Override
     public File getContentRoot(final GrappleManifest manifest) {
-        Verify.verify(manifest == this.manifest, "manifest should be unique");
-        return target.getContentRoot();
+        if (manifest == this.manifest) {
+            return target.getContentRoot();
+        }
+        final int layer = layerManifests.indexOf(manifest);
+        Verify.verify(layer >= 0, "manifest should be unique");
+        return target.getLayers().get(layer).getContentRoot();
     }
 }
@@ -0,0 +1,241 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.halfway.grapple.model.configuration.StorageProfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The storage device that a content root sits on together with its {@link StorageProfile}, which bounds the number of
+ * assets that are read or written concurrently on the device.
+ * <p/>
+ * Devices are detected from {@code /proc/mounts} and the rotational flag of the block device on Linux and from UNC
+ * paths on Windows. Anything that cannot be detected is treated as {@link StorageProfile#ssd}, which leaves the
+ * concurrency as configured.
+ */
+public class StorageDevice {
+    private static final Logger logger = Logger.getLogger(StorageDevice.class.getName());
+    private static final File PROC_MOUNTS = new File("/proc/mounts");
+    private static final File SYS_BLOCK = new File("/sys/class/block");
+    private static final String UNC_PREFIX = "\\\\";
+    private static final Splitter FIELD_SPLITTER = Splitter.on(' ').omitEmptyStrings();
+    private static final Splitter UNC_SPLITTER = Splitter.on('\\').omitEmptyStrings().limit(3);
+    private static final ImmutableSet<String> NETWORK_FILE_SYSTEMS = ImmutableSet.of("nfs", "nfs4", "cifs", "smbfs",
+            "smb3", "afs", "9p", "ceph", "glusterfs", "fuse.glusterfs", "fuse.sshfs", "sshfs", "davfs", "fuse.s3fs");
+    private static final int HDD_READ_WORKERS = 1;
+    private static final int HDD_WRITE_WORKERS = 2;
+    private static final int NETWORK_READ_WORKERS = 4;
+    private static final int NETWORK_WRITE_WORKERS = 8;
+
+    private final String id;
+    private final StorageProfile profile;
+
+    public StorageDevice(final String id, final StorageProfile profile) {
+        Verify.verifyNotNull(id, "id must not be null");
+        Verify.verify(profile != StorageProfile.auto, "profile of a device must be resolved");
+        this.id = id;
+        this.profile = profile;
+    }
+
+    /**
+     * Find the device of each content root. Content roots on the same device get equal devices so that they can share
+     * the same bounded set of workers.
+     *
+     * @param contentRoots The content roots
+     * @param configured   The configured storage profile. Detection only happens for
+     *                     {@link StorageProfile#auto}, otherwise the profile applies to every device
+     * @return The map of content root to device
+     */
+    public static ImmutableMap<File, StorageDevice> of(final Iterable<File> contentRoots, final StorageProfile configured) {
+        final ImmutableList<Mount> mounts = readMounts();
+        final ImmutableMap.Builder<File, StorageDevice> map = ImmutableMap.builder();
+        for (final File contentRoot : contentRoots) {
+            final StorageDevice device = detect(mounts, contentRoot, configured);
+            logger.info("Content root " + contentRoot + " is on " + device);
+            map.put(contentRoot, device);
+        }
+        return map.build();
+    }
+
+    private static StorageDevice detect(final ImmutableList<Mount> mounts, final File contentRoot,
+                                        final StorageProfile configured) {
+        final String path = canonicalPath(contentRoot);
+        if (path.startsWith(UNC_PREFIX)) {
+            // \\server\share\path is on the device \\server\share
+            final List<String> parts = UNC_SPLITTER.splitToList(path);
+            final String share = UNC_PREFIX + parts.get(0) + (parts.size() > 1 ? "\\" + parts.get(1) : "");
+            return new StorageDevice(share, resolve(configured, StorageProfile.network));
+        }
+        final Optional<Mount> mount = findMount(mounts, path);
+        if (!mount.isPresent()) {
+            return new StorageDevice(path, resolve(configured, StorageProfile.ssd));
+        }
+        return new StorageDevice(mount.get().point, resolve(configured, mount.get().detectProfile()));
+    }
+
+    private static StorageProfile resolve(final StorageProfile configured, final StorageProfile detected) {
+        return configured == StorageProfile.auto ? detected : configured;
+    }
+
+    private static String canonicalPath(final File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (final IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * @return The mount with the longest mount point that contains the path
+     */
+    private static Optional<Mount> findMount(final ImmutableList<Mount> mounts, final String path) {
+        Mount best = null;
+        for (final Mount mount : mounts) {
+            final boolean contains = mount.point.equals("/") || path.equals(mount.point) ||
+                    path.startsWith(mount.point + "/");
+            if (contains && (best == null || mount.point.length() > best.point.length())) {
+                best = mount;
+            }
+        }
+        return Optional.fromNullable(best);
+    }
+
+    private static ImmutableList<Mount> readMounts() {
+        if (!PROC_MOUNTS.canRead()) {
+            return ImmutableList.of();
+        }
+        final ImmutableList.Builder<Mount> mounts = ImmutableList.builder();
+        try {
+            for (final String line : Files.readLines(PROC_MOUNTS, Charsets.UTF_8)) {
+                final List<String> fields = FIELD_SPLITTER.splitToList(line);
+                if (fields.size() >= 3) {
+                    mounts.add(new Mount(unescape(fields.get(0)), unescape(fields.get(1)), fields.get(2)));
+                }
+            }
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "Unable to read " + PROC_MOUNTS, e);
+            return ImmutableList.of();
+        }
+        return mounts.build();
+    }
+
+    /**
+     * Undo the octal escaping of whitespace and backslashes in {@code /proc/mounts}
+     */
+    private static String unescape(final String field) {
+        return field.replace("\\040", " ").replace("\\011", "\t").replace("\\012", "\n").replace("\\134", "\\");
+    }
+
+    /**
+     * @return The number of assets that should be read at the same time on this device
+     */
+    public int readWorkers(final int requested) {
+        Verify.verify(requested > 0, "requested workers must be positive");
+        switch (profile) {
+            case hdd:
+                return Math.min(requested, HDD_READ_WORKERS);
+            case network:
+                return Math.min(requested, NETWORK_READ_WORKERS);
+            default:
+                return requested;
+        }
+    }
+
+    /**
+     * @return The number of assets that should be written at the same time on this device
+     */
+    public int writeWorkers(final int requested) {
+        Verify.verify(requested > 0, "requested workers must be positive");
+        switch (profile) {
+            case hdd:
+                return Math.min(requested, HDD_WRITE_WORKERS);
+            case network:
+                return Math.min(requested, NETWORK_WRITE_WORKERS);
+            default:
+                return requested;
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public StorageProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final StorageDevice that = (StorageDevice) o;
+        return id.equals(that.id) && profile == that.profile;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(id, profile);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper("StorageDevice")
+                .add("id", id)
+                .add("profile", profile)
+                .toString();
+    }
+
+    private static class Mount {
+        private final String device;
+        private final String point;
+        private final String type;
+
+        private Mount(final String device, final String point, final String type) {
+            this.device = device;
+            this.point = point;
+            this.type = type;
+        }
+
+        private StorageProfile detectProfile() {
+            if (NETWORK_FILE_SYSTEMS.contains(type)) {
+                return StorageProfile.network;
+            }
+            if (!device.startsWith("/dev/")) {
+                return StorageProfile.ssd;
+            }
+            // resolves /dev/mapper and /dev/disk/by-* links to the kernel name of the device
+            final String name = new File(canonicalPath(new File(device))).getName();
+            final File block = new File(canonicalPath(new File(SYS_BLOCK, name)));
+            // partitions do not have a queue of their own but share that of the parent disk
+            for (final File candidate : new File[]{block, block.getParentFile()}) {
+                final File rotational = new File(candidate, "queue/rotational");
+                if (rotational.canRead()) {
+                    try {
+                        final String flag = Files.readFirstLine(rotational, Charsets.US_ASCII);
+                        return flag != null && flag.trim().equals("1") ? StorageProfile.hdd : StorageProfile.ssd;
+                    } catch (final IOException e) {
+                        logger.log(Level.FINE, "Unable to read " + rotational, e);
+                    }
+                }
+            }
+            return StorageProfile.ssd;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.halfway.grapple.impl;
 import com.google.common.collect.ImmutableList;
 import org.halfway.grapple.model.configuration.LaunchTarget;
 import org.halfway.grapple.model.manifest.GrappleManifest;
+import org.halfway.grapple.model.manifest.StandaloneManifest;
 
 import java.io.File;
 
@@ -19,12 +20,19 @@ public interface TargetWithManifests<Target extends LaunchTarget> {
     Target getTarget();
 
     /**
-     * Get the list of manifests.
+     * Get the list of manifests: those of the application, followed by those of its layers from the bottom layer up.
      * <p/>
-     * Currently, only {@link org.halfway.grapple.model.manifest.ManifestOrApplicationType#jvm} has more than one manifest.
+     * Without layers, only {@link org.halfway.grapple.model.manifest.ManifestOrApplicationType#jvm} has more than one
+     * manifest.
      */
     ImmutableList<GrappleManifest> getManifests();
 
+    /**
+     * Get the manifests of the {@link org.halfway.grapple.model.configuration.LaunchTarget#getLayers() layers} of the
+     * target, in the same order as the layers
+     */
+    ImmutableList<StandaloneManifest> getLayerManifests();
+
     /**
      * The the total size of all the assets in each manifest in bytes
      */
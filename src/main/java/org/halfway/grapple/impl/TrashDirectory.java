@@ -0,0 +1,119 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Verify;
+import com.google.common.collect.Sets;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * The directory of a content root that files and directories are moved into instead of being deleted during an
+ * update, so that an update only pays for a rename and the deletion happens in the background once the application
+ * has been launched. Anything left in the trash by an interrupted launch is deleted by the next one.
+ * <p/>
+ * The trash also remembers the directories that files were moved out of, so that those left empty can be pruned once
+ * the update has completed.
+ * <p/>
+ * This class is thread-safe.
+ */
+public class TrashDirectory {
+    private static final Logger logger = Logger.getLogger(TrashDirectory.class.getName());
+    /**
+     * Name of the trash directory on the file system
+     */
+    public static final String NAME = "grapple.trash";
+    private static final AtomicLong sequence = new AtomicLong(System.currentTimeMillis());
+
+    private final File directory;
+    private final Set<File> emptiedDirectories = Sets.newHashSet();
+
+    private TrashDirectory(final File contentRoot) {
+        this.directory = new File(contentRoot, NAME);
+    }
+
+    public static TrashDirectory in(final File contentRoot) {
+        Verify.verifyNotNull(contentRoot, "content root must not be null");
+        return new TrashDirectory(contentRoot);
+    }
+
+    /**
+     * @return true if the file is in the trash of the content root
+     */
+    public static boolean contains(final File contentRoot, final File file) {
+        return isInside(new File(contentRoot, NAME), file);
+    }
+
+    /**
+     * Move a file or a directory into the trash, creating the trash if needed. A file that cannot be moved, such as
+     * one that is open on Windows, is deleted instead
+     *
+     * @return true if the file was moved or deleted
+     */
+    public synchronized boolean moveIn(final File file) {
+        final File target = new File(directory, Long.toString(sequence.getAndIncrement(), Character.MAX_RADIX) + "-" +
+                file.getName());
+        final boolean removed = file.renameTo(target) || (directory.mkdirs() && file.renameTo(target)) ||
+                (file.isFile() && file.delete());
+        if (removed) {
+            emptiedDirectories.add(file.getParentFile());
+        }
+        return removed;
+    }
+
+    /**
+     * Delete the directories of the content root that files were moved out of and that are now empty, along with
+     * their parents that are left empty in turn
+     *
+     * @param contentRoot The content root the files were moved out of, which is never deleted
+     * @param kept        The directories to keep even when empty, such as those of the assets still to be updated
+     * @return The number of directories deleted
+     */
+    public synchronized int pruneEmptyDirectories(final File contentRoot, final Set<File> kept) {
+        // the children of a directory sort after it, so they are looked at first
+        final TreeSet<File> candidates = new TreeSet<File>(Collections.reverseOrder());
+        candidates.addAll(emptiedDirectories);
+        emptiedDirectories.clear();
+        int pruned = 0;
+        while (!candidates.isEmpty()) {
+            final File candidate = candidates.pollFirst();
+            if (kept.contains(candidate) || !isInside(contentRoot, candidate)) {
+                continue;
+            }
+            if (FileIO.isEmpty(candidate) && candidate.delete()) {
+                logger.fine("Deleted empty directory " + candidate);
+                pruned += 1;
+                candidates.add(candidate.getParentFile());
+            }
+        }
+        return pruned;
+    }
+
+    private static boolean isInside(final File directory, final File file) {
+        return file.getAbsolutePath().startsWith(directory.getAbsolutePath() + File.separator);
+    }
+
+    /**
+     * Delete everything in the trash, along with the trash itself
+     *
+     * @return true if the trash no longer exists
+     */
+    public boolean empty() {
+        return FileIO.deleteRecursively(directory);
+    }
+
+    /**
+     * @return true if the trash exists
+     */
+    public boolean exists() {
+        return directory.isDirectory();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,222 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.IORuntimeException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only journal of the assets that an update of a content root has completed, so that an update that was
+ * interrupted, such as by closing the launcher, resumes with the outstanding assets rather than hashing everything
+ * again.
+ * <p/>
+ * The journal starts with a line naming the hash of the manifest being installed, followed by a line of
+ * {@code <asset hash> <path>} for each asset that was verified or downloaded. A line is only complete once its
+ * newline has been written, so a line cut short by the interruption is ignored. The journal only applies to the
+ * manifest it names and is deleted once that manifest has been written to the content root.
+ * <p/>
+ * The file of an asset is synced to the disk before its line is appended, and the journal is synced at the end of
+ * every line, so that neither a killed launcher nor a power failure leaves the journal naming an asset whose content
+ * was lost.
+ */
+public class UpdateJournal {
+    private static final Logger logger = Logger.getLogger(UpdateJournal.class.getName());
+    /**
+     * Name of the journal on the file system
+     */
+    public static final String NAME = "grapple.journal";
+    private static final String MANIFEST_PREFIX = "manifest ";
+    private static final char SEPARATOR = ' ';
+    private static final Splitter LINE_SPLITTER = Splitter.on('\n');
+    private static final Splitter ENTRY_SPLITTER = Splitter.on(SEPARATOR).limit(2);
+
+    private final File file;
+    private FileOutputStream stream = null;
+    private Writer writer = null;
+
+    private UpdateJournal(final File contentRoot) {
+        this.file = new File(contentRoot, NAME);
+    }
+
+    public static UpdateJournal in(final File contentRoot) {
+        Verify.verifyNotNull(contentRoot, "content root must not be null");
+        return new UpdateJournal(contentRoot);
+    }
+
+    /**
+     * Open the journal for an update of the manifest with this hash, keeping the entries of an interrupted update of
+     * the same manifest and discarding a journal of any other manifest
+     *
+     * @return The map of asset path to asset hash of the assets that were already completed
+     * @throws org.halfway.grapple.model.IORuntimeException if the journal could not be opened
+     */
+    public synchronized ImmutableMap<String, String> open(final String manifestHash) {
+        Verify.verify(writer == null, "journal %s is already open", file);
+        final Optional<ImmutableMap<String, String>> completed = read(manifestHash);
+        try {
+            stream = new FileOutputStream(file, completed.isPresent());
+            writer = new OutputStreamWriter(stream, Charsets.UTF_8);
+            if (!completed.isPresent()) {
+                writeLine(MANIFEST_PREFIX + manifestHash);
+            }
+        } catch (final IOException e) {
+            close();
+            throw new IORuntimeException("Unable to open update journal " + file, e);
+        }
+        if (completed.isPresent() && !completed.get().isEmpty()) {
+            logger.info("Resuming the update of " + file.getParentFile() + " with " + completed.get().size() +
+                    " assets already completed");
+        }
+        return completed.or(ImmutableMap.<String, String>of());
+    }
+
+    /**
+     * Read the assets that an interrupted update of the manifest with this hash completed, without opening the journal
+     *
+     * @return The map of asset path to asset hash of the completed assets, which is empty if there are none
+     */
+    public ImmutableMap<String, String> readCompleted(final String manifestHash) {
+        return read(manifestHash).or(ImmutableMap.<String, String>of());
+    }
+
+    /**
+     * Record an asset as completed once its file has been synced to the disk. An asset that cannot be synced is not
+     * recorded, and a journal that cannot be written to is closed, so that the update carries on without it
+     */
+    public void record(final GrappleAsset asset) {
+        if (!isOpen()) {
+            return;
+        }
+        final File assetFile = new File(file.getParentFile(), asset.getPath());
+        try {
+            sync(assetFile);
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "Unable to sync " + assetFile + ", not recording it in " + file, e);
+            return;
+        }
+        append(asset);
+    }
+
+    private synchronized boolean isOpen() {
+        return writer != null;
+    }
+
+    private synchronized void append(final GrappleAsset asset) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writeLine(asset.getHash().toString() + SEPARATOR + asset.getPath());
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "Unable to write to update journal " + file + ", no longer recording", e);
+            close();
+        }
+    }
+
+    private void writeLine(final String line) throws IOException {
+        writer.write(line + "\n");
+        writer.flush();
+        stream.getFD().sync();
+    }
+
+    /**
+     * Sync the content of a file to the disk
+     */
+    private static void sync(final File file) throws IOException {
+        final FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "Unable to close update journal " + file, e);
+        }
+        writer = null;
+        stream = null;
+    }
+
+    /**
+     * Delete the journal once the manifest with this hash has been written, leaving the journal of any other manifest
+     *
+     * @return true if there is no journal of the manifest left on the file system
+     */
+    public boolean clear(final String manifestHash) {
+        if (!file.isFile() || !manifestHash.equals(readManifestHash())) {
+            return true;
+        }
+        return file.delete();
+    }
+
+    private String readManifestHash() {
+        try {
+            final BufferedReader reader = Files.newReader(file, Charsets.UTF_8);
+            try {
+                final String header = reader.readLine();
+                return header != null && header.startsWith(MANIFEST_PREFIX) ?
+                        header.substring(MANIFEST_PREFIX.length()) : null;
+            } finally {
+                reader.close();
+            }
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "Unable to read update journal " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The completed assets, or absent if there is no readable journal of the manifest
+     */
+    private Optional<ImmutableMap<String, String>> read(final String manifestHash) {
+        if (!file.isFile()) {
+            return Optional.absent();
+        }
+        final List<String> lines;
+        try {
+            lines = LINE_SPLITTER.splitToList(Files.toString(file, Charsets.UTF_8));
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "Unable to read update journal " + file, e);
+            return Optional.absent();
+        }
+        if (lines.size() < 2 || !lines.get(0).equals(MANIFEST_PREFIX + manifestHash)) {
+            return Optional.absent();
+        }
+        final Map<String, String> completed = Maps.newHashMap();
+        // the last piece is either empty or a line that was cut short
+        for (final String line : lines.subList(1, lines.size() - 1)) {
+            final List<String> entry = ENTRY_SPLITTER.splitToList(line);
+            if (entry.size() == 2) {
+                completed.put(entry.get(1), entry.get(0));
+            }
+        }
+        return Optional.of(ImmutableMap.copyOf(completed));
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
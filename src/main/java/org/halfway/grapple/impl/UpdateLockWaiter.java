@@ -0,0 +1,175 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import org.halfway.grapple.gui.GrappleGuiApi;
+import org.halfway.grapple.model.GrappleFatalException;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.util.DirectoryUpdateLock;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Locks the content roots for an update, waiting for another launcher that holds any of them rather than failing. The
+ * progress of the other update is shown from its {@link org.halfway.grapple.impl.UpdateStatus}, and the wait fails
+ * once that status has not advanced for the lock timeout.
+ * <p/>
+ * A progressive launcher stops waiting without the lock once the other launcher has updated the launch-critical assets
+ * of the same manifests, rather than waiting for the rest of the update to complete in the background.
+ */
+public class UpdateLockWaiter {
+    private static final Logger logger = Logger.getLogger(UpdateLockWaiter.class.getName());
+    private static final long LOCK_POLL_MILLIS = 250;
+
+    private final long lockTimeoutSeconds;
+    private final GrappleGuiApi guiApi;
+    private final int progress;
+
+    /**
+     * @param lockTimeoutSeconds The seconds after which the wait fails if the status of the other update has not
+     *                           advanced
+     * @param progress           The progress shown while waiting
+     */
+    public UpdateLockWaiter(final long lockTimeoutSeconds, final GrappleGuiApi guiApi, final int progress) {
+        this.lockTimeoutSeconds = lockTimeoutSeconds;
+        this.guiApi = guiApi;
+        this.progress = progress;
+    }
+
+    /**
+     * Lock the content roots, waiting for another launcher that holds any of them to finish its update
+     *
+     * @param lockMap          The locks of the configured content roots, which hold the status of their updates
+     * @param launchableHashes The hash of the manifest fetched for each configured content root, when launching
+     *                         progressively, to stop waiting once the other launcher made every content root
+     *                         launchable at it
+     * @throws org.halfway.grapple.model.GrappleFatalException if the update status of the other launcher does not
+     *                                                         advance for the lock timeout
+     */
+    public Outcome lockOrWait(final ImmutableMap<File, DirectoryUpdateLock> lockMap,
+                              final Optional<ImmutableMap<File, String>> launchableHashes) {
+        if (DirectoryUpdateLock.lockAll(lockMap.values())) {
+            return new Outcome(true, Optional.<Long>absent());
+        }
+        final long waitedSince = System.currentTimeMillis();
+        final long timeoutMillis = TimeUnit.SECONDS.toMillis(lockTimeoutSeconds);
+        logger.info("Waiting for another launcher to update " + lockMap.keySet());
+        int shownPercent = -1;
+        long statusTime = latestStatusTime(lockMap.keySet());
+        long advancedAt = waitedSince;
+        do {
+            if (launchableHashes.isPresent() && isLaunchable(launchableHashes.get())) {
+                logger.info("Another launcher made " + lockMap.keySet() + " launchable after " +
+                        (System.currentTimeMillis() - waitedSince) + " ms and updates the rest in the background");
+                return new Outcome(false, Optional.of(waitedSince));
+            }
+            final long latestTime = latestStatusTime(lockMap.keySet());
+            if (latestTime != statusTime) {
+                statusTime = latestTime;
+                advancedAt = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - advancedAt > timeoutMillis) {
+                throw new GrappleFatalException("Another launcher has held the update lock of " + lockMap.keySet() +
+                        " for " + lockTimeoutSeconds + " seconds without its update advancing");
+            }
+            final int percent = percentUpdatedByOthers(lockMap.keySet());
+            if (percent != shownPercent) {
+                shownPercent = percent;
+                guiApi.notifyProgress(progress, Optional.of("Waiting for another launcher to update application files" +
+                        (percent < 0 ? "" : " (" + percent + "%)") + "..."));
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(LOCK_POLL_MILLIS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GrappleFatalException("Interrupted while waiting to lock directories for update");
+            }
+        } while (!DirectoryUpdateLock.lockAll(lockMap.values()));
+        logger.info("Waited " + (System.currentTimeMillis() - waitedSince) + " ms for another launcher");
+        return new Outcome(true, Optional.of(waitedSince));
+    }
+
+    /**
+     * Unlock and close the locks, only logging the locks that cannot be unlocked as the update is over either way
+     */
+    public static void unlockAll(final ImmutableMap<File, DirectoryUpdateLock> lockMap) {
+        try {
+            DirectoryUpdateLock.unlockAllAndClose(lockMap.values());
+        } catch (final IORuntimeException e) {
+            logger.log(Level.SEVERE, "Unable to unlock all directories", e);
+        }
+    }
+
+    /**
+     * @return The least percentage complete of the content roots being updated, or -1 if none has a status
+     */
+    private static int percentUpdatedByOthers(final Iterable<File> contentRoots) {
+        int percent = -1;
+        for (final File contentRoot : contentRoots) {
+            final Optional<UpdateStatus> status = UpdateStatus.in(contentRoot);
+            if (status.isPresent() && (status.get().getState() == UpdateStatus.State.updating ||
+                    status.get().getState() == UpdateStatus.State.launchable)) {
+                percent = percent < 0 ? status.get().getPercent() : Math.min(percent, status.get().getPercent());
+            }
+        }
+        return percent;
+    }
+
+    /**
+     * @return true if every configured content root is launchable at the manifest with its hash
+     */
+    private static boolean isLaunchable(final ImmutableMap<File, String> manifestHashes) {
+        for (final Map.Entry<File, String> entry : manifestHashes.entrySet()) {
+            final Optional<UpdateStatus> status = UpdateStatus.in(entry.getKey());
+            if (!status.isPresent() || !status.get().isLaunchableAt(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The time of the latest status of the content roots, or 0 if none has a status
+     */
+    private static long latestStatusTime(final Iterable<File> contentRoots) {
+        long time = 0;
+        for (final File contentRoot : contentRoots) {
+            final Optional<UpdateStatus> status = UpdateStatus.in(contentRoot);
+            if (status.isPresent()) {
+                time = Math.max(time, status.get().getTime());
+            }
+        }
+        return time;
+    }
+
+    /**
+     * The outcome of waiting for the update lock
+     */
+    public static class Outcome {
+        private final boolean locked;
+        private final Optional<Long> waitedSince;
+
+        private Outcome(final boolean locked, final Optional<Long> waitedSince) {
+            this.locked = locked;
+            this.waitedSince = waitedSince;
+        }
+
+        /**
+         * @return true if this launcher holds the lock, and false if it stopped waiting as the content roots are
+         * launchable while another launcher still holds it
+         */
+        public boolean isLocked() {
+            return locked;
+        }
+
+        /**
+         * @return The time at which this launcher started waiting, if it had to
+         */
+        public Optional<Long> getWaitedSince() {
+            return waitedSince;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.util.DirectoryScanner;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The work that an update does to bring a content root up to date with a manifest: the extra files it deletes, the
+ * directories it creates and the assets it checks, hashes, links from the previous version or downloads.
+ * <p/>
+ * A plan is built by an {@link org.halfway.grapple.impl.UpdatePlanner} from a scan of the content root, so it does not
+ * know which of the assets it hashes turn out to differ and are downloaded as well. Its estimate is therefore a lower
+ * bound for a content root that was modified outside of Grapple.
+ * <p/>
+ * The report of a plan is a sorted map of:
+ * <ul>
+ * <li>{@code plan.<action>.count} and {@code plan.<action>.bytes} - the number of steps of each action and the bytes
+ * they read or write</li>
+ * <li>{@code plan.estimate.millis} - the estimated time of the update</li>
+ * <li>{@code <action>.<path>=size} for each step that changes the content root</li>
+ * </ul>
+ */
+public class UpdatePlan {
+    /**
+     * The actions of the steps of a plan
+     */
+    public static enum Action {
+        /**
+         * Delete a file that is not in the manifest
+         */
+        delete,
+        /**
+         * Create a missing directory
+         */
+        mkdir,
+        /**
+         * Check an asset by the existence and size of its file only
+         */
+        check,
+        /**
+         * Hash the file of an asset
+         */
+        hash,
+        /**
+         * Link the file of an asset from the previous version
+         */
+        link,
+        /**
+         * Download an asset
+         */
+        download;
+
+        /**
+         * @return true if the action changes the content root
+         */
+        public boolean isChange() {
+            return this != check && this != hash;
+        }
+    }
+
+    /**
+     * A step of a plan, on the file of an asset or on a file that is not in the manifest
+     */
+    public static class Step {
+        private final Action action;
+        private final String path;
+        private final File file;
+        private final long size;
+        private final Optional<GrappleAsset> asset;
+
+        private Step(final Action action, final String path, final File file, final long size,
+                     final Optional<GrappleAsset> asset) {
+            this.action = action;
+            this.path = path;
+            this.file = file;
+            this.size = size;
+            this.asset = asset;
+        }
+
+        public static Step delete(final DirectoryScanner.ScannedFile file) {
+            return new Step(Action.delete, file.getPath(), file.getFile(), file.getSize(),
+                    Optional.<GrappleAsset>absent());
+        }
+
+        /**
+         * @param path The path of the directory relative to the content root
+         */
+        public static Step mkdir(final File contentRoot, final String path) {
+            return new Step(Action.mkdir, path, new File(contentRoot, path), 0, Optional.<GrappleAsset>absent());
+        }
+
+        public static Step onAsset(final Action action, final File contentRoot, final GrappleAsset asset) {
+            Verify.verify(action != Action.delete && action != Action.mkdir, "action %s is not on an asset", action);
+            return new Step(action, asset.getPath(), new File(contentRoot, asset.getPath()), asset.getSize(),
+                    Optional.of(asset));
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        /**
+         * @return The path of the file relative to the content root
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Optional<GrappleAsset> getAsset() {
+            return asset;
+        }
+
+        @Override
+        public String toString() {
+            return action + " " + path + " (" + size + " bytes)";
+        }
+    }
+
+    /**
+     * Receives the steps of a plan as they are planned
+     */
+    public interface StepListener {
+        void add(Step step);
+    }
+
+    /**
+     * Collects the steps of a plan
+     */
+    public static class Builder implements StepListener {
+        private final File contentRoot;
+        private final UpdateThroughput throughput;
+        private final int workers;
+        private final ImmutableList.Builder<Step> steps = ImmutableList.builder();
+
+        private Builder(final File contentRoot, final UpdateThroughput throughput, final int workers) {
+            this.contentRoot = contentRoot;
+            this.throughput = throughput;
+            this.workers = workers;
+        }
+
+        @Override
+        public synchronized void add(final Step step) {
+            steps.add(step);
+        }
+
+        public synchronized UpdatePlan build() {
+            return new UpdatePlan(contentRoot, steps.build(), throughput, workers);
+        }
+    }
+
+    private final File contentRoot;
+    private final ImmutableList<Step> steps;
+    private final UpdateThroughput throughput;
+    private final int workers;
+    private final Map<Action, long[]> totals = new EnumMap<Action, long[]>(Action.class);
+
+    private UpdatePlan(final File contentRoot, final ImmutableList<Step> steps, final UpdateThroughput throughput,
+                       final int workers) {
+        this.contentRoot = contentRoot;
+        this.steps = steps;
+        this.throughput = throughput;
+        this.workers = workers;
+        for (final Action action : Action.values()) {
+            totals.put(action, new long[2]);
+        }
+        for (final Step step : steps) {
+            final long[] total = totals.get(step.getAction());
+            total[0] += 1;
+            total[1] += step.getSize();
+        }
+    }
+
+    /**
+     * @param throughput The throughput of a worker measured in the content root, to estimate the time of the update with
+     * @param workers    The number of workers that hash and download assets in parallel
+     */
+    public static Builder builder(final File contentRoot, final UpdateThroughput throughput, final int workers) {
+        Verify.verifyNotNull(contentRoot, "content root must not be null");
+        Verify.verifyNotNull(throughput, "throughput must not be null");
+        Verify.verify(workers > 0, "workers must be positive");
+        return new Builder(contentRoot, throughput, workers);
+    }
+
+    public File getContentRoot() {
+        return contentRoot;
+    }
+
+    public ImmutableList<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return The number of steps of the action
+     */
+    public long count(final Action action) {
+        return totals.get(action)[0];
+    }
+
+    /**
+     * @return The bytes of the steps of the action
+     */
+    public long bytes(final Action action) {
+        return totals.get(action)[1];
+    }
+
+    /**
+     * @return true if the plan neither changes the content root nor hashes any asset
+     */
+    public boolean isEmpty() {
+        for (final Action action : Action.values()) {
+            if (action != Action.check && count(action) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The estimated time of the update, from the bytes it hashes and downloads and the measured throughput
+     */
+    public long getEstimatedMillis() {
+        final double seconds = bytes(Action.hash) / (double) throughput.getHashBytesPerSecond() +
+                bytes(Action.download) / (double) throughput.getDownloadBytesPerSecond();
+        return Math.round(1000.0d * seconds / workers);
+    }
+
+    public ImmutableSortedMap<String, String> report() {
+        final ImmutableSortedMap.Builder<String, String> report = ImmutableSortedMap.naturalOrder();
+        for (final Action action : Action.values()) {
+            report.put("plan." + action + ".count", Long.toString(count(action)));
+            report.put("plan." + action + ".bytes", Long.toString(bytes(action)));
+        }
+        report.put("plan.estimate.millis", Long.toString(getEstimatedMillis()));
+        for (final Step step : steps) {
+            if (step.getAction().isChange()) {
+                report.put(step.getAction() + "." + step.getPath(),
+                        Long.toString(step.getSize()));
+            }
+        }
+        return report.build();
+    }
+
+    @Override
+    public String toString() {
+        final MoreObjects.ToStringHelper helper = MoreObjects.toStringHelper("UpdatePlan").add("contentRoot", contentRoot);
+        for (final Action action : Action.values()) {
+            helper.add(action.name(), count(action) + " (" + bytes(action) + " bytes)");
+        }
+        return helper.add("estimatedMillis", getEstimatedMillis()).toString();
+    }
+}
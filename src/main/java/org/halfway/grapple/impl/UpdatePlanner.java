@@ -0,0 +1,116 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableSet;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.manifest.AssetTable;
+import org.halfway.grapple.util.DirectoryScanner;
+import org.halfway.grapple.util.DirectoryUpdateLock;
+import org.halfway.grapple.util.PathOrder;
+
+import java.io.File;
+
+/**
+ * Plans the update of a content root to a manifest from a {@link org.halfway.grapple.impl.ManifestScanDiff}, turning
+ * each difference into the {@link org.halfway.grapple.impl.UpdatePlan.Step} that resolves it:
+ * <ul>
+ * <li>a file that is not in the manifest is deleted, unless it is one of the files Grapple keeps in content roots or
+ * is already in the {@link org.halfway.grapple.impl.TrashDirectory}</li>
+ * <li>a missing asset is linked from the previous version if it can be, or else downloaded, after creating its
+ * directory</li>
+ * <li>an asset whose file has the right size is hashed if selected, or else only checked</li>
+ * <li>an asset whose file has another size is downloaded</li>
+ * </ul>
+ * The steps are passed on in tree order as soon as the scan reaches them, so that they can be executed while the rest
+ * of the content root is still being scanned, or collected into a plan to look at before executing it.
+ */
+public class UpdatePlanner {
+    /**
+     * The files that Grapple keeps in content roots, which are not deleted even though they are not in the manifest
+     */
+    private static final ImmutableSet<String> IGNORE_DELETE = ImmutableSet.of(GrapplePropertiesManifest.PROPERTIES_FILE,
+            GrappleBinaryManifest.MANIFEST_FILE, ManifestTree.ROOT_FILE, DirectoryUpdateLock.NAME, FailedAssetRecord.NAME,
+            VerificationSampler.NAME, InstalledGroups.NAME, UpdateJournal.NAME, UpdateThroughput.NAME, UpdateStatus.NAME,
+            UpdateStatus.REPLACEMENT_NAME, SealStamp.NAME);
+
+    private final DirectoryScanner scanner;
+
+    /**
+     * @param scanner The scanner to scan content roots with
+     */
+    public UpdatePlanner(final DirectoryScanner scanner) {
+        Verify.verifyNotNull(scanner, "scanner must not be null");
+        this.scanner = scanner;
+    }
+
+    /**
+     * Plan the update of a content root, passing each step to the listener as soon as it is planned
+     *
+     * @param checkHash Selects the assets whose file has the right size that are hashed
+     * @param canLink   Selects the missing assets that can be linked from the previous version
+     * @throws org.halfway.grapple.model.IORuntimeException if the content root could not be scanned
+     */
+    public void plan(final AssetTable assets, final File contentRoot, final Predicate<GrappleAsset> checkHash,
+                     final Predicate<GrappleAsset> canLink, final UpdatePlan.StepListener listener) {
+        new ManifestScanDiff(scanner).run(assets, contentRoot, new ManifestScanDiff.Listener() {
+            private File lastDirectory = null;
+
+            @Override
+            public void delete(final DirectoryScanner.ScannedFile file) {
+                if (!isIgnoredForDelete(contentRoot, file.getFile())) {
+                    listener.add(UpdatePlan.Step.delete(file));
+                }
+            }
+
+            @Override
+            public void create(final GrappleAsset asset) {
+                // assets arrive directory by directory, so each directory is only looked at once
+                final File directory = new File(contentRoot, asset.getPath()).getParentFile();
+                if (!directory.equals(lastDirectory)) {
+                    lastDirectory = directory;
+                    if (!directory.isDirectory()) {
+                        listener.add(UpdatePlan.Step.mkdir(contentRoot,
+                                asset.getPath().substring(0, Math.max(0, PathOrder.nameStart(asset.getPath()) - 1))));
+                    }
+                }
+                listener.add(UpdatePlan.Step.onAsset(canLink.apply(asset) ? UpdatePlan.Action.link :
+                        UpdatePlan.Action.download, contentRoot, asset));
+            }
+
+            @Override
+            public void verify(final GrappleAsset asset, final DirectoryScanner.ScannedFile file) {
+                listener.add(UpdatePlan.Step.onAsset(checkHash.apply(asset) ? UpdatePlan.Action.hash :
+                        UpdatePlan.Action.check, contentRoot, asset));
+            }
+
+            @Override
+            public void download(final GrappleAsset asset, final DirectoryScanner.ScannedFile file) {
+                listener.add(UpdatePlan.Step.onAsset(UpdatePlan.Action.download, contentRoot, asset));
+            }
+        });
+    }
+
+    /**
+     * Plan the update of a content root in full before any of it is executed
+     *
+     * @see #plan(org.halfway.grapple.model.manifest.AssetTable, java.io.File, com.google.common.base.Predicate,
+     * com.google.common.base.Predicate, org.halfway.grapple.impl.UpdatePlan.StepListener)
+     */
+    public UpdatePlan plan(final AssetTable assets, final File contentRoot, final Predicate<GrappleAsset> checkHash,
+                           final Predicate<GrappleAsset> canLink, final UpdateThroughput throughput,
+                           final int workers) {
+        final UpdatePlan.Builder plan = UpdatePlan.builder(contentRoot, throughput, workers);
+        plan(assets, contentRoot, checkHash, canLink, plan);
+        return plan.build();
+    }
+
+    /**
+     * @return true if the file is one that Grapple keeps in the content root
+     */
+    public static boolean isIgnoredForDelete(final File contentRoot, final File file) {
+        return IGNORE_DELETE.contains(file.getName()) ||
+                new File(contentRoot, ManifestTree.TREE_DIRECTORY).equals(file.getParentFile()) ||
+                TrashDirectory.contains(contentRoot, file);
+    }
+}
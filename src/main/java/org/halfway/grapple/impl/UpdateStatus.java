@@ -0,0 +1,178 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.base.Verify;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The status of the update of a content root, written by the launcher that holds the
+ * {@link org.halfway.grapple.util.DirectoryUpdateLock} of the content root for the launchers that are waiting for it,
+ * such as when many users launch the same application from a shared content root at once.
+ * <p/>
+ * The waiting launchers show the progress of the update, and a launcher that waited while the update of the same
+ * manifest completed launches it as it is rather than verifying the content root again. A progressive launcher also
+ * stops waiting once the launch-critical assets of the same manifest are up to date, while the rest of the update still
+ * runs in the background.
+ * <p/>
+ * The status is kept in a properties file in the content root, which is replaced as a whole so that it is never read
+ * half written.
+ */
+public class UpdateStatus {
+    private static final Logger logger = Logger.getLogger(UpdateStatus.class.getName());
+    /**
+     * Name of the status on the file system
+     */
+    public static final String NAME = "grapple.status.properties";
+    /**
+     * Name of the status on the file system while it is being replaced
+     */
+    public static final String REPLACEMENT_NAME = NAME + ".new";
+    private static final String STATE_KEY = "state";
+    private static final String MANIFEST_KEY = "manifest";
+    private static final String PERCENT_KEY = "percent";
+    private static final String TIME_KEY = "time";
+
+    public enum State {
+        /**
+         * The content root is being updated
+         */
+        updating,
+        /**
+         * The launch-critical assets of the content root were updated to the manifest of the status, and the other
+         * assets are being updated in the background
+         */
+        launchable,
+        /**
+         * The content root was updated to the manifest of the status
+         */
+        updated,
+        /**
+         * The update of the content root failed, and the next launcher to lock the content root updates it again
+         */
+        failed
+    }
+
+    private final State state;
+    private final String manifestHash;
+    private final int percent;
+    private final long time;
+
+    /**
+     * @param manifestHash The hash of the manifest that the content root is updated to
+     * @param percent      The percentage of the update that is complete
+     * @param time         The time of the status in milliseconds
+     */
+    public UpdateStatus(final State state, final String manifestHash, final int percent, final long time) {
+        Verify.verifyNotNull(state, "state must not be null");
+        Verify.verifyNotNull(manifestHash, "manifest hash must not be null");
+        Verify.verify(percent >= 0 && percent <= 100, "percent must be between 0 and 100");
+        this.state = state;
+        this.manifestHash = manifestHash;
+        this.percent = percent;
+        this.time = time;
+    }
+
+    /**
+     * @return The status of the content root as of now
+     */
+    public static UpdateStatus now(final State state, final String manifestHash, final int percent) {
+        return new UpdateStatus(state, manifestHash, percent, System.currentTimeMillis());
+    }
+
+    /**
+     * @return The status written to the content root, if any can be read
+     */
+    public static Optional<UpdateStatus> in(final File contentRoot) {
+        final File file = new File(contentRoot, NAME);
+        if (!file.isFile()) {
+            return Optional.absent();
+        }
+        final Properties properties;
+        try {
+            properties = FileIO.readProperties(file);
+        } catch (final IORuntimeException e) {
+            // the file may be being replaced on Windows
+            logger.log(Level.FINE, "Unable to read " + file, e);
+            return Optional.absent();
+        }
+        final Integer percent = Ints.tryParse(properties.getProperty(PERCENT_KEY, ""));
+        final Long time = Longs.tryParse(properties.getProperty(TIME_KEY, ""));
+        final String manifestHash = properties.getProperty(MANIFEST_KEY);
+        final State state;
+        try {
+            state = State.valueOf(properties.getProperty(STATE_KEY, ""));
+        } catch (final IllegalArgumentException e) {
+            logger.warning("Ignoring " + file + " with an unknown state");
+            return Optional.absent();
+        }
+        if (percent == null || percent < 0 || percent > 100 || time == null || manifestHash == null) {
+            logger.warning("Ignoring " + file + " as it is incomplete");
+            return Optional.absent();
+        }
+        return Optional.of(new UpdateStatus(state, manifestHash, percent, time));
+    }
+
+    /**
+     * @throws org.halfway.grapple.model.IORuntimeException if the status could not be written
+     */
+    public void writeTo(final File contentRoot) {
+        final Properties properties = new Properties();
+        properties.setProperty(STATE_KEY, state.name());
+        properties.setProperty(MANIFEST_KEY, manifestHash);
+        properties.setProperty(PERCENT_KEY, Integer.toString(percent));
+        properties.setProperty(TIME_KEY, Long.toString(time));
+        final File replacement = new File(contentRoot, REPLACEMENT_NAME);
+        FileIO.writeProperties(replacement, properties, "written by " + UpdateStatus.class.getSimpleName());
+        FileIO.replaceFile(replacement, new File(contentRoot, NAME));
+    }
+
+    /**
+     * @return true if the content root was updated to the manifest with this hash at or after the time
+     */
+    public boolean isUpdatedTo(final String manifestHash, final long since) {
+        return state == State.updated && this.manifestHash.equals(manifestHash) && time >= since;
+    }
+
+    /**
+     * @return true if the launch-critical assets of the content root are up to date with the manifest with this hash,
+     * whether or not the other assets are still being updated
+     */
+    public boolean isLaunchableAt(final String manifestHash) {
+        return (state == State.launchable || state == State.updated) && this.manifestHash.equals(manifestHash);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getManifestHash() {
+        return manifestHash;
+    }
+
+    public int getPercent() {
+        return percent;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper("UpdateStatus")
+                .add("state", state)
+                .add("manifestHash", manifestHash)
+                .add("percent", percent)
+                .add("time", time)
+                .toString();
+    }
+}
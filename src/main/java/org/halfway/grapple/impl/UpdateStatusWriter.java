@@ -0,0 +1,68 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.collect.ImmutableMap;
+import org.halfway.grapple.model.IORuntimeException;
+
+import java.io.File;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the {@link org.halfway.grapple.impl.UpdateStatus} of the content roots being updated to their configured
+ * content roots, where the launchers waiting for the update read it. The progress is only written when its percentage
+ * changes, and a status that cannot be written is only logged as the update does not depend on it.
+ * <p/>
+ * This class is thread-safe.
+ */
+public class UpdateStatusWriter {
+    private static final Logger logger = Logger.getLogger(UpdateStatusWriter.class.getName());
+
+    private final ImmutableMap<File, String> manifestHashes;
+    private UpdateStatus.State writtenState;
+    private int writtenPercent = -1;
+
+    /**
+     * @param manifestHashes The hash of the manifest that each configured content root is updated to
+     */
+    public UpdateStatusWriter(final ImmutableMap<File, String> manifestHashes) {
+        this.manifestHashes = manifestHashes;
+    }
+
+    /**
+     * @param configuredRoots The configured content root of each content root being updated
+     * @param manifestHashes  The hash of the manifest fetched for each content root
+     * @param updatedRoots    The content roots being updated, by which the other maps are keyed
+     */
+    public static UpdateStatusWriter forUpdatedRoots(final ImmutableMap<File, File> configuredRoots,
+                                                     final ImmutableMap<File, String> manifestHashes,
+                                                     final Iterable<File> updatedRoots) {
+        final ImmutableMap.Builder<File, String> map = ImmutableMap.builder();
+        for (final File contentRoot : updatedRoots) {
+            map.put(configuredRoots.get(contentRoot), manifestHashes.get(contentRoot));
+        }
+        return new UpdateStatusWriter(map.build());
+    }
+
+    public synchronized void write(final UpdateStatus.State state, final int percent) {
+        if (state == writtenState && percent == writtenPercent) {
+            return;
+        }
+        writtenState = state;
+        writtenPercent = percent;
+        for (final Map.Entry<File, String> entry : manifestHashes.entrySet()) {
+            try {
+                UpdateStatus.now(state, entry.getValue(), percent).writeTo(entry.getKey());
+            } catch (final IORuntimeException e) {
+                logger.log(Level.WARNING, "Unable to write the update status of " + entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * @return The hash of the manifest that each configured content root is updated to
+     */
+    public ImmutableMap<File, String> getManifestHashes() {
+        return manifestHashes;
+    }
+}
@@ -0,0 +1,146 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Verify;
+import com.google.common.primitives.Longs;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The throughput of a single update worker when hashing and downloading assets, as measured by the previous updates of
+ * a content root, which {@link org.halfway.grapple.impl.UpdatePlan}s use to estimate how long an update takes.
+ * <p/>
+ * The throughput is kept in a properties file in the content root. Each update that hashes or downloads enough bytes
+ * to measure moves the throughput halfway towards what it measured, and a content root that was never measured uses
+ * conservative defaults.
+ */
+public class UpdateThroughput {
+    private static final Logger logger = Logger.getLogger(UpdateThroughput.class.getName());
+    /**
+     * Name of the record of the throughput on the file system
+     */
+    public static final String NAME = "grapple.throughput.properties";
+    private static final String HASH_KEY = "hash.bytes.per.second";
+    private static final String DOWNLOAD_KEY = "download.bytes.per.second";
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final long DEFAULT_HASH_BYTES_PER_SECOND = 50 * MEGABYTE;
+    private static final long DEFAULT_DOWNLOAD_BYTES_PER_SECOND = MEGABYTE;
+    /**
+     * The bytes below which a measurement is dominated by the overhead per asset and is not kept
+     */
+    private static final long MIN_MEASURED_BYTES = MEGABYTE;
+
+    private final long hashBytesPerSecond;
+    private final long downloadBytesPerSecond;
+
+    public UpdateThroughput(final long hashBytesPerSecond, final long downloadBytesPerSecond) {
+        Verify.verify(hashBytesPerSecond > 0, "hash throughput must be positive");
+        Verify.verify(downloadBytesPerSecond > 0, "download throughput must be positive");
+        this.hashBytesPerSecond = hashBytesPerSecond;
+        this.downloadBytesPerSecond = downloadBytesPerSecond;
+    }
+
+    /**
+     * @return The throughput used before any update was measured
+     */
+    public static UpdateThroughput defaults() {
+        return new UpdateThroughput(DEFAULT_HASH_BYTES_PER_SECOND, DEFAULT_DOWNLOAD_BYTES_PER_SECOND);
+    }
+
+    /**
+     * @return The throughput measured in the content root, or the defaults if there is no readable record
+     */
+    public static UpdateThroughput in(final File contentRoot) {
+        final File file = new File(contentRoot, NAME);
+        if (!file.isFile()) {
+            return defaults();
+        }
+        try {
+            final Properties properties = FileIO.readProperties(file);
+            return new UpdateThroughput(parse(properties, HASH_KEY, DEFAULT_HASH_BYTES_PER_SECOND),
+                    parse(properties, DOWNLOAD_KEY, DEFAULT_DOWNLOAD_BYTES_PER_SECOND));
+        } catch (final IORuntimeException e) {
+            logger.log(Level.WARNING, "Unable to read " + file + ", using the default throughput", e);
+            return defaults();
+        }
+    }
+
+    private static long parse(final Properties properties, final String key, final long defaultValue) {
+        final Long value = Longs.tryParse(properties.getProperty(key, ""));
+        return value != null && value > 0 ? value : defaultValue;
+    }
+
+    /**
+     * @throws org.halfway.grapple.model.IORuntimeException if the record could not be written
+     */
+    public void writeTo(final File contentRoot) {
+        final Properties properties = new Properties();
+        properties.setProperty(HASH_KEY, Long.toString(hashBytesPerSecond));
+        properties.setProperty(DOWNLOAD_KEY, Long.toString(downloadBytesPerSecond));
+        FileIO.writeProperties(new File(contentRoot, NAME), properties,
+                "written by " + UpdateThroughput.class.getSimpleName());
+    }
+
+    /**
+     * @return The throughput moved halfway towards what the meter measured, for each kind of work it measured enough of
+     */
+    public UpdateThroughput updatedWith(final Meter meter) {
+        synchronized (meter) {
+            return new UpdateThroughput(
+                    updated(hashBytesPerSecond, meter.hashedBytes, meter.hashNanos),
+                    updated(downloadBytesPerSecond, meter.downloadedBytes, meter.downloadNanos));
+        }
+    }
+
+    private static long updated(final long bytesPerSecond, final long bytes, final long nanos) {
+        if (bytes < MIN_MEASURED_BYTES || nanos <= 0) {
+            return bytesPerSecond;
+        }
+        final long measured = Math.max(1, Math.round(bytes / (double) nanos * TimeUnit.SECONDS.toNanos(1)));
+        return (bytesPerSecond + measured) / 2;
+    }
+
+    public long getHashBytesPerSecond() {
+        return hashBytesPerSecond;
+    }
+
+    public long getDownloadBytesPerSecond() {
+        return downloadBytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper("UpdateThroughput")
+                .add("hashBytesPerSecond", hashBytesPerSecond)
+                .add("downloadBytesPerSecond", downloadBytesPerSecond)
+                .toString();
+    }
+
+    /**
+     * Adds up the bytes that the workers of an update hashed and downloaded and the time each of them spent doing it.
+     * <p/>
+     * This class is thread-safe.
+     */
+    public static class Meter {
+        private long hashedBytes = 0;
+        private long hashNanos = 0;
+        private long downloadedBytes = 0;
+        private long downloadNanos = 0;
+
+        public synchronized void addHashed(final long bytes, final long nanos) {
+            hashedBytes += bytes;
+            hashNanos += nanos;
+        }
+
+        public synchronized void addDownloaded(final long bytes, final long nanos) {
+            downloadedBytes += bytes;
+            downloadNanos += nanos;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Predicate;
+import com.google.common.base.Verify;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.math.IntMath;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.model.configuration.VerificationPolicy;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Selects the assets of a content root whose contents should be hashed during this launch according to a
+ * {@link org.halfway.grapple.model.configuration.VerificationPolicy}.
+ * <p/>
+ * For the sampled policy every asset is assigned to one of N buckets by hashing its path with a seed that is random
+ * per installation, and each launch hashes the next bucket in turn. Every asset is therefore hashed within N launches
+ * while different installations sample different assets. The seed and the launch counter are kept in the content root.
+ */
+public class VerificationSampler implements Predicate<GrappleAsset> {
+    private static final Logger logger = Logger.getLogger(VerificationSampler.class.getName());
+    /**
+     * Name of the sampling state on the file system
+     */
+    public static final String NAME = "grapple.sample.properties";
+    private static final String SEED_KEY = "seed";
+    private static final String LAUNCH_KEY = "launch";
+
+    private final VerificationPolicy policy;
+    private final int buckets;
+    private final int bucket;
+    private final HashFunction bucketFunction;
+
+    private VerificationSampler(final VerificationPolicy policy, final int buckets, final int bucket, final int seed) {
+        this.policy = policy;
+        this.buckets = buckets;
+        this.bucket = bucket;
+        this.bucketFunction = Hashing.murmur3_32(seed);
+    }
+
+    /**
+     * Create the sampler for this launch. For the sampled policy this advances the launch counter stored in the
+     * content root.
+     *
+     * @param policy          The verification policy
+     * @param sampledLaunches The number of launches within which every asset should be hashed
+     * @param contentRoot     The content root the assets belong to
+     */
+    public static VerificationSampler forLaunch(final VerificationPolicy policy, final int sampledLaunches,
+                                                final File contentRoot) {
+        return create(policy, sampledLaunches, contentRoot, true);
+    }
+
+    /**
+     * Create the sampler that the next launch will use without advancing the launch counter, such as to plan an update
+     * without running it
+     *
+     * @see #forLaunch(org.halfway.grapple.model.configuration.VerificationPolicy, int, java.io.File)
+     */
+    public static VerificationSampler preview(final VerificationPolicy policy, final int sampledLaunches,
+                                              final File contentRoot) {
+        return create(policy, sampledLaunches, contentRoot, false);
+    }
+
+    private static VerificationSampler create(final VerificationPolicy policy, final int sampledLaunches,
+                                              final File contentRoot, final boolean advance) {
+        Verify.verifyNotNull(policy, "policy must not be null");
+        Verify.verify(sampledLaunches > 0, "sampled launches must be positive");
+
+        if (policy != VerificationPolicy.sampled) {
+            return new VerificationSampler(policy, 1, 0, 0);
+        }
+
+        final File stateFile = new File(contentRoot, NAME);
+        final Properties state = stateFile.isFile() ? FileIO.readProperties(stateFile) : new Properties();
+        final int seed = parseOr(state.getProperty(SEED_KEY), new SecureRandom().nextInt());
+        final int launch = parseOr(state.getProperty(LAUNCH_KEY), 0);
+
+        if (advance) {
+            state.setProperty(SEED_KEY, Integer.toString(seed));
+            state.setProperty(LAUNCH_KEY, Integer.toString(launch + 1));
+            try {
+                FileIO.writeProperties(stateFile, state, "written by " + VerificationSampler.class.getSimpleName());
+            } catch (final IORuntimeException e) {
+                logger.log(Level.WARNING, "Unable to write sampling state " + stateFile + ", sampling may repeat", e);
+            }
+        }
+        return new VerificationSampler(policy, sampledLaunches, IntMath.mod(launch, sampledLaunches), seed);
+    }
+
+    private static int parseOr(final String value, final int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            logger.warning("Ignoring invalid sampling state value '" + value + "'");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return true if the contents of the asset should be hashed during this launch
+     */
+    @Override
+    public boolean apply(final GrappleAsset asset) {
+        switch (policy) {
+            case quick:
+                return false;
+            case sampled:
+                final int assetBucket = IntMath.mod(bucketFunction.hashString(asset.getPath(), Charsets.UTF_8).asInt(), buckets);
+                return assetBucket == bucket;
+            case full:
+                return true;
+            default:
+                throw new UnsupportedOperationException("Unknown verification policy " + policy);
+        }
+    }
+
+    public VerificationPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper("VerificationSampler")
+                .add("policy", policy)
+                .add("bucket", bucket)
+                .add("buckets", buckets)
+                .toString();
+    }
+}
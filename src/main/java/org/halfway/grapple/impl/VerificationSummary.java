@@ -0,0 +1,161 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.halfway.grapple.model.GrappleAsset;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A running tally of the verification results of a content root, used to report what was actually checked during a
+ * launch and how fast. Only the results that failed are kept.
+ * <p/>
+ * This class is thread-safe.
+ */
+public class VerificationSummary {
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final File contentRoot;
+    private final Stopwatch stopwatch = Stopwatch.createUnstarted();
+    private final ImmutableList.Builder<AssetVerificationResult> failures = ImmutableList.builder();
+    private long assets = 0;
+    private long bytes = 0;
+    private long hashed = 0;
+    private long hashedBytes = 0;
+    private long failed = 0;
+    private long errors = 0;
+    private final Map<String, Long> phaseNanos = Maps.newLinkedHashMap();
+
+    public VerificationSummary(final File contentRoot) {
+        Verify.verifyNotNull(contentRoot, "content root must not be null");
+        this.contentRoot = contentRoot;
+    }
+
+    public synchronized void add(final AssetVerificationResult result) {
+        assets += 1;
+        bytes += result.getAsset().getSize();
+        if (result.isHashChecked()) {
+            hashed += 1;
+            hashedBytes += result.getAsset().getSize();
+        }
+        if (result.getOutcome() != AssetVerificationResult.Outcome.OK) {
+            failed += 1;
+            failures.add(result);
+        }
+    }
+
+    /**
+     * Count an asset whose verification failed with an unexpected error rather than an outcome
+     */
+    public synchronized void addError(final GrappleAsset asset) {
+        assets += 1;
+        bytes += asset.getSize();
+        failed += 1;
+        errors += 1;
+    }
+
+    /**
+     * Add to the time spent on a phase of the update that does not verify assets, such as creating directories
+     *
+     * @param phase The name of the phase
+     * @param nanos The time spent in nanoseconds
+     */
+    public synchronized void addPhaseTime(final String phase, final long nanos) {
+        final Long spent = phaseNanos.get(phase);
+        phaseNanos.put(phase, spent == null ? nanos : spent + nanos);
+    }
+
+    /**
+     * @return The time spent on each phase in milliseconds, in the order the phases were first timed
+     */
+    public synchronized ImmutableMap<String, Long> getPhaseMillis() {
+        final ImmutableMap.Builder<String, Long> millis = ImmutableMap.builder();
+        for (final Map.Entry<String, Long> entry : phaseNanos.entrySet()) {
+            millis.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue()));
+        }
+        return millis.build();
+    }
+
+    synchronized void start() {
+        if (!stopwatch.isRunning()) {
+            stopwatch.start();
+        }
+    }
+
+    synchronized void stop() {
+        if (stopwatch.isRunning()) {
+            stopwatch.stop();
+        }
+    }
+
+    public File getContentRoot() {
+        return contentRoot;
+    }
+
+    public synchronized long getAssets() {
+        return assets;
+    }
+
+    public synchronized long getHashed() {
+        return hashed;
+    }
+
+    /**
+     * @return The number of assets that failed, including those that failed with an error
+     */
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return The results that did not have an {@link org.halfway.grapple.impl.AssetVerificationResult.Outcome#OK}
+     * outcome
+     */
+    public synchronized ImmutableList<AssetVerificationResult> getFailures() {
+        return failures.build();
+    }
+
+    public synchronized long getElapsedMillis() {
+        return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The number of assets processed per second
+     */
+    public synchronized double getFilesPerSecond() {
+        return assets / elapsedSeconds();
+    }
+
+    /**
+     * @return The number of megabytes hashed per second
+     */
+    public synchronized double getHashedMegabytesPerSecond() {
+        return hashedBytes / (double) MEGABYTE / elapsedSeconds();
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(stopwatch.elapsed(TimeUnit.MILLISECONDS), 1) / 1000.0d;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder phases = new StringBuilder();
+        for (final Map.Entry<String, Long> entry : getPhaseMillis().entrySet()) {
+            phases.append(phases.length() == 0 ? "; " : ", ").append(entry.getKey()).append(' ')
+                    .append(entry.getValue()).append(" ms");
+        }
+        return String.format("Verified %d assets (%d MB) in %s: %d hashed (%d MB), %d checked by existence and size " +
+                        "only, %d failed in %s (%.0f files/s, %.1f MB/s hashed)%s",
+                assets, bytes / MEGABYTE, contentRoot, hashed, hashedBytes / MEGABYTE, assets - hashed, failed,
+                stopwatch, getFilesPerSecond(), getHashedMegabytesPerSecond(), phases);
+    }
+}
@@ -0,0 +1,293 @@
+package org.halfway.grapple.impl;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * The layout of a content root that installs each manifest side by side in its own version directory rather than
+ * updating the content root in place.
+ * <p/>
+ * A version is staged in {@link #VERSIONS_DIRECTORY}/&lt;version&gt;, where the version is named after the hash of its
+ * manifest, and the assets it shares with the current version are hard linked rather than downloaded. Once it has been
+ * verified, the version becomes current by atomically replacing the {@link #NAME} pointer file, which also lists the
+ * previous versions that are kept for rollback. The directory of the current version is used as the content root of
+ * the launch, so an update never changes the files of a version that may be running.
+ * <p/>
+ * A version that was installed and verified ahead of time, such as by {@link org.halfway.grapple.GrappleDaemon}, is
+ * recorded as staged in the pointer instead. The next launch only switches to it and starts without going online.
+ * <p/>
+ * The launcher exits once the application has started, so nothing records which versions are still running. A switch
+ * therefore only retires the versions it stops keeping, and they are deleted by a later switch, so that an instance
+ * launched from a version keeps its files until the second switch after its version stopped being kept. An instance
+ * that runs through more switches than that can lose the files it has not opened yet on file systems that allow
+ * deleting open files.
+ */
+public class VersionedContentRoot {
+    private static final Logger logger = Logger.getLogger(VersionedContentRoot.class.getName());
+    /**
+     * Name of the pointer file on the file system
+     */
+    public static final String NAME = "grapple.version";
+    /**
+     * Name of the directory holding a directory per version
+     */
+    public static final String VERSIONS_DIRECTORY = "versions";
+    private static final String CURRENT_KEY = "current";
+    private static final String PREVIOUS_KEY = "previous";
+    private static final String STAGED_KEY = "staged";
+    private static final String RETIRED_KEY = "retired";
+    private static final String REPLACEMENT_SUFFIX = ".new";
+    /**
+     * Length of the prefix of the manifest hash that names a version, which keeps paths short on Windows
+     */
+    private static final int VERSION_NAME_LENGTH = 16;
+    private static final char SEPARATOR = ',';
+    private static final Joiner JOINER = Joiner.on(SEPARATOR);
+    private static final Splitter SPLITTER = Splitter.on(SEPARATOR).trimResults().omitEmptyStrings();
+
+    private final File contentRoot;
+    private final File file;
+    private final File versionsDirectory;
+
+    private VersionedContentRoot(final File contentRoot) {
+        this.contentRoot = contentRoot;
+        this.file = new File(contentRoot, NAME);
+        this.versionsDirectory = new File(contentRoot, VERSIONS_DIRECTORY);
+    }
+
+    public static VersionedContentRoot in(final File contentRoot) {
+        Verify.verifyNotNull(contentRoot, "content root must not be null");
+        return new VersionedContentRoot(contentRoot);
+    }
+
+    /**
+     * @param manifestHash The hash of the manifest as it was published
+     * @return The name of the version of a manifest
+     */
+    public static String versionOf(final String manifestHash) {
+        return manifestHash.substring(0, Math.min(VERSION_NAME_LENGTH, manifestHash.length()));
+    }
+
+    /**
+     * @return The directory of a version, which may not exist
+     */
+    public File directoryOf(final String version) {
+        return new File(versionsDirectory, version);
+    }
+
+    /**
+     * @return The current version followed by the previous versions that are kept, most recent first
+     */
+    public ImmutableList<String> read() {
+        return versionsOf(readPointer());
+    }
+
+    /**
+     * @return The version that is staged to become current at the next launch, if there is one and it exists
+     */
+    public Optional<String> readStaged() {
+        final String staged = readPointer().getProperty(STAGED_KEY);
+        if (staged == null || !directoryOf(staged).isDirectory()) {
+            return Optional.absent();
+        }
+        return Optional.of(staged);
+    }
+
+    /**
+     * @return The directory of the current version, if there is one and it exists
+     */
+    public Optional<File> currentDirectory() {
+        final ImmutableList<String> versions = read();
+        if (versions.isEmpty() || !directoryOf(versions.get(0)).isDirectory()) {
+            return Optional.absent();
+        }
+        return Optional.of(directoryOf(versions.get(0)));
+    }
+
+    /**
+     * Make a version current, keeping the versions that were current before it for rollback
+     *
+     * @param version      The version to switch to, whose directory must have been verified
+     * @param keptPrevious The number of previous versions to keep
+     * @throws org.halfway.grapple.model.IORuntimeException if the pointer could not be written
+     * @see #prune() to delete the versions that are no longer kept
+     */
+    public void switchTo(final String version, final int keptPrevious) {
+        Verify.verify(directoryOf(version).isDirectory(), "version '%s' is not installed", version);
+        final Properties pointer = readPointer();
+        final List<String> versions = Lists.newArrayList(versionsOf(pointer));
+        final boolean switched = versions.isEmpty() || !versions.get(0).equals(version);
+        versions.remove(version);
+        versions.add(0, version);
+        final int kept = Math.min(versions.size(), keptPrevious + 1);
+        // a staged version other than this one is older than it, and is pruned
+        write(versions.subList(0, kept), Optional.<String>absent(), switched ?
+                retiredBy(versions.subList(0, kept), retiredOf(pointer)) : retiredOf(pointer));
+        logger.info("Switched " + contentRoot + " to version " + version + " keeping " + (kept - 1) + " previous versions");
+    }
+
+    /**
+     * Record a verified version as staged, so that the next launch makes it current without updating. Staging the
+     * current version clears the staged version instead
+     *
+     * @param version The version to stage, whose directory must have been verified
+     * @throws org.halfway.grapple.model.IORuntimeException if the pointer could not be written
+     */
+    public void stage(final String version) {
+        Verify.verify(directoryOf(version).isDirectory(), "version '%s' is not installed", version);
+        final Properties pointer = readPointer();
+        final ImmutableList<String> versions = versionsOf(pointer);
+        if (!versions.isEmpty() && versions.get(0).equals(version)) {
+            write(versions, Optional.<String>absent(), retiredOf(pointer));
+            logger.info("Version " + version + " of " + contentRoot + " is already current");
+            return;
+        }
+        write(versions, Optional.of(version), retiredOf(pointer));
+        logger.info("Staged version " + version + " of " + contentRoot);
+    }
+
+    /**
+     * Make the staged version current, if there is one
+     *
+     * @param keptPrevious The number of previous versions to keep
+     * @return The version that is now current, if a version was staged
+     */
+    public Optional<String> switchToStaged(final int keptPrevious) {
+        final Optional<String> staged = readStaged();
+        if (staged.isPresent()) {
+            switchTo(staged.get(), keptPrevious);
+        }
+        return staged;
+    }
+
+    /**
+     * Make the most recent previous version current again, moving the current version behind it
+     *
+     * @return The version that is now current, if there was a previous version to roll back to
+     */
+    public Optional<String> rollback() {
+        final Properties pointer = readPointer();
+        final List<String> versions = Lists.newArrayList(versionsOf(pointer));
+        if (versions.size() < 2 || !directoryOf(versions.get(1)).isDirectory()) {
+            return Optional.absent();
+        }
+        final String previous = versions.remove(1);
+        versions.add(0, previous);
+        write(versions, Optional.<String>absent(), retiredOf(pointer));
+        logger.info("Rolled " + contentRoot + " back to version " + previous);
+        return Optional.of(previous);
+    }
+
+    /**
+     * Delete the directories of the versions that are neither current, kept, staged nor retired by the latest switch,
+     * including those that were installed but never switched to before that switch. The content root must be locked
+     * so that no version is being installed.
+     * <p/>
+     * The directories are moved into the {@link org.halfway.grapple.impl.TrashDirectory} of the content root, to be
+     * deleted after the launch. Directories that are still in use may not be movable nor deletable on Windows and are
+     * tried again by the next prune.
+     */
+    public void prune() {
+        final File[] directories = versionsDirectory.listFiles();
+        if (directories == null) {
+            return;
+        }
+        final TrashDirectory trash = TrashDirectory.in(contentRoot);
+        final Properties pointer = readPointer();
+        final List<String> kept = Lists.newArrayList(versionsOf(pointer));
+        if (pointer.getProperty(STAGED_KEY) != null) {
+            kept.add(pointer.getProperty(STAGED_KEY));
+        }
+        kept.addAll(retiredOf(pointer));
+        for (final File directory : directories) {
+            if (kept.contains(directory.getName())) {
+                continue;
+            }
+            logger.info("Deleting version directory " + directory);
+            if (!trash.moveIn(directory) && !FileIO.deleteRecursively(directory)) {
+                logger.warning("Unable to delete version directory " + directory);
+            }
+        }
+    }
+
+    private Properties readPointer() {
+        // only the replacement exists if the pointer was interrupted while being replaced on Windows
+        final File replacement = new File(contentRoot, NAME + REPLACEMENT_SUFFIX);
+        final File pointer = file.isFile() ? file : replacement;
+        if (!pointer.isFile()) {
+            return new Properties();
+        }
+        return FileIO.readProperties(pointer);
+    }
+
+    /**
+     * @return The versions that the latest switch stopped keeping, which are only deleted by the prune after the next one
+     */
+    private static ImmutableList<String> retiredOf(final Properties pointer) {
+        return ImmutableList.copyOf(SPLITTER.split(pointer.getProperty(RETIRED_KEY, "")));
+    }
+
+    /**
+     * @return The versions retired by a switch: every version directory it does not keep, except those that an earlier
+     * switch retired, which may be deleted now
+     */
+    private List<String> retiredBy(final List<String> kept, final List<String> previouslyRetired) {
+        final List<String> retired = Lists.newArrayList();
+        final String[] names = versionsDirectory.list();
+        if (names == null) {
+            return retired;
+        }
+        for (final String name : names) {
+            if (!kept.contains(name) && !previouslyRetired.contains(name)) {
+                retired.add(name);
+            }
+        }
+        return retired;
+    }
+
+    private static ImmutableList<String> versionsOf(final Properties pointer) {
+        final String current = pointer.getProperty(CURRENT_KEY);
+        if (current == null) {
+            return ImmutableList.of();
+        }
+        return ImmutableList.<String>builder()
+                .add(current)
+                .addAll(SPLITTER.split(pointer.getProperty(PREVIOUS_KEY, "")))
+                .build();
+    }
+
+    private void write(final List<String> versions, final Optional<String> staged, final List<String> retired) {
+        final Properties properties = new Properties();
+        if (!versions.isEmpty()) {
+            properties.setProperty(CURRENT_KEY, versions.get(0));
+            properties.setProperty(PREVIOUS_KEY, JOINER.join(versions.subList(1, versions.size())));
+        }
+        if (staged.isPresent()) {
+            properties.setProperty(STAGED_KEY, staged.get());
+        }
+        if (!retired.isEmpty()) {
+            properties.setProperty(RETIRED_KEY, JOINER.join(retired));
+        }
+        final File replacement = new File(contentRoot, NAME + REPLACEMENT_SUFFIX);
+        FileIO.writeProperties(replacement, properties, "written by " + VersionedContentRoot.class.getSimpleName());
+        FileIO.replaceFile(replacement, file);
+    }
+
+    public File getContentRoot() {
+        return contentRoot;
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
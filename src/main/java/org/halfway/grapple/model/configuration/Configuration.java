@@ -4,6 +4,8 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Optional;
 import com.google.common.base.Verify;
 
+import java.io.File;
+
 /**
  * Static configuration of the application that includes its launch target, the application name and several other
  * values that determine how it should be started.
@@ -14,22 +16,93 @@ public class Configuration {
     private final boolean offlineMode;
     private final Optional<Integer> threadPoolSize;
     private final boolean onWindows;
+    private final boolean deferredVerification;
+    private final VerificationPolicy verificationPolicy;
+    private final int sampledLaunches;
+    private final StorageProfile storageProfile;
+    private final Platform platform;
+    private final Optional<Integer> keptVersions;
+    private final boolean rollback;
+    private final boolean daemon;
+    private final Optional<Integer> daemonInterval;
+    private final boolean launchStaged;
+    private final boolean progressiveLaunch;
+    private final Optional<Integer> groupRequestPort;
+    private final boolean dryRun;
+    private final Optional<Long> updateBudget;
+    private final boolean readOnly;
+    private final Optional<File> sealKey;
+    private final int lockTimeout;
+
+    private Configuration(final Builder builder) {
+        Verify.verifyNotNull(builder.applicationName, "application name must not be null");
+        Verify.verifyNotNull(builder.launchTarget, "launch target must not be null");
+        Verify.verifyNotNull(builder.threadPoolSize, "thread pool size must not be null");
+        Verify.verifyNotNull(builder.verificationPolicy, "verification policy must not be null");
+        Verify.verify(builder.sampledLaunches > 0, "sampled launches must be positive");
+        Verify.verifyNotNull(builder.storageProfile, "storage profile must not be null");
+        Verify.verifyNotNull(builder.platform, "platform must not be null");
+        Verify.verifyNotNull(builder.keptVersions, "kept versions must not be null");
+        Verify.verify(!builder.keptVersions.isPresent() || builder.keptVersions.get() >= 0,
+                "kept versions must not be negative");
+        Verify.verify(!builder.rollback || builder.keptVersions.isPresent(),
+                "rollback requires versioned content roots");
+        Verify.verify(!builder.daemon || builder.keptVersions.isPresent(), "daemon requires versioned content roots");
+        Verify.verify(!builder.daemon || !builder.offlineMode, "daemon must not be in offline mode");
+        Verify.verifyNotNull(builder.daemonInterval, "daemon interval must not be null");
+        Verify.verify(!builder.daemonInterval.isPresent() || builder.daemonInterval.get() > 0,
+                "daemon interval must be positive");
+        Verify.verify(!builder.launchStaged || builder.keptVersions.isPresent(),
+                "launching staged versions requires versioned content roots");
+        Verify.verify(!builder.daemon || !builder.progressiveLaunch, "daemon must not launch progressively");
+        Verify.verifyNotNull(builder.groupRequestPort, "group request port must not be null");
+        Verify.verify(!builder.groupRequestPort.isPresent() ||
+                        (builder.groupRequestPort.get() >= 0 && builder.groupRequestPort.get() <= 65535),
+                "group request port must be between 0 and 65535");
+        Verify.verify(!builder.dryRun || !builder.offlineMode, "dry run must not be in offline mode");
+        Verify.verify(!builder.dryRun || !builder.daemon, "daemon must not be a dry run");
+        Verify.verifyNotNull(builder.updateBudget, "update budget must not be null");
+        Verify.verify(!builder.updateBudget.isPresent() || builder.updateBudget.get() >= 0,
+                "update budget must not be negative");
+        Verify.verify(!builder.readOnly || builder.offlineMode, "read-only must be in offline mode");
+        Verify.verify(!builder.readOnly || !builder.rollback, "rollback must not be read-only");
+        Verify.verify(!builder.readOnly || !builder.launchStaged, "launching staged versions must not be read-only");
+        Verify.verify(!builder.readOnly || !builder.progressiveLaunch, "read-only must not launch progressively");
+        Verify.verify(!builder.readOnly || !builder.groupRequestPort.isPresent(),
+                "read-only must not install asset groups on request");
+        Verify.verifyNotNull(builder.sealKey, "seal key must not be null");
+        Verify.verify(!builder.readOnly || builder.sealKey.isPresent(), "read-only requires a seal key");
+        Verify.verify(builder.lockTimeout > 0, "lock timeout must be positive");
+
+        this.applicationName = builder.applicationName;
+        this.launchTarget = builder.launchTarget;
+        this.offlineMode = builder.offlineMode;
+        this.threadPoolSize = builder.threadPoolSize;
+        this.onWindows = builder.onWindows;
+        this.deferredVerification = builder.deferredVerification;
+        this.verificationPolicy = builder.verificationPolicy;
+        this.sampledLaunches = builder.sampledLaunches;
+        this.storageProfile = builder.storageProfile;
+        this.platform = builder.platform;
+        this.keptVersions = builder.keptVersions;
+        this.rollback = builder.rollback;
+        this.daemon = builder.daemon;
+        this.daemonInterval = builder.daemonInterval;
+        this.launchStaged = builder.launchStaged;
+        this.progressiveLaunch = builder.progressiveLaunch;
+        this.groupRequestPort = builder.groupRequestPort;
+        this.dryRun = builder.dryRun;
+        this.updateBudget = builder.updateBudget;
+        this.readOnly = builder.readOnly;
+        this.sealKey = builder.sealKey;
+        this.lockTimeout = builder.lockTimeout;
+    }
 
     /**
-     * @param onWindows Controls whether special bugs that appear only on Windows must be taken into account. Currently
-     *                  only affects {@link org.halfway.grapple.util.DirectoryUpdateLock}
+     * @return A builder of the configuration of the application with that name and launch target
      */
-    public Configuration(final String applicationName, final LaunchTarget launchTarget, final boolean offlineMode,
-                         final Optional<Integer> threadPoolSize, final boolean onWindows) {
-        Verify.verifyNotNull(applicationName, "application name must not be null");
-        Verify.verifyNotNull(launchTarget, "launch target must not be null");
-        Verify.verifyNotNull(threadPoolSize, "thread pool size must not be null");
-
-        this.applicationName = applicationName;
-        this.launchTarget = launchTarget;
-        this.offlineMode = offlineMode;
-        this.threadPoolSize = threadPoolSize;
-        this.onWindows = onWindows;
+    public static Builder builder(final String applicationName, final LaunchTarget launchTarget) {
+        return new Builder(applicationName, launchTarget);
     }
 
     public boolean isOnWindows() {
@@ -52,6 +125,81 @@ public class Configuration {
         return threadPoolSize;
     }
 
+    public boolean isDeferredVerification() {
+        return deferredVerification;
+    }
+
+    public VerificationPolicy getVerificationPolicy() {
+        return verificationPolicy;
+    }
+
+    public int getSampledLaunches() {
+        return sampledLaunches;
+    }
+
+    public StorageProfile getStorageProfile() {
+        return storageProfile;
+    }
+
+    public Platform getPlatform() {
+        return platform;
+    }
+
+    public Optional<Integer> getKeptVersions() {
+        return keptVersions;
+    }
+
+    /**
+     * @return true if each version is installed side by side rather than updating the content roots in place
+     */
+    public boolean isVersioned() {
+        return keptVersions.isPresent();
+    }
+
+    public boolean isRollback() {
+        return rollback;
+    }
+
+    public boolean isDaemon() {
+        return daemon;
+    }
+
+    public Optional<Integer> getDaemonInterval() {
+        return daemonInterval;
+    }
+
+    public boolean isLaunchStaged() {
+        return launchStaged;
+    }
+
+    public boolean isProgressiveLaunch() {
+        return progressiveLaunch;
+    }
+
+    public Optional<Integer> getGroupRequestPort() {
+        return groupRequestPort;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public Optional<Long> getUpdateBudget() {
+        return updateBudget;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public Optional<File> getSealKey() {
+        return sealKey;
+    }
+
+    public int getLockTimeout() {
+        return lockTimeout;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper("Configuration")
@@ -60,6 +208,241 @@ public class Configuration {
                 .add("offlineMode", offlineMode)
                 .add("threadPoolSize", threadPoolSize)
                 .add("onWindows", onWindows)
+                .add("deferredVerification", deferredVerification)
+                .add("verificationPolicy", verificationPolicy)
+                .add("sampledLaunches", sampledLaunches)
+                .add("storageProfile", storageProfile)
+                .add("platform", platform)
+                .add("keptVersions", keptVersions)
+                .add("rollback", rollback)
+                .add("daemon", daemon)
+                .add("daemonInterval", daemonInterval)
+                .add("launchStaged", launchStaged)
+                .add("progressiveLaunch", progressiveLaunch)
+                .add("groupRequestPort", groupRequestPort)
+                .add("dryRun", dryRun)
+                .add("updateBudget", updateBudget)
+                .add("readOnly", readOnly)
+                .add("sealKey", sealKey)
+                .add("lockTimeout", lockTimeout)
                 .toString();
     }
+
+    /**
+     * Builds a {@link org.halfway.grapple.model.configuration.Configuration}, which checks that the options are
+     * consistent once built. The options that are not set are false or absent, and the verification policy, sampled
+     * launches, storage profile, platform and lock timeout must be set.
+     */
+    public static class Builder {
+        private final String applicationName;
+        private final LaunchTarget launchTarget;
+        private boolean offlineMode;
+        private Optional<Integer> threadPoolSize = Optional.<Integer>absent();
+        private boolean onWindows;
+        private boolean deferredVerification;
+        private VerificationPolicy verificationPolicy;
+        private int sampledLaunches;
+        private StorageProfile storageProfile;
+        private Platform platform;
+        private Optional<Integer> keptVersions = Optional.<Integer>absent();
+        private boolean rollback;
+        private boolean daemon;
+        private Optional<Integer> daemonInterval = Optional.<Integer>absent();
+        private boolean launchStaged;
+        private boolean progressiveLaunch;
+        private Optional<Integer> groupRequestPort = Optional.<Integer>absent();
+        private boolean dryRun;
+        private Optional<Long> updateBudget = Optional.<Long>absent();
+        private boolean readOnly;
+        private Optional<File> sealKey = Optional.<File>absent();
+        private int lockTimeout;
+
+        private Builder(final String applicationName, final LaunchTarget launchTarget) {
+            this.applicationName = applicationName;
+            this.launchTarget = launchTarget;
+        }
+
+        /**
+         * @param offlineMode Controls whether the content roots are launched as they are without going online
+         */
+        public Builder offlineMode(final boolean offlineMode) {
+            this.offlineMode = offlineMode;
+            return this;
+        }
+
+        /**
+         * @param threadPoolSize The number of threads that verify and download assets, or absent to size the pool after
+         *                       the processors
+         */
+        public Builder threadPoolSize(final Optional<Integer> threadPoolSize) {
+            this.threadPoolSize = threadPoolSize;
+            return this;
+        }
+
+        /**
+         * @param onWindows Controls whether special bugs that appear only on Windows must be taken into account.
+         *                  Currently only affects {@link org.halfway.grapple.util.DirectoryUpdateLock}
+         */
+        public Builder onWindows(final boolean onWindows) {
+            this.onWindows = onWindows;
+            return this;
+        }
+
+        /**
+         * @param deferredVerification Controls whether offline mode only checks the existence and size of assets before
+         *                             launching and hashes them in the background while the application runs
+         */
+        public Builder deferredVerification(final boolean deferredVerification) {
+            this.deferredVerification = deferredVerification;
+            return this;
+        }
+
+        /**
+         * @param verificationPolicy The policy that selects the assets that are hashed when updating
+         */
+        public Builder verificationPolicy(final VerificationPolicy verificationPolicy) {
+            this.verificationPolicy = verificationPolicy;
+            return this;
+        }
+
+        /**
+         * @param sampledLaunches The number of launches within which every asset is hashed at least once when using the
+         *                        {@link org.halfway.grapple.model.configuration.VerificationPolicy#sampled} policy
+         */
+        public Builder sampledLaunches(final int sampledLaunches) {
+            this.sampledLaunches = sampledLaunches;
+            return this;
+        }
+
+        /**
+         * @param storageProfile The storage profile of the content roots, or {@link
+         *                       org.halfway.grapple.model.configuration.StorageProfile#auto} to detect it
+         */
+        public Builder storageProfile(final StorageProfile storageProfile) {
+            this.storageProfile = storageProfile;
+            return this;
+        }
+
+        /**
+         * @param platform The platform whose {@link org.halfway.grapple.model.manifest.AssetGroup asset groups} are
+         *                 installed
+         */
+        public Builder platform(final Platform platform) {
+            this.platform = platform;
+            return this;
+        }
+
+        /**
+         * @param keptVersions The number of previous versions kept for rollback when each version is installed side by
+         *                     side in a {@link org.halfway.grapple.impl.VersionedContentRoot}, or absent to update the
+         *                     content roots in place
+         */
+        public Builder keptVersions(final Optional<Integer> keptVersions) {
+            this.keptVersions = keptVersions;
+            return this;
+        }
+
+        /**
+         * @param rollback Controls whether the previous version is made current again and launched offline instead of
+         *                 updating. Requires versioned content roots
+         */
+        public Builder rollback(final boolean rollback) {
+            this.rollback = rollback;
+            return this;
+        }
+
+        /**
+         * @param daemon Controls whether new versions are installed and staged headless in the background instead of
+         *               launching the application. Requires versioned content roots
+         */
+        public Builder daemon(final boolean daemon) {
+            this.daemon = daemon;
+            return this;
+        }
+
+        /**
+         * @param daemonInterval The number of seconds between the updates of the daemon, or absent to update once
+         */
+        public Builder daemonInterval(final Optional<Integer> daemonInterval) {
+            this.daemonInterval = daemonInterval;
+            return this;
+        }
+
+        /**
+         * @param launchStaged Controls whether the versions staged by the daemon are made current and launched offline
+         *                     instead of updating. Requires versioned content roots
+         */
+        public Builder launchStaged(final boolean launchStaged) {
+            this.launchStaged = launchStaged;
+            return this;
+        }
+
+        /**
+         * @param progressiveLaunch Controls whether the application is launched as soon as the launch-critical {@link
+         *                          org.halfway.grapple.model.manifest.AssetGroup asset groups} are up to date, while
+         *                          the rest of the assets are updated in the background
+         */
+        public Builder progressiveLaunch(final boolean progressiveLaunch) {
+            this.progressiveLaunch = progressiveLaunch;
+            return this;
+        }
+
+        /**
+         * @param groupRequestPort The loopback port on which the application can request optional asset groups, 0 for
+         *                         any free port, or absent to only install the groups requested before
+         */
+        public Builder groupRequestPort(final Optional<Integer> groupRequestPort) {
+            this.groupRequestPort = groupRequestPort;
+            return this;
+        }
+
+        /**
+         * @param dryRun Controls whether the update is only planned and reported instead of being run, and the
+         *               application is not launched
+         */
+        public Builder dryRun(final boolean dryRun) {
+            this.dryRun = dryRun;
+            return this;
+        }
+
+        /**
+         * @param updateBudget The number of bytes above which an update is refused rather than downloaded, such as on
+         *                     metered links, or absent for no limit
+         */
+        public Builder updateBudget(final Optional<Long> updateBudget) {
+            this.updateBudget = updateBudget;
+            return this;
+        }
+
+        /**
+         * @param readOnly Controls whether the content roots are launched offline without writing to them, such as from
+         *                 a read-only share, trusting the {@link org.halfway.grapple.impl.SealStamp seal stamps} of the
+         *                 content roots instead of hashing them
+         */
+        public Builder readOnly(final boolean readOnly) {
+            this.readOnly = readOnly;
+            return this;
+        }
+
+        /**
+         * @param sealKey The file of the public key that seal stamps are checked with. Required when read-only
+         */
+        public Builder sealKey(final Optional<File> sealKey) {
+            this.sealKey = sealKey;
+            return this;
+        }
+
+        /**
+         * @param lockTimeout The number of seconds to wait for another launcher that holds the update lock of the
+         *                    content roots while its update does not advance, before failing
+         */
+        public Builder lockTimeout(final int lockTimeout) {
+            this.lockTimeout = lockTimeout;
+            return this;
+        }
+
+        public Configuration build() {
+            return new Configuration(this);
+        }
+    }
 }
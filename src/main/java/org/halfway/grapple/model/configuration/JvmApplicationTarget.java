@@ -6,6 +6,7 @@ import com.google.common.collect.ImmutableList;
 
 import java.io.File;
 import java.net.URL;
+import java.util.Map;
 
 /**
  * A launch target for a JVM application.
@@ -19,16 +20,19 @@ public class JvmApplicationTarget implements LaunchTarget {
     private final File jvmContentRoot;
     private final ImmutableList<URL> jvmBaseUrlList;
     private final ImmutableList<String> jvmArguments;
+    private final ImmutableList<LayerTarget> layers;
 
     public JvmApplicationTarget(final File contentRoot, final ImmutableList<URL> baseUrlList, final String mainClass,
                                 final ImmutableList<String> arguments, final File jvmContentRoot,
-                                final ImmutableList<URL> jvmBaseUrlList, final ImmutableList<String> jvmArguments) {
+                                final ImmutableList<URL> jvmBaseUrlList, final ImmutableList<String> jvmArguments,
+                                final ImmutableList<LayerTarget> layers) {
         Verify.verifyNotNull(contentRoot, "content root must not be null");
         Verify.verifyNotNull(baseUrlList, "base url list must not be null");
         Verify.verifyNotNull(mainClass, "main class must not be null");
         Verify.verifyNotNull(arguments, "arguments must not be null");
         Verify.verifyNotNull(jvmContentRoot, "jvm content root must not be null");
         Verify.verifyNotNull(contentRoot, "jvm arguments must not be null");
+        Verify.verifyNotNull(layers, "layers must not be null");
 
         this.contentRoot = contentRoot;
         this.baseUrlList = baseUrlList;
@@ -37,6 +41,7 @@ public class JvmApplicationTarget implements LaunchTarget {
         this.jvmContentRoot = jvmContentRoot;
         this.jvmBaseUrlList = jvmBaseUrlList;
         this.jvmArguments = jvmArguments;
+        this.layers = layers;
     }
 
     @Override
@@ -55,7 +60,13 @@ public class JvmApplicationTarget implements LaunchTarget {
 
     @Override
     public ImmutableList<File> getContentRoots() {
-        return ImmutableList.of(contentRoot, jvmContentRoot);
+        return ImmutableList.<File>builder().add(contentRoot, jvmContentRoot).addAll(LayerTarget.contentRootsOf(layers))
+                .build();
+    }
+
+    @Override
+    public ImmutableList<LayerTarget> getLayers() {
+        return layers;
     }
 
     public File getJvmContentRoot() {
@@ -74,6 +85,14 @@ public class JvmApplicationTarget implements LaunchTarget {
         return jvmArguments;
     }
 
+    @Override
+    public JvmApplicationTarget relocate(final Map<File, File> contentRoots) {
+        return new JvmApplicationTarget(MoreObjects.firstNonNull(contentRoots.get(contentRoot), contentRoot),
+                baseUrlList, mainClass, arguments,
+                MoreObjects.firstNonNull(contentRoots.get(jvmContentRoot), jvmContentRoot), jvmBaseUrlList, jvmArguments,
+                LayerTarget.relocate(layers, contentRoots));
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper("JvmApplicationTarget")
@@ -84,6 +103,7 @@ public class JvmApplicationTarget implements LaunchTarget {
                 .add("jvmContentRoot", jvmContentRoot)
                 .add("jvmBaseUrlList", jvmBaseUrlList)
                 .add("jvmArguments", jvmArguments)
+                .add("layers", layers)
                 .toString();
     }
 }
@@ -4,6 +4,7 @@ import com.google.common.collect.ImmutableList;
 
 import java.io.File;
 import java.net.URL;
+import java.util.Map;
 
 /**
  * A launch target contains the identity of an application; the contents of the application are contained in the
@@ -21,7 +22,19 @@ public interface LaunchTarget {
     ImmutableList<URL> getBaseUrlList();
 
     /**
-     * Get all the content roots of the target
+     * Get all the content roots of the target, including those of its layers
      */
     ImmutableList<File> getContentRoots();
+
+    /**
+     * Get the base layers the application is composed on, from the bottom layer up
+     */
+    ImmutableList<LayerTarget> getLayers();
+
+    /**
+     * Get a copy of the target whose content roots are replaced by the directories they map to, such as the directory
+     * of the version installed in a {@link org.halfway.grapple.impl.VersionedContentRoot}. Content roots that are not
+     * in the map are kept
+     */
+    LaunchTarget relocate(Map<File, File> contentRoots);
 }
@@ -0,0 +1,84 @@
+package org.halfway.grapple.model.configuration;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * A base layer that an application is composed on, such as a platform of libraries shared by several applications.
+ * <p/>
+ * A layer has a standalone manifest and a content root of its own, so that applications configured with the same
+ * layer content root share a single install of it on the machine, fetched, updated and verified as any other content
+ * root. The assets of the application override those of its layers, and the assets of a layer override those of the
+ * layers below it.
+ */
+public class LayerTarget {
+    private final String name;
+    private final File contentRoot;
+    private final ImmutableList<URL> baseUrlList;
+
+    public LayerTarget(final String name, final File contentRoot, final ImmutableList<URL> baseUrlList) {
+        Verify.verifyNotNull(name, "name must not be null");
+        Verify.verifyNotNull(contentRoot, "content root must not be null");
+        Verify.verifyNotNull(baseUrlList, "base url list must not be null");
+
+        this.name = name;
+        this.contentRoot = contentRoot;
+        this.baseUrlList = baseUrlList;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public File getContentRoot() {
+        return contentRoot;
+    }
+
+    public ImmutableList<URL> getBaseUrlList() {
+        return baseUrlList;
+    }
+
+    /**
+     * @see org.halfway.grapple.model.configuration.LaunchTarget#relocate(java.util.Map)
+     */
+    public LayerTarget relocate(final Map<File, File> contentRoots) {
+        return new LayerTarget(name, MoreObjects.firstNonNull(contentRoots.get(contentRoot), contentRoot), baseUrlList);
+    }
+
+    /**
+     * @see org.halfway.grapple.model.configuration.LaunchTarget#relocate(java.util.Map)
+     */
+    public static ImmutableList<LayerTarget> relocate(final ImmutableList<LayerTarget> layers,
+                                                      final Map<File, File> contentRoots) {
+        final ImmutableList.Builder<LayerTarget> relocated = ImmutableList.builder();
+        for (final LayerTarget layer : layers) {
+            relocated.add(layer.relocate(contentRoots));
+        }
+        return relocated.build();
+    }
+
+    /**
+     * @return The content roots of the layers, in the same order
+     */
+    public static ImmutableList<File> contentRootsOf(final ImmutableList<LayerTarget> layers) {
+        final ImmutableList.Builder<File> contentRoots = ImmutableList.builder();
+        for (final LayerTarget layer : layers) {
+            contentRoots.add(layer.getContentRoot());
+        }
+        return contentRoots.build();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper("LayerTarget")
+                .add("name", name)
+                .add("contentRoot", contentRoot)
+                .add("baseUrlList", baseUrlList)
+                .toString();
+    }
+}
@@ -0,0 +1,99 @@
+package org.halfway.grapple.model.configuration;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.base.StandardSystemProperty;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Locale;
+
+/**
+ * The operating system and processor architecture that the launcher runs on, used to select the
+ * {@link org.halfway.grapple.model.manifest.AssetGroup asset groups} of a manifest.
+ * <p/>
+ * Both are normalised so that manifests need not list every spelling the JVMs use: the operating system is one of
+ * {@code windows}, {@code macos}, {@code linux} or the lower case name without spaces, and the common aliases of
+ * {@code x86_64}, {@code x86} and {@code aarch64} are mapped to these names.
+ */
+public class Platform {
+    private static final ImmutableMap<String, String> ARCH_ALIASES = ImmutableMap.<String, String>builder()
+            .put("amd64", "x86_64")
+            .put("x64", "x86_64")
+            .put("i386", "x86")
+            .put("i486", "x86")
+            .put("i586", "x86")
+            .put("i686", "x86")
+            .put("arm64", "aarch64")
+            .build();
+
+    private final String os;
+    private final String arch;
+
+    public Platform(final String os, final String arch) {
+        Verify.verifyNotNull(os, "os must not be null");
+        Verify.verifyNotNull(arch, "arch must not be null");
+        this.os = normaliseOs(os);
+        this.arch = normaliseArch(arch);
+    }
+
+    /**
+     * @return The platform of the running JVM
+     */
+    public static Platform current() {
+        return new Platform(MoreObjects.firstNonNull(StandardSystemProperty.OS_NAME.value(), ""),
+                MoreObjects.firstNonNull(StandardSystemProperty.OS_ARCH.value(), ""));
+    }
+
+    /**
+     * @return The normalised name of an operating system
+     */
+    public static String normaliseOs(final String os) {
+        final String name = os.toLowerCase(Locale.ENGLISH).replace(" ", "");
+        if (name.startsWith("windows")) {
+            return "windows";
+        } else if (name.startsWith("mac") || name.startsWith("darwin")) {
+            return "macos";
+        } else if (name.startsWith("linux")) {
+            return "linux";
+        }
+        return name;
+    }
+
+    /**
+     * @return The normalised name of a processor architecture
+     */
+    public static String normaliseArch(final String arch) {
+        final String name = arch.toLowerCase(Locale.ENGLISH).replace(" ", "");
+        return MoreObjects.firstNonNull(ARCH_ALIASES.get(name), name);
+    }
+
+    public String getOs() {
+        return os;
+    }
+
+    public String getArch() {
+        return arch;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Platform that = (Platform) o;
+
+        return Objects.equal(os, that.os) &&
+                Objects.equal(arch, that.arch);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(os, arch);
+    }
+
+    @Override
+    public String toString() {
+        return os + "/" + arch;
+    }
+}
@@ -6,6 +6,7 @@ import com.google.common.collect.ImmutableList;
 
 import java.io.File;
 import java.net.URL;
+import java.util.Map;
 
 /**
  * A launch target for a standalone application.
@@ -15,18 +16,21 @@ public class StandaloneApplicationTarget implements LaunchTarget {
     private final ImmutableList<URL> baseUrlList;
     private final String command;
     private final ImmutableList<String> arguments;
+    private final ImmutableList<LayerTarget> layers;
 
     public StandaloneApplicationTarget(final File contentRoot, final ImmutableList<URL> baseUrlList, final String command,
-                                       final ImmutableList<String> arguments) {
+                                       final ImmutableList<String> arguments, final ImmutableList<LayerTarget> layers) {
         Verify.verifyNotNull(contentRoot, "content root must not be null");
         Verify.verifyNotNull(baseUrlList, "base url list must not be null");
         Verify.verifyNotNull(command, "command must not be null");
         Verify.verifyNotNull(arguments, "arguments must not be null");
+        Verify.verifyNotNull(layers, "layers must not be null");
 
         this.contentRoot = contentRoot;
         this.baseUrlList = baseUrlList;
         this.command = command;
         this.arguments = arguments;
+        this.layers = layers;
     }
 
     @Override
@@ -45,13 +49,24 @@ public class StandaloneApplicationTarget implements LaunchTarget {
 
     @Override
     public ImmutableList<File> getContentRoots() {
-        return ImmutableList.of(contentRoot);
+        return ImmutableList.<File>builder().add(contentRoot).addAll(LayerTarget.contentRootsOf(layers)).build();
+    }
+
+    @Override
+    public ImmutableList<LayerTarget> getLayers() {
+        return layers;
     }
 
     public String getCommand() {
         return command;
     }
 
+    @Override
+    public StandaloneApplicationTarget relocate(final Map<File, File> contentRoots) {
+        return new StandaloneApplicationTarget(MoreObjects.firstNonNull(contentRoots.get(contentRoot), contentRoot),
+                baseUrlList, command, arguments, LayerTarget.relocate(layers, contentRoots));
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper("StandaloneApplicationTarget")
@@ -59,6 +74,7 @@ public class StandaloneApplicationTarget implements LaunchTarget {
                 .add("baseUrlList", baseUrlList)
                 .add("command", command)
                 .add("arguments", arguments)
+                .add("layers", layers)
                 .toString();
     }
 }
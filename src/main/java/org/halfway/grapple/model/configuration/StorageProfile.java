@@ -0,0 +1,24 @@
+package org.halfway.grapple.model.configuration;
+
+/**
+ * Enumeration of the kinds of storage that a content root can sit on. The profile determines how many assets of a
+ * content root are read or written concurrently.
+ */
+public enum StorageProfile {
+    /**
+     * Detect the profile of each content root from the operating system, falling back to {@link #ssd}
+     */
+    auto,
+    /**
+     * Solid state storage that handles many concurrent reads without penalty
+     */
+    ssd,
+    /**
+     * Rotational storage where concurrent reads cause seeks, so assets are read one at a time in directory order
+     */
+    hdd,
+    /**
+     * Network file systems where each access has high latency but a limited amount of concurrency hides it
+     */
+    network
+}
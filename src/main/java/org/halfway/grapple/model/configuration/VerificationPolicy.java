@@ -0,0 +1,21 @@
+package org.halfway.grapple.model.configuration;
+
+/**
+ * Enumeration of how thoroughly the assets already on disk are verified during a launch. Assets that are downloaded
+ * are always hashed, and so are the assets that changed since the last update.
+ */
+public enum VerificationPolicy {
+    /**
+     * Check the existence and size of assets only
+     */
+    quick,
+    /**
+     * Check the existence and size of all assets and hash a rotating sample of them, so that every asset is hashed
+     * within a fixed number of launches
+     */
+    sampled,
+    /**
+     * Check the existence, size and hash of all assets
+     */
+    full
+}
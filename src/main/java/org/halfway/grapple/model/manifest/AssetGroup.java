@@ -0,0 +1,136 @@
+package org.halfway.grapple.model.manifest;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableSet;
+import org.halfway.grapple.model.configuration.Platform;
+
+/**
+ * A group of the assets of a manifest that is only installed on some platforms, such as the native libraries of one
+ * operating system in a tree that ships those of several.
+ * <p/>
+ * The assets of a group are those whose path starts with its prefix; an asset under the prefixes of several groups
+ * belongs to the group with the longest prefix, and an asset under none of them is installed on every platform.
+ * <p/>
+ * A group can also be marked launch-critical, such as the jars on the startup classpath: a progressive launch starts
+ * the application as soon as the critical groups are up to date and updates the rest of the assets in the background.
+ * An optional group, such as sample data or a localisation pack, is only installed once the application has requested
+ * it through a {@link org.halfway.grapple.impl.GroupRequestServer}.
+ */
+public class AssetGroup {
+    private final String name;
+    private final String prefix;
+    private final ImmutableSet<String> os;
+    private final ImmutableSet<String> arch;
+    private final Optional<String> javaPath;
+    private final boolean critical;
+    private final boolean optional;
+
+    /**
+     * @param name     The name of the group
+     * @param prefix   The path prefix of the assets of the group, usually a directory ending with a separator
+     * @param os       The {@link Platform#normaliseOs(String) operating systems} the group is installed on, or empty
+     *                 for all of them
+     * @param arch     The {@link Platform#normaliseArch(String) architectures} the group is installed on, or empty for
+     *                 all of them
+     * @param javaPath For {@link ManifestOrApplicationType#jvm} manifests, the path to 'java' to use instead of that of
+     *                 the manifest when the group is installed
+     * @param critical Controls whether the group must be up to date before a progressive launch starts the application
+     * @param optional Controls whether the group is only installed once it has been requested
+     */
+    public AssetGroup(final String name, final String prefix, final ImmutableSet<String> os,
+                      final ImmutableSet<String> arch, final Optional<String> javaPath, final boolean critical,
+                      final boolean optional) {
+        Verify.verifyNotNull(name, "name must not be null");
+        Verify.verify(!prefix.isEmpty(), "prefix of group '%s' must not be empty", name);
+        Verify.verifyNotNull(os, "os must not be null");
+        Verify.verifyNotNull(arch, "arch must not be null");
+        Verify.verifyNotNull(javaPath, "java path must not be null");
+
+        this.name = name;
+        this.prefix = prefix;
+        this.os = os;
+        this.arch = arch;
+        this.javaPath = javaPath;
+        this.critical = critical;
+        this.optional = optional;
+    }
+
+    /**
+     * @return true if the group is installed on the platform
+     */
+    public boolean matches(final Platform platform) {
+        return (os.isEmpty() || os.contains(platform.getOs())) && (arch.isEmpty() || arch.contains(platform.getArch()));
+    }
+
+    /**
+     * @return true if the path is under the prefix of the group
+     */
+    public boolean contains(final String path) {
+        return path.startsWith(prefix);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public ImmutableSet<String> getOs() {
+        return os;
+    }
+
+    public ImmutableSet<String> getArch() {
+        return arch;
+    }
+
+    public Optional<String> getJavaPath() {
+        return javaPath;
+    }
+
+    public boolean isCritical() {
+        return critical;
+    }
+
+    public boolean isOptional() {
+        return optional;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        AssetGroup that = (AssetGroup) o;
+
+        return Objects.equal(name, that.name) &&
+                Objects.equal(prefix, that.prefix) &&
+                Objects.equal(os, that.os) &&
+                Objects.equal(arch, that.arch) &&
+                Objects.equal(javaPath, that.javaPath) &&
+                critical == that.critical &&
+                optional == that.optional;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(name, prefix, os, arch, javaPath, critical, optional);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper("AssetGroup")
+                .add("name", name)
+                .add("prefix", prefix)
+                .add("os", os)
+                .add("arch", arch)
+                .add("javaPath", javaPath)
+                .add("critical", critical)
+                .add("optional", optional)
+                .toString();
+    }
+}
@@ -0,0 +1,408 @@
+package org.halfway.grapple.model.manifest;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Verify;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.util.PathOrder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * The assets of a manifest stored column by column instead of as one {@link org.halfway.grapple.model.GrappleAsset}
+ * per asset.
+ * <p/>
+ * The directory part of every path is interned in a dictionary shared by all the assets, the rest of the path is kept
+ * as UTF-8 in one byte array, the sizes in a {@code long[]} and the hashes back to back in one byte array. An open
+ * addressing index over the path hash codes finds an asset by path in constant time. A manifest of half a million
+ * assets then takes a handful of arrays instead of millions of small objects.
+ * <p/>
+ * The table is an immutable list of assets: {@link #get(int)} creates a {@link org.halfway.grapple.model.GrappleAsset}
+ * on demand, which is cheap and short lived, while the {@code getPath}, {@code getSize} and {@code getHash} accessors
+ * and {@link #sizeMap()} read single columns without creating it.
+ */
+public final class AssetTable extends AbstractList<GrappleAsset> implements RandomAccess {
+    private static final AssetTable EMPTY = new Builder().build();
+
+    private final String[] directories;
+    private final int[] directoryIds;
+    private final byte[] names;
+    private final int[] nameOffsets;
+    private final long[] sizes;
+    private final byte[] hashes;
+    private final int hashLength;
+    private final int[] pathHashes;
+    private final int[] index;
+    private final int distinctPaths;
+
+    private AssetTable(final String[] directories, final int[] directoryIds, final byte[] names,
+                       final int[] nameOffsets, final long[] sizes, final byte[] hashes, final int hashLength,
+                       final int[] pathHashes) {
+        this.directories = directories;
+        this.directoryIds = directoryIds;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+        this.sizes = sizes;
+        this.hashes = hashes;
+        this.hashLength = hashLength;
+        this.pathHashes = pathHashes;
+        this.index = new int[Integer.highestOneBit(Math.max(1, sizes.length)) << 2];
+        this.distinctPaths = buildIndex();
+    }
+
+    /**
+     * Index every asset whose path is not already taken by an earlier asset
+     *
+     * @return The number of assets indexed
+     */
+    private int buildIndex() {
+        final int mask = index.length - 1;
+        int indexed = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            int slot = spread(pathHashes[i]) & mask;
+            while (index[slot] != 0 && !samePath(index[slot] - 1, i)) {
+                slot = (slot + 1) & mask;
+            }
+            if (index[slot] == 0) {
+                index[slot] = i + 1;
+                indexed++;
+            }
+        }
+        return indexed;
+    }
+
+    private boolean samePath(final int i, final int j) {
+        if (pathHashes[i] != pathHashes[j] || directoryIds[i] != directoryIds[j]) {
+            return false;
+        }
+        final int length = nameOffsets[i + 1] - nameOffsets[i];
+        if (length != nameOffsets[j + 1] - nameOffsets[j]) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if (names[nameOffsets[i] + k] != names[nameOffsets[j] + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static AssetTable of() {
+        return EMPTY;
+    }
+
+    /**
+     * @return A table of the assets, or the assets themselves if they already are a table
+     */
+    public static AssetTable copyOf(final Iterable<GrappleAsset> assets) {
+        if (assets instanceof AssetTable) {
+            return (AssetTable) assets;
+        }
+        final Builder builder = builder();
+        for (final GrappleAsset asset : assets) {
+            builder.add(asset);
+        }
+        return builder.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public int size() {
+        return sizes.length;
+    }
+
+    @Override
+    public GrappleAsset get(final int i) {
+        return new GrappleAsset(getPath(i), getSize(i), getHash(i));
+    }
+
+    /**
+     * @return The path of the i-th asset
+     */
+    public String getPath(final int i) {
+        return directories[directoryIds[i]] +
+                new String(names, nameOffsets[i], nameOffsets[i + 1] - nameOffsets[i], Charsets.UTF_8);
+    }
+
+    /**
+     * @return The size of the i-th asset
+     */
+    public long getSize(final int i) {
+        return sizes[i];
+    }
+
+    /**
+     * @return The hash of the i-th asset
+     */
+    public HashCode getHash(final int i) {
+        checkIndex(i);
+        return HashCode.fromBytes(Arrays.copyOfRange(hashes, i * hashLength, (i + 1) * hashLength));
+    }
+
+    /**
+     * @return The index of the first asset with the path, or -1 if there is none
+     */
+    public int indexOfPath(final String path) {
+        return indexOfPath(path, path.hashCode());
+    }
+
+    /**
+     * @return The first asset with the path, if there is one
+     */
+    public Optional<GrappleAsset> find(final String path) {
+        final int i = indexOfPath(path);
+        return i < 0 ? Optional.<GrappleAsset>absent() : Optional.of(get(i));
+    }
+
+    /**
+     * Sort the assets in {@link org.halfway.grapple.util.PathOrder tree order} without building their paths. The
+     * directories are ranked once, the assets bucketed by the rank of their directory and each bucket sorted by name.
+     *
+     * @return The indices of the assets in tree order. Assets with the same path keep their order in the table
+     */
+    public int[] treeOrder() {
+        final Integer[] sortedDirectories = new Integer[directories.length];
+        for (int d = 0; d < directories.length; d++) {
+            sortedDirectories[d] = d;
+        }
+        Arrays.sort(sortedDirectories, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return PathOrder.compare(directories[a], directories[b]);
+            }
+        });
+        final int[] rank = new int[directories.length];
+        for (int r = 0; r < sortedDirectories.length; r++) {
+            rank[sortedDirectories[r]] = r;
+        }
+
+        final int[] bucketStart = new int[directories.length + 1];
+        for (final int directoryId : directoryIds) {
+            bucketStart[rank[directoryId] + 1]++;
+        }
+        for (int r = 0; r < directories.length; r++) {
+            bucketStart[r + 1] += bucketStart[r];
+        }
+        final int[] order = new int[sizes.length];
+        final int[] bucketEnd = Arrays.copyOf(bucketStart, directories.length);
+        for (int i = 0; i < sizes.length; i++) {
+            order[bucketEnd[rank[directoryIds[i]]]++] = i;
+        }
+        for (int r = 0; r < directories.length; r++) {
+            sortByName(order, bucketStart[r], bucketStart[r + 1]);
+        }
+        return order;
+    }
+
+    private void sortByName(final int[] order, final int from, final int to) {
+        final Integer[] bucket = new Integer[to - from];
+        for (int k = 0; k < bucket.length; k++) {
+            bucket[k] = order[from + k];
+        }
+        Arrays.sort(bucket, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return compareNames(a, b);
+            }
+        });
+        for (int k = 0; k < bucket.length; k++) {
+            order[from + k] = bucket[k];
+        }
+    }
+
+    /**
+     * Compare the names of two assets by their unsigned UTF-8 bytes, which is the order of their code points
+     */
+    private int compareNames(final int i, final int j) {
+        final int iLength = nameOffsets[i + 1] - nameOffsets[i];
+        final int jLength = nameOffsets[j + 1] - nameOffsets[j];
+        for (int k = 0; k < Math.min(iLength, jLength); k++) {
+            final int byByte = (names[nameOffsets[i] + k] & 0xff) - (names[nameOffsets[j] + k] & 0xff);
+            if (byByte != 0) {
+                return byByte;
+            }
+        }
+        return iLength - jLength;
+    }
+
+    /**
+     * @return An unmodifiable map of path to size backed by the table
+     */
+    public Map<String, Long> sizeMap() {
+        return new SizeMap();
+    }
+
+    private int indexOfPath(final String path, final int pathHash) {
+        final int mask = index.length - 1;
+        for (int slot = spread(pathHash) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            final int i = index[slot] - 1;
+            if (pathHashes[i] == pathHash && getPath(i).equals(path)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16) ^ (hash >>> 7);
+    }
+
+    private void checkIndex(final int i) {
+        if (i < 0 || i >= sizes.length) {
+            throw new IndexOutOfBoundsException("Index " + i + " is out of bounds for " + sizes.length + " assets");
+        }
+    }
+
+    private class SizeMap extends AbstractMap<String, Long> {
+        @Override
+        public Long get(final Object key) {
+            final int i = key instanceof String ? indexOfPath((String) key) : -1;
+            return i < 0 ? null : sizes[i];
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return key instanceof String && indexOfPath((String) key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return distinctPaths;
+        }
+
+        @Override
+        public Set<Entry<String, Long>> entrySet() {
+            return new AbstractSet<Entry<String, Long>>() {
+                @Override
+                public Iterator<Entry<String, Long>> iterator() {
+                    return new Iterator<Entry<String, Long>>() {
+                        private int slot = nextSlot(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return slot < index.length;
+                        }
+
+                        @Override
+                        public Entry<String, Long> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            final int i = index[slot] - 1;
+                            slot = nextSlot(slot + 1);
+                            return Maps.immutableEntry(getPath(i), sizes[i]);
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return SizeMap.this.size();
+                }
+            };
+        }
+
+        private int nextSlot(int slot) {
+            while (slot < index.length && index[slot] == 0) {
+                slot++;
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * Builder of an {@link AssetTable}. All the hashes must have the same length
+     */
+    public static class Builder {
+        private final Map<String, Integer> directoryIds = new HashMap<String, Integer>();
+        private final ByteArrayOutputStream names = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream hashes = new ByteArrayOutputStream();
+        private String[] directoryDictionary = new String[16];
+        private int[] assetDirectories = new int[16];
+        private int[] nameOffsets = new int[17];
+        private long[] sizes = new long[16];
+        private int[] pathHashes = new int[16];
+        private int hashLength = -1;
+        private int count = 0;
+
+        private Builder() {
+            // no-op
+        }
+
+        public Builder add(final GrappleAsset asset) {
+            return add(asset.getPath(), asset.getSize(), asset.getHash().asBytes());
+        }
+
+        /**
+         * @param path The path of the asset
+         * @param size The size of the asset in bytes
+         * @param hash The bytes of the hash of the asset, which are copied
+         */
+        public Builder add(final String path, final long size, final byte[] hash) {
+            Verify.verifyNotNull(path, "path must not be null");
+            Verify.verify(size >= 0, "size must be >= 0");
+            Verify.verify(hash.length > 0, "hash must not be empty");
+            Verify.verify(hashLength < 0 || hash.length == hashLength, "hash of '%s' has the wrong length", path);
+            hashLength = hash.length;
+            if (count == sizes.length) {
+                final int capacity = count * 2;
+                assetDirectories = Arrays.copyOf(assetDirectories, capacity);
+                nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+                sizes = Arrays.copyOf(sizes, capacity);
+                pathHashes = Arrays.copyOf(pathHashes, capacity);
+            }
+            final int nameStart = PathOrder.nameStart(path);
+            final byte[] name = path.substring(nameStart).getBytes(Charsets.UTF_8);
+            assetDirectories[count] = directoryId(path.substring(0, nameStart));
+            names.write(name, 0, name.length);
+            nameOffsets[count + 1] = names.size();
+            sizes[count] = size;
+            pathHashes[count] = path.hashCode();
+            hashes.write(hash, 0, hash.length);
+            count++;
+            return this;
+        }
+
+        private int directoryId(final String directory) {
+            final Integer existing = directoryIds.get(directory);
+            if (existing != null) {
+                return existing;
+            }
+            final int id = directoryIds.size();
+            if (id == directoryDictionary.length) {
+                directoryDictionary = Arrays.copyOf(directoryDictionary, id * 2);
+            }
+            directoryDictionary[id] = directory;
+            directoryIds.put(directory, id);
+            return id;
+        }
+
+        public AssetTable build() {
+            return new AssetTable(Arrays.copyOf(directoryDictionary, directoryIds.size()),
+                    Arrays.copyOf(assetDirectories, count), names.toByteArray(), Arrays.copyOf(nameOffsets, count + 1),
+                    Arrays.copyOf(sizes, count), hashes.toByteArray(), Math.max(hashLength, 0),
+                    Arrays.copyOf(pathHashes, count));
+        }
+    }
+}
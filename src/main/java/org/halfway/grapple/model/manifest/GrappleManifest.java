@@ -1,7 +1,6 @@
 package org.halfway.grapple.model.manifest;
 
 import com.google.common.collect.ImmutableList;
-import org.halfway.grapple.model.GrappleAsset;
 
 /**
  * A manifest describes the content of the application; the {@link org.halfway.grapple.model.configuration.LaunchTarget}
@@ -17,7 +16,12 @@ public interface GrappleManifest {
     /**
      * Return the list of assets included in the manifest
      */
-    ImmutableList<GrappleAsset> getAssets();
+    AssetTable getAssets();
+
+    /**
+     * Return the groups of assets that are only installed on some platforms
+     */
+    ImmutableList<AssetGroup> getAssetGroups();
 
     /**
      * Return the hashing algorithm used to generate/verify the contents of the assets
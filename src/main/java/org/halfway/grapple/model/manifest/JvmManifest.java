@@ -2,7 +2,6 @@ package org.halfway.grapple.model.manifest;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
-import org.halfway.grapple.model.GrappleAsset;
 
 /**
  * Manifest for a Java Virtual Machine. Crucially, includes the path to the executable that should be considered as
@@ -10,13 +9,15 @@ import org.halfway.grapple.model.GrappleAsset;
  */
 public class JvmManifest implements GrappleManifest {
     private static final String DEFAULT_JAVA_PATH = "bin/java";
-    private final ImmutableList<GrappleAsset> assets;
+    private final AssetTable assets;
+    private final ImmutableList<AssetGroup> assetGroups;
     private final ManifestHashAlgorithm manifestHashAlgorithm;
     private final String javaPath;
 
-    public JvmManifest(ImmutableList<GrappleAsset> assets, ManifestHashAlgorithm manifestHashAlgorithm,
-                       Optional<String> javaPath) {
+    public JvmManifest(AssetTable assets, ImmutableList<AssetGroup> assetGroups,
+                       ManifestHashAlgorithm manifestHashAlgorithm, Optional<String> javaPath) {
         this.assets = assets;
+        this.assetGroups = assetGroups;
         this.manifestHashAlgorithm = manifestHashAlgorithm;
         this.javaPath = javaPath.or(DEFAULT_JAVA_PATH);
 
@@ -24,10 +25,8 @@ public class JvmManifest implements GrappleManifest {
     }
 
     private void checkJavaPathExists() {
-        for (final GrappleAsset asset : assets) {
-            if (javaPath.equals(asset.getPath())) {
-                return;
-            }
+        if (assets.indexOfPath(javaPath) >= 0) {
+            return;
         }
         throw new IllegalArgumentException("Unable to find the 'java' referenced by '" + javaPath + "'");
     }
@@ -42,10 +41,15 @@ public class JvmManifest implements GrappleManifest {
     }
 
     @Override
-    public ImmutableList<GrappleAsset> getAssets() {
+    public AssetTable getAssets() {
         return assets;
     }
 
+    @Override
+    public ImmutableList<AssetGroup> getAssetGroups() {
+        return assetGroups;
+    }
+
     @Override
     public ManifestHashAlgorithm getHashAlgorithm() {
         return manifestHashAlgorithm;
@@ -1,17 +1,17 @@
 package org.halfway.grapple.model.manifest;
 
 import com.google.common.collect.ImmutableList;
-import org.halfway.grapple.model.GrappleAsset;
-
 
 public class StandaloneManifest implements GrappleManifest {
 
-    private final ImmutableList<GrappleAsset> assets;
+    private final AssetTable assets;
+    private final ImmutableList<AssetGroup> assetGroups;
     private final ManifestHashAlgorithm manifestHashAlgorithm;
 
-    public StandaloneManifest(ImmutableList<GrappleAsset> assets,
+    public StandaloneManifest(AssetTable assets, ImmutableList<AssetGroup> assetGroups,
                               ManifestHashAlgorithm manifestHashAlgorithm) {
         this.assets = assets;
+        this.assetGroups = assetGroups;
         this.manifestHashAlgorithm = manifestHashAlgorithm;
     }
 
@@ -21,10 +21,15 @@ public class StandaloneManifest implements GrappleManifest {
     }
 
     @Override
-    public ImmutableList<GrappleAsset> getAssets() {
+    public AssetTable getAssets() {
         return assets;
     }
 
+    @Override
+    public ImmutableList<AssetGroup> getAssetGroups() {
+        return assetGroups;
+    }
+
     @Override
     public ManifestHashAlgorithm getHashAlgorithm() {
         return manifestHashAlgorithm;
@@ -0,0 +1,57 @@
+package org.halfway.grapple.stage;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import org.halfway.grapple.impl.RuntimeContext;
+import org.halfway.grapple.impl.VerificationSummary;
+import org.halfway.grapple.model.GrappleFatalException;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stage that waits after a progressive launch for the assets that are not launch-critical to be updated in the
+ * background. The content roots stay locked until {@link org.halfway.grapple.stage.CompleteUpdateStage} has marked the
+ * update as complete.
+ * <p/>
+ * This stage will fail if any of the assets failed to verify, in which case the manifests are not written and the
+ * versions not switched, so that the next launch updates the content roots again.
+ */
+public class BackgroundUpdateStage implements LauncherStage {
+    private static final Logger logger = Logger.getLogger(BackgroundUpdateStage.class.getName());
+    private static final Range<Integer> PROGRESS_RANGE = Range.closed(100, 100);
+
+    @Override
+    public Range<Integer> progressRange() {
+        return PROGRESS_RANGE;
+    }
+
+    @Override
+    public void burn(final RuntimeContext context) {
+        if (!context.getBackgroundUpdate().isPresent()) {
+            return;
+        }
+        final List<VerificationSummary> summaries;
+        try {
+            summaries = context.getBackgroundUpdate().get().get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("bug");
+        } catch (final ExecutionException e) {
+            logger.log(Level.SEVERE, "Unknown error during background update task", e);
+            throw new GrappleFatalException("Background update failed for unknown reason");
+        }
+        if (UpdateStage.logSummaries(summaries)) {
+            throw new GrappleFatalException("Background update failed because one or more files failed verification");
+        }
+        final ImmutableList.Builder<File> contentRoots = ImmutableList.builder();
+        for (final VerificationSummary summary : summaries) {
+            contentRoots.add(summary.getContentRoot());
+        }
+        UpdateStage.clearFailedAssetRecords(contentRoots.build());
+        logger.info("Background updates complete");
+    }
+}
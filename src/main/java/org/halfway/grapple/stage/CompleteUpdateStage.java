@@ -0,0 +1,64 @@
+package org.halfway.grapple.stage;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.halfway.grapple.impl.RuntimeContext;
+import org.halfway.grapple.impl.UpdateLockWaiter;
+import org.halfway.grapple.impl.UpdateStatus;
+import org.halfway.grapple.impl.UpdateStatusWriter;
+import org.halfway.grapple.impl.VerificationSummary;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Stage that marks the update as complete once its manifests are written and its versions switched, and then unlocks
+ * the content roots that the {@link org.halfway.grapple.stage.UpdateStage} left locked. A launcher that waited for the
+ * lock therefore only finds the content roots updated when they can be launched as they are.
+ * <p/>
+ * A launcher that fails before this stage calls {@link #fail(org.halfway.grapple.impl.RuntimeContext)} instead, so that
+ * the next launcher to lock the content roots updates them again.
+ */
+public class CompleteUpdateStage implements LauncherStage {
+    private static final Range<Integer> PROGRESS_RANGE = Range.closed(97, 97);
+
+    @Override
+    public Range<Integer> progressRange() {
+        return PROGRESS_RANGE;
+    }
+
+    @Override
+    public void burn(final RuntimeContext context) {
+        if (context.getUpdatedManifestHashMap().isPresent()) {
+            writeStatus(context.getUpdatedManifestHashMap().get(), UpdateStatus.State.updated);
+            // nothing is left to complete, nor to mark as failed
+            context.setUpdatedManifestHashMap(ImmutableMap.<File, String>of());
+        }
+        if (context.hasDirLockMap()) {
+            UpdateLockWaiter.unlockAll(context.getDirLockMap());
+        }
+    }
+
+    /**
+     * Mark the update as failed and unlock the content roots after a stage failed, unless the assets are still being
+     * updated in the background, in which case the content roots stay locked until the launcher exits
+     */
+    public static void fail(final RuntimeContext context) {
+        final Optional<ListenableFuture<List<VerificationSummary>>> backgroundUpdate = context.getBackgroundUpdate();
+        if (backgroundUpdate.isPresent() && !backgroundUpdate.get().isDone()) {
+            return;
+        }
+        if (context.getUpdatedManifestHashMap().isPresent()) {
+            writeStatus(context.getUpdatedManifestHashMap().get(), UpdateStatus.State.failed);
+        }
+        if (context.hasDirLockMap()) {
+            UpdateLockWaiter.unlockAll(context.getDirLockMap());
+        }
+    }
+
+    private static void writeStatus(final ImmutableMap<File, String> manifestHashes, final UpdateStatus.State state) {
+        new UpdateStatusWriter(manifestHashes).write(state, 100);
+    }
+}
@@ -0,0 +1,80 @@
+package org.halfway.grapple.stage;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.halfway.grapple.impl.RuntimeContext;
+import org.halfway.grapple.impl.TrashDirectory;
+import org.halfway.grapple.model.configuration.Configuration;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+/**
+ * Stage that deletes what the update moved into the {@link org.halfway.grapple.impl.TrashDirectory} of each content
+ * root, including the directories of old versions, along with anything left there by an earlier launch.
+ * <p/>
+ * After a launch the trash is emptied by a thread of its own, so that the stages after this one are not held up; the
+ * launcher does not exit before the thread has finished.
+ */
+public class EmptyTrashStage implements LauncherStage {
+    private static final Logger logger = Logger.getLogger(EmptyTrashStage.class.getName());
+    private static final Range<Integer> PROGRESS_RANGE = Range.closed(100, 100);
+
+    private final Configuration configuration;
+    private final boolean inBackground;
+
+    /**
+     * @param inBackground Whether to empty the trash in the background rather than before the stage completes
+     */
+    public EmptyTrashStage(final Configuration configuration, final boolean inBackground) {
+        Verify.verifyNotNull(configuration, "configuration must not be null");
+        this.configuration = configuration;
+        this.inBackground = inBackground;
+    }
+
+    @Override
+    public Range<Integer> progressRange() {
+        return PROGRESS_RANGE;
+    }
+
+    @Override
+    public void burn(final RuntimeContext context) {
+        final ImmutableList.Builder<TrashDirectory> builder = ImmutableList.builder();
+        for (final File contentRoot : configuration.getLaunchTarget().getContentRoots()) {
+            final TrashDirectory trash = TrashDirectory.in(contentRoot);
+            if (trash.exists()) {
+                builder.add(trash);
+            }
+        }
+        final ImmutableList<TrashDirectory> trashes = builder.build();
+        if (trashes.isEmpty()) {
+            return;
+        }
+        final Runnable emptyAll = new Runnable() {
+            @Override
+            public void run() {
+                for (final TrashDirectory trash : trashes) {
+                    empty(trash);
+                }
+            }
+        };
+        if (inBackground) {
+            new ThreadFactoryBuilder().setNameFormat("empty-trash-%d").setPriority(Thread.MIN_PRIORITY).build()
+                    .newThread(emptyAll).start();
+        } else {
+            emptyAll.run();
+        }
+    }
+
+    private static void empty(final TrashDirectory trash) {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        if (trash.empty()) {
+            logger.info("Emptied " + trash.getDirectory() + " in " + stopwatch);
+        } else {
+            logger.warning("Unable to empty " + trash.getDirectory() + " in full, trying again on the next launch");
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package org.halfway.grapple.stage;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
 import org.halfway.grapple.impl.*;
 import org.halfway.grapple.model.GrappleFatalException;
 import org.halfway.grapple.model.HttpRuntimeException;
@@ -12,9 +16,12 @@ import org.halfway.grapple.model.IORuntimeException;
 import org.halfway.grapple.model.configuration.Configuration;
 import org.halfway.grapple.model.configuration.JvmApplicationTarget;
 import org.halfway.grapple.model.configuration.LaunchTarget;
+import org.halfway.grapple.model.configuration.LayerTarget;
 import org.halfway.grapple.model.configuration.StandaloneApplicationTarget;
 import org.halfway.grapple.model.manifest.GrappleManifest;
 import org.halfway.grapple.model.manifest.JvmManifest;
+import org.halfway.grapple.model.manifest.ManifestHashAlgorithm;
+import org.halfway.grapple.model.manifest.ManifestVerificationException;
 import org.halfway.grapple.model.manifest.StandaloneManifest;
 import org.halfway.grapple.util.FileIO;
 import org.halfway.grapple.util.SingletonByteSink;
@@ -26,9 +33,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,10 +47,37 @@ import java.util.logging.Logger;
  * at this point.
  * <p/>
  * One of the things the configuration fetch does is to make sure we are only using one base url
+ * <p/>
+ * When the content root holds the {@link org.halfway.grapple.impl.ManifestTree} of the last update, the server is first
+ * asked for its tree, so that only the nodes of the directories that changed are fetched however many versions ago the
+ * last update was. When the content root holds a manifest from the last update but no tree, the server is asked for the
+ * {@link org.halfway.grapple.impl.ManifestDelta}s from it instead, which cannot skip more than a bounded number of
+ * versions. The tree takes precedence because a content root only holds one when its server publishes trees, and
+ * a tree never transfers more than the changed directories while a delta chain grows with every version it
+ * crosses. Otherwise the binary manifest
+ * {@link org.halfway.grapple.impl.GrappleBinaryManifest#MANIFEST_FILE} is preferred over the properties manifest
+ * whenever it is available and valid. Either way the assets that changed since the last update are recorded in
+ * the {@link org.halfway.grapple.impl.RuntimeContext}, along with the hash that the manifest was published with, so that
+ * the following stages do not hash the manifest again.
+ * <p/>
+ * The manifests of the target only hold the assets of the {@link org.halfway.grapple.model.manifest.AssetGroup}s that
+ * match the configured platform, so the update downloads and verifies nothing else; the manifests as they were fetched
+ * are kept in the context for {@link WriteManifestStage}.
+ * <p/>
+ * With {@link org.halfway.grapple.impl.VersionedContentRoot versioned content roots} the target is relocated to the
+ * directory of the version of each manifest, so that the following stages install it beside the current version.
+ * <p/>
+ * The standalone manifest of each {@link org.halfway.grapple.model.configuration.LayerTarget layer} of the target is
+ * fetched from the base urls of the layer into its own content root, and is then updated and verified like the
+ * manifests of the application. A layer whose manifest has not changed costs no more than a delta request.
  */
 public class FetchManifestStage implements LauncherStage {
     private static final Logger logger = Logger.getLogger(FetchManifestStage.class.getName());
     private static final Range<Integer> PROGRESS_RANGE = Range.closed(2, 5);
+    /**
+     * The most deltas applied in a row before falling back to fetching the whole manifest
+     */
+    private static final int MAX_DELTA_CHAIN = 16;
 
     private final Configuration configuration;
     private final UrlDownloader urlDownloader;
@@ -74,19 +110,153 @@ public class FetchManifestStage implements LauncherStage {
         return outputStream.toByteArray();
     }
 
-    private Map.Entry<URL, Properties> httpGetManifestPropertiesFrom(final ImmutableList<URL> baseUrlList) {
+    private Optional<HashedManifest> httpGetBinaryManifest(final URL baseUrl) {
+        final URL url = urlDownloader.combinePath(baseUrl, GrappleBinaryManifest.MANIFEST_FILE);
+        try {
+            return Optional.of(binaryManifestFrom(ByteBuffer.wrap(httpGetManifestBytes(url))));
+        } catch (final HttpRuntimeException e) {
+            logger.info("No binary manifest at url " + url + ", falling back to properties manifest");
+        } catch (final ManifestVerificationException e) {
+            logger.log(Level.WARNING, "Binary manifest at url " + url + " is invalid, falling back to properties manifest", e);
+        } catch (final IORuntimeException e) {
+            logger.log(Level.WARNING, "Unknown IO error during http manifest download from " + url, e);
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Fetch the manifest by applying the deltas published from the hash of the manifest that was last written to the
+     * content root, one after the other until the current manifest hash is reached. Any missing or invalid delta
+     * breaks the chain and the manifest is then fetched in another way.
+     *
+     * @return The manifest, if it could be reached through deltas
+     */
+    private Optional<HashedManifest> httpGetDeltaManifest(final URL baseUrl, final File contentRoot,
+                                                           final Map<File, ImmutableSet<String>> changedAssets) {
+        if (!hasLastManifest(contentRoot)) {
+            return Optional.absent();
+        }
+        final URL hashUrl = urlDownloader.combinePath(baseUrl, ManifestDelta.HASH_FILE);
+        try {
+            final String currentHash = HashCode.fromString(
+                    new String(httpGetManifestBytes(hashUrl), Charsets.UTF_8).trim()).toString();
+            ImmutableMap<String, String> properties = GrapplePropertiesManifest.toPropertiesMap()
+                    .from(fileGetManifestFrom(contentRoot).getValue().manifest)
+                    .build();
+            final Set<String> changed = Sets.newHashSet();
+            for (int applied = 0; !currentHash.equals(properties.get(GrapplePropertiesManifest.Key.HASH_KEY)); applied++) {
+                if (applied == MAX_DELTA_CHAIN) {
+                    throw new ManifestVerificationException("No manifest " + currentHash + " after " + applied + " deltas");
+                }
+                final String fromHash = HashCode.fromString(properties.get(GrapplePropertiesManifest.Key.HASH_KEY)).toString();
+                final URL deltaUrl = urlDownloader.combinePath(baseUrl,
+                        ManifestDelta.DELTA_DIRECTORY + "/" + ManifestDelta.deltaFileName(fromHash));
+                final ImmutableMap<String, String> delta = Maps.fromProperties(loadProperties(httpGetManifestBytes(deltaUrl)));
+                properties = ManifestDelta.apply(properties, delta);
+                changed.addAll(ManifestDelta.changedPaths(delta));
+            }
+            final GrappleManifest manifest = GrapplePropertiesManifest.fromPropertiesMap().map(properties).build();
+            logger.info("Reached manifest " + currentHash + " from " + baseUrl + " through deltas with " +
+                    changed.size() + " changed assets");
+            changedAssets.put(contentRoot, ImmutableSet.copyOf(changed));
+            return Optional.of(new HashedManifest(manifest, currentHash));
+        } catch (final HttpRuntimeException e) {
+            logger.info("Manifest delta chain at url " + baseUrl + " is broken, falling back to full manifest");
+        } catch (final ManifestVerificationException e) {
+            logger.log(Level.WARNING, "Manifest delta at url " + baseUrl + " is invalid, falling back to full manifest", e);
+        } catch (final IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Manifest hash at url " + hashUrl + " is invalid, falling back to full manifest", e);
+        } catch (final IORuntimeException e) {
+            logger.log(Level.WARNING, "Unknown IO error while reading manifest deltas from " + baseUrl, e);
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Fetch the manifest by comparing the remote manifest tree with the one written to the content root by the last
+     * update, so that only the nodes of the directories that changed are downloaded.
+     *
+     * @return The manifest and the paths of the assets that changed, if the tree could be used
+     */
+    private Optional<HashedManifest> httpGetTreeManifest(final URL baseUrl, final File contentRoot,
+                                                          final Map<File, ImmutableSet<String>> changedAssets) {
+        final File localRootFile = new File(contentRoot, ManifestTree.ROOT_FILE);
+        if (!localRootFile.isFile()) {
+            return Optional.absent();
+        }
+        final URL url = urlDownloader.combinePath(baseUrl, ManifestTree.ROOT_FILE);
+        try {
+            final HashCode localRoot = ManifestTree.verifyRootProperties(Maps.fromProperties(FileIO.readProperties(localRootFile)));
+            final ImmutableMap<String, String> rootProperties = Maps.fromProperties(loadProperties(httpGetManifestBytes(url)));
+            final HashCode remoteRoot = ManifestTree.verifyRootProperties(rootProperties);
+            if (!rootProperties.containsKey(ManifestTree.MANIFEST_HASH_KEY)) {
+                throw new ManifestVerificationException("Manifest tree root is missing the manifest hash");
+            }
+            final ManifestHasher hasher = ManifestHasher.fromAlgorithm(ManifestHashAlgorithm.valueOf(
+                    rootProperties.get(GrapplePropertiesManifest.Key.HASH_ALGORITHM)));
+            final ManifestTree.NodeSource localNodes = ManifestTree.NodeSource.directory(
+                    new File(contentRoot, ManifestTree.TREE_DIRECTORY), hasher);
+            final ManifestTree.NodeSource currentNodes = localNodes.or(httpNodeSource(baseUrl, hasher).memoized());
+            final ImmutableSet<String> changed = ManifestTree.changedPaths(localRoot, localNodes, remoteRoot, currentNodes);
+            final GrappleManifest manifest = ManifestTree.toManifest(rootProperties, currentNodes);
+            logger.info("Fetched manifest tree " + remoteRoot + " from " + baseUrl + " with " + changed.size() +
+                    " changed assets");
+            changedAssets.put(contentRoot, changed);
+            return Optional.of(new HashedManifest(manifest, rootProperties.get(ManifestTree.MANIFEST_HASH_KEY)));
+        } catch (final HttpRuntimeException e) {
+            logger.info("No manifest tree at url " + url + ", falling back to manifest deltas");
+        } catch (final ManifestVerificationException e) {
+            logger.log(Level.WARNING, "Manifest tree at url " + url + " is invalid, falling back to manifest deltas", e);
+        } catch (final IORuntimeException e) {
+            logger.log(Level.WARNING, "Unknown IO error while reading manifest tree from " + url, e);
+        }
+        return Optional.absent();
+    }
+
+    private ManifestTree.NodeSource httpNodeSource(final URL baseUrl, final ManifestHasher hasher) {
+        return new ManifestTree.NodeSource() {
+            @Override
+            protected Optional<ManifestTreeNode> find(final HashCode hash) {
+                final URL url = urlDownloader.combinePath(baseUrl,
+                        ManifestTree.TREE_DIRECTORY + "/" + ManifestTree.nodeFileName(hash));
+                logger.fine("Fetching manifest tree node " + url);
+                final Properties properties = loadProperties(httpGetManifestBytes(url));
+                return Optional.of(ManifestTreeNode.fromProperties(Maps.fromProperties(properties), hash, hasher));
+            }
+        };
+    }
+
+    private Properties loadProperties(final byte[] bytes) {
+        final Properties properties = new Properties();
+        try {
+            properties.load(new ByteArrayInputStream(bytes));
+        } catch (IOException e) {
+            throw new IORuntimeException("Unable to parse properties file", e);
+        }
+        return properties;
+    }
+
+    private Map.Entry<URL, HashedManifest> httpGetManifestFrom(final ImmutableList<URL> baseUrlList, final File contentRoot,
+                                                               final Map<File, ImmutableSet<String>> changedAssets) {
         for (final URL baseUrl : baseUrlList) {
+            final Optional<HashedManifest> treeManifest = httpGetTreeManifest(baseUrl, contentRoot, changedAssets);
+            if (treeManifest.isPresent()) {
+                return Maps.immutableEntry(baseUrl, treeManifest.get());
+            }
+            final Optional<HashedManifest> deltaManifest = httpGetDeltaManifest(baseUrl, contentRoot, changedAssets);
+            if (deltaManifest.isPresent()) {
+                return Maps.immutableEntry(baseUrl, deltaManifest.get());
+            }
+            final Optional<HashedManifest> binaryManifest = httpGetBinaryManifest(baseUrl);
+            if (binaryManifest.isPresent()) {
+                putChangedSinceLastManifest(contentRoot, binaryManifest.get().manifest, changedAssets);
+                return Maps.immutableEntry(baseUrl, binaryManifest.get());
+            }
             final URL url = urlDownloader.combinePath(baseUrl, GrapplePropertiesManifest.PROPERTIES_FILE);
             try {
-                final byte[] manifestBytes = httpGetManifestBytes(url);
-
-                final Properties properties = new Properties();
-                try {
-                    properties.load(new ByteArrayInputStream(manifestBytes));
-                } catch (IOException e) {
-                    throw new IORuntimeException("Unable to parse properties file", e);
-                }
-                return Maps.immutableEntry(baseUrl, properties);
+                final HashedManifest manifest = manifestFromProperties(loadProperties(httpGetManifestBytes(url)));
+                putChangedSinceLastManifest(contentRoot, manifest.manifest, changedAssets);
+                return Maps.immutableEntry(baseUrl, manifest);
             } catch (final HttpRuntimeException e) {
                 logger.log(Level.WARNING, "Unable to download manifest from url " + url, e);
             } catch (final IORuntimeException e) {
@@ -96,7 +266,42 @@ public class FetchManifestStage implements LauncherStage {
         throw new GrappleFatalException("Unable to download manifest from any URLs");
     }
 
-    private Map.Entry<URL, Properties> fileGetManifestPropertiesFrom(final File contentRoot) {
+    /**
+     * Without a manifest tree the changed assets are found by comparing the fetched manifest with the whole of the
+     * manifest that was last written to the content root, if any
+     */
+    private void putChangedSinceLastManifest(final File contentRoot, final GrappleManifest manifest,
+                                             final Map<File, ImmutableSet<String>> changedAssets) {
+        if (!hasLastManifest(contentRoot)) {
+            return;
+        }
+        try {
+            final GrappleManifest lastManifest = fileGetManifestFrom(contentRoot).getValue().manifest;
+            changedAssets.put(contentRoot, ManifestTree.changedPaths(lastManifest.getAssets(), manifest.getAssets()));
+        } catch (final RuntimeException e) {
+            logger.log(Level.WARNING, "Unable to read the last manifest in " + contentRoot, e);
+        }
+    }
+
+    private boolean hasLastManifest(final File contentRoot) {
+        return new File(contentRoot, GrappleBinaryManifest.MANIFEST_FILE).isFile() ||
+                new File(contentRoot, GrapplePropertiesManifest.PROPERTIES_FILE).isFile();
+    }
+
+    private Map.Entry<URL, HashedManifest> fileGetManifestFrom(final File contentRoot) {
+        final File binaryManifestFile = new File(contentRoot, GrappleBinaryManifest.MANIFEST_FILE);
+        if (binaryManifestFile.isFile()) {
+            logger.info("Trying to read binary manifest from file " + binaryManifestFile);
+            try {
+                // mapping would keep the file from being replaced on Windows until the buffer is garbage collected
+                final ByteBuffer buffer = FileIO.readBuffer(binaryManifestFile, !configuration.isOnWindows());
+                return Maps.immutableEntry(FileIO.toUrl(binaryManifestFile), binaryManifestFrom(buffer));
+            } catch (final ManifestVerificationException e) {
+                logger.log(Level.WARNING, "Binary manifest " + binaryManifestFile + " is invalid, falling back to properties manifest", e);
+            } catch (final IORuntimeException e) {
+                logger.log(Level.WARNING, "Unable to read binary manifest " + binaryManifestFile + ", falling back to properties manifest", e);
+            }
+        }
         final File manifestFile = new File(contentRoot, GrapplePropertiesManifest.PROPERTIES_FILE);
         final URL manifestFileUrl = FileIO.toUrl(manifestFile);
         logger.info("Trying to read manifest properties from file " + manifestFile);
@@ -104,64 +309,182 @@ public class FetchManifestStage implements LauncherStage {
             throw new GrappleFatalException("Offline mode enabled but no manifest file at " + manifestFile);
         }
         final Properties properties = FileIO.readProperties(manifestFile);
-        return Maps.immutableEntry(manifestFileUrl, properties);
+        return Maps.immutableEntry(manifestFileUrl, manifestFromProperties(properties));
+    }
+
+    /**
+     * The hash is taken from the headers once the manifest has been read, so that it has been checked against the
+     * checksum of the manifest
+     */
+    private HashedManifest binaryManifestFrom(final ByteBuffer buffer) {
+        final GrappleManifest manifest = GrappleBinaryManifest.fromBuffer(buffer.duplicate());
+        final String hash = GrappleBinaryManifest.headersOf(buffer).get(GrapplePropertiesManifest.Key.HASH_KEY);
+        if (hash == null) {
+            throw new ManifestVerificationException("Hash key '" + GrapplePropertiesManifest.Key.HASH_KEY +
+                    "' missing from binary manifest");
+        }
+        return new HashedManifest(manifest, hash);
+    }
+
+    /**
+     * The properties are verified against their hash as the manifest is built
+     */
+    private HashedManifest manifestFromProperties(final Properties properties) {
+        final GrappleManifest manifest = GrapplePropertiesManifest
+                .fromPropertiesMap()
+                .properties(properties)
+                .build();
+        return new HashedManifest(manifest, properties.getProperty(GrapplePropertiesManifest.Key.HASH_KEY));
     }
 
-    private Map.Entry<URL, Properties> getOrReadManifest(final ImmutableList<URL> baseUrlList, final File contentRoot) {
+    /**
+     * Get the manifest of the content root and select the asset groups of the configured platform and the optional
+     * groups that were requested, recording the manifest as it was fetched so that it can be written out unchanged.
+     * <p/>
+     * With versioned content roots the last manifest is read from the directory of the current version, and the
+     * manifest is installed in the directory of its own version, under which all the results are recorded.
+     */
+    private Map.Entry<URL, GrappleManifest> getOrReadManifest(final ImmutableList<URL> baseUrlList, final File contentRoot,
+                                                              final Fetched fetched) {
+        final File installedRoot = installedRoot(contentRoot);
+        final Map<File, ImmutableSet<String>> changedAssets = Maps.newHashMap();
+        final Map.Entry<URL, HashedManifest> entry;
         if (configuration.isOfflineMode()) {
-            return fileGetManifestPropertiesFrom(contentRoot);
+            entry = fileGetManifestFrom(installedRoot);
         } else {
-            return httpGetManifestPropertiesFrom(baseUrlList);
+            entry = httpGetManifestFrom(baseUrlList, installedRoot, changedAssets);
+        }
+        final HashedManifest hashedManifest = entry.getValue();
+        final File installRoot = installRootOf(contentRoot, installedRoot, hashedManifest.hash);
+        fetched.installRoots.put(contentRoot, installRoot);
+        fetched.manifests.put(installRoot, hashedManifest.manifest);
+        fetched.manifestHashes.put(installRoot, hashedManifest.hash);
+        if (changedAssets.containsKey(installedRoot)) {
+            fetched.changedAssets.put(installRoot, changedAssets.get(installedRoot));
         }
+        if (!installRoot.equals(installedRoot) && hasLastManifest(installedRoot)) {
+            fetched.previousVersions.put(installRoot, installedRoot);
+        }
+        return Maps.immutableEntry(entry.getKey(), AssetGroupSelection.select(hashedManifest.manifest,
+                configuration.getPlatform(), InstalledGroups.in(contentRoot).read()));
     }
 
-    private Map.Entry<URL, StandaloneManifest> fetchStandaloneManifest(
-            final RuntimeContext context, final ImmutableList<URL> baseUrlList, final File contentRoot) {
-        final Map.Entry<URL, Properties> entry = getOrReadManifest(baseUrlList, contentRoot);
-        final GrappleManifest manifest = GrapplePropertiesManifest.
-                fromPropertiesMap()
-                .properties(entry.getValue())
-                .build();
+    /**
+     * @return The directory that holds the version installed in the content root: the content root itself unless it is
+     * versioned and has a current version
+     */
+    private File installedRoot(final File contentRoot) {
+        if (!configuration.isVersioned()) {
+            return contentRoot;
+        }
+        return VersionedContentRoot.in(contentRoot).currentDirectory().or(contentRoot);
+    }
+
+    /**
+     * @return The directory to install the manifest in: the directory of its version if the content root is versioned
+     * and the launch is online, otherwise the installed root. The directory is created unless the update is only
+     * planned
+     */
+    private File installRootOf(final File contentRoot, final File installedRoot, final String manifestHash) {
+        if (!configuration.isVersioned() || configuration.isOfflineMode()) {
+            return installedRoot;
+        }
+        final VersionedContentRoot versioned = VersionedContentRoot.in(contentRoot);
+        final File installRoot = versioned.directoryOf(VersionedContentRoot.versionOf(manifestHash));
+        if (!configuration.isDryRun() && !installRoot.isDirectory() && !installRoot.mkdirs()) {
+            throw new IORuntimeException("Failed to create the version directory", installRoot);
+        }
+        logger.info((installRoot.equals(installedRoot) ? "Updating the current version " : "Staging version ") +
+                installRoot.getName() + " of " + contentRoot);
+        return installRoot;
+    }
+
+    private Map.Entry<URL, StandaloneManifest> fetchStandaloneManifest(final Fetched fetched,
+                                                                       final ImmutableList<URL> baseUrlList,
+                                                                       final File contentRoot) {
+        final Map.Entry<URL, GrappleManifest> entry = getOrReadManifest(baseUrlList, contentRoot, fetched);
+        final GrappleManifest manifest = entry.getValue();
         if (!(manifest instanceof StandaloneManifest)) {
             throw new GrappleFatalException("Manifest at url " + entry.getKey() + " must be a standalone manifest type");
         }
         return Maps.immutableEntry(entry.getKey(), (StandaloneManifest) manifest);
     }
 
-    private Map.Entry<URL, JvmManifest> fetchJvmManifest(final RuntimeContext context, final ImmutableList<URL> baseUrlList,
-                                                         File contentRoot) {
-        final Map.Entry<URL, Properties> entry = getOrReadManifest(baseUrlList, contentRoot);
-        final GrappleManifest manifest = GrapplePropertiesManifest
-                .fromPropertiesMap()
-                .properties(entry.getValue())
-                .build();
+    private Map.Entry<URL, JvmManifest> fetchJvmManifest(final Fetched fetched, final ImmutableList<URL> baseUrlList,
+                                                         final File contentRoot) {
+        final Map.Entry<URL, GrappleManifest> entry = getOrReadManifest(baseUrlList, contentRoot, fetched);
+        final GrappleManifest manifest = entry.getValue();
         if (!(manifest instanceof JvmManifest)) {
             throw new GrappleFatalException("Manifest at url " + entry.getKey() + " must be a jvm manifest type");
         }
         return Maps.immutableEntry(entry.getKey(), (JvmManifest) manifest);
     }
 
-    private JvmApplicationWithManifests fetchJvmApplicationManifest(final RuntimeContext context, final JvmApplicationTarget target) {
-        final Map.Entry<URL, StandaloneManifest> standaloneManifestEntry = fetchStandaloneManifest(context, target.getBaseUrlList(), target.getContentRoot());
-        final Map.Entry<URL, JvmManifest> jvmManifest = fetchJvmManifest(context, target.getJvmBaseUrlList(), target.getJvmContentRoot());
-        context.setBaseUrlMap(ImmutableMap.of(
-                target.getContentRoot(), standaloneManifestEntry.getKey(),
-                target.getJvmContentRoot(), jvmManifest.getKey()
-        ));
-        return new JvmApplicationWithManifests(target, standaloneManifestEntry.getValue(), jvmManifest.getValue());
+    private JvmApplicationWithManifests fetchJvmApplicationManifest(final RuntimeContext context, final JvmApplicationTarget target,
+                                                                    final Fetched fetched) {
+        final Map.Entry<URL, StandaloneManifest> standaloneManifestEntry = fetchStandaloneManifest(fetched, target.getBaseUrlList(), target.getContentRoot());
+        final Map.Entry<URL, JvmManifest> jvmManifest = fetchJvmManifest(fetched, target.getJvmBaseUrlList(), target.getJvmContentRoot());
+        final ImmutableList<Map.Entry<URL, StandaloneManifest>> layerManifestEntries = fetchLayerManifests(fetched, target.getLayers());
+        final JvmApplicationTarget installTarget = target.relocate(fetched.installRoots);
+        context.setBaseUrlMap(ImmutableMap.<File, URL>builder()
+                .put(installTarget.getContentRoot(), standaloneManifestEntry.getKey())
+                .put(installTarget.getJvmContentRoot(), jvmManifest.getKey())
+                .putAll(layerBaseUrls(installTarget, layerManifestEntries))
+                .build());
+        return new JvmApplicationWithManifests(installTarget, standaloneManifestEntry.getValue(), jvmManifest.getValue(),
+                layerManifests(layerManifestEntries));
+    }
+
+    /**
+     * Fetch the standalone manifest of each layer into the content root of the layer, which is shared with any other
+     * application composed on the same layer
+     */
+    private ImmutableList<Map.Entry<URL, StandaloneManifest>> fetchLayerManifests(final Fetched fetched,
+                                                                                 final ImmutableList<LayerTarget> layers) {
+        final ImmutableList.Builder<Map.Entry<URL, StandaloneManifest>> entries = ImmutableList.builder();
+        for (final LayerTarget layer : layers) {
+            logger.info("Fetching the manifest of layer " + layer.getName());
+            entries.add(fetchStandaloneManifest(fetched, layer.getBaseUrlList(), layer.getContentRoot()));
+        }
+        return entries.build();
+    }
+
+    private static ImmutableMap<File, URL> layerBaseUrls(final LaunchTarget installTarget,
+                                                         final ImmutableList<Map.Entry<URL, StandaloneManifest>> layerManifestEntries) {
+        final ImmutableMap.Builder<File, URL> baseUrls = ImmutableMap.builder();
+        for (int i = 0; i < layerManifestEntries.size(); i++) {
+            baseUrls.put(installTarget.getLayers().get(i).getContentRoot(), layerManifestEntries.get(i).getKey());
+        }
+        return baseUrls.build();
+    }
+
+    private static ImmutableList<StandaloneManifest> layerManifests(
+            final ImmutableList<Map.Entry<URL, StandaloneManifest>> layerManifestEntries) {
+        final ImmutableList.Builder<StandaloneManifest> manifests = ImmutableList.builder();
+        for (final Map.Entry<URL, StandaloneManifest> entry : layerManifestEntries) {
+            manifests.add(entry.getValue());
+        }
+        return manifests.build();
     }
 
-    private StandaloneApplicationWithManifests fetchStandaloneApplicationManifest(final RuntimeContext context, final StandaloneApplicationTarget target) {
-        final Map.Entry<URL, StandaloneManifest> standaloneManifestEntry = fetchStandaloneManifest(context, target.getBaseUrlList(), target.getContentRoot());
-        context.setBaseUrlMap(ImmutableMap.of(target.getContentRoot(), standaloneManifestEntry.getKey()));
-        return new StandaloneApplicationWithManifests(target, standaloneManifestEntry.getValue());
+    private StandaloneApplicationWithManifests fetchStandaloneApplicationManifest(final RuntimeContext context, final StandaloneApplicationTarget target,
+                                                                                  final Fetched fetched) {
+        final Map.Entry<URL, StandaloneManifest> standaloneManifestEntry = fetchStandaloneManifest(fetched, target.getBaseUrlList(), target.getContentRoot());
+        final ImmutableList<Map.Entry<URL, StandaloneManifest>> layerManifestEntries = fetchLayerManifests(fetched, target.getLayers());
+        final StandaloneApplicationTarget installTarget = target.relocate(fetched.installRoots);
+        context.setBaseUrlMap(ImmutableMap.<File, URL>builder()
+                .put(installTarget.getContentRoot(), standaloneManifestEntry.getKey())
+                .putAll(layerBaseUrls(installTarget, layerManifestEntries))
+                .build());
+        return new StandaloneApplicationWithManifests(installTarget, standaloneManifestEntry.getValue(),
+                layerManifests(layerManifestEntries));
     }
 
-    private TargetWithManifests<? extends LaunchTarget> fetchManifest(final RuntimeContext context) {
+    private TargetWithManifests<? extends LaunchTarget> fetchManifest(final RuntimeContext context, final Fetched fetched) {
         if (configuration.getLaunchTarget() instanceof JvmApplicationTarget) {
-            return fetchJvmApplicationManifest(context, (JvmApplicationTarget) configuration.getLaunchTarget());
+            return fetchJvmApplicationManifest(context, (JvmApplicationTarget) configuration.getLaunchTarget(), fetched);
         } else if (configuration.getLaunchTarget() instanceof StandaloneApplicationTarget) {
-            return fetchStandaloneApplicationManifest(context, (StandaloneApplicationTarget) configuration.getLaunchTarget());
+            return fetchStandaloneApplicationManifest(context, (StandaloneApplicationTarget) configuration.getLaunchTarget(), fetched);
         } else {
             throw new UnsupportedOperationException("Unknown launch target class " + configuration.getLaunchTarget().getClass());
         }
@@ -170,8 +493,43 @@ public class FetchManifestStage implements LauncherStage {
     @Override
     public void burn(RuntimeContext context) {
         context.getGuiApi().notifyProgress(progressRange().lowerEndpoint(), Optional.of("Fetching manifests..."));
-        final TargetWithManifests<? extends LaunchTarget> targetWithManifests = fetchManifest(context);
+        final Fetched fetched = new Fetched();
+        final TargetWithManifests<? extends LaunchTarget> targetWithManifests = fetchManifest(context, fetched);
         context.setTargetWithManifest(targetWithManifests);
+        context.setChangedAssetMap(ImmutableMap.copyOf(fetched.changedAssets));
+        context.setFetchedManifestMap(ImmutableMap.copyOf(fetched.manifests));
+        context.setFetchedManifestHashMap(ImmutableMap.copyOf(fetched.manifestHashes));
+        context.setPreviousVersionMap(ImmutableMap.copyOf(fetched.previousVersions));
         context.getGuiApi().notifyProgress(progressRange().upperEndpoint(), Optional.<String>absent());
     }
+
+    /**
+     * What is found out while fetching the manifests of a target
+     */
+    private static class Fetched {
+        /**
+         * The configured content roots to the directories the manifests are installed in
+         */
+        private final Map<File, File> installRoots = Maps.newLinkedHashMap();
+        /**
+         * The following are keyed by the directories the manifests are installed in
+         */
+        private final Map<File, ImmutableSet<String>> changedAssets = Maps.newLinkedHashMap();
+        private final Map<File, GrappleManifest> manifests = Maps.newLinkedHashMap();
+        private final Map<File, String> manifestHashes = Maps.newLinkedHashMap();
+        private final Map<File, File> previousVersions = Maps.newLinkedHashMap();
+    }
+
+    /**
+     * A manifest as it was fetched, with the hash that it was published with
+     */
+    private static class HashedManifest {
+        private final GrappleManifest manifest;
+        private final String hash;
+
+        private HashedManifest(final GrappleManifest manifest, final String hash) {
+            this.manifest = manifest;
+            this.hash = hash;
+        }
+    }
 }
@@ -5,20 +5,21 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Range;
+import org.halfway.grapple.impl.GroupRequestServer;
 import org.halfway.grapple.impl.JvmApplicationWithManifests;
+import org.halfway.grapple.impl.LayeredAssets;
 import org.halfway.grapple.impl.RuntimeContext;
 import org.halfway.grapple.impl.StandaloneApplicationWithManifests;
 import org.halfway.grapple.impl.TargetWithManifests;
-import org.halfway.grapple.model.GrappleAsset;
 import org.halfway.grapple.model.GrappleFatalException;
 import org.halfway.grapple.model.IORuntimeException;
 import org.halfway.grapple.model.configuration.Configuration;
 import org.halfway.grapple.model.configuration.JvmApplicationTarget;
 import org.halfway.grapple.model.configuration.LaunchTarget;
-import org.halfway.grapple.model.manifest.GrappleManifest;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,13 +47,13 @@ public class FinalStage implements LauncherStage {
     public void burn(final RuntimeContext context) {
         final TargetWithManifests target = context.getTargetWithManifest();
         context.getGuiApi().notifyProgress(progressRange().lowerEndpoint(), Optional.of("Launching application..."));
-        launch(target);
+        launch(target, context);
         context.getGuiApi().notifyProgress(progressRange().upperEndpoint(), Optional.<String>absent());
     }
 
-    private void launch(final TargetWithManifests target) {
+    private void launch(final TargetWithManifests target, final RuntimeContext context) {
         if (target instanceof JvmApplicationWithManifests) {
-            launchJvm((JvmApplicationWithManifests) target);
+            launchJvm((JvmApplicationWithManifests) target, context);
         } else if (target instanceof StandaloneApplicationWithManifests) {
             launchStandalone((StandaloneApplicationWithManifests) target);
         } else {
@@ -65,13 +66,19 @@ public class FinalStage implements LauncherStage {
         throw new GrappleFatalException("FIXME implement");
     }
 
-    private void launchJvm(final JvmApplicationWithManifests targetWithManifests) {
+    private void launchJvm(final JvmApplicationWithManifests targetWithManifests, final RuntimeContext context) {
         logger.info("Launching jvm target " + targetWithManifests.getTarget());
         final ImmutableList.Builder<String> commandBuilder = ImmutableList.builder();
         final ImmutableMap.Builder<String, String> environment = ImmutableMap.builder();
 
         final JvmApplicationTarget target = targetWithManifests.getTarget();
         environment.put("JAVA_HOME", target.getJvmContentRoot().getAbsolutePath());
+        if (context.getGroupRequestServer().isPresent()) {
+            environment.put(GroupRequestServer.PORT_ENVIRONMENT_VARIABLE,
+                    Integer.toString(context.getGroupRequestServer().get().getPort()));
+            environment.put(GroupRequestServer.TOKEN_ENVIRONMENT_VARIABLE,
+                    context.getGroupRequestServer().get().getToken());
+        }
         final File java = new File(target.getJvmContentRoot(), targetWithManifests.getJvmManifest().getJavaPath());
         if (!java.canExecute()) {
             if (!java.setExecutable(true, false)) {
@@ -81,11 +88,12 @@ public class FinalStage implements LauncherStage {
 
         commandBuilder.add(java.getAbsolutePath());
         commandBuilder.addAll(target.getJvmArguments());
-        addClassPath(commandBuilder, targetWithManifests.getStandaloneManifest());
+        addClassPath(commandBuilder, targetWithManifests);
         commandBuilder.add(target.getMainClass());
         commandBuilder.addAll(target.getArguments());
 
         final Process jvm = exec(commandBuilder.build(), environment.build(), targetWithManifests.getTarget().getContentRoot());
+        context.setApplicationProcess(jvm);
         // FIXME - check process output
         try {
             Thread.sleep(500);
@@ -101,12 +109,22 @@ public class FinalStage implements LauncherStage {
         }
     }
 
-    private void addClassPath(final ImmutableList.Builder<String> commandBuilder, final GrappleManifest manifest) {
+    /**
+     * Add the jars of the application and of its layers to the class path, so that the classes of the application come
+     * before those of its layers, and the classes of a layer before those of the layers below it. A jar that is
+     * overridden by a jar at the same path in a layer above it is left out
+     */
+    private void addClassPath(final ImmutableList.Builder<String> commandBuilder,
+                              final JvmApplicationWithManifests targetWithManifests) {
         // FIXME - this needs to be an option in org.halfway.grapple.model.configuration.Configuration
+        final File contentRoot = targetWithManifests.getTarget().getContentRoot();
         final ImmutableList.Builder<String> entriesBuilder = ImmutableList.builder();
-        for (final GrappleAsset asset : manifest.getAssets()) {
-            if (asset.getPath().endsWith(".jar")) {
-                entriesBuilder.add(asset.getPath());
+        for (final Map.Entry<String, File> asset : LayeredAssets.compose(targetWithManifests,
+                targetWithManifests.getStandaloneManifest()).entrySet()) {
+            if (asset.getKey().endsWith(".jar")) {
+                // the application is executed in its content root, so only the jars of the layers need a full path
+                entriesBuilder.add(asset.getValue().equals(contentRoot) ? asset.getKey() :
+                        new File(asset.getValue(), asset.getKey()).getAbsolutePath());
             }
         }
         final ImmutableList<String> entries = entriesBuilder.build();
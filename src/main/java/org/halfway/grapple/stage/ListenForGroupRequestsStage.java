@@ -0,0 +1,72 @@
+package org.halfway.grapple.stage;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import org.halfway.grapple.impl.GroupInstaller;
+import org.halfway.grapple.impl.GroupRequestServer;
+import org.halfway.grapple.impl.RuntimeContext;
+import org.halfway.grapple.model.configuration.Configuration;
+import org.halfway.grapple.model.configuration.LaunchTarget;
+import org.halfway.grapple.util.UrlDownloader;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+/**
+ * Stage that opens the {@link org.halfway.grapple.impl.GroupRequestServer} before the launch, so that its port can be
+ * passed to the application. The requests are only served after the launch by the
+ * {@link org.halfway.grapple.stage.ServeGroupRequestsStage}, once the update has released the content roots.
+ * <p/>
+ * The server is only opened online and when a manifest has optional groups for the platform.
+ */
+public class ListenForGroupRequestsStage implements LauncherStage {
+    private static final Logger logger = Logger.getLogger(ListenForGroupRequestsStage.class.getName());
+    private static final Range<Integer> PROGRESS_RANGE = Range.closed(97, 97);
+
+    private final Configuration configuration;
+    private final UrlDownloader urlDownloader;
+
+    public ListenForGroupRequestsStage(final Configuration configuration, final UrlDownloader urlDownloader) {
+        this.configuration = configuration;
+        this.urlDownloader = urlDownloader;
+    }
+
+    @Override
+    public Range<Integer> progressRange() {
+        return PROGRESS_RANGE;
+    }
+
+    @Override
+    public void burn(final RuntimeContext context) {
+        if (!configuration.getGroupRequestPort().isPresent()) {
+            return;
+        }
+        if (configuration.isOfflineMode()) {
+            logger.info("Not serving group requests in offline mode");
+            return;
+        }
+        final GroupInstaller installer = new GroupInstaller(configuration.getPlatform(), urlDownloader,
+                installerRoots(context));
+        if (!installer.hasOptionalGroups()) {
+            logger.info("Not serving group requests as there are no optional groups for " + configuration.getPlatform());
+            return;
+        }
+        context.getGuiApi().notifyProgress(progressRange().lowerEndpoint(), Optional.<String>absent());
+        final GroupRequestServer server = GroupRequestServer.open(configuration.getGroupRequestPort().get(), installer);
+        logger.info("Listening for group requests on port " + server.getPort());
+        context.setGroupRequestServer(server);
+    }
+
+    private ImmutableList<GroupInstaller.Root> installerRoots(final RuntimeContext context) {
+        final ImmutableList.Builder<GroupInstaller.Root> roots = ImmutableList.builder();
+        final LaunchTarget launchedTarget = context.getTargetWithManifest().getTarget();
+        final LaunchTarget configuredTarget = configuration.getLaunchTarget();
+        for (int i = 0; i < configuredTarget.getContentRoots().size(); i++) {
+            final File installRoot = launchedTarget.getContentRoots().get(i);
+            roots.add(new GroupInstaller.Root(configuredTarget.getContentRoots().get(i), installRoot,
+                    context.getFetchedManifestMap().get(installRoot), context.getBaseUrlMap().get(installRoot)));
+        }
+        return roots.build();
+    }
+}
@@ -1,18 +1,25 @@
 package org.halfway.grapple.stage;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Range;
 import com.google.common.util.concurrent.*;
 import org.halfway.grapple.impl.*;
+import org.halfway.grapple.model.GrappleAsset;
 import org.halfway.grapple.model.GrappleFatalException;
+import org.halfway.grapple.model.IORuntimeException;
 import org.halfway.grapple.model.configuration.Configuration;
 import org.halfway.grapple.model.configuration.LaunchTarget;
 import org.halfway.grapple.model.manifest.GrappleManifest;
 import org.halfway.grapple.util.ExecutorServiceBuilder;
 
 import java.io.File;
+import java.security.PublicKey;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -24,21 +31,27 @@ import java.util.logging.Logger;
  * This stage will fail if:
  * <ol>
  * <li>Any of the application assets fail to verify with the manifest</li>
+ * <li>A previous background verification recorded assets that failed to verify</li>
  * </ol>
+ * <p/>
+ * When verification is deferred, only the existence and size of the assets is checked before the launch and the
+ * contents are hashed at low priority while the application runs. Failures are written to a
+ * {@link org.halfway.grapple.impl.FailedAssetRecord} so that the next launch can act on them.
+ * <p/>
+ * A {@link org.halfway.grapple.model.configuration.Configuration#isReadOnly() read-only} launch writes nothing to the
+ * content roots: a content root with a {@link org.halfway.grapple.impl.SealStamp} that covers it only has the existence
+ * and size of its assets checked, and any other content root is hashed in full before the launch.
  */
 public class OfflineVerifyStage implements LauncherStage {
     private static final Logger logger = Logger.getLogger(UpdateStage.class.getName());
     private static final Range<Integer> PROGRESS_RANGE = Range.closed(5, 95);
-    private static final String THREAD_NAME_FORMAT = "verify-stage-%1$s";
+    private static final String THREAD_NAME_PREFIX = "verify-stage";
+    private static final String BACKGROUND_THREAD_NAME_PREFIX = "background-verify";
 
     private final Configuration configuration;
-    private final ExecutorServiceBuilder executorServiceBuilder;
 
     public OfflineVerifyStage(final Configuration configuration) {
         this.configuration = configuration;
-        this.executorServiceBuilder = new ExecutorServiceBuilder()
-                .withThreadFactoryBuilder(Optional.of(new ThreadFactoryBuilder().setNameFormat(THREAD_NAME_FORMAT)))
-                .withPoolSize(configuration.getThreadPoolSize());
     }
 
     @Override
@@ -54,43 +67,184 @@ public class OfflineVerifyStage implements LauncherStage {
         logger.info("Starting to verify files in offline mode");
         context.getGuiApi().notifyProgress(progressRange().lowerEndpoint(), Optional.of("Verifying in offline mode..."));
         final TargetWithManifests<LaunchTarget> targetWithManifests = context.getTargetWithManifest();
-        verifyTarget(targetWithManifests);
+        ensureNoRecordedFailures(targetWithManifests);
+        final ImmutableMap<File, StorageDevice> devices = StorageDevice.of(
+                targetWithManifests.getTarget().getContentRoots(), configuration.getStorageProfile());
+        if (configuration.isReadOnly()) {
+            verifyTarget(targetWithManifests, devices, unsealedAssets(context, targetWithManifests));
+            context.getGuiApi().notifyProgress(progressRange().upperEndpoint(), Optional.<String>absent());
+            return;
+        }
+        final ImmutableMap<File, Predicate<GrappleAsset>> hashSelection = selectAssetsToHash(targetWithManifests);
+        if (configuration.isDeferredVerification()) {
+            verifyTarget(targetWithManifests, devices, metadataOnly(targetWithManifests));
+            verifyTargetInBackground(targetWithManifests, devices, hashSelection);
+        } else {
+            verifyTarget(targetWithManifests, devices, hashSelection);
+        }
         context.getGuiApi().notifyProgress(progressRange().upperEndpoint(), Optional.<String>absent());
     }
 
-    private void verifyTarget(final TargetWithManifests<LaunchTarget> targetWithManifests) {
-        final ListeningExecutorService service = executorServiceBuilder.newListeningExecutorService();
-        final ImmutableList.Builder<ListenableFuture<AssetVerificationResult>> allFutures = ImmutableList.builder();
+    private void ensureNoRecordedFailures(final TargetWithManifests<LaunchTarget> targetWithManifests) {
+        boolean failed = false;
+        for (final File contentRoot : targetWithManifests.getTarget().getContentRoots()) {
+            final ImmutableMap<String, String> failures = FailedAssetRecord.in(contentRoot).read();
+            for (final Map.Entry<String, String> failure : failures.entrySet()) {
+                failed = true;
+                logger.warning("Asset " + failure.getKey() + " in content root " + contentRoot +
+                        " failed a previous verification with outcome " + failure.getValue());
+            }
+        }
+        if (failed) {
+            throw new GrappleFatalException("One or more files failed to verify during a previous launch. " +
+                    "Launch in online mode to repair them.");
+        }
+    }
+
+    private ImmutableMap<File, Predicate<GrappleAsset>> selectAssetsToHash(final TargetWithManifests<LaunchTarget> targetWithManifests) {
+        final ImmutableMap.Builder<File, Predicate<GrappleAsset>> map = ImmutableMap.builder();
+        for (final File contentRoot : targetWithManifests.getTarget().getContentRoots()) {
+            final VerificationSampler sampler = VerificationSampler.forLaunch(configuration.getVerificationPolicy(),
+                    configuration.getSampledLaunches(), contentRoot);
+            logger.info("Hashing assets in " + contentRoot + " using " + sampler);
+            map.put(contentRoot, sampler);
+        }
+        return map.build();
+    }
+
+    /**
+     * @return The assets of each content root to hash: none if the content root is covered by its seal stamp,
+     * otherwise all of them
+     */
+    private ImmutableMap<File, Predicate<GrappleAsset>> unsealedAssets(final RuntimeContext context,
+                                                                      final TargetWithManifests<LaunchTarget> targetWithManifests) {
+        final PublicKey key;
         try {
-            for (final GrappleManifest manifest : targetWithManifests.getManifests()) {
-                final File contentRoot = targetWithManifests.getContentRoot(manifest);
-                final ManifestHasher manifestHasher = ManifestHasher.fromAlgorithm(manifest.getHashAlgorithm());
-                final ManifestAssetVerifier manifestAssetVerifier = new ManifestAssetVerifier(manifest, contentRoot, manifestHasher);
-                final ImmutableList<ListenableFuture<AssetVerificationResult>> resultFutures = manifestAssetVerifier.verifyAll(service);
-                allFutures.addAll(resultFutures);
+            key = SealStamp.readPublicKey(configuration.getSealKey().get());
+        } catch (final IORuntimeException e) {
+            logger.log(Level.SEVERE, "Unable to read the seal key", e);
+            throw new GrappleFatalException("Unable to read the seal key " + configuration.getSealKey().get());
+        }
+        final ImmutableMap.Builder<File, Predicate<GrappleAsset>> map = ImmutableMap.builder();
+        for (final GrappleManifest manifest : targetWithManifests.getManifests()) {
+            final File contentRoot = targetWithManifests.getContentRoot(manifest);
+            final String manifestHash = context.getFetchedManifestHashMap().get(contentRoot);
+            final Optional<SealStamp> stamp = SealStamp.in(contentRoot, key);
+            if (stamp.isPresent() && stamp.get().covers(manifestHash, manifest, contentRoot)) {
+                logger.info("Trusting " + contentRoot + " as sealed by " + stamp.get());
+                map.put(contentRoot, Predicates.<GrappleAsset>alwaysFalse());
+            } else {
+                logger.warning("Hashing all assets in " + contentRoot + " as it is not sealed");
+                map.put(contentRoot, Predicates.<GrappleAsset>alwaysTrue());
             }
-            ensureNoVerificationFailures(targetWithManifests, allFutures.build());
+        }
+        return map.build();
+    }
+
+    private ImmutableMap<File, Predicate<GrappleAsset>> metadataOnly(final TargetWithManifests<LaunchTarget> targetWithManifests) {
+        final ImmutableMap.Builder<File, Predicate<GrappleAsset>> map = ImmutableMap.builder();
+        for (final File contentRoot : targetWithManifests.getTarget().getContentRoots()) {
+            map.put(contentRoot, Predicates.<GrappleAsset>alwaysFalse());
+        }
+        return map.build();
+    }
+
+    private ImmutableList<ListenableFuture<VerificationSummary>> submitVerification(
+            final DeviceSchedulers schedulers, final TargetWithManifests<LaunchTarget> targetWithManifests,
+            final ImmutableMap<File, Predicate<GrappleAsset>> hashSelection) {
+        final ImmutableList.Builder<ListenableFuture<VerificationSummary>> allFutures = ImmutableList.builder();
+        for (final GrappleManifest manifest : targetWithManifests.getManifests()) {
+            final File contentRoot = targetWithManifests.getContentRoot(manifest);
+            final ManifestHasher manifestHasher = ManifestHasher.fromAlgorithm(manifest.getHashAlgorithm());
+            final ManifestAssetVerifier manifestAssetVerifier = new ManifestAssetVerifier(manifest, contentRoot, manifestHasher);
+            allFutures.add(manifestAssetVerifier.verifyAll(schedulers.forContentRoot(contentRoot),
+                    hashSelection.get(contentRoot)));
+        }
+        return allFutures.build();
+    }
+
+    private void verifyTarget(final TargetWithManifests<LaunchTarget> targetWithManifests,
+                              final ImmutableMap<File, StorageDevice> devices,
+                              final ImmutableMap<File, Predicate<GrappleAsset>> hashSelection) {
+        final DeviceSchedulers schedulers = new DeviceSchedulers(devices,
+                ExecutorServiceBuilder.workerCount(configuration.getThreadPoolSize(), 1), false, Thread.NORM_PRIORITY,
+                THREAD_NAME_PREFIX);
+        try {
+            ensureNoVerificationFailures(submitVerification(schedulers, targetWithManifests, hashSelection));
         } finally {
-            if (!MoreExecutors.shutdownAndAwaitTermination(service, 1, TimeUnit.SECONDS)) {
+            if (!schedulers.shutdownAndAwaitTermination(1, TimeUnit.SECONDS)) {
                 logger.warning("Executor service failed to terminate");
             }
         }
     }
 
-    private void ensureNoVerificationFailures(final TargetWithManifests<LaunchTarget> targetWithManifests,
-                                              final ImmutableList<ListenableFuture<AssetVerificationResult>> allFutures) {
+    /**
+     * Hash the selected assets in the background on a single non-daemon thread per device, so that hashing competes as
+     * little as possible with the application starting up but still completes after the launcher has finished its
+     * work. The executor services are shut down straight away so that their threads exit as soon as the verification
+     * has completed.
+     */
+    private void verifyTargetInBackground(final TargetWithManifests<LaunchTarget> targetWithManifests,
+                                          final ImmutableMap<File, StorageDevice> devices,
+                                          final ImmutableMap<File, Predicate<GrappleAsset>> hashSelection) {
+        logger.info("Deferring the hashing of assets until after the launch");
+        final DeviceSchedulers schedulers = new DeviceSchedulers(devices, 1, false, Thread.MIN_PRIORITY,
+                BACKGROUND_THREAD_NAME_PREFIX);
+        final ListenableFuture<List<VerificationSummary>> future = Futures.allAsList(
+                submitVerification(schedulers, targetWithManifests, hashSelection));
+        schedulers.shutdown();
+        Futures.addCallback(future, new FutureCallback<List<VerificationSummary>>() {
+            @Override
+            public void onSuccess(final List<VerificationSummary> summaries) {
+                logFailures(summaries);
+                recordFailures(summaries);
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                logger.log(Level.SEVERE, "Unknown exception during background verification", t);
+            }
+        });
+    }
+
+    private void recordFailures(final List<VerificationSummary> summaries) {
+        for (final VerificationSummary summary : summaries) {
+            if (summary.getFailures().isEmpty()) {
+                continue;
+            }
+            final FailedAssetRecord record = FailedAssetRecord.in(summary.getContentRoot());
+            try {
+                record.write(summary.getFailures());
+                logger.warning("Recorded background verification failures in " + record.getFile());
+            } catch (final IORuntimeException e) {
+                logger.log(Level.SEVERE, "Unable to record background verification failures in " + record.getFile(), e);
+            }
+        }
+    }
+
+    /**
+     * Log a summary of what was checked in each content root and the results that failed to verify
+     *
+     * @return true if any asset failed to verify
+     */
+    private boolean logFailures(final List<VerificationSummary> summaries) {
         boolean failed = false;
-        final ListenableFuture<List<AssetVerificationResult>> future = Futures.allAsList(allFutures);
-        try {
-            final List<AssetVerificationResult> results = future.get();
-            for (final AssetVerificationResult result : results) {
-                if (result.getOutcome() != AssetVerificationResult.Outcome.OK) {
-                    failed = true;
-                    final File contentRoot = targetWithManifests.getContentRoot(result.getManifest());
-                    logger.warning("Asset " + result.getAsset() + " in content root " + contentRoot +
-                            " failed to verify with outcome " + result.getOutcome());
-                }
+        for (final VerificationSummary summary : summaries) {
+            for (final AssetVerificationResult result : summary.getFailures()) {
+                logger.warning("Asset " + result.getAsset() + " in content root " + summary.getContentRoot() +
+                        " failed to verify with outcome " + result.getOutcome());
             }
+            logger.info(summary.toString());
+            failed |= summary.getFailed() > 0;
+        }
+        return failed;
+    }
+
+    private void ensureNoVerificationFailures(final ImmutableList<ListenableFuture<VerificationSummary>> allFutures) {
+        final boolean failed;
+        final ListenableFuture<List<VerificationSummary>> future = Futures.allAsList(allFutures);
+        try {
+            failed = logFailures(future.get());
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new AssertionError("bug");
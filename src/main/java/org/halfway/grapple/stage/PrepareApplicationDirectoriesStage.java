@@ -4,6 +4,8 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Range;
 import org.halfway.grapple.impl.RuntimeContext;
+import org.halfway.grapple.impl.VersionedContentRoot;
+import org.halfway.grapple.model.GrappleFatalException;
 import org.halfway.grapple.model.IORuntimeException;
 import org.halfway.grapple.model.configuration.Configuration;
 import org.halfway.grapple.util.DirectoryUpdateLock;
@@ -18,8 +20,18 @@ import java.io.File;
  * This stage will fail if:
  * <ol>
  * <li>Content root directories cannot be created</li>
- * <li>On Windows only, if the content root directories are in use</li>
+ * <li>On Windows only, if the content root directories are in use and are not versioned</li>
+ * <li>A rollback is requested but a content root has no previous version</li>
  * </ol>
+ * <p/>
+ * A {@link org.halfway.grapple.impl.VersionedContentRoot versioned content root} is expected to be in use while a new
+ * version is staged beside the running one, so it is not checked for use on Windows. When the launch is of the versions
+ * staged by the {@link org.halfway.grapple.GrappleDaemon daemon}, they are made current here.
+ * <p/>
+ * A {@link org.halfway.grapple.model.configuration.Configuration#isReadOnly() read-only} launch never writes to the
+ * content roots, so they must already exist and no locks are prepared for them. A
+ * {@link org.halfway.grapple.model.configuration.Configuration#isDryRun() dry run} only plans the update of the content
+ * roots as they are, so it does not create them, prepare locks for them or change their versions.
  */
 public class PrepareApplicationDirectoriesStage implements LauncherStage {
     private static final Range<Integer> PROGRESS_RANGE = Range.closed(0, 2);
@@ -49,14 +61,40 @@ public class PrepareApplicationDirectoriesStage implements LauncherStage {
         }
     }
 
+    private void ensureContentRootIsInstalled(final File contentRoot) {
+        if (!contentRoot.isDirectory()) {
+            throw new IORuntimeException("Content root of a read-only launch was not installed", contentRoot);
+        }
+    }
+
+    private void rollback(final File contentRoot) {
+        final Optional<String> version = VersionedContentRoot.in(contentRoot).rollback();
+        if (!version.isPresent()) {
+            throw new GrappleFatalException("There is no previous version of " + contentRoot + " to roll back to");
+        }
+    }
+
     @Override
     public void burn(RuntimeContext context) {
         context.getGuiApi().notifyProgress(progressRange().lowerEndpoint(), Optional.of("Preparing application directories..."));
         final ImmutableMap.Builder<File, DirectoryUpdateLock> lockMap = ImmutableMap.builder();
         for (final File contentRoot : configuration.getLaunchTarget().getContentRoots()) {
             ensureContentRootIsNotAFile(contentRoot);
+            if (configuration.isReadOnly()) {
+                ensureContentRootIsInstalled(contentRoot);
+                continue;
+            }
+            if (configuration.isDryRun()) {
+                continue;
+            }
             ensureContentRootExists(contentRoot);
-            lockMap.put(contentRoot, FileIO.directoryUpdateLock(contentRoot, configuration.isOnWindows()));
+            lockMap.put(contentRoot, FileIO.directoryUpdateLock(contentRoot,
+                    configuration.isOnWindows() && !configuration.isVersioned()));
+            if (configuration.isRollback()) {
+                rollback(contentRoot);
+            } else if (configuration.isLaunchStaged()) {
+                VersionedContentRoot.in(contentRoot).switchToStaged(configuration.getKeptVersions().get());
+            }
         }
 
         context.setDirLockMap(lockMap.build());
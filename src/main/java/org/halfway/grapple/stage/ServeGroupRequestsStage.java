@@ -0,0 +1,34 @@
+package org.halfway.grapple.stage;
+
+import com.google.common.collect.Range;
+import org.halfway.grapple.impl.GroupRequestServer;
+import org.halfway.grapple.impl.RuntimeContext;
+
+import java.util.logging.Logger;
+
+/**
+ * Stage that serves the optional groups requested by the launched application until it exits.
+ */
+public class ServeGroupRequestsStage implements LauncherStage {
+    private static final Logger logger = Logger.getLogger(ServeGroupRequestsStage.class.getName());
+    private static final Range<Integer> PROGRESS_RANGE = Range.closed(100, 100);
+
+    @Override
+    public Range<Integer> progressRange() {
+        return PROGRESS_RANGE;
+    }
+
+    @Override
+    public void burn(final RuntimeContext context) {
+        if (!context.getGroupRequestServer().isPresent()) {
+            return;
+        }
+        final GroupRequestServer server = context.getGroupRequestServer().get();
+        if (!context.getApplicationProcess().isPresent()) {
+            logger.info("Not serving group requests as the application is not running as a separate process");
+            server.close();
+            return;
+        }
+        server.serveUntilExit(context.getApplicationProcess().get());
+    }
+}
@@ -0,0 +1,96 @@
+package org.halfway.grapple.stage;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import org.halfway.grapple.impl.RuntimeContext;
+import org.halfway.grapple.impl.TargetWithManifests;
+import org.halfway.grapple.impl.VersionedContentRoot;
+import org.halfway.grapple.model.GrappleFatalException;
+import org.halfway.grapple.model.IORuntimeException;
+import org.halfway.grapple.model.configuration.Configuration;
+import org.halfway.grapple.model.configuration.LaunchTarget;
+import org.halfway.grapple.util.DirectoryUpdateLock;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stage that makes the versions installed by the update current in their
+ * {@link org.halfway.grapple.impl.VersionedContentRoot}s. It runs once the versions have been verified and their
+ * manifests written, so the pointer of a content root only ever names a complete version. The
+ * {@link org.halfway.grapple.GrappleDaemon daemon} only stages the versions, and the next launch switches to them.
+ * <p/>
+ * The versions that an earlier switch stopped keeping are then deleted, but only while the content root is locked so
+ * that a version being staged by another instance is left alone. The update normally still holds the lock at this point.
+ * <p/>
+ * A progressive launcher that left the update to another launcher launches the version being staged without switching
+ * to it, as the other launcher switches once the version is complete.
+ */
+public class SwitchVersionStage implements LauncherStage {
+    private static final Logger logger = Logger.getLogger(SwitchVersionStage.class.getName());
+    private static final Range<Integer> PROGRESS_RANGE = Range.closed(97, 97);
+
+    private final Configuration configuration;
+
+    public SwitchVersionStage(final Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    public Range<Integer> progressRange() {
+        return PROGRESS_RANGE;
+    }
+
+    @Override
+    public void burn(final RuntimeContext context) {
+        if (!configuration.isVersioned() || configuration.isOfflineMode() || context.isUpdateLeftToOtherLauncher()) {
+            return;
+        }
+        context.getGuiApi().notifyProgress(progressRange().lowerEndpoint(), Optional.of("Switching versions..."));
+        final TargetWithManifests<LaunchTarget> targetWithManifests = context.getTargetWithManifest();
+        final LaunchTarget configuredTarget = configuration.getLaunchTarget();
+        for (int i = 0; i < configuredTarget.getContentRoots().size(); i++) {
+            final File contentRoot = configuredTarget.getContentRoots().get(i);
+            final File versionDirectory = targetWithManifests.getTarget().getContentRoots().get(i);
+            final VersionedContentRoot versioned = VersionedContentRoot.in(contentRoot);
+            try {
+                if (configuration.isDaemon()) {
+                    versioned.stage(versionDirectory.getName());
+                } else {
+                    versioned.switchTo(versionDirectory.getName(), configuration.getKeptVersions().get());
+                }
+            } catch (final IORuntimeException e) {
+                logger.log(Level.SEVERE, "Unable to switch " + contentRoot + " to " + versionDirectory, e);
+                throw new GrappleFatalException("Error while switching to the new version");
+            }
+            pruneIfUnlocked(context, versioned);
+        }
+        context.getGuiApi().notifyProgress(progressRange().upperEndpoint(), Optional.<String>absent());
+    }
+
+    private void pruneIfUnlocked(final RuntimeContext context, final VersionedContentRoot versioned) {
+        if (context.hasDirLockMap() && context.getDirLockMap().containsKey(versioned.getContentRoot())) {
+            // a lock already held by this launcher succeeds straight away, and is released by CompleteUpdateStage
+            if (context.getDirLockMap().get(versioned.getContentRoot()).lock()) {
+                versioned.prune();
+            } else {
+                logger.info("Not deleting old versions of " + versioned.getContentRoot() + " while it is being updated");
+            }
+            return;
+        }
+        final DirectoryUpdateLock lock = FileIO.directoryUpdateLock(versioned.getContentRoot(), false);
+        if (!lock.lock()) {
+            logger.info("Not deleting old versions of " + versioned.getContentRoot() + " while it is being updated");
+            lock.close();
+            return;
+        }
+        try {
+            versioned.prune();
+        } finally {
+            DirectoryUpdateLock.unlockAllAndClose(ImmutableList.of(lock));
+        }
+    }
+}
@@ -2,10 +2,9 @@ package org.halfway.grapple.stage;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.*;
-import com.google.common.hash.HashCode;
-import com.google.common.hash.Hasher;
-import com.google.common.io.ByteSink;
 import com.google.common.util.concurrent.*;
 import org.halfway.grapple.gui.GrappleGuiApi;
 import org.halfway.grapple.impl.*;
@@ -18,43 +17,62 @@ import org.halfway.grapple.model.manifest.GrappleManifest;
 import org.halfway.grapple.util.*;
 
 import java.io.File;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The update stage verifies and downloads files as necessary.
+ * <p/>
+ * For a progressive launch, only the assets of the launch-critical
+ * {@link org.halfway.grapple.model.manifest.AssetGroup asset groups} are updated before the stage completes. The rest
+ * are then updated at low priority in the background while the content roots stay locked, and
+ * {@link org.halfway.grapple.stage.BackgroundUpdateStage} waits for them after the launch.
+ * <p/>
+ * Every asset that is up to date is recorded in the {@link org.halfway.grapple.impl.UpdateJournal} of its content
+ * root, so that an update of the same manifest that was interrupted does not hash the recorded assets again.
+ * <p/>
+ * Each content root is updated by executing the {@link org.halfway.grapple.impl.UpdatePlan} of its
+ * {@link org.halfway.grapple.impl.UpdatePlanner}. The steps are normally executed as soon as they are planned, so that
+ * the workers start while the content root is still being scanned. A plan is completed before any of it is executed
+ * when it has to be checked against the update budget, and a dry run only plans the update.
+ * <p/>
+ * Extra files are moved into the {@link org.halfway.grapple.impl.TrashDirectory} of their content root rather than
+ * deleted, and the directories they leave empty are pruned once the update has completed. The trash is emptied after
+ * the launch by {@link org.halfway.grapple.stage.EmptyTrashStage}.
+ * <p/>
+ * The content roots stay locked once updated until {@link org.halfway.grapple.stage.CompleteUpdateStage} has marked
+ * the update as complete, after its manifests are written and its versions switched.
+ * <p/>
+ * A launcher that finds the content roots locked by another one waits for the lock with an
+ * {@link org.halfway.grapple.impl.UpdateLockWaiter} rather than failing. The content roots that the other launcher
+ * updated to the same manifest while this one was waiting are launched as they are, so that launchers started together
+ * only update the content roots once. A progressive launcher stops waiting as soon as the other launcher has updated the
+ * launch-critical assets of the same manifests, and launches them without the lock, leaving the rest of the update to
+ * the other launcher.
  */
 public class UpdateStage implements LauncherStage {
     private static final Logger logger = Logger.getLogger(UpdateStage.class.getName());
     private static final Range<Integer> PROGRESS_RANGE = Range.closed(5, 95);
-    private static final int PROGRESS_DELETE_EXTRA = PROGRESS_RANGE.lowerEndpoint() + 2;
-    private static final int PROGRESS_MKDIRS = PROGRESS_RANGE.lowerEndpoint() + 4;
     private static final int PROGRESS_DOWNLOAD_START = PROGRESS_RANGE.lowerEndpoint() + 5;
-    private static final ImmutableSet<String> IGNORE_DELETE = ImmutableSet.of(GrapplePropertiesManifest.PROPERTIES_FILE, DirectoryUpdateLock.NAME);
-    private static final String THREAD_NAME_FORMAT = "update-stage-%1$s";
-    private static final String SINGLE_THREAD_NAME_FORMAT = "update-callback-%1$s";
+    private static final String THREAD_NAME_PREFIX = "update-stage";
+    private static final String BACKGROUND_THREAD_NAME_PREFIX = "background-update";
+    private static final int BACKGROUND_PROGRESS_STEPS = 10;
+    /**
+     * Number of workers per processor that hash and download assets, which mostly wait on the disk and the network
+     */
+    public static final int UPDATE_WORKERS_PER_PROCESSOR = 4;
 
     private final Configuration configuration;
     private final UrlDownloader urlDownloader;
-    private final ExecutorServiceBuilder executorServiceBuilder;
-    private final ExecutorService singleThreadExecutor;
 
     public UpdateStage(final Configuration configuration, final UrlDownloader urlDownloader) {
         this.configuration = configuration;
         this.urlDownloader = urlDownloader;
-        this.executorServiceBuilder = new ExecutorServiceBuilder()
-                .withThreadFactoryBuilder(Optional.of(new ThreadFactoryBuilder().setNameFormat(THREAD_NAME_FORMAT)))
-                .withPoolSize(configuration.getThreadPoolSize());
-        this.singleThreadExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
-                .setDaemon(true)
-                .setNameFormat(SINGLE_THREAD_NAME_FORMAT)
-                .build());
     }
 
     @Override
@@ -63,21 +81,8 @@ public class UpdateStage implements LauncherStage {
     }
 
 
-    private ImmutableMap<File, ImmutableMap<String, Long>> getFilesUnderContentRoots(final ImmutableList<File> contentRoots) {
-        final ImmutableMap.Builder<File, ImmutableMap<String, Long>> map = ImmutableMap.builder();
-        for (final File contentRoot : contentRoots) {
-            final ImmutableMap.Builder<String, Long> fileSizeMap = ImmutableMap.builder();
-            for (final File file : FileIO.findInDirectory(contentRoot)) {
-                final String path = FileIO.relativize(contentRoot, file);
-                final long size = file.length();
-                fileSizeMap.put(path, size);
-            }
-            map.put(contentRoot, fileSizeMap.build());
-        }
-        return map.build();
-    }
-
-    private PercentageCounter guiPercentageCounter(final GrappleGuiApi guiApi, final long totalSize) {
+    private PercentageCounter guiPercentageCounter(final GrappleGuiApi guiApi, final UpdateStatusWriter statusWriter,
+                                                   final long totalSize) {
         final long lower = PROGRESS_DOWNLOAD_START;
         final double scale = (double) (PROGRESS_RANGE.upperEndpoint() - lower) / 100.0d;
         final AtomicInteger currentProgress = new AtomicInteger(0);
@@ -91,236 +96,662 @@ public class UpdateStage implements LauncherStage {
                 } else {
                     guiApi.notifyProgress(newProgress, Optional.<String>absent());
                 }
+                statusWriter.write(UpdateStatus.State.updating, (int) Math.min(100, Math.round(100 * newPercentage)));
                 return null;
             }
         });
     }
 
-    private void update(final RuntimeContext context) {
+    /**
+     * The status of the background update is written as well, so that the launchers waiting for it see it advance. The
+     * content roots are launchable throughout, so that progressive launchers stop waiting for them
+     */
+    private PercentageCounter backgroundPercentageCounter(final UpdateStatusWriter statusWriter, final long totalSize) {
+        final AtomicInteger reportedStep = new AtomicInteger(0);
+        return new PercentageCounter(totalSize, new Function<Double, Object>() {
+            @Override
+            public Object apply(Double newPercentage) {
+                final int step = (int) (BACKGROUND_PROGRESS_STEPS * newPercentage);
+                final int oldStep = reportedStep.get();
+                if (step > oldStep && reportedStep.compareAndSet(oldStep, step)) {
+                    logger.info("Background update " + (100 * step / BACKGROUND_PROGRESS_STEPS) + "% complete");
+                }
+                statusWriter.write(UpdateStatus.State.launchable,
+                        (int) Math.min(100, Math.round(100 * newPercentage)));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @param waitedSince The time at which this launcher started waiting for another one to update the content roots,
+     *                    if it had to
+     * @return true if the assets that are not launch-critical are still being updated in the background
+     * @see org.halfway.grapple.impl.RuntimeContext#getUpdatedManifestHashMap()
+     */
+    private boolean update(final RuntimeContext context, final Optional<Long> waitedSince) {
         final TargetWithManifests<LaunchTarget> targetWithManifests = context.getTargetWithManifest();
-        final ImmutableMap<File, URL> baseUrlMap = context.getBaseUrlMap();
-        final long totalSize = targetWithManifests.getTotalFileSize();
-        logger.info("Manifest(s) specify " + totalSize + " bytes in total");
+        final ImmutableMap<File, File> configuredRoots = configuredContentRoots(targetWithManifests);
+        final ImmutableMap<File, String> manifestHashes = context.getFetchedManifestHashMap();
+        final ImmutableMap<File, GrappleManifest> manifestMap = withoutUpdatedContentRoots(
+                buildContentRootManifestMap(targetWithManifests), manifestHashes, configuredRoots, waitedSince);
+        if (manifestMap.isEmpty()) {
+            logger.info("Another launcher updated the content roots while waiting, launching them as they are");
+            return false;
+        }
+        final UpdateStatusWriter statusWriter = UpdateStatusWriter.forUpdatedRoots(configuredRoots, manifestHashes,
+                manifestMap.keySet());
+        statusWriter.write(UpdateStatus.State.updating, 0);
+        final DeviceSchedulers schedulers = newSchedulers(targetWithManifests, manifestMap);
+        final ImmutableMap.Builder<File, ImmutableMap<String, String>> completedAssets = ImmutableMap.builder();
+        final ImmutableMap<File, UpdateJournal> journals = openJournals(manifestHashes, manifestMap, completedAssets);
+        boolean inBackground = false;
+        boolean updated = false;
+        try {
+            final ImmutableList<ContentRootUpdate> updates;
+            try {
+                updates = newContentRootUpdates(context, manifestMap, completedAssets.build(), journals, true);
+                final long criticalSize = criticalSizeOf(updates);
+                logger.info("Manifest(s) specify " + targetWithManifests.getTotalFileSize() + " bytes in total" +
+                        (configuration.isProgressiveLaunch() ? ", of which " + criticalSize +
+                                " bytes are launch-critical" : ""));
+                // an update with a budget is planned in full before anything is changed
+                if (configuration.getUpdateBudget().isPresent()) {
+                    checkBudget(planAll(schedulers, updates));
+                }
+                context.getGuiApi().notifyProgress(PROGRESS_DOWNLOAD_START, Optional.<String>absent());
+                verifyAndDownloadFiles(schedulers, context.getGuiApi(), statusWriter, criticalSize, updates);
+            } finally {
+                if (!schedulers.shutdownAndAwaitTermination(1, TimeUnit.SECONDS)) {
+                    throw new GrappleFatalException("BUG: Unable to shut down executor service");
+                }
+            }
+            final ImmutableList.Builder<ContentRootUpdate> deferredBuilder = ImmutableList.builder();
+            final ImmutableList.Builder<File> completedRoots = ImmutableList.builder();
+            for (final ContentRootUpdate update : updates) {
+                if (update.getDeferredActions().isEmpty()) {
+                    completedRoots.add(update.getContentRoot());
+                } else {
+                    deferredBuilder.add(update);
+                }
+            }
+            final ImmutableList<ContentRootUpdate> deferred = deferredBuilder.build();
+            clearFailedAssetRecords(completedRoots.build());
+            if (deferred.isEmpty()) {
+                recordThroughputs(updates);
+                context.setUpdatedManifestHashMap(statusWriter.getManifestHashes());
+                updated = true;
+                return false;
+            }
+            statusWriter.write(UpdateStatus.State.launchable, 0);
+            final ListenableFuture<List<VerificationSummary>> backgroundUpdate = updateInBackground(statusWriter,
+                    deferred);
+            backgroundUpdate.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    closeJournals(journals);
+                    recordThroughputs(updates);
+                }
+            }, MoreExecutors.directExecutor());
+            context.setBackgroundUpdate(backgroundUpdate);
+            context.setUpdatedManifestHashMap(statusWriter.getManifestHashes());
+            inBackground = true;
+            return true;
+        } finally {
+            if (!inBackground) {
+                closeJournals(journals);
+                if (!updated) {
+                    statusWriter.write(UpdateStatus.State.failed, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the update of each content root, with the assets it selects to hash, link and launch with
+     *
+     * @param completedAssets The assets that an interrupted update of the same manifest completed, by content root
+     * @param journals        The journals of the content roots that have one
+     * @param advance         Controls whether the launch counter of sampled verification is advanced
+     */
+    private ImmutableList<ContentRootUpdate> newContentRootUpdates(
+            final RuntimeContext context, final ImmutableMap<File, GrappleManifest> manifestMap,
+            final ImmutableMap<File, ImmutableMap<String, String>> completedAssets,
+            final ImmutableMap<File, UpdateJournal> journals, final boolean advance) {
+        final ImmutableMap<File, File> configuredRoots = configuredContentRoots(context.getTargetWithManifest());
+        final ImmutableMap<File, Predicate<GrappleAsset>> hashSelection = selectAssetsToHash(manifestMap,
+                context.getChangedAssetMap(), completedAssets, advance);
+        final ImmutableMap<File, Predicate<GrappleAsset>> linkSelection = selectAssetsToLink(
+                context.getPreviousVersionMap(), context.getChangedAssetMap());
+        final ImmutableMap<File, Predicate<GrappleAsset>> criticalSelection = selectCriticalAssets(manifestMap);
+        final ImmutableList.Builder<ContentRootUpdate> updates = ImmutableList.builder();
+        for (final Map.Entry<File, GrappleManifest> entry : manifestMap.entrySet()) {
+            final File contentRoot = entry.getKey();
+            final File configuredRoot = configuredRoots.get(contentRoot);
+            updates.add(new ContentRootUpdate(contentRoot, configuredRoot, entry.getValue(),
+                    context.getBaseUrlMap().get(contentRoot), hashSelection.get(contentRoot),
+                    linkSelection.containsKey(contentRoot) ?
+                            Optional.of(context.getPreviousVersionMap().get(contentRoot)) : Optional.<File>absent(),
+                    canLink(linkSelection, contentRoot), Optional.fromNullable(criticalSelection.get(contentRoot)),
+                    UpdateThroughput.in(configuredRoot), Optional.fromNullable(journals.get(contentRoot)),
+                    TrashDirectory.in(configuredRoot)));
+        }
+        return updates.build();
+    }
+
+    /**
+     * @return The hash of the manifest fetched for each configured content root when launching progressively, at
+     * which another launcher can make the content roots launchable while this one waits for them
+     */
+    private Optional<ImmutableMap<File, String>> launchableHashes(final RuntimeContext context) {
+        if (!configuration.isProgressiveLaunch()) {
+            return Optional.absent();
+        }
+        final ImmutableMap<File, File> configuredRoots = configuredContentRoots(context.getTargetWithManifest());
+        final ImmutableMap<File, String> manifestHashes = context.getFetchedManifestHashMap();
+        return Optional.of(UpdateStatusWriter.forUpdatedRoots(configuredRoots, manifestHashes,
+                manifestHashes.keySet()).getManifestHashes());
+    }
 
+    /**
+     * Leave out the content roots that another launcher updated to the same manifest while this one was waiting
+     */
+    private static ImmutableMap<File, GrappleManifest> withoutUpdatedContentRoots(
+            final ImmutableMap<File, GrappleManifest> manifestMap, final ImmutableMap<File, String> manifestHashes,
+            final ImmutableMap<File, File> configuredRoots, final Optional<Long> waitedSince) {
+        if (!waitedSince.isPresent()) {
+            return manifestMap;
+        }
+        final ImmutableMap.Builder<File, GrappleManifest> map = ImmutableMap.builder();
+        for (final Map.Entry<File, GrappleManifest> entry : manifestMap.entrySet()) {
+            final Optional<UpdateStatus> status = UpdateStatus.in(configuredRoots.get(entry.getKey()));
+            if (status.isPresent() && status.get().isUpdatedTo(manifestHashes.get(entry.getKey()), waitedSince.get())) {
+                logger.info("Not verifying " + entry.getKey() + " again as another launcher just updated it");
+            } else {
+                map.put(entry);
+            }
+        }
+        return map.build();
+    }
+
+    /**
+     * Plan the update of the content roots without changing them, for a dry run
+     */
+    private ImmutableMap<File, UpdatePlan> plan(final RuntimeContext context) {
+        final TargetWithManifests<LaunchTarget> targetWithManifests = context.getTargetWithManifest();
         final ImmutableMap<File, GrappleManifest> manifestMap = buildContentRootManifestMap(targetWithManifests);
-        final ImmutableMap<File, ImmutableMap<String, Long>> manifestSizeMap = buildManifestSizeMap(manifestMap);
-        final ImmutableMap<File, ImmutableMap<String, Long>> currentSizeMap = getFilesUnderContentRoots(
-                targetWithManifests.getTarget().getContentRoots());
+        final ImmutableMap.Builder<File, ImmutableMap<String, String>> completedAssets = ImmutableMap.builder();
+        for (final Map.Entry<File, GrappleManifest> entry : manifestMap.entrySet()) {
+            completedAssets.put(entry.getKey(), UpdateJournal.in(entry.getKey()).readCompleted(
+                    context.getFetchedManifestHashMap().get(entry.getKey())));
+        }
+        final ImmutableList<ContentRootUpdate> updates = newContentRootUpdates(context, manifestMap,
+                completedAssets.build(), ImmutableMap.<File, UpdateJournal>of(), false);
+        final DeviceSchedulers schedulers = newSchedulers(targetWithManifests, manifestMap);
+        try {
+            return planAll(schedulers, updates);
+        } finally {
+            if (!schedulers.shutdownAndAwaitTermination(1, TimeUnit.SECONDS)) {
+                throw new GrappleFatalException("BUG: Unable to shut down executor service");
+            }
+        }
+    }
+
+    private DeviceSchedulers newSchedulers(final TargetWithManifests<LaunchTarget> targetWithManifests,
+                                           final ImmutableMap<File, GrappleManifest> manifestMap) {
+        final ImmutableList<File> contentRoots = targetWithManifests.getTarget().getContentRoots();
+        return new DeviceSchedulers(
+                StorageDevice.of(ImmutableSet.copyOf(Iterables.concat(contentRoots, manifestMap.keySet())),
+                        configuration.getStorageProfile()),
+                updateWorkers(), true, configuration.isDaemon() ? Thread.MIN_PRIORITY : Thread.NORM_PRIORITY,
+                THREAD_NAME_PREFIX);
+    }
 
-        final ImmutableMap<File, MapDifference<String, Long>> manifestCurrentDifferenceMap = computeMapDifference(manifestSizeMap, currentSizeMap);
+    private int updateWorkers() {
+        return ExecutorServiceBuilder.workerCount(configuration.getThreadPoolSize(), UPDATE_WORKERS_PER_PROCESSOR);
+    }
 
-        context.getGuiApi().notifyProgress(PROGRESS_DELETE_EXTRA, Optional.<String>absent());
-        deleteExtraFiles(manifestCurrentDifferenceMap);
+    /**
+     * Plan the update of every content root in full, which the update then executes
+     */
+    private ImmutableMap<File, UpdatePlan> planAll(final DeviceSchedulers schedulers,
+                                                   final ImmutableList<ContentRootUpdate> updates) {
+        final ImmutableMap.Builder<File, UpdatePlan> plans = ImmutableMap.builder();
+        for (final ContentRootUpdate update : updates) {
+            final UpdatePlan plan = new UpdatePlanner(new DirectoryScanner(
+                    schedulers.serviceForContentRoot(update.getContentRoot())))
+                    .plan(update.getManifest().getAssets(), update.getContentRoot(), update.getHashSelection(), update.getLinkSelection(),
+                            update.getThroughput(), updateWorkers());
+            logger.info("Planned " + plan);
+            update.setPlan(plan);
+            plans.put(update.getContentRoot(), plan);
+        }
+        return plans.build();
+    }
 
-        context.getGuiApi().notifyProgress(PROGRESS_MKDIRS, Optional.<String>absent());
-        createMissingDirectories(manifestMap);
+    /**
+     * @return The plans, if they download no more than the update budget
+     * @throws org.halfway.grapple.model.GrappleFatalException if the plans download more than the budget
+     */
+    private ImmutableMap<File, UpdatePlan> checkBudget(final ImmutableMap<File, UpdatePlan> plans) {
+        long downloadBytes = 0;
+        long estimatedMillis = 0;
+        for (final UpdatePlan plan : plans.values()) {
+            downloadBytes += plan.bytes(UpdatePlan.Action.download);
+            estimatedMillis = Math.max(estimatedMillis, plan.getEstimatedMillis());
+        }
+        final long budget = configuration.getUpdateBudget().get();
+        if (downloadBytes > budget) {
+            throw new GrappleFatalException("The update would download " + downloadBytes + " bytes in about " +
+                    TimeUnit.MILLISECONDS.toSeconds(estimatedMillis) + " seconds, more than the budget of " + budget +
+                    " bytes");
+        }
+        logger.info("The update downloads " + downloadBytes + " bytes of the budget of " + budget + " bytes");
+        return plans;
+    }
 
-        context.getGuiApi().notifyProgress(PROGRESS_DOWNLOAD_START, Optional.<String>absent());
-        verifyAndDownloadFiles(context.getGuiApi(), baseUrlMap, totalSize, manifestMap, manifestCurrentDifferenceMap);
+    private static Predicate<GrappleAsset> canLink(final ImmutableMap<File, Predicate<GrappleAsset>> linkSelection,
+                                                   final File contentRoot) {
+        return linkSelection.containsKey(contentRoot) ? linkSelection.get(contentRoot) :
+                Predicates.<GrappleAsset>alwaysFalse();
     }
 
-    private void verifyAndDownloadFiles(final GrappleGuiApi guiApi, final ImmutableMap<File, URL> baseUrlMap,
-                                        final long totalSize, final ImmutableMap<File, GrappleManifest> manifestMap,
-                                        final ImmutableMap<File, MapDifference<String, Long>> manifestCurrentDifferenceMap) {
-        final PercentageCounter counter = guiPercentageCounter(guiApi, totalSize);
-        final AtomicBoolean stepFailed = new AtomicBoolean(false);
-        final ListeningExecutorService service = executorServiceBuilder.newListeningExecutorService();
-        try {
-            final ImmutableMap<File, ImmutableList<ListenableFuture<AssetVerificationResult>>> futureMap =
-                    scheduleUpdateActions(service, manifestMap, manifestCurrentDifferenceMap, baseUrlMap);
-            final ImmutableList.Builder<ListenableFuture<AssetVerificationResult>> allFuturesBuilder = ImmutableList.builder();
-            for (final Map.Entry<File, ImmutableList<ListenableFuture<AssetVerificationResult>>> entry : futureMap.entrySet()) {
-                final File contentRoot = entry.getKey();
-                final ImmutableList<ListenableFuture<AssetVerificationResult>> resultFutures = entry.getValue();
-                final FutureCallback<AssetVerificationResult> callback = makeVerificationCompleteCallback(counter, stepFailed, contentRoot);
-
-                for (final ListenableFuture<AssetVerificationResult> resultFuture : resultFutures) {
-                    Futures.addCallback(resultFuture, callback, singleThreadExecutor);
-                    allFuturesBuilder.add(resultFuture);
-                }
-            }
+    /**
+     * @return The map of the content roots being updated to the configured content roots they belong to, which differ
+     * for versioned content roots that are being updated in the directory of a new version
+     */
+    private ImmutableMap<File, File> configuredContentRoots(final TargetWithManifests<LaunchTarget> targetWithManifests) {
+        final ImmutableList<File> contentRoots = targetWithManifests.getTarget().getContentRoots();
+        final ImmutableList<File> configuredRoots = configuration.getLaunchTarget().getContentRoots();
+        final Map<File, File> map = Maps.newLinkedHashMap();
+        for (int i = 0; i < contentRoots.size(); i++) {
+            map.put(contentRoots.get(i), configuredRoots.get(i));
+        }
+        return ImmutableMap.copyOf(map);
+    }
 
+    /**
+     * The throughput is measured in the configured content roots, so that it is kept from one version to the next
+     */
+    private static void recordThroughputs(final ImmutableList<ContentRootUpdate> updates) {
+        for (final ContentRootUpdate update : updates) {
             try {
-                Futures.allAsList(allFuturesBuilder.build()).get();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new AssertionError("bug");
-            } catch (ExecutionException e) {
-                logger.log(Level.SEVERE, "Unknown error during update task", e);
-                throw new GrappleFatalException("Update process failed for unknown reason");
+                update.getThroughput().updatedWith(update.getMeter()).writeTo(update.getConfiguredRoot());
+            } catch (final IORuntimeException e) {
+                logger.log(Level.WARNING, "Unable to record the update throughput of " + update.getConfiguredRoot(), e);
             }
-        } finally {
-            if (!MoreExecutors.shutdownAndAwaitTermination(service, 1, TimeUnit.SECONDS)) {
-                throw new GrappleFatalException("BUG: Unable to shut down executor service");
+        }
+    }
+
+    /**
+     * Open the journal of each content root for the manifest fetched for it, carrying on without the journal of a
+     * content root where it cannot be opened
+     *
+     * @param manifestHashes  The hash of the manifest fetched for each content root, which is the one written to the
+     *                        content root once the update completes
+     * @param completedAssets Receives the assets that an interrupted update of the same manifest completed, by path
+     */
+    private static ImmutableMap<File, UpdateJournal> openJournals(
+            final ImmutableMap<File, String> manifestHashes,
+            final ImmutableMap<File, GrappleManifest> manifestMap,
+            final ImmutableMap.Builder<File, ImmutableMap<String, String>> completedAssets) {
+        final ImmutableMap.Builder<File, UpdateJournal> journals = ImmutableMap.builder();
+        for (final File contentRoot : manifestMap.keySet()) {
+            final UpdateJournal journal = UpdateJournal.in(contentRoot);
+            try {
+                completedAssets.put(contentRoot, journal.open(manifestHashes.get(contentRoot)));
+                journals.put(contentRoot, journal);
+            } catch (final IORuntimeException e) {
+                logger.log(Level.WARNING, "Updating " + contentRoot + " without a journal", e);
             }
         }
+        return journals.build();
+    }
 
-        if (stepFailed.get()) {
-            throw new GrappleFatalException("Update process failed because one or more files failed verification");
+    private static void closeJournals(final ImmutableMap<File, UpdateJournal> journals) {
+        for (final UpdateJournal journal : journals.values()) {
+            journal.close();
         }
     }
 
-    private FutureCallback<AssetVerificationResult> makeVerificationCompleteCallback(
-            final PercentageCounter counter, final AtomicBoolean stepFailed, final File contentRoot) {
-        return new
-                FutureCallback<AssetVerificationResult>() {
-                    @Override
-                    public void onSuccess(final AssetVerificationResult result) {
-                        switch (result.getOutcome()) {
-                            case OK:
-                                counter.addToTotal(result.getAsset().getSize());
-                                break;
-                            case HashDiffers:
-                                logger.warning("Downloaded hash differs for " + result.getAsset().getPath() + " under " + contentRoot);
-                                stepFailed.set(true);
-                                break;
-                            case SizeDiffers:
-                                logger.warning("Downloaded size differs for " + result.getAsset().getPath() + " under " + contentRoot);
-                                stepFailed.set(true);
-                                break;
-                            case MissingFile:
-                                logger.warning("Asset " + result.getAsset().getPath() + " missing on server");
-                                stepFailed.set(true);
-                                break;
-                        }
-                    }
+    /**
+     * Select the launch-critical assets of each manifest that has critical groups, when launching progressively.
+     * Content roots that are not in the map are updated in full before the launch
+     */
+    private ImmutableMap<File, Predicate<GrappleAsset>> selectCriticalAssets(
+            final ImmutableMap<File, GrappleManifest> manifestMap) {
+        final ImmutableMap.Builder<File, Predicate<GrappleAsset>> map = ImmutableMap.builder();
+        if (!configuration.isProgressiveLaunch()) {
+            return map.build();
+        }
+        for (final Map.Entry<File, GrappleManifest> entry : manifestMap.entrySet()) {
+            final Optional<Predicate<GrappleAsset>> critical = AssetGroupSelection.criticalAssets(entry.getValue());
+            if (critical.isPresent()) {
+                map.put(entry.getKey(), critical.get());
+            }
+        }
+        return map.build();
+    }
 
-                    @Override
-                    public void onFailure(final Throwable t) {
-                        logger.log(Level.SEVERE, "Failed during update stage with unknown error", t);
-                        stepFailed.set(true);
-                    }
-                };
+    private static long criticalSizeOf(final ImmutableList<ContentRootUpdate> updates) {
+        long size = 0;
+        for (final ContentRootUpdate update : updates) {
+            size += update.criticalSize();
+        }
+        return size;
     }
 
-    private void createMissingDirectories(ImmutableMap<File, GrappleManifest> manifestMap) {
-        for (final Map.Entry<File, GrappleManifest> entry : manifestMap.entrySet()) {
-            final File contentRoot = entry.getKey();
-            final GrappleManifest manifest = entry.getValue();
-            for (final GrappleAsset asset : manifest.getAssets()) {
-                final File file = new File(contentRoot, asset.getPath());
-                final File parentDirectory = new File(file.getParent());
-                if (!parentDirectory.exists()) {
-                    if (!parentDirectory.mkdirs()) {
-                        logger.warning("Failed to create directory " + parentDirectory);
-                    }
+    /**
+     * Run the actions deferred by a progressive launch on a low priority scheduler per device, which is shut down
+     * straight away so that its threads exit as soon as the update has completed
+     */
+    private ListenableFuture<List<VerificationSummary>> updateInBackground(
+            final UpdateStatusWriter statusWriter, final ImmutableList<ContentRootUpdate> deferred) {
+        long totalSize = 0;
+        int assets = 0;
+        final ImmutableList.Builder<File> contentRoots = ImmutableList.builder();
+        for (final ContentRootUpdate update : deferred) {
+            totalSize += update.deferredSize();
+            assets += update.getDeferredActions().size();
+            contentRoots.add(update.getContentRoot());
+        }
+        logger.info("Updating " + assets + " assets of " + totalSize + " bytes in the background");
+        final DeviceSchedulers schedulers = new DeviceSchedulers(
+                StorageDevice.of(contentRoots.build(), configuration.getStorageProfile()),
+                ExecutorServiceBuilder.workerCount(configuration.getThreadPoolSize(), UPDATE_WORKERS_PER_PROCESSOR),
+                true, Thread.MIN_PRIORITY, BACKGROUND_THREAD_NAME_PREFIX);
+        final PercentageCounter counter = backgroundPercentageCounter(statusWriter, totalSize);
+        final ImmutableList.Builder<ListenableFuture<VerificationSummary>> futures = ImmutableList.builder();
+        for (final ContentRootUpdate update : deferred) {
+            final BatchedAssetScheduler.AssetStream stream = schedulers.forContentRoot(update.getContentRoot()).newStream(
+                    update.deferredSize(), new VerificationSummary(update.getContentRoot()),
+                    newProgressListener(counter, update));
+            for (final ContentRootUpdate.AssetAction action : update.getDeferredActions()) {
+                stream.add(action.getAsset(), action.getTask());
+            }
+            futures.add(stream.finish());
+        }
+        schedulers.shutdown();
+        return Futures.allAsList(futures.build());
+    }
+
+    /**
+     * Every asset recorded as failed has been hashed or downloaded again by now regardless of the verification policy
+     *
+     * @see #selectAssetsToHash(com.google.common.collect.ImmutableMap, com.google.common.collect.ImmutableMap,
+     * com.google.common.collect.ImmutableMap)
+     */
+    static void clearFailedAssetRecords(final Iterable<File> contentRoots) {
+        for (final File contentRoot : contentRoots) {
+            final FailedAssetRecord record = FailedAssetRecord.in(contentRoot);
+            if (record.exists()) {
+                logger.info("Repaired the assets recorded in " + record.getFile());
+                if (!record.clear()) {
+                    logger.warning("Unable to delete " + record.getFile());
                 }
             }
         }
     }
 
-    private ImmutableMap<File, ImmutableList<ListenableFuture<AssetVerificationResult>>> scheduleUpdateActions(
-            final ListeningExecutorService service, final ImmutableMap<File, GrappleManifest> manifestMap,
-            final ImmutableMap<File, MapDifference<String, Long>> fileMapDifferenceMap,
-            final ImmutableMap<File, URL> baseUrlMap) {
-        final ImmutableMap.Builder<File, ImmutableList<ListenableFuture<AssetVerificationResult>>> map = ImmutableMap.builder();
-        for (final Map.Entry<File, GrappleManifest> entry : manifestMap.entrySet()) {
-            final File contentRoot = entry.getKey();
-            final GrappleManifest manifest = entry.getValue();
-            final ManifestHasher hasher = ManifestHasher.fromAlgorithm(manifest.getHashAlgorithm());
-            final MapDifference<String, Long> fileDifference = fileMapDifferenceMap.get(contentRoot);
-            final URL baseUrl = baseUrlMap.get(contentRoot);
-            final ImmutableList.Builder<ListenableFuture<AssetVerificationResult>> futuresBuilder = ImmutableList.builder();
-            for (final GrappleAsset asset : manifest.getAssets()) {
-                final ListenableFuture<AssetVerificationResult> resultFuture = service.submit(
-                        newVerificationOrDownloadCallable(baseUrl, contentRoot, manifest, asset, hasher, fileDifference));
-                futuresBuilder.add(resultFuture);
+    private void verifyAndDownloadFiles(final DeviceSchedulers schedulers, final GrappleGuiApi guiApi,
+                                        final UpdateStatusWriter statusWriter, final long totalSize,
+                                        final ImmutableList<ContentRootUpdate> updates) {
+        final PercentageCounter counter = guiPercentageCounter(guiApi, statusWriter, totalSize);
+        final ImmutableList<ListenableFuture<VerificationSummary>> futures = streamUpdateActions(schedulers, counter,
+                updates);
+        try {
+            Futures.allAsList(futures).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("bug");
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Unknown error during update task", e);
+            throw new GrappleFatalException("Update process failed for unknown reason");
+        }
+        pruneEmptyDirectories(updates);
+        final ImmutableList.Builder<VerificationSummary> summaries = ImmutableList.builder();
+        for (final ContentRootUpdate update : updates) {
+            summaries.add(update.getSummary());
+        }
+        if (logSummaries(summaries.build())) {
+            throw new GrappleFatalException("Update process failed because one or more files failed verification");
+        }
+    }
+
+    /**
+     * Prune the directories that extra files were moved out of and that are now empty, keeping the directories of the
+     * assets that are still to be updated in the background
+     */
+    private static void pruneEmptyDirectories(final ImmutableList<ContentRootUpdate> updates) {
+        for (final ContentRootUpdate update : updates) {
+            final long start = System.nanoTime();
+            final Set<File> kept = Sets.newHashSet();
+            for (final GrappleAsset asset : update.getManifest().getAssets()) {
+                kept.add(new File(update.getContentRoot(), asset.getPath()).getParentFile());
+            }
+            final int pruned = update.getTrash().pruneEmptyDirectories(update.getContentRoot(), kept);
+            if (pruned > 0) {
+                logger.info("Deleted " + pruned + " empty directories in " + update.getContentRoot());
             }
-            map.put(contentRoot, futuresBuilder.build());
+            update.getSummary().addPhaseTime("prune", System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return true if any asset failed to verify
+     */
+    static boolean logSummaries(final Iterable<VerificationSummary> summaries) {
+        boolean failed = false;
+        for (final VerificationSummary summary : summaries) {
+            logger.info(summary.toString());
+            failed |= summary.getFailed() > 0;
+        }
+        return failed;
+    }
+
+    /**
+     * Select the assets whose size matches that in the manifest that should also be hashed before being considered up
+     * to date. Assets recorded as failed by a previous background verification are always hashed, and so are the
+     * assets that changed since the last manifest written to the content root, because a changed asset may well keep
+     * its size. Without a last manifest every asset is hashed.
+     * <p/>
+     * Either way, the assets that an interrupted update of the same manifest recorded as completed in its journal are
+     * not hashed again.
+     *
+     * @param advance Controls whether the launch counter of sampled verification is advanced, which is only left alone
+     *                when the update is planned without being run
+     */
+    private ImmutableMap<File, Predicate<GrappleAsset>> selectAssetsToHash(
+            final ImmutableMap<File, GrappleManifest> manifestMap,
+            final ImmutableMap<File, ImmutableSet<String>> changedAssetMap,
+            final ImmutableMap<File, ImmutableMap<String, String>> completedAssetMap, final boolean advance) {
+        final ImmutableMap.Builder<File, Predicate<GrappleAsset>> map = ImmutableMap.builder();
+        for (final File contentRoot : manifestMap.keySet()) {
+            map.put(contentRoot, Predicates.and(Predicates.not(completedAssets(completedAssetMap.get(contentRoot))),
+                    selectAssetsToHash(contentRoot, changedAssetMap.get(contentRoot), advance)));
         }
         return map.build();
     }
 
-    private Callable<AssetVerificationResult> newVerificationOrDownloadCallable(
-            final URL baseUrl, final File contentRoot, final GrappleManifest manifest, final GrappleAsset asset,
-            final ManifestHasher manifestHasher, final MapDifference<String, Long> fileDifference) {
-        final boolean sizeMatches = fileDifference.entriesInCommon().containsKey(asset.getPath());
-        final File file = new File(contentRoot, asset.getPath());
-        return new Callable<AssetVerificationResult>() {
+    private Predicate<GrappleAsset> selectAssetsToHash(final File contentRoot,
+                                                       final ImmutableSet<String> changedAssets,
+                                                       final boolean advance) {
+        if (changedAssets == null) {
+            logger.info("Hashing all assets in " + contentRoot + " as there is no previous manifest");
+            return Predicates.alwaysTrue();
+        }
+        final VerificationSampler sampler = advance ?
+                VerificationSampler.forLaunch(configuration.getVerificationPolicy(), configuration.getSampledLaunches(),
+                        contentRoot) :
+                VerificationSampler.preview(configuration.getVerificationPolicy(), configuration.getSampledLaunches(),
+                        contentRoot);
+        logger.info("Hashing " + changedAssets.size() + " changed assets and the assets selected by " + sampler +
+                " in " + contentRoot);
+        final ImmutableSet<String> recordedFailures = FailedAssetRecord.in(contentRoot).read().keySet();
+        return Predicates.or(sampler, new Predicate<GrappleAsset>() {
+            @Override
+            public boolean apply(final GrappleAsset asset) {
+                return recordedFailures.contains(asset.getPath()) || changedAssets.contains(asset.getPath());
+            }
+        });
+    }
+
+    /**
+     * @return A predicate for the assets recorded with the same hash in a journal, of which there may be none
+     */
+    private static Predicate<GrappleAsset> completedAssets(final ImmutableMap<String, String> completed) {
+        if (completed == null || completed.isEmpty()) {
+            return Predicates.alwaysFalse();
+        }
+        return new Predicate<GrappleAsset>() {
             @Override
-            public AssetVerificationResult call() throws Exception {
-                if (sizeMatches) {
-                    if (asset.getHash().equals(manifestHasher.hashFile(file))) {
-                        return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.OK);
-                    } else {
-                        logger.fine("H> " + asset.getPath());
-                    }
-                }
-                if (file.exists()) {
-                    logger.fine("S> " + asset.getPath());
-                    if (!file.delete()) {
-                        logger.warning("unable to delete " + file);
-                    }
-                } else {
-                    logger.fine("X> " + asset.getPath());
-                }
+            public boolean apply(final GrappleAsset asset) {
+                return asset.getHash().toString().equals(completed.get(asset.getPath()));
+            }
+        };
+    }
 
-                if (!file.createNewFile()) {
-                    logger.warning("created new file " + file);
-                }
 
-                final URL downloadUrl = urlDownloader.combinePath(baseUrl, asset.getPath());
-                final Hasher hasher = manifestHasher.newHasher();
-                final ByteSink hashedSink = FileIO.asHashedFileSink(hasher, file);
-                final int responseCode = urlDownloader.httpGet(downloadUrl, hashedSink);
-                if (responseCode != HttpURLConnection.HTTP_OK) {
-                    logger.warning("Unable to download file " + downloadUrl + " : HTTP " + responseCode);
-                    if (!file.delete()) {
-                        logger.warning("unable to delete " + file);
-                    }
-                    return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.MissingFile);
+    /**
+     * Select the assets of a version being staged that can be linked from the version installed before it: those that
+     * did not change since and that no background verification of the installed version recorded as failed
+     */
+    private ImmutableMap<File, Predicate<GrappleAsset>> selectAssetsToLink(
+            final ImmutableMap<File, File> previousVersionMap,
+            final ImmutableMap<File, ImmutableSet<String>> changedAssetMap) {
+        final ImmutableMap.Builder<File, Predicate<GrappleAsset>> map = ImmutableMap.builder();
+        for (final Map.Entry<File, File> entry : previousVersionMap.entrySet()) {
+            final ImmutableSet<String> changedAssets = changedAssetMap.get(entry.getKey());
+            if (changedAssets == null) {
+                continue;
+            }
+            final ImmutableSet<String> recordedFailures = FailedAssetRecord.in(entry.getValue()).read().keySet();
+            map.put(entry.getKey(), new Predicate<GrappleAsset>() {
+                @Override
+                public boolean apply(final GrappleAsset asset) {
+                    return !changedAssets.contains(asset.getPath()) && !recordedFailures.contains(asset.getPath());
                 }
+            });
+        }
+        return map.build();
+    }
 
-                final HashCode newHashCode = hasher.hash();
-                if (asset.getHash().equals(newHashCode)) {
-                    return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.OK);
-                } else {
-                    return new AssetVerificationResult(manifest, asset, AssetVerificationResult.Outcome.HashDiffers);
+    /**
+     * Count the progress of the assets that are up to date and record them in the journal of the content root, if any
+     */
+    private Function<AssetVerificationResult, Void> newProgressListener(final PercentageCounter counter,
+                                                                        final ContentRootUpdate update) {
+        return new Function<AssetVerificationResult, Void>() {
+            @Override
+            public Void apply(final AssetVerificationResult result) {
+                switch (result.getOutcome()) {
+                    case OK:
+                        counter.addToTotal(result.getAsset().getSize());
+                        if (update.getJournal().isPresent()) {
+                            update.getJournal().get().record(result.getAsset());
+                        }
+                        break;
+                    case HashDiffers:
+                        logger.warning("Downloaded hash differs for " + result.getAsset().getPath() + " under " +
+                                update.getContentRoot());
+                        break;
+                    case SizeDiffers:
+                        logger.warning("Downloaded size differs for " + result.getAsset().getPath() + " under " +
+                                update.getContentRoot());
+                        break;
+                    case MissingFile:
+                        logger.warning("Asset " + result.getAsset().getPath() + " missing on server");
+                        break;
                 }
+                return null;
             }
         };
     }
 
-    private void deleteExtraFiles(final ImmutableMap<File, MapDifference<String, Long>> manifestCurrentDifferenceMap) {
-        for (final Map.Entry<File, MapDifference<String, Long>> entry : manifestCurrentDifferenceMap.entrySet()) {
-            final File contentRoot = entry.getKey();
-            final MapDifference<String, Long> difference = entry.getValue();
-            for (final Map.Entry<String, Long> differenceEntry : difference.entriesOnlyOnRight().entrySet()) {
-                final File file = new File(contentRoot, differenceEntry.getKey());
-                if (!IGNORE_DELETE.contains(file.getName())) {
-                    logger.info("Deleting extra file " + file + " of size " + differenceEntry.getValue());
-                    if (!file.delete()) {
-                        logger.warning("Unable to delete file " + file);
+    /**
+     * Execute the plan of each content root. Without a plan made in advance, each content root is planned while it is
+     * scanned and every step is executed as soon as it is planned: extra files are moved into the trash and missing
+     * directories created right away, while the assets to verify or download are streamed to the scheduler of the content root,
+     * whose workers start on them while the content root is still being scanned.
+     * <p/>
+     * The assets are updated by the {@link org.halfway.grapple.impl.AssetUpdateTasks} of their content root, which link
+     * the missing assets of a new version that are unchanged since the previous version instead of downloading them.
+     * <p/>
+     * The actions on assets that are not launch-critical are deferred rather than scheduled, for content roots with a
+     * critical selection.
+     */
+    private ImmutableList<ListenableFuture<VerificationSummary>> streamUpdateActions(
+            final DeviceSchedulers schedulers, final PercentageCounter counter,
+            final ImmutableList<ContentRootUpdate> updates) {
+        final ImmutableList.Builder<ListenableFuture<VerificationSummary>> futures = ImmutableList.builder();
+        for (final ContentRootUpdate update : updates) {
+            final File contentRoot = update.getContentRoot();
+            final GrappleManifest manifest = update.getManifest();
+            final ImmutableMap<UpdatePlan.Action, AssetTask> tasks = new AssetUpdateTasks(urlDownloader, update,
+                    schedulers.diskPermitsForContentRoot(contentRoot)).byAction();
+            final ImmutableList.Builder<ContentRootUpdate.AssetAction> deferred = ImmutableList.builder();
+            final BatchedAssetScheduler.AssetStream stream = schedulers.forContentRoot(contentRoot).newStream(
+                    totalSizeOf(manifest), update.getSummary(), newProgressListener(counter, update));
+            final TrashDirectory trash = update.getTrash();
+            final VerificationSummary summary = update.getSummary();
+            final UpdatePlan.StepListener executor = new UpdatePlan.StepListener() {
+                @Override
+                public void add(final UpdatePlan.Step step) {
+                    final long start = System.nanoTime();
+                    switch (step.getAction()) {
+                        case delete:
+                            logger.info("Deleting extra file " + step.getFile() + " of size " + step.getSize());
+                            if (!trash.moveIn(step.getFile())) {
+                                logger.warning("Unable to delete file " + step.getFile());
+                            }
+                            summary.addPhaseTime("trash", System.nanoTime() - start);
+                            break;
+                        case mkdir:
+                            // the planner only creates each directory once, which mostly does not exist yet
+                            if (!step.getFile().mkdirs() && !step.getFile().isDirectory()) {
+                                logger.warning("Failed to create directory " + step.getFile());
+                            }
+                            summary.addPhaseTime("mkdir", System.nanoTime() - start);
+                            break;
+                        default:
+                            final GrappleAsset asset = step.getAsset().get();
+                            if (update.isCritical(asset)) {
+                                stream.add(asset, tasks.get(step.getAction()));
+                            } else {
+                                deferred.add(new ContentRootUpdate.AssetAction(asset, tasks.get(step.getAction())));
+                            }
                     }
                 }
+            };
+            if (update.getPlan().isPresent()) {
+                for (final UpdatePlan.Step step : update.getPlan().get().getSteps()) {
+                    executor.add(step);
+                }
+            } else {
+                final UpdatePlan.Builder plan = UpdatePlan.builder(contentRoot, update.getThroughput(), updateWorkers());
+                new UpdatePlanner(new DirectoryScanner(schedulers.serviceForContentRoot(contentRoot)))
+                        .plan(manifest.getAssets(), contentRoot, update.getHashSelection(), update.getLinkSelection(),
+                                new UpdatePlan.StepListener() {
+                                    @Override
+                                    public void add(final UpdatePlan.Step step) {
+                                        plan.add(step);
+                                        executor.add(step);
+                                    }
+                                });
+                logger.info("Planned " + plan.build());
             }
+            futures.add(stream.finish());
+            update.setDeferredActions(deferred.build());
         }
+        return futures.build();
     }
 
-    private ImmutableMap<File, MapDifference<String, Long>> computeMapDifference(final ImmutableMap<File, ImmutableMap<String, Long>> manifestSizeMap,
-                                                                                 final ImmutableMap<File, ImmutableMap<String, Long>> currentSizeMap) {
-        final ImmutableMap.Builder<File, MapDifference<String, Long>> map = ImmutableMap.builder();
-        for (final Map.Entry<File, ImmutableMap<String, Long>> manifestEntry : manifestSizeMap.entrySet()) {
-            final File contentRoot = manifestEntry.getKey();
-            final ImmutableMap<String, Long> manifestFileSizeMap = manifestEntry.getValue();
-            final ImmutableMap<String, Long> currentFileSizeMap = currentSizeMap.get(contentRoot);
-            map.put(contentRoot, Maps.difference(manifestFileSizeMap, currentFileSizeMap));
+    private static long totalSizeOf(final GrappleManifest manifest) {
+        long size = 0;
+        for (int i = 0; i < manifest.getAssets().size(); i++) {
+            size += manifest.getAssets().getSize(i);
         }
-        return map.build();
-    }
-
-    private ImmutableMap<File, ImmutableMap<String, Long>> buildManifestSizeMap(final ImmutableMap<File, GrappleManifest> manifestMap) {
-        final ImmutableMap.Builder<File, ImmutableMap<String, Long>> map = ImmutableMap.builder();
-        for (final Map.Entry<File, GrappleManifest> entry : manifestMap.entrySet()) {
-            final ImmutableMap.Builder<String, Long> sizeMap = ImmutableMap.builder();
-            final File contentRoot = entry.getKey();
-            final GrappleManifest manifest = entry.getValue();
-            for (final GrappleAsset asset : manifest.getAssets()) {
-                sizeMap.put(asset.getPath(), asset.getSize());
-            }
-            map.put(contentRoot, sizeMap.build());
-        }
-        return map.build();
+        return size;
     }
 
     private ImmutableMap<File, GrappleManifest> buildContentRootManifestMap(final TargetWithManifests<LaunchTarget> targetWithManifests) {
@@ -336,21 +767,32 @@ public class UpdateStage implements LauncherStage {
         if (configuration.isOfflineMode()) {
             return;
         }
+        if (configuration.isDryRun()) {
+            logger.info("Planning the update without running it");
+            context.setUpdatePlanMap(plan(context));
+            return;
+        }
         final ImmutableMap<File, DirectoryUpdateLock> lockMap = context.getDirLockMap();
         context.getGuiApi().notifyProgress(progressRange().lowerEndpoint(), Optional.of("Updating application files..."));
         logger.info("Starting to update files in online mode");
 
+        boolean updated = false;
         try {
-            if (!DirectoryUpdateLock.lockAll(lockMap.values())) {
-                throw new GrappleFatalException("Unable to lock directories for update");
+            final UpdateLockWaiter.Outcome wait = new UpdateLockWaiter(configuration.getLockTimeout(),
+                    context.getGuiApi(), PROGRESS_RANGE.lowerEndpoint()).lockOrWait(lockMap, launchableHashes(context));
+            if (!wait.isLocked()) {
+                logger.info("Launching the launch-critical assets that another launcher updated, leaving the rest " +
+                        "of the update to it");
+                context.setUpdateLeftToOtherLauncher(true);
+                return;
             }
-            update(context);
-            logger.info("Updates complete");
+            final boolean inBackground = update(context, wait.getWaitedSince());
+            updated = true;
+            logger.info(inBackground ? "Launch-critical updates complete" : "Updates complete");
         } finally {
-            try {
-                DirectoryUpdateLock.unlockAllAndDelete(lockMap.values());
-            } catch (final IORuntimeException e) {
-                logger.log(Level.SEVERE, "Unable to unlock all directories", e);
+            // the directories stay locked until the update is complete, see CompleteUpdateStage
+            if (!updated) {
+                UpdateLockWaiter.unlockAll(lockMap);
             }
         }
     }
@@ -3,9 +3,13 @@ package org.halfway.grapple.stage;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Range;
+import org.halfway.grapple.impl.GrappleBinaryManifest;
 import org.halfway.grapple.impl.GrapplePropertiesManifest;
+import org.halfway.grapple.impl.ManifestHasher;
+import org.halfway.grapple.impl.ManifestTree;
 import org.halfway.grapple.impl.RuntimeContext;
 import org.halfway.grapple.impl.TargetWithManifests;
+import org.halfway.grapple.impl.UpdateJournal;
 import org.halfway.grapple.model.GrappleFatalException;
 import org.halfway.grapple.model.IORuntimeException;
 import org.halfway.grapple.model.configuration.LaunchTarget;
@@ -20,6 +24,16 @@ import java.util.logging.Logger;
 /**
  * Stage that will write out the manifest files to the local file system. The main use of this is so that if Grapple is
  * in offline mode it can just look at the manifests stored on disk.
+ * <p/>
+ * Both the properties manifest and the binary manifest are written so that the next launch can read the faster binary
+ * manifest while older versions of Grapple still find the properties manifest. The manifest tree is written last so
+ * that the next update can fetch and compare only the directories that changed.
+ * <p/>
+ * The manifests are written as they were fetched, with the assets of every platform, so that their hash matches the
+ * one published by the server.
+ * <p/>
+ * Nothing is written by a progressive launcher that left the update to another launcher, which writes the manifests
+ * once its own update is complete.
  */
 public class WriteManifestStage implements LauncherStage {
     private static final Logger logger = Logger.getLogger(WriteManifestStage.class.getName());
@@ -32,15 +46,21 @@ public class WriteManifestStage implements LauncherStage {
 
     @Override
     public void burn(final RuntimeContext context) {
+        if (context.isUpdateLeftToOtherLauncher()) {
+            return;
+        }
         final TargetWithManifests<LaunchTarget> target = context.getTargetWithManifest();
         context.getGuiApi().notifyProgress(progressRange().lowerEndpoint(), Optional.of("Writing out manifests..."));
-        writeManifests(target);
+        writeManifests(target, context.getFetchedManifestMap());
         context.getGuiApi().notifyProgress(progressRange().upperEndpoint(), Optional.<String>absent());
     }
 
-    private void writeManifests(final TargetWithManifests<LaunchTarget> targetWithManifests) {
-        for (final GrappleManifest manifest : targetWithManifests.getManifests()) {
-            final File contentRoot = targetWithManifests.getContentRoot(manifest);
+    private void writeManifests(final TargetWithManifests<LaunchTarget> targetWithManifests,
+                                final ImmutableMap<File, GrappleManifest> fetchedManifests) {
+        for (final GrappleManifest selectedManifest : targetWithManifests.getManifests()) {
+            final File contentRoot = targetWithManifests.getContentRoot(selectedManifest);
+            final GrappleManifest manifest = fetchedManifests.containsKey(contentRoot) ?
+                    fetchedManifests.get(contentRoot) : selectedManifest;
             final File manifestFile = new File(contentRoot, GrapplePropertiesManifest.PROPERTIES_FILE);
             final ImmutableMap<String, String> propertyMap = GrapplePropertiesManifest.toPropertiesMap().from(manifest).build();
             final Properties properties = new Properties();
@@ -52,6 +72,36 @@ public class WriteManifestStage implements LauncherStage {
                 logger.log(Level.SEVERE, "Unable to write out manifest properties file " + manifestFile, e);
                 throw new GrappleFatalException("Error while writing properties file");
             }
+            final File binaryManifestFile = new File(contentRoot, GrappleBinaryManifest.MANIFEST_FILE);
+            try {
+                FileIO.writeBytes(binaryManifestFile, GrappleBinaryManifest.toBytes(manifest, propertyMap));
+                logger.info("Wrote binary manifest " + binaryManifestFile);
+            } catch (IORuntimeException e) {
+                logger.log(Level.SEVERE, "Unable to write out binary manifest file " + binaryManifestFile, e);
+                throw new GrappleFatalException("Error while writing binary manifest file");
+            }
+            writeManifestTree(contentRoot, manifest, propertyMap);
+            // the update of the manifest is complete, so its journal is no longer needed
+            if (!UpdateJournal.in(contentRoot).clear(propertyMap.get(GrapplePropertiesManifest.Key.HASH_KEY))) {
+                logger.warning("Unable to delete the update journal of " + contentRoot);
+            }
+        }
+    }
+
+    private void writeManifestTree(final File contentRoot, final GrappleManifest manifest,
+                                   final ImmutableMap<String, String> propertyMap) {
+        final ManifestTree tree = ManifestTree.fromAssets(manifest.getAssets(),
+                ManifestHasher.fromAlgorithm(manifest.getHashAlgorithm()));
+        final File treeRootFile = new File(contentRoot, ManifestTree.ROOT_FILE);
+        final Properties rootProperties = new Properties();
+        rootProperties.putAll(tree.rootProperties(propertyMap));
+        try {
+            final int written = tree.writeNodes(new File(contentRoot, ManifestTree.TREE_DIRECTORY));
+            FileIO.writeProperties(treeRootFile, rootProperties, "updated by " + WriteManifestStage.class.getSimpleName());
+            logger.info("Wrote manifest tree " + treeRootFile + " with " + written + " new nodes");
+        } catch (IORuntimeException e) {
+            logger.log(Level.SEVERE, "Unable to write out manifest tree " + treeRootFile, e);
+            throw new GrappleFatalException("Error while writing manifest tree");
         }
     }
 }
@@ -0,0 +1,349 @@
+package org.halfway.grapple.util;
+
+import com.google.common.base.Function;
+import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+import org.halfway.grapple.model.IORuntimeException;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans a directory tree for files, listing each subdirectory as a separate task on an executor service so that the
+ * directories of a large tree are listed in parallel.
+ * <p/>
+ * Every file is reported once with its path relative to the scanned directory, which is built up while descending
+ * instead of being computed from the absolute path of every file. Each entry is classified with a single
+ * {@link java.io.File#isFile()} check, so a file costs one lookup to be found, and its size and modification time are
+ * only read if a caller asks for them.
+ */
+public class DirectoryScanner {
+    private static final Comparator<ScannedFile> PATH_ORDER = new Comparator<ScannedFile>() {
+        @Override
+        public int compare(final ScannedFile a, final ScannedFile b) {
+            return a.getPath().compareTo(b.getPath());
+        }
+    };
+    private static final Comparator<File> NAME_ORDER = new Comparator<File>() {
+        @Override
+        public int compare(final File a, final File b) {
+            return PathOrder.compare(a.getName(), b.getName());
+        }
+    };
+    /**
+     * Number of directories ahead of the current one that are listed in the background by
+     * {@link #scanInOrder(java.io.File, com.google.common.base.Function)}
+     */
+    private static final int PREFETCH_DIRECTORIES = 32;
+
+    private final ExecutorService service;
+
+    /**
+     * @param service The executor service to list the directories on. It is not shut down by the scanner
+     */
+    public DirectoryScanner(final ExecutorService service) {
+        Verify.verifyNotNull(service, "executor service must not be null");
+        this.service = service;
+    }
+
+    /**
+     * Scan a directory, passing each file to a listener as soon as it is found. The listener is called concurrently
+     * from the threads of the executor service and in no particular order.
+     *
+     * @param directory The directory to scan
+     * @param listener  The listener to call with each file
+     * @throws org.halfway.grapple.model.IORuntimeException if a directory could not be listed
+     */
+    public void scan(final File directory, final Function<? super ScannedFile, ?> listener) {
+        Verify.verify(directory.isDirectory(), "'%s' is not a directory", directory);
+        final Scan scan = new Scan(listener);
+        submit(scan, directory, "");
+        try {
+            scan.done.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IORuntimeException("Interrupted while scanning " + directory, e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IORuntimeException("Unable to scan " + directory, e.getCause());
+        }
+    }
+
+    /**
+     * Scan a directory
+     *
+     * @param directory The directory to scan
+     * @return All the files found, sorted by path
+     * @throws org.halfway.grapple.model.IORuntimeException if a directory could not be listed
+     */
+    public ImmutableList<ScannedFile> scanSorted(final File directory) {
+        final Queue<ScannedFile> found = new ConcurrentLinkedQueue<ScannedFile>();
+        scan(directory, new Function<ScannedFile, Object>() {
+            @Override
+            public Object apply(final ScannedFile file) {
+                found.add(file);
+                return null;
+            }
+        });
+        final List<ScannedFile> files = Lists.newArrayList(found);
+        Collections.sort(files, PATH_ORDER);
+        return ImmutableList.copyOf(files);
+    }
+
+    /**
+     * Scan a directory, passing each file to a listener in {@link org.halfway.grapple.util.PathOrder tree order}. The
+     * listener is called from the calling thread only.
+     * <p/>
+     * The directories next in line are listed on the executor service ahead of being reached, and a directory whose
+     * listing has not started by then is listed by the calling thread instead. Only the directories that are yet to be
+     * reported and the listings of at most {@link #PREFETCH_DIRECTORIES} of them are held at any time, so that memory
+     * stays bounded by the shape of the tree rather than by the number of files in it. The size of each file is read
+     * while its directory is listed, as callers that need the files in order compare every size.
+     *
+     * @param directory The directory to scan
+     * @param listener  The listener to call with each file
+     * @throws org.halfway.grapple.model.IORuntimeException if a directory could not be listed
+     */
+    public void scanInOrder(final File directory, final Function<? super ScannedFile, ?> listener) {
+        Verify.verify(directory.isDirectory(), "'%s' is not a directory", directory);
+        final Deque<Listing> pending = new ArrayDeque<Listing>();
+        pending.push(new Listing(directory, ""));
+        while (!pending.isEmpty()) {
+            prefetch(pending);
+            final Listing listing = pending.pop();
+            final Contents contents = listing.get();
+            for (final ScannedFile file : contents.files) {
+                listener.apply(file);
+            }
+            for (final Listing subdirectory : contents.directories.reverse()) {
+                pending.push(subdirectory);
+            }
+        }
+    }
+
+    private void prefetch(final Deque<Listing> pending) {
+        int prefetched = 0;
+        for (final Listing listing : pending) {
+            if (prefetched++ == PREFETCH_DIRECTORIES) {
+                return;
+            }
+            listing.start();
+        }
+    }
+
+    private void submit(final Scan scan, final File directory, final String pathPrefix) {
+        scan.pending.incrementAndGet();
+        try {
+            service.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!scan.done.isDone()) {
+                            scanDirectory(scan, directory, pathPrefix);
+                        }
+                    } catch (final Throwable t) {
+                        scan.done.setException(t);
+                    } finally {
+                        scan.finishedOne();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            scan.done.setException(e);
+            scan.finishedOne();
+        }
+    }
+
+    private void scanDirectory(final Scan scan, final File directory, final String pathPrefix) {
+        final File[] entries = directory.listFiles();
+        if (entries == null) {
+            throw new IORuntimeException("Unable to list directory " + directory);
+        }
+        for (final File entry : entries) {
+            final String path = pathPrefix + entry.getName();
+            if (isDirectory(entry)) {
+                submit(scan, entry, path + File.separatorChar);
+            } else {
+                scan.listener.apply(new ScannedFile(path, entry));
+            }
+        }
+    }
+
+    /**
+     * Files are by far the most common entries, so they are told apart with a single lookup. Entries that are neither
+     * a file nor a directory, such as broken links, are reported as files
+     */
+    private static boolean isDirectory(final File entry) {
+        return !entry.isFile() && entry.isDirectory();
+    }
+
+    /**
+     * The state of one call to {@link #scan(java.io.File, com.google.common.base.Function)}
+     */
+    private static class Scan {
+        private final Function<? super ScannedFile, ?> listener;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final SettableFuture<Void> done = SettableFuture.create();
+
+        private Scan(final Function<? super ScannedFile, ?> listener) {
+            this.listener = listener;
+        }
+
+        private void finishedOne() {
+            if (pending.decrementAndGet() == 0) {
+                done.set(null);
+            }
+        }
+    }
+
+    /**
+     * A directory to list for {@link #scanInOrder(java.io.File, com.google.common.base.Function)}, either in the
+     * background or by whichever thread gets to it first
+     */
+    private class Listing {
+        private final File directory;
+        private final ListenableFutureTask<Contents> task;
+        private boolean started = false;
+
+        private Listing(final File directory, final String pathPrefix) {
+            this.directory = directory;
+            this.task = ListenableFutureTask.create(new Callable<Contents>() {
+                @Override
+                public Contents call() throws Exception {
+                    return list(directory, pathPrefix);
+                }
+            });
+        }
+
+        private void start() {
+            if (started) {
+                return;
+            }
+            started = true;
+            try {
+                service.execute(task);
+            } catch (final RejectedExecutionException e) {
+                // listed by the calling thread instead
+            }
+        }
+
+        private Contents get() {
+            // does nothing if the listing already started on the executor service
+            task.run();
+            try {
+                return task.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IORuntimeException("Interrupted while scanning " + directory, e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IORuntimeException("Unable to scan " + directory, e.getCause());
+            }
+        }
+
+        private Contents list(final File directory, final String pathPrefix) {
+            final File[] entries = directory.listFiles();
+            if (entries == null) {
+                throw new IORuntimeException("Unable to list directory " + directory);
+            }
+            Arrays.sort(entries, NAME_ORDER);
+            final ImmutableList.Builder<ScannedFile> files = ImmutableList.builder();
+            final ImmutableList.Builder<Listing> directories = ImmutableList.builder();
+            for (final File entry : entries) {
+                final String path = pathPrefix + entry.getName();
+                if (isDirectory(entry)) {
+                    directories.add(new Listing(entry, path + File.separatorChar));
+                } else {
+                    files.add(new ScannedFile(path, entry, entry.length()));
+                }
+            }
+            return new Contents(files.build(), directories.build());
+        }
+    }
+
+    /**
+     * The files and subdirectories of a listed directory, each in name order
+     */
+    private static class Contents {
+        private final ImmutableList<ScannedFile> files;
+        private final ImmutableList<Listing> directories;
+
+        private Contents(final ImmutableList<ScannedFile> files, final ImmutableList<Listing> directories) {
+            this.files = files;
+            this.directories = directories;
+        }
+    }
+
+    /**
+     * A file found by the scanner, whose size and modification time are read from the file system when first asked for
+     */
+    public static class ScannedFile {
+        private static final long UNREAD = -1;
+        private final String path;
+        private final File file;
+        private long size = UNREAD;
+        private long lastModified = UNREAD;
+
+        ScannedFile(final String path, final File file) {
+            this.path = path;
+            this.file = file;
+        }
+
+        ScannedFile(final String path, final File file, final long size) {
+            this.path = path;
+            this.file = file;
+            this.size = size;
+        }
+
+        /**
+         * @return The path of the file relative to the scanned directory, in the same form as
+         * {@link org.halfway.grapple.util.FileIO#relativize(java.io.File, java.io.File)}
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return The size of the file in bytes when it was first asked for
+         */
+        public long getSize() {
+            if (size == UNREAD) {
+                size = file.length();
+            }
+            return size;
+        }
+
+        /**
+         * @return The modification time of the file in milliseconds when it was first asked for
+         */
+        public long getLastModified() {
+            if (lastModified == UNREAD) {
+                lastModified = file.lastModified();
+            }
+            return lastModified;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.halfway.grapple.util;
 
 import com.google.common.base.Verify;
+import com.google.common.collect.Lists;
 import org.halfway.grapple.model.IORuntimeException;
 
 import java.io.File;
@@ -9,10 +10,15 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.List;
 
 /**
  * A lock for a directory that will exclude any other Grapple instances from trying to write to the directory while
  * it is locked.
+ * <p/>
+ * The lock file is kept once the lock is released rather than deleted, as another instance may be waiting on it: an
+ * instance that locked a lock file that was deleted from under it would not exclude an instance that locks the lock
+ * file created after it.
  */
 public class DirectoryUpdateLock {
     /**
@@ -56,23 +62,34 @@ public class DirectoryUpdateLock {
     }
 
     /**
-     * Lock all the directory locks passed in
+     * Lock all the directory locks passed in, or none of them, so that instances that wait for the same locks in
+     * another order do not each hold some of them
      *
      * @param updateLocks The directory locks
-     * @return True if the locks could all be locked, false if one of the lock operations failed
+     * @return True if the locks could all be locked, false if one of the lock operations failed and the locks that
+     * were locked have been unlocked again
      */
     public static boolean lockAll(final Iterable<DirectoryUpdateLock> updateLocks) {
-        boolean result = true;
+        final List<DirectoryUpdateLock> locked = Lists.newArrayList();
         for (final DirectoryUpdateLock lock : updateLocks) {
-            result &= lock.lock();
+            if (!lock.lock()) {
+                for (final DirectoryUpdateLock lockedLock : locked) {
+                    lockedLock.unlock();
+                }
+                return false;
+            }
+            locked.add(lock);
         }
-        return result;
+        return true;
     }
 
-    public static void unlockAllAndDelete(final Iterable<DirectoryUpdateLock> updateLocks) {
+    /**
+     * Unlock all the directory locks passed in and close them, keeping their lock files
+     */
+    public static void unlockAllAndClose(final Iterable<DirectoryUpdateLock> updateLocks) {
         for (final DirectoryUpdateLock lock : updateLocks) {
             lock.unlock();
-            lock.delete();
+            lock.close();
         }
     }
 
@@ -149,6 +166,20 @@ public class DirectoryUpdateLock {
         lock = null;
     }
 
+    /**
+     * Close the lock without deleting the lock file
+     */
+    public synchronized void close() {
+        if (lock != null && lock.isValid()) {
+            throw new IllegalStateException("Lock must not be valid before closing");
+        }
+        try {
+            lockFileChannel.close();
+        } catch (IOException e) {
+            throw new IORuntimeException("Could not close lock channel", e);
+        }
+    }
+
     public synchronized boolean delete() {
         if (lock != null && lock.isValid()) {
             throw new IllegalStateException("Lock must not be valid before deletion");
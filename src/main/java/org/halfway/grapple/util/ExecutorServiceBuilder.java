@@ -35,6 +35,18 @@ public class ExecutorServiceBuilder {
         });
     }
 
+    /**
+     * The number of workers that should share an executor service built with the given pool size
+     *
+     * @param poolSize     The optional pool size
+     * @param perProcessor The number of workers per available processor when the pool is unbounded
+     * @return The pool size if present, otherwise a multiple of the number of available processors
+     */
+    public static int workerCount(final Optional<Integer> poolSize, final int perProcessor) {
+        Verify.verify(perProcessor > 0, "workers per processor must be positive");
+        return poolSize.or(perProcessor * Runtime.getRuntime().availableProcessors());
+    }
+
     public ExecutorServiceBuilder withPoolSize(final Optional<Integer> poolSize) {
         Verify.verify(poolSize.or(1) > 0, "pool size must be positive");
         this.poolSize = poolSize;
@@ -12,8 +12,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Properties;
 import java.util.Stack;
@@ -25,6 +29,27 @@ import java.util.logging.Logger;
  */
 public class FileIO {
     private static final Logger logger = Logger.getLogger(FileIO.class.getSimpleName());
+    /**
+     * {@code File#toPath()} and {@code Files#createLink(Path, Path)}, which are only available from Java 7
+     */
+    private static final Method TO_PATH;
+    private static final Method CREATE_LINK;
+
+    static {
+        Method toPath = null;
+        Method createLink = null;
+        try {
+            final Class<?> pathClass = Class.forName("java.nio.file.Path");
+            toPath = File.class.getMethod("toPath");
+            createLink = Class.forName("java.nio.file.Files").getMethod("createLink", pathClass, pathClass);
+        } catch (final ClassNotFoundException e) {
+            logger.fine("Hard links are not supported by this JVM");
+        } catch (final NoSuchMethodException e) {
+            logger.fine("Hard links are not supported by this JVM");
+        }
+        TO_PATH = toPath;
+        CREATE_LINK = createLink;
+    }
 
     private static void verifyCanWriteFile(final File file) {
         Verify.verify(!file.isDirectory(), "'%s' is a directory, not a file", file);
@@ -85,6 +110,46 @@ public class FileIO {
         }
     }
 
+    /**
+     * Reads the whole of a file into a buffer.
+     * <p/>
+     * A mapped file cannot be deleted or replaced on Windows until the buffer is garbage collected, so only map files
+     * that are not going to be written by the same process.
+     *
+     * @param file The file to read
+     * @param map  Whether to memory map the file rather than read it into the heap
+     * @return The read-only buffer positioned at the start of the file
+     * @throws org.halfway.grapple.model.IORuntimeException if an {@link java.io.IOException} occurs
+     */
+    public static ByteBuffer readBuffer(final File file, final boolean map) {
+        Verify.verify(file.isFile(), "'%s' is not a file", file);
+        try {
+            if (map) {
+                return Files.map(file, FileChannel.MapMode.READ_ONLY).asReadOnlyBuffer();
+            } else {
+                return ByteBuffer.wrap(Files.toByteArray(file)).asReadOnlyBuffer();
+            }
+        } catch (final IOException e) {
+            throw new IORuntimeException("Failed to read " + file, e);
+        }
+    }
+
+    /**
+     * Writes bytes into a file, replacing its contents.
+     *
+     * @param file  The file to write to
+     * @param bytes The bytes to write
+     * @throws org.halfway.grapple.model.IORuntimeException if an {@link java.io.IOException} occurs
+     */
+    public static void writeBytes(final File file, final byte[] bytes) {
+        verifyCanWriteFile(file);
+        try {
+            Files.write(bytes, file);
+        } catch (final IOException e) {
+            throw new IORuntimeException("Failed to write " + file, e);
+        }
+    }
+
     /**
      * Finds all files in the directory and subdirectories of the directory.
      *
@@ -188,4 +253,75 @@ public class FileIO {
         Verify.verify(directory.isDirectory(), "directory must be a directory");
         return directory.list().length == 0;
     }
+
+    /**
+     * Create a hard link to an existing file, or copy the file if hard links are not supported by the JVM or by the
+     * file system.
+     *
+     * @param existing The file to link to
+     * @param link     The file to create, which must not exist
+     * @return true if a hard link was created, false if the file was copied
+     * @throws org.halfway.grapple.model.IORuntimeException if the file could neither be linked nor copied
+     */
+    public static boolean linkOrCopy(final File existing, final File link) {
+        Verify.verify(existing.isFile(), "'%s' is not a file", existing);
+        if (CREATE_LINK != null) {
+            try {
+                CREATE_LINK.invoke(null, TO_PATH.invoke(link), TO_PATH.invoke(existing));
+                return true;
+            } catch (final InvocationTargetException e) {
+                logger.log(Level.FINE, "Unable to link " + link + " to " + existing + ", copying instead", e.getCause());
+            } catch (final IllegalAccessException e) {
+                logger.log(Level.FINE, "Unable to link " + link + " to " + existing + ", copying instead", e);
+            }
+        }
+        try {
+            Files.copy(existing, link);
+        } catch (final IOException e) {
+            throw new IORuntimeException("Failed to copy " + existing + " to " + link, e);
+        }
+        return false;
+    }
+
+    /**
+     * Replace a file with another one by renaming it. The rename is atomic where the file system allows to rename
+     * over an existing file; elsewhere (Windows) the file is deleted first, so a reader may briefly find only the
+     * replacement under its own name.
+     *
+     * @param replacement The file to rename
+     * @param file        The file to replace
+     * @throws org.halfway.grapple.model.IORuntimeException if the file could not be replaced
+     */
+    public static void replaceFile(final File replacement, final File file) {
+        Verify.verify(replacement.isFile(), "'%s' is not a file", replacement);
+        if (replacement.renameTo(file)) {
+            return;
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IORuntimeException("Unable to delete the file to replace", file);
+        }
+        if (!replacement.renameTo(file)) {
+            throw new IORuntimeException("Unable to rename " + replacement + " to", file);
+        }
+    }
+
+    /**
+     * Delete a directory and everything in it, continuing past the files that cannot be deleted
+     *
+     * @param directory The directory to delete
+     * @return true if the directory no longer exists
+     */
+    public static boolean deleteRecursively(final File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (file.isDirectory()) {
+                    deleteRecursively(file);
+                } else if (!file.delete()) {
+                    logger.warning("Unable to delete " + file);
+                }
+            }
+        }
+        return directory.delete() || !directory.exists();
+    }
 }
@@ -0,0 +1,71 @@
+package org.halfway.grapple.util;
+
+import java.util.Comparator;
+
+/**
+ * The order in which a directory tree is walked when files are reported directory by directory: the files of a
+ * directory by name, then each subdirectory by name with all of its content. Both a manifest and a scan of the disk
+ * can be put in this order, so that the two can be merged in a single pass.
+ * <p/>
+ * Characters are compared by code point, which for names without separators is the same as comparing their UTF-8
+ * bytes, and both '/' and '\\' count as a separator that sorts before any other character.
+ */
+public final class PathOrder {
+    /**
+     * Compares relative paths in tree order
+     */
+    public static final Comparator<String> TREE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(final String a, final String b) {
+            return compareTreeOrder(a, b);
+        }
+    };
+
+    private PathOrder() {
+        // no-op
+    }
+
+    /**
+     * Compare two relative paths in tree order: by their directories first and then by their names
+     */
+    public static int compareTreeOrder(final String a, final String b) {
+        final int aName = nameStart(a);
+        final int bName = nameStart(b);
+        final int byDirectory = compare(a, 0, aName, b, 0, bName);
+        return byDirectory != 0 ? byDirectory : compare(a, aName, a.length(), b, bName, b.length());
+    }
+
+    /**
+     * Compare two names, or two directories including their trailing separator, in tree order
+     */
+    public static int compare(final String a, final String b) {
+        return compare(a, 0, a.length(), b, 0, b.length());
+    }
+
+    /**
+     * @return The index of the first character of the name of the path, after its last separator
+     */
+    public static int nameStart(final String path) {
+        return Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+    }
+
+    private static int compare(final String a, int i, final int aEnd, final String b, int j, final int bEnd) {
+        while (i < aEnd && j < bEnd) {
+            final int ca = a.codePointAt(i);
+            final int cb = b.codePointAt(j);
+            if (ca != cb) {
+                final int byCodePoint = rank(ca) - rank(cb);
+                if (byCodePoint != 0) {
+                    return byCodePoint;
+                }
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return (aEnd - i) - (bEnd - j);
+    }
+
+    private static int rank(final int codePoint) {
+        return codePoint == '/' || codePoint == '\\' ? -1 : codePoint;
+    }
+}
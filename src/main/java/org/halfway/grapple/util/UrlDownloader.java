@@ -58,6 +58,10 @@ public class UrlDownloader {
                 }
                 final int responseCode = connection.getResponseCode();
                 final InputStream errorStream = connection.getErrorStream();
+                if (errorStream == null) {
+                    // the error response has no body
+                    return responseCode;
+                }
                 final Optional<String> encoding = Optional.fromNullable(connection.getContentEncoding());
                 errorSink.writeFrom(new InputStreamReader(errorStream, encoding.or(UTF8)));
                 errorStream.close();
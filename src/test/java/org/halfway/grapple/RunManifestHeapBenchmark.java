@@ -0,0 +1,66 @@
+package org.halfway.grapple;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.halfway.grapple.model.GrappleAsset;
+import org.halfway.grapple.model.manifest.AssetTable;
+
+/**
+ * Measures the heap taken per asset by a manifest held as a list of {@link GrappleAsset} and as an
+ * {@link AssetTable}, along with the time taken to look up every asset by path.
+ * <p/>
+ * Usage: RunManifestHeapBenchmark [number of assets]
+ * <p/>
+ * Run with a fixed heap (e.g. -Xms1g -Xmx1g) for stable numbers.
+ */
+public class RunManifestHeapBenchmark {
+    private static final int DEFAULT_ASSETS = 500000;
+    private static final int FILES_PER_DIRECTORY = 50;
+
+    public static void main(String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ASSETS;
+
+        final long baseline = usedHeap();
+        ImmutableList<GrappleAsset> list = newAssets(count);
+        final long listHeap = usedHeap() - baseline;
+        System.out.println("GrappleAsset list: " + listHeap / count + " bytes per asset, " + listHeap / (1 << 20) + " MiB");
+
+        AssetTable table = AssetTable.copyOf(list);
+        list = null;
+        final long tableHeap = usedHeap() - baseline;
+        System.out.println("AssetTable: " + tableHeap / count + " bytes per asset, " + tableHeap / (1 << 20) + " MiB");
+
+        final long start = System.nanoTime();
+        long size = 0;
+        for (int i = 0; i < count; i++) {
+            size += table.getSize(table.indexOfPath(pathOf(i)));
+        }
+        System.out.println("Looked up " + count + " paths (" + size + " bytes) in " +
+                (System.nanoTime() - start) / 1000000 + " ms");
+        table = null;
+    }
+
+    private static ImmutableList<GrappleAsset> newAssets(final int count) {
+        final ImmutableList.Builder<GrappleAsset> assets = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            final HashCode hash = Hashing.sha256().hashInt(i);
+            assets.add(new GrappleAsset(pathOf(i), i % 100000, hash));
+        }
+        return assets.build();
+    }
+
+    private static String pathOf(final int i) {
+        final int directory = i / FILES_PER_DIRECTORY;
+        return "lib/modules/group" + directory % 100 + "/module" + directory + "/resources/file" + i + ".dat";
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
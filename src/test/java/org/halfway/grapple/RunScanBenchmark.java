@@ -0,0 +1,77 @@
+package org.halfway.grapple;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.halfway.grapple.util.DirectoryScanner;
+import org.halfway.grapple.util.ExecutorServiceBuilder;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans a directory tree for the path and size of every file, first with {@link FileIO#findInDirectory(java.io.File)}
+ * and then with a {@link DirectoryScanner} on a growing number of workers, and prints the time taken.
+ * <p/>
+ * Usage: RunScanBenchmark [/path/to/content]
+ * <p/>
+ * Without a path a tree of empty files is created in the temporary directory.
+ */
+public class RunScanBenchmark {
+    private static final int DIRECTORIES = 300;
+    private static final int FILES_PER_DIRECTORY = 100;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        final File root = args.length > 0 ? new File(args[0]) : generateTree();
+        for (int round = 0; round < ROUNDS; round++) {
+            final Stopwatch watch = Stopwatch.createStarted();
+            long size = 0;
+            int count = 0;
+            for (final File file : FileIO.findInDirectory(root)) {
+                FileIO.relativize(root, file);
+                size += file.length();
+                count += 1;
+            }
+            System.out.println("findInDirectory: " + count + " files, " + size + " bytes in " + watch);
+
+            for (int workers = 1; workers <= 8; workers *= 2) {
+                final ListeningExecutorService service = new ExecutorServiceBuilder()
+                        .withPoolSize(Optional.of(workers))
+                        .newListeningExecutorService();
+                try {
+                    watch.reset().start();
+                    long scannedSize = 0;
+                    int scanned = 0;
+                    for (final DirectoryScanner.ScannedFile file : new DirectoryScanner(service).scanSorted(root)) {
+                        scannedSize += file.getSize();
+                        scanned += 1;
+                    }
+                    System.out.println("DirectoryScanner (" + workers + " workers): " + scanned + " files, " +
+                            scannedSize + " bytes in " + watch);
+                } finally {
+                    MoreExecutors.shutdownAndAwaitTermination(service, 1, TimeUnit.SECONDS);
+                }
+            }
+        }
+    }
+
+    private static File generateTree() throws IOException {
+        final File root = Files.createTempDir();
+        for (int d = 0; d < DIRECTORIES; d++) {
+            final File directory = new File(new File(root, "group" + d % 10), "dir" + d);
+            if (!directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                Files.touch(new File(directory, "file" + f));
+            }
+        }
+        System.out.println("Generated tree " + root);
+        return root;
+    }
+}
@@ -0,0 +1,75 @@
+package org.halfway.grapple;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.halfway.grapple.impl.*;
+import org.halfway.grapple.model.configuration.StorageProfile;
+import org.halfway.grapple.model.manifest.GrappleManifest;
+import org.halfway.grapple.util.ExecutorServiceBuilder;
+import org.halfway.grapple.util.FileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies a content root once with each storage profile and prints the summaries.
+ * <p/>
+ * Usage: RunVerifyBenchmark [/path/to/content]
+ * <p/>
+ * Without a path a content root of generated files is created in the temporary directory. Drop the page cache between
+ * runs (e.g. {@code echo 3 > /proc/sys/vm/drop_caches}) to measure the device rather than memory.
+ */
+public class RunVerifyBenchmark {
+    private static final int DIRECTORIES = 50;
+    private static final int FILES_PER_DIRECTORY = 40;
+    private static final int MAX_FILE_SIZE = 256 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        final File contentRoot = args.length > 0 ? new File(args[0]) : generateContentRoot();
+        final GrappleManifest manifest = GrapplePropertiesManifest
+                .fromPropertiesMap()
+                .properties(FileIO.readProperties(new File(contentRoot, GrapplePropertiesManifest.PROPERTIES_FILE)))
+                .build();
+        final ManifestAssetVerifier verifier = new ManifestAssetVerifier(manifest, contentRoot,
+                ManifestHasher.fromAlgorithm(manifest.getHashAlgorithm()));
+        final int requested = ExecutorServiceBuilder.workerCount(Optional.<Integer>absent(), 1);
+
+        for (final StorageProfile profile : StorageProfile.values()) {
+            final StorageDevice device = StorageDevice.of(ImmutableList.of(contentRoot), profile).get(contentRoot);
+            final int workers = device.readWorkers(requested);
+            final ListeningExecutorService service = new ExecutorServiceBuilder()
+                    .withPoolSize(Optional.of(workers))
+                    .newListeningExecutorService();
+            try {
+                final VerificationSummary summary = verifier.verifyAll(new BatchedAssetScheduler(service, workers)).get();
+                System.out.println(profile + " (" + device.getProfile() + ", " + workers + " workers): " + summary);
+            } finally {
+                MoreExecutors.shutdownAndAwaitTermination(service, 1, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private static File generateContentRoot() throws IOException {
+        final File contentRoot = Files.createTempDir();
+        final Random random = new Random(0);
+        for (int d = 0; d < DIRECTORIES; d++) {
+            final File directory = new File(contentRoot, "dir" + d);
+            if (!directory.mkdir()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                final byte[] bytes = new byte[random.nextInt(MAX_FILE_SIZE)];
+                random.nextBytes(bytes);
+                Files.write(bytes, new File(directory, "file" + f));
+            }
+        }
+        new ManifestTool(ImmutableList.of("create", "std", contentRoot.getPath()), false);
+        System.out.println("Generated content root " + contentRoot);
+        return contentRoot;
+    }
+}